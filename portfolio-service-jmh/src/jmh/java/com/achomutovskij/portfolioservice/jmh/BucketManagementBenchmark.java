@@ -0,0 +1,103 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.jmh;
+
+import com.achomutovskij.portfolioservice.api.BucketDifference;
+import com.achomutovskij.portfolioservice.api.BucketExpression;
+import com.achomutovskij.portfolioservice.api.BucketsPage;
+import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** {@code bucketCount} buckets of {@code bucketSize} symbols each, drawn at random from {@code symbolCount} symbols. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BucketManagementBenchmark {
+
+    private static final String UNBUCKETED_SYMBOL = "UNBUCKETED";
+
+    @Param({"100", "10000"})
+    public int bucketCount;
+
+    @Param({"10", "100"})
+    public int bucketSize;
+
+    @Param({"1000", "100000"})
+    public int symbolCount;
+
+    private BucketManagementResource bucketManager;
+    private String[] buckets;
+
+    @Setup
+    public void setup() {
+        bucketManager = new BucketManagementResource();
+        buckets = new String[bucketCount];
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = "B" + i;
+            for (int j = 0; j < bucketSize; j++) {
+                bucketManager.insertSymbolIntoBuckets("S" + random.nextInt(symbolCount), ImmutableSet.of(buckets[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, List<String>> getAllBuckets() {
+        return bucketManager.getAllBuckets();
+    }
+
+    @Benchmark
+    public BucketsPage getBucketsPage() {
+        String after = buckets[ThreadLocalRandom.current().nextInt(bucketCount)];
+        return bucketManager.getBucketsPage(Optional.of(after), Optional.of(100));
+    }
+
+    @Benchmark
+    public List<String> getPositionsInExpression() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        BucketExpression first = BucketExpression.bucket(buckets[random.nextInt(bucketCount)]);
+        BucketExpression second = BucketExpression.bucket(buckets[random.nextInt(bucketCount)]);
+        BucketExpression third = BucketExpression.bucket(buckets[random.nextInt(bucketCount)]);
+        return bucketManager.getPositionsInExpression(BucketExpression.difference(
+                BucketDifference.of(BucketExpression.union(ImmutableList.of(first, second)), third)));
+    }
+
+    /** Two membership changes followed by a full listing, i.e. the cost of rebuilding the snapshot. */
+    @Benchmark
+    public Map<String, List<String>> updateThenGetAllBuckets() {
+        // a symbol that is in no bucket, so both changes are real and the buckets end up as they were
+        String bucket = buckets[ThreadLocalRandom.current().nextInt(bucketCount)];
+        bucketManager.insertSymbolIntoBuckets(UNBUCKETED_SYMBOL, ImmutableSet.of(bucket));
+        bucketManager.removeSymbolFromBucket(bucket, UNBUCKETED_SYMBOL);
+        return bucketManager.getAllBuckets();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.jmh;
+
+import com.achomutovskij.portfolioservice.risk.Covariance;
+import com.achomutovskij.portfolioservice.risk.HistoricalValueAtRisk;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** The covariance matrix and the historical value at risk of {@code symbols} series of {@code days} returns. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CovarianceBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int symbols;
+
+    @Param({"30", "250"})
+    public int days;
+
+    private double[][] returns;
+    private double[] exposures;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        returns = new double[symbols][days];
+        exposures = new double[symbols];
+        for (int i = 0; i < symbols; i++) {
+            for (int t = 0; t < days; t++) {
+                returns[i][t] = random.nextGaussian() * 0.02;
+            }
+            exposures[i] = random.nextDouble() * 10_000;
+        }
+    }
+
+    @Benchmark
+    public double[][] covariance() {
+        return Covariance.of(returns);
+    }
+
+    @Benchmark
+    public double valueAtRisk() {
+        return HistoricalValueAtRisk.of(returns, exposures, 0.95);
+    }
+}
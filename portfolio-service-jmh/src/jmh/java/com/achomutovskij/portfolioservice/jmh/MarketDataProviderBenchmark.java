@@ -0,0 +1,88 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.jmh;
+
+import com.achomutovskij.portfolioservice.marketdata.MarketDataProvider;
+import com.achomutovskij.portfolioservice.marketdata.PriceStorage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Lookups against an already populated provider, i.e. the path every order and position request takes. With
+ * {@code spilled}, the stub's history is all older than a week, so every bar is read from a memory-mapped segment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MarketDataProviderBenchmark {
+
+    @Param({"10", "1000"})
+    public int symbolCount;
+
+    @Param({"30", "365", "2520"})
+    public int historyLength;
+
+    @Param({"false", "true"})
+    public boolean spilled;
+
+    private MarketDataProvider marketDataProvider;
+    private String[] symbols;
+
+    @Setup
+    public void setup() throws IOException {
+        marketDataProvider = StubMarketData.provider(
+                historyLength,
+                spilled
+                        ? PriceStorage.tiered(Files.createTempDirectory("prices"), Duration.ofDays(7))
+                        : PriceStorage.onHeap());
+        symbols = new String[symbolCount];
+        for (int i = 0; i < symbolCount; i++) {
+            symbols[i] = "S" + i;
+            marketDataProvider.getLatestPrice(symbols[i]);
+        }
+    }
+
+    @Benchmark
+    public double getPrice() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return marketDataProvider.getPrice(
+                symbols[random.nextInt(symbolCount)], StubMarketData.day(random.nextInt(historyLength)));
+    }
+
+    @Benchmark
+    public double getLatestPrice() {
+        return marketDataProvider.getLatestPrice(symbols[ThreadLocalRandom.current().nextInt(symbolCount)]);
+    }
+
+    @Benchmark
+    public List<OffsetDateTime> getAvailableDates() {
+        return marketDataProvider.getAvailableDates(symbols[ThreadLocalRandom.current().nextInt(symbolCount)]);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.jmh;
+
+import com.achomutovskij.portfolioservice.OrderPipelineConfiguration;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
+import com.achomutovskij.portfolioservice.resources.PositionResource;
+import com.google.common.collect.ImmutableSet;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Orders from many threads at once, each into one of {@code symbolCount} holdings in a few buckets, applied either by
+ * the request threads themselves ({@code pipeline = false}) or by the single writer of the order pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class OrderPipelineBenchmark {
+
+    private static final ImmutableSet<String> BUCKETS = ImmutableSet.of("portfolio", "portfolio-tech");
+
+    @Param({"false", "true"})
+    public boolean pipeline;
+
+    @Param({"100", "10000"})
+    public int symbolCount;
+
+    private PositionResource positionResource;
+    private String[] symbols;
+
+    @Setup
+    public void setup() {
+        positionResource = new PositionResource(
+                StubMarketData.provider(30),
+                new BucketManagementResource(),
+                new MetricRegistry(),
+                pipeline ? Optional.of(OrderPipelineConfiguration.builder().build()) : Optional.empty());
+
+        symbols = new String[symbolCount];
+        for (int i = 0; i < symbolCount; i++) {
+            symbols[i] = "S" + i;
+        }
+    }
+
+    @Benchmark
+    public void addOrder() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(symbols[random.nextInt(symbolCount)])
+                .quantity(1)
+                .date(StubMarketData.day(random.nextInt(30)))
+                .buckets(BUCKETS)
+                .build());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.jmh;
+
+import com.achomutovskij.portfolioservice.api.BucketExpression;
+import com.achomutovskij.portfolioservice.api.BucketPosition;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.StockPosition;
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
+import com.achomutovskij.portfolioservice.resources.PositionResource;
+import com.google.common.collect.ImmutableSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Bucket and stock position reads over a bucket of {@code bucketSize} holdings, half of which also sit in a nested
+ * child bucket. Bucket positions are cached until a change moves their version, so {@link #getBucketPosition}
+ * measures the cached path and {@link #aggregateBucketPosition}, through an uncached bucket expression, the full
+ * aggregation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PositionResourceBenchmark {
+
+    private static final String BUCKET = "portfolio";
+    private static final String CHILD_BUCKET = "portfolio-tech";
+
+    @Param({"10", "100", "1000"})
+    public int bucketSize;
+
+    private PositionResource positionResource;
+    private String[] symbols;
+
+    @Setup
+    public void setup() {
+        BucketManagementResource bucketManager = new BucketManagementResource();
+        positionResource = new PositionResource(StubMarketData.provider(30), bucketManager);
+
+        symbols = new String[bucketSize];
+        for (int i = 0; i < bucketSize; i++) {
+            symbols[i] = "S" + i;
+            positionResource.addOrder(OrderRequest.builder()
+                    .type(TradeType.BUY)
+                    .symbol(symbols[i])
+                    .quantity(10 + i)
+                    .date(StubMarketData.day(i % 30))
+                    .buckets(i % 2 == 0 ? ImmutableSet.of(BUCKET) : ImmutableSet.of(BUCKET, CHILD_BUCKET))
+                    .build());
+        }
+        bucketManager.setBucketParent(CHILD_BUCKET, BUCKET);
+    }
+
+    @Benchmark
+    public BucketPosition getBucketPosition() {
+        return positionResource.getBucketPosition(BUCKET);
+    }
+
+    @Benchmark
+    public BucketPosition aggregateBucketPosition() {
+        return positionResource.getBucketExpressionPosition(BucketExpression.bucket(BUCKET));
+    }
+
+    @Benchmark
+    public StockPosition getStockPosition() {
+        return positionResource.getStockPosition(symbols[ThreadLocalRandom.current().nextInt(bucketSize)]);
+    }
+
+    /** An order for a holding in the bucket followed by a read, i.e. the cost of a write invalidating the cache. */
+    @Benchmark
+    public BucketPosition addOrderThenGetBucketPosition() {
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(symbols[ThreadLocalRandom.current().nextInt(bucketSize)])
+                .quantity(1)
+                .date(StubMarketData.LAST_DAY)
+                .build());
+        return positionResource.getBucketPosition(BUCKET);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.jmh;
+
+import com.achomutovskij.portfolioservice.api.BucketPosition;
+import com.achomutovskij.portfolioservice.api.ProfitLossAmountAndPercent;
+import com.achomutovskij.portfolioservice.encoding.ResponseEncoding;
+import com.palantir.conjure.java.lib.SafeLong;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serialization of a bucket position with a {@code breakdownSize} holdings breakdown in each of the response
+ * encodings, with and without gzip. The {@code payloadBytes} secondary result is the size of the response body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseEncodingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int breakdownSize;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public ResponseEncoding encoding;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private BucketPosition position;
+
+    @Setup
+    public void setup() {
+        Map<String, ProfitLossAmountAndPercent> breakdown = new LinkedHashMap<>();
+        for (int i = 0; i < breakdownSize; i++) {
+            breakdown.put("S" + i, ProfitLossAmountAndPercent.of(i * 13.37, i * 0.0173));
+        }
+        position = BucketPosition.builder()
+                .name("portfolio")
+                .totalNumberOfSharesLong(SafeLong.of(breakdownSize * 10L))
+                .totalNumberOfSharesShort(SafeLong.of(0))
+                .totalPurchaseCost(breakdownSize * 1234.56)
+                .totalMarketValue(breakdownSize * 1337.42)
+                .numberOfPositions(breakdownSize)
+                .profitLossAmount(breakdownSize * 102.86)
+                .profitLossPercent(8.33)
+                .bucketBreakdown(breakdown)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] serialize(Payload payload) throws IOException {
+        byte[] body = encoding.serialize(position);
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(body);
+            }
+            body = compressed.toByteArray();
+        }
+        payload.payloadBytes = body.length;
+        return body;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+        public long payloadBytes; // the size of the last body, which is the same every time
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.jmh;
+
+import com.achomutovskij.portfolioservice.marketdata.MarketApiClient;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeNotifier;
+import com.achomutovskij.portfolioservice.marketdata.MarketDataProvider;
+import com.achomutovskij.portfolioservice.marketdata.PriceStorage;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Market data served from memory instead of the market data API, so that benchmarks measure our code rather than the
+ * network. Every symbol gets a deterministic daily price history of the requested length ending on {@link #LAST_DAY}.
+ */
+final class StubMarketData {
+
+    static final OffsetDateTime LAST_DAY = OffsetDateTime.of(2023, 9, 8, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    private StubMarketData() {}
+
+    static MarketDataProvider provider(int historyLength) {
+        return provider(historyLength, PriceStorage.onHeap());
+    }
+
+    static MarketDataProvider provider(int historyLength, PriceStorage storage) {
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(stub(historyLength)).build();
+        // long enough for nothing to be refreshed while a benchmark is running
+        return new MarketDataProvider(
+                new MarketApiClient(client),
+                Duration.ofDays(1),
+                new PortfolioChangeNotifier(),
+                new MetricRegistry(),
+                storage);
+    }
+
+    static OffsetDateTime day(int daysAgo) {
+        return LAST_DAY.minusDays(daysAgo);
+    }
+
+    static double price(String symbol, int daysAgo) {
+        return 50 + Math.floorMod(symbol.hashCode() + 31 * daysAgo, 5000) / 10.0;
+    }
+
+    private static Interceptor stub(int historyLength) {
+        return chain -> {
+            List<String> path = chain.request().url().pathSegments();
+            String symbol = path.get(path.indexOf("historical") - 1);
+            return new Response.Builder()
+                    .request(chain.request())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(history(symbol, historyLength), JSON))
+                    .build();
+        };
+    }
+
+    private static String history(String symbol, int historyLength) {
+        StringBuilder json = new StringBuilder(
+                "{\"dataProvider\":\"stub\",\"changePrice\":0.0,\"changePercent\":0.0,\"data\":[");
+        // oldest first, like the real API
+        for (int daysAgo = historyLength - 1; daysAgo >= 0; daysAgo--) {
+            double price = price(symbol, daysAgo);
+            json.append("{\"date\":\"")
+                    .append(DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(day(daysAgo)))
+                    .append("\",\"open\":")
+                    .append(price)
+                    .append(",\"high\":")
+                    .append(price)
+                    .append(",\"low\":")
+                    .append(price)
+                    .append(",\"close\":")
+                    .append(price)
+                    .append(",\"volume\":1000}");
+            if (daysAgo > 0) {
+                json.append(',');
+            }
+        }
+        return json.append("]}").toString();
+    }
+}
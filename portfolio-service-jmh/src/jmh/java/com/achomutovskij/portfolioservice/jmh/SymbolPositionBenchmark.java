@@ -0,0 +1,61 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.jmh;
+
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.achomutovskij.portfolioservice.position.SymbolPosition;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SymbolPositionBenchmark {
+
+    @Param({"10", "100000"})
+    public int positionSize;
+
+    private SymbolPosition position;
+
+    @Setup
+    public void setup() {
+        position = SymbolPosition.of(TradeType.BUY, "NVDA", positionSize, 408.55);
+    }
+
+    @Benchmark
+    public Optional<SymbolPosition> addToPosition() {
+        return position.mergeWithNewOrder(TradeType.BUY, 7, 455.72);
+    }
+
+    @Benchmark
+    public Optional<SymbolPosition> reducePosition() {
+        return position.mergeWithNewOrder(TradeType.SELL, 7, 455.72);
+    }
+
+    @Benchmark
+    public Optional<SymbolPosition> flipPosition() {
+        return position.mergeWithNewOrder(TradeType.SELL, positionSize + 7, 455.72);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.loadtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent latency histogram with log-linear buckets, in the style of HdrHistogram: values are recorded in
+ * microseconds with a relative error below 1% (128 linear sub-buckets per power of two), up to ~12 days.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 128;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int MAX_SHIFT = 34;
+    private static final long MAX_VALUE = ((long) SUB_BUCKETS << MAX_SHIFT) - 1;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount;
+    private final AtomicLong maxValue;
+
+    LatencyHistogram() {
+        this.counts = new AtomicLongArray(SUB_BUCKETS + MAX_SHIFT * HALF_SUB_BUCKETS);
+        this.totalCount = new AtomicLong();
+        this.maxValue = new AtomicLong();
+    }
+
+    void recordNanos(long nanos) {
+        long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(micros));
+        totalCount.incrementAndGet();
+        maxValue.accumulateAndGet(micros, Math::max);
+    }
+
+    long count() {
+        return totalCount.get();
+    }
+
+    long maxMicros() {
+        return maxValue.get();
+    }
+
+    /** Returns the highest value, in microseconds, that the given percentile of the recorded values do not exceed. */
+    long percentileMicros(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int index = 0; index < counts.length(); index++) {
+            seen += counts.get(index);
+            if (seen >= rank) {
+                return Math.min(highestValueAt(index), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // shift the value down until it falls into the upper half of the sub-buckets
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((value >> shift) - HALF_SUB_BUCKETS);
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.loadtest;
+
+import com.achomutovskij.portfolioservice.AdmissionConfiguration;
+import com.achomutovskij.portfolioservice.Configuration;
+import com.achomutovskij.portfolioservice.HandlerExecution;
+import com.achomutovskij.portfolioservice.PartitionConfiguration;
+import com.achomutovskij.portfolioservice.PortfolioServiceApplication;
+import com.achomutovskij.portfolioservice.api.BucketManagementServiceBlocking;
+import com.achomutovskij.portfolioservice.api.BucketsUpdateRequest;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.PositionServiceBlocking;
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.conjure.java.api.config.service.UserAgent;
+import com.palantir.conjure.java.client.config.ClientConfiguration;
+import com.palantir.conjure.java.client.config.ClientConfigurations;
+import com.palantir.dialogue.clients.DialogueClients;
+import io.undertow.Undertow;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Open-loop load generator. Starts the service against {@link StubMarketApi} and sends a fixed rate of requests
+ * through the generated Dialogue clients, regardless of how quickly earlier requests complete.
+ *
+ * <p>Response times are measured from when a request was scheduled to be sent rather than from when a thread got
+ * around to sending it, so time spent queued behind a slow server is counted (no coordinated omission). Service times,
+ * measured from the actual send, are reported alongside for comparison.
+ *
+ * <p>Configured with system properties: {@code loadtest.rate} (requests per second), {@code loadtest.durationSeconds},
+ * {@code loadtest.warmupSeconds}, {@code loadtest.upstreamLatencyMillis}, {@code loadtest.cacheMinutes},
+ * {@code loadtest.symbols}, {@code loadtest.buckets}, {@code loadtest.concurrency}, {@code loadtest.handlerExecution}
+ * ({@code WORKER_POOL} or {@code VIRTUAL_THREADS}), {@code loadtest.workerThreads}, {@code loadtest.nodes} (more
+ * than one starts a partitioned cluster on consecutive ports, with the client spreading requests over all nodes) and
+ * {@code loadtest.latencyTargetMillis} (turns on admission control; shed requests are counted as errors).
+ */
+public final class LoadTest {
+
+    private static final int SERVER_PORT = 8445;
+    private static final int STUB_PORT = 8440; // below the server ports, which grow with loadtest.nodes
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final int rate;
+    private final int concurrency;
+    private final String[] symbols;
+    private final String[] buckets;
+    private final PositionServiceBlocking positionService;
+    private final BucketManagementServiceBlocking bucketManagementService;
+
+    private LoadTest(
+            int rate,
+            int concurrency,
+            int symbolCount,
+            int bucketCount,
+            PositionServiceBlocking positionService,
+            BucketManagementServiceBlocking bucketManagementService) {
+        this.rate = rate;
+        this.concurrency = concurrency;
+        this.symbols = names("SYM", symbolCount);
+        this.buckets = names("Bucket", bucketCount);
+        this.positionService = positionService;
+        this.bucketManagementService = bucketManagementService;
+    }
+
+    public static void main(String[] _args) throws Exception {
+        int rate = Integer.getInteger("loadtest.rate", 200);
+        int durationSeconds = Integer.getInteger("loadtest.durationSeconds", 60);
+        int warmupSeconds = Integer.getInteger("loadtest.warmupSeconds", 10);
+        int upstreamLatencyMillis = Integer.getInteger("loadtest.upstreamLatencyMillis", 50);
+        int cacheMinutes = Integer.getInteger("loadtest.cacheMinutes", 15);
+        HandlerExecution handlerExecution =
+                HandlerExecution.valueOf(System.getProperty("loadtest.handlerExecution", "WORKER_POOL"));
+        Optional<Integer> workerThreads = Optional.ofNullable(Integer.getInteger("loadtest.workerThreads"));
+        int nodeCount = Integer.getInteger("loadtest.nodes", 1);
+        Optional<AdmissionConfiguration> admission = Optional.ofNullable(
+                        Integer.getInteger("loadtest.latencyTargetMillis"))
+                .map(latencyTarget -> AdmissionConfiguration.builder()
+                        .latencyTargetMillis(latencyTarget)
+                        .build());
+        List<String> nodes = IntStream.range(0, nodeCount)
+                .mapToObj(node -> "https://localhost:" + (SERVER_PORT + node) + "/api/")
+                .collect(Collectors.toList());
+
+        StubMarketApi stub = new StubMarketApi(STUB_PORT, upstreamLatencyMillis);
+        stub.start();
+        List<Undertow> servers = new ArrayList<>();
+        for (int node = 0; node < nodeCount; node++) {
+            servers.add(PortfolioServiceApplication.startServer(Configuration.builder()
+                    .port(SERVER_PORT + node)
+                    .host("localhost")
+                    .externalApiResponseCacheDurationMinutes(cacheMinutes)
+                    .marketApiBaseUrl("http://localhost:" + STUB_PORT)
+                    .handlerExecution(handlerExecution)
+                    .workerThreads(workerThreads)
+                    .admission(admission)
+                    .partition(
+                            nodeCount > 1
+                                    ? Optional.of(PartitionConfiguration.builder()
+                                            .nodes(nodes)
+                                            .self(node)
+                                            .build())
+                                    : Optional.empty())
+                    .build()));
+        }
+        System.out.printf(
+                "%d node(s), handlers run on %s (worker threads: %s)%n",
+                nodeCount, handlerExecution, workerThreads.map(String::valueOf).orElse("default"));
+
+        try {
+            ClientConfiguration clientConfig = clientConfiguration(nodes);
+            LoadTest loadTest = new LoadTest(
+                    rate,
+                    Integer.getInteger("loadtest.concurrency", 64),
+                    Integer.getInteger("loadtest.symbols", 200),
+                    Integer.getInteger("loadtest.buckets", 20),
+                    DialogueClients.create(PositionServiceBlocking.class, clientConfig),
+                    DialogueClients.create(BucketManagementServiceBlocking.class, clientConfig));
+
+            loadTest.seed();
+            loadTest.run(TimeUnit.SECONDS.toNanos(warmupSeconds));
+            Map<Operation, EndpointStats> stats = loadTest.run(TimeUnit.SECONDS.toNanos(durationSeconds));
+            report(stats, rate, durationSeconds, upstreamLatencyMillis, stub.requestCount());
+        } finally {
+            servers.forEach(Undertow::stop);
+            stub.stop();
+        }
+    }
+
+    /** Opens a position in every symbol, each in one bucket, so that reads have something to aggregate. */
+    private void seed() {
+        for (int i = 0; i < symbols.length; i++) {
+            positionService.addOrder(order(symbols[i], 10, ImmutableSet.of(buckets[i % buckets.length])));
+        }
+    }
+
+    private Map<Operation, EndpointStats> run(long durationNanos) throws InterruptedException {
+        Map<Operation, EndpointStats> stats = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new EndpointStats());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (long scheduled = start; scheduled < start + durationNanos; scheduled += intervalNanos) {
+            long delay = scheduled - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+
+            long intendedStart = scheduled;
+            Operation operation = Operation.pick(ThreadLocalRandom.current().nextInt(Operation.totalWeight()));
+            executor.execute(() -> {
+                long actualStart = System.nanoTime();
+                boolean succeeded = execute(operation);
+                stats.get(operation).record(intendedStart, actualStart, System.nanoTime(), succeeded);
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return stats;
+    }
+
+    private boolean execute(Operation operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String symbol = symbols[random.nextInt(symbols.length)];
+        String bucket = buckets[random.nextInt(buckets.length)];
+        try {
+            switch (operation) {
+                case ADD_ORDER:
+                    positionService.addOrder(order(symbol, 1 + random.nextInt(5), ImmutableSet.of()));
+                    break;
+                case GET_STOCK_POSITION:
+                    positionService.getStockPosition(symbol);
+                    break;
+                case GET_BUCKET_POSITION:
+                    positionService.getBucketPosition(bucket);
+                    break;
+                case ADD_SYMBOL_TO_BUCKETS:
+                    positionService.addSymbolToBuckets(BucketsUpdateRequest.of(symbol, ImmutableSet.of(bucket)));
+                    break;
+                case REMOVE_SYMBOL_FROM_BUCKETS:
+                    positionService.removeSymbolFromBuckets(BucketsUpdateRequest.of(symbol, ImmutableSet.of(bucket)));
+                    break;
+                case GET_ALL_BUCKETS:
+                    bucketManagementService.getAllBuckets();
+                    break;
+                case GET_BUCKETS_PAGE:
+                    bucketManagementService.getBucketsPage(Optional.empty(), Optional.of(50));
+                    break;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static OrderRequest order(String symbol, int quantity, ImmutableSet<String> orderBuckets) {
+        return OrderRequest.builder()
+                .type(TradeType.BUY) // buys only, so positions are never closed under the load
+                .symbol(symbol)
+                .quantity(quantity)
+                .date(StubMarketApi.day(1 + ThreadLocalRandom.current().nextInt(StubMarketApi.HISTORY_DAYS - 1)))
+                .buckets(orderBuckets)
+                .build();
+    }
+
+    private static void report(
+            Map<Operation, EndpointStats> stats,
+            int rate,
+            int durationSeconds,
+            int upstreamLatencyMillis,
+            long upstreamRequests) {
+        System.out.printf(
+                "%n%d requests/s for %ds, market data API latency %dms (%d upstream requests in total)%n%n",
+                rate, durationSeconds, upstreamLatencyMillis, upstreamRequests);
+        System.out.printf(
+                "%-24s %8s %7s %9s   %s%n",
+                "endpoint", "count", "errors", "req/s", "response time (service time) percentiles, ms");
+
+        for (Map.Entry<Operation, EndpointStats> entry : stats.entrySet()) {
+            EndpointStats endpoint = entry.getValue();
+            StringBuilder percentiles = new StringBuilder();
+            for (double percentile : PERCENTILES) {
+                percentiles.append(String.format(
+                        "p%s %.2f (%.2f)  ",
+                        percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : percentile,
+                        endpoint.responseTime.percentileMicros(percentile) / 1000.0,
+                        endpoint.serviceTime.percentileMicros(percentile) / 1000.0));
+            }
+            percentiles.append(String.format(
+                    "max %.2f (%.2f)",
+                    endpoint.responseTime.maxMicros() / 1000.0, endpoint.serviceTime.maxMicros() / 1000.0));
+
+            System.out.printf(
+                    "%-24s %8d %7d %9.1f   %s%n",
+                    entry.getKey().endpoint(),
+                    endpoint.responseTime.count(),
+                    endpoint.errors.get(),
+                    endpoint.responseTime.count() / (double) durationSeconds,
+                    percentiles);
+        }
+    }
+
+    private static ClientConfiguration clientConfiguration(List<String> nodes) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        try (InputStream certificate = new FileInputStream("var/certs/ca-cert")) {
+            keyStore.setCertificateEntry(
+                    "server", CertificateFactory.getInstance("X.509").generateCertificate(certificate));
+        }
+
+        TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        TrustManager[] trustManager = trustManagerFactory.getTrustManagers();
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManager, null);
+
+        ClientConfiguration clientConfig = ClientConfigurations.of(
+                nodes,
+                sslContext.getSocketFactory(),
+                (X509TrustManager) trustManager[0],
+                UserAgent.of(UserAgent.Agent.of("portfolio-service-load-test", "0.0.0")));
+
+        // measure the server, not the client backing off or retrying
+        return ClientConfiguration.builder()
+                .from(clientConfig)
+                .maxNumRetries(0)
+                .clientQoS(ClientConfiguration.ClientQoS.DANGEROUS_DISABLE_SYMPATHETIC_CLIENT_QOS)
+                .build();
+    }
+
+    private static String[] names(String prefix, int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    private static final class EndpointStats {
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+
+        private void record(long intendedStart, long actualStart, long end, boolean succeeded) {
+            responseTime.recordNanos(end - intendedStart);
+            serviceTime.recordNanos(end - actualStart);
+            if (!succeeded) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+}
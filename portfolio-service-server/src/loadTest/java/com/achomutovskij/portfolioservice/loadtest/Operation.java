@@ -0,0 +1,64 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.loadtest;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+
+/** The requests making up the load, with their share of the traffic. */
+enum Operation {
+    ADD_ORDER("addOrder", 15),
+    GET_STOCK_POSITION("getStockPosition", 35),
+    GET_BUCKET_POSITION("getBucketPosition", 30),
+    ADD_SYMBOL_TO_BUCKETS("addSymbolToBuckets", 5),
+    REMOVE_SYMBOL_FROM_BUCKETS("removeSymbolFromBuckets", 5),
+    GET_ALL_BUCKETS("getAllBuckets", 5),
+    GET_BUCKETS_PAGE("getBucketsPage", 5);
+
+    private static final int TOTAL_WEIGHT = 100;
+
+    private final String endpoint;
+    private final int weight;
+
+    Operation(String endpoint, int weight) {
+        this.endpoint = endpoint;
+        this.weight = weight;
+    }
+
+    String endpoint() {
+        return endpoint;
+    }
+
+    /** Picks an operation according to the mix, given a uniformly random number in [0, 100). */
+    static Operation pick(int random) {
+        int remaining = random;
+        for (Operation operation : values()) {
+            remaining -= operation.weight;
+            if (remaining < 0) {
+                return operation;
+            }
+        }
+        throw new SafeIllegalArgumentException(
+                "Expected a number below the total weight",
+                SafeArg.of("random", random),
+                SafeArg.of("totalWeight", TOTAL_WEIGHT));
+    }
+
+    static int totalWeight() {
+        return TOTAL_WEIGHT;
+    }
+}
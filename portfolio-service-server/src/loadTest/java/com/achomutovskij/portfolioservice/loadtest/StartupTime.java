@@ -0,0 +1,153 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.loadtest;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Measures how long each server distribution takes from process launch until it serves its first request, which is
+ * what bounds how quickly a node added under load starts taking traffic.
+ *
+ * <p>Each argument is {@code <label>=<launcher>}, for example
+ * {@code jvm=build/install/portfolio-service-server/bin/portfolio-service-server} and
+ * {@code native=build/native/nativeCompile/portfolio-service}. Every launcher is started {@code startup.runs}
+ * times from the working directory (so that it picks up {@code var/conf/conf.yml} and {@code var/certs}), and
+ * {@code GET /api/v1/buckets/all} on {@code startup.port} is polled until it succeeds. Launches alternate between the
+ * distributions so that neither benefits more from a warm page cache.
+ */
+public final class StartupTime {
+
+    private static final long POLL_INTERVAL_MILLIS = 5;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private StartupTime() {}
+
+    public static void main(String[] args) throws Exception {
+        Preconditions.checkArgument(args.length > 0, "Usage: StartupTime <label>=<launcher>...");
+        int runs = Integer.getInteger("startup.runs", 5);
+        URL probe = new URL("https://localhost:" + Integer.getInteger("startup.port", 8345) + "/api/v1/buckets/all");
+        SSLSocketFactory socketFactory = socketFactory();
+
+        String[] labels = new String[args.length];
+        String[] launchers = new String[args.length];
+        long[][] startupNanos = new long[args.length][runs];
+        for (int i = 0; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            Preconditions.checkArgument(separator > 0, "Expected <label>=<launcher>", SafeArg.of("argument", args[i]));
+            labels[i] = args[i].substring(0, separator);
+            launchers[i] = args[i].substring(separator + 1);
+        }
+
+        for (int run = 0; run < runs; run++) {
+            for (int i = 0; i < launchers.length; i++) {
+                startupNanos[i][run] = timeToFirstRequest(launchers[i], probe, socketFactory);
+            }
+        }
+
+        System.out.printf(
+                "%-10s %10s %10s %10s   (time to first served request over %d runs)%n",
+                "", "min ms", "median ms", "max ms", runs);
+        for (int i = 0; i < labels.length; i++) {
+            long[] samples = startupNanos[i];
+            Arrays.sort(samples);
+            System.out.printf(
+                    "%-10s %10.1f %10.1f %10.1f%n",
+                    labels[i], samples[0] / 1e6, samples[samples.length / 2] / 1e6, samples[samples.length - 1] / 1e6);
+        }
+    }
+
+    private static long timeToFirstRequest(String launcher, URL probe, SSLSocketFactory socketFactory)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process server = new ProcessBuilder(launcher)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            long deadline = start + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (System.nanoTime() < deadline) {
+                if (!server.isAlive()) {
+                    throw new SafeIllegalStateException(
+                            "Server exited before serving a request",
+                            SafeArg.of("launcher", launcher),
+                            SafeArg.of("exitCode", server.exitValue()));
+                }
+                if (serves(probe, socketFactory)) {
+                    return System.nanoTime() - start;
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+            throw new SafeIllegalStateException(
+                    "Server did not serve a request in time",
+                    SafeArg.of("launcher", launcher),
+                    SafeArg.of("timeoutSeconds", TIMEOUT_SECONDS));
+        } finally {
+            server.destroy();
+            if (!server.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                server.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static boolean serves(URL probe, SSLSocketFactory socketFactory) {
+        HttpsURLConnection connection = null;
+        try {
+            connection = (HttpsURLConnection) probe.openConnection();
+            connection.setSSLSocketFactory(socketFactory);
+            connection.setConnectTimeout(1000);
+            connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            return false; // not listening yet
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static SSLSocketFactory socketFactory() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        try (InputStream certificate = new FileInputStream("var/certs/ca-cert")) {
+            keyStore.setCertificateEntry(
+                    "server", CertificateFactory.getInstance("X.509").generateCertificate(certificate));
+        }
+
+        TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        return sslContext.getSocketFactory();
+    }
+}
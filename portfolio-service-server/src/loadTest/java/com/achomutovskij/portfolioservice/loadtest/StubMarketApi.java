@@ -0,0 +1,104 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.loadtest;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the market data API. Every symbol has a deterministic daily price history of
+ * {@link #HISTORY_DAYS} days ending today, and every response is delayed by the configured latency without holding
+ * on to a thread, the way a slow remote API would behave.
+ */
+final class StubMarketApi {
+
+    static final int HISTORY_DAYS = 30;
+
+    private final Undertow server;
+    private final long latencyMillis;
+    private final AtomicLong requests;
+
+    StubMarketApi(int port, long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        this.requests = new AtomicLong();
+        this.server = Undertow.builder()
+                .addHttpListener(port, "localhost")
+                .setHandler(this::handle)
+                .build();
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop();
+    }
+
+    long requestCount() {
+        return requests.get();
+    }
+
+    static OffsetDateTime day(int daysAgo) {
+        return OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).minusDays(daysAgo);
+    }
+
+    private void handle(HttpServerExchange exchange) {
+        requests.incrementAndGet();
+
+        // /v1/finance_market/quotes/{symbol}/historical
+        String[] path = exchange.getRelativePath().split("/");
+        if (path.length < 2 || !path[path.length - 1].equals("historical")) {
+            exchange.setStatusCode(StatusCodes.NOT_FOUND);
+            exchange.endExchange();
+            return;
+        }
+        String symbol = path[path.length - 2];
+
+        exchange.dispatch(SameThreadExecutor.INSTANCE, () -> exchange.getIoThread()
+                .executeAfter(() -> respond(exchange, symbol), latencyMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private static void respond(HttpServerExchange exchange, String symbol) {
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(history(symbol));
+    }
+
+    private static String history(String symbol) {
+        List<String> entries = new ArrayList<>();
+        for (int daysAgo = HISTORY_DAYS - 1; daysAgo >= 0; daysAgo--) {
+            double price = 50 + Math.floorMod(symbol.hashCode() + 31 * daysAgo, 5000) / 10.0;
+            entries.add(String.format(
+                    "{\"date\":\"%s\",\"open\":%s,\"high\":%s,\"low\":%s,\"close\":%s,\"volume\":1000}",
+                    DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(day(daysAgo)), price, price, price, price));
+        }
+        // oldest first, like the real API
+        return "{\"dataProvider\":\"stub\",\"changePrice\":0.0,\"changePercent\":0.0,\"data\":["
+                + String.join(",", entries) + "]}";
+    }
+}
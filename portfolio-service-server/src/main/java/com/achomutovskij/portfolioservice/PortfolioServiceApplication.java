@@ -16,28 +16,80 @@
 
 package com.achomutovskij.portfolioservice;
 
+import com.achomutovskij.portfolioservice.admission.AdmissionControlledService;
+import com.achomutovskij.portfolioservice.admission.ConcurrencyLimiter;
+import com.achomutovskij.portfolioservice.api.AlertServiceEndpoints;
 import com.achomutovskij.portfolioservice.api.BucketManagementServiceEndpoints;
 import com.achomutovskij.portfolioservice.api.DateServiceEndpoints;
+import com.achomutovskij.portfolioservice.api.ImportFormat;
+import com.achomutovskij.portfolioservice.api.ImportResult;
+import com.achomutovskij.portfolioservice.api.PartitionServiceEndpoints;
 import com.achomutovskij.portfolioservice.api.PositionServiceEndpoints;
+import com.achomutovskij.portfolioservice.api.RiskServiceEndpoints;
+import com.achomutovskij.portfolioservice.cache.ConditionalPositionService;
+import com.achomutovskij.portfolioservice.encoding.ResponseCompression;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeNotifier;
+import com.achomutovskij.portfolioservice.execution.DispatchingHandler;
+import com.achomutovskij.portfolioservice.execution.HandlerExecutors;
 import com.achomutovskij.portfolioservice.marketdata.MarketApiClient;
 import com.achomutovskij.portfolioservice.marketdata.MarketDataProvider;
+import com.achomutovskij.portfolioservice.marketdata.PriceStorage;
+import com.achomutovskij.portfolioservice.metrics.InstrumentedService;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.achomutovskij.portfolioservice.metrics.MetricsHandler;
+import com.achomutovskij.portfolioservice.partition.HashRing;
+import com.achomutovskij.portfolioservice.partition.PartitionResource;
+import com.achomutovskij.portfolioservice.partition.PartitionRouter;
+import com.achomutovskij.portfolioservice.partition.PartitionedBucketManagementService;
+import com.achomutovskij.portfolioservice.partition.PartitionedDateService;
+import com.achomutovskij.portfolioservice.partition.PartitionedPositionService;
+import com.achomutovskij.portfolioservice.partition.Peer;
+import com.achomutovskij.portfolioservice.resources.AlertResource;
 import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
 import com.achomutovskij.portfolioservice.resources.DateResource;
 import com.achomutovskij.portfolioservice.resources.PositionResource;
+import com.achomutovskij.portfolioservice.resources.RiskResource;
+import com.achomutovskij.portfolioservice.stream.PositionStreamHandler;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.palantir.conjure.java.api.config.service.UserAgent;
 import com.palantir.conjure.java.api.config.ssl.SslConfiguration;
 import com.palantir.conjure.java.api.errors.ErrorType;
 import com.palantir.conjure.java.api.errors.ServiceException;
+import com.palantir.conjure.java.client.config.ClientConfigurations;
 import com.palantir.conjure.java.config.ssl.SslSocketFactories;
+import com.palantir.conjure.java.undertow.lib.UndertowService;
 import com.palantir.conjure.java.undertow.runtime.ConjureHandler;
+import com.palantir.logsafe.Preconditions;
 import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.logsafe.exceptions.SafeUncheckedIoException;
 import com.palantir.logsafe.logger.SafeLogger;
 import com.palantir.logsafe.logger.SafeLoggerFactory;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.PathHandler;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.X509TrustManager;
+import okhttp3.ConnectionPool;
 import okhttp3.OkHttpClient;
 
 public final class PortfolioServiceApplication {
@@ -47,10 +99,20 @@ public final class PortfolioServiceApplication {
     private static final String KEY_STORE_PATH = "var/certs/keystore.jks";
     private static final String TRUSTSTORE_PATH = "var/certs/truststore.jks";
     private static final String KEYSTORE_PASSWORD = "changeit";
+    private static final int DEFAULT_VIRTUAL_NODES = 128;
+    private static final int DEFAULT_INITIAL_CONCURRENCY_LIMIT = 64;
+    private static final int DEFAULT_MAX_CONCURRENCY_LIMIT = 1024;
+    private static final int DEFAULT_MARKET_API_MAX_IDLE_CONNECTIONS = 32;
+    private static final int DEFAULT_MARKET_API_KEEP_ALIVE_SECONDS = 300;
+    private static final int DEFAULT_MARKET_API_CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int DEFAULT_MARKET_API_READ_TIMEOUT_MILLIS = 10000;
+    private static final int DEFAULT_IN_MEMORY_PRICE_DAYS = 7;
+    private static final UserAgent PEER_USER_AGENT =
+            UserAgent.of(UserAgent.Agent.of("portfolio-service-peer", "0.0.0"));
 
     private PortfolioServiceApplication() {}
 
-    public static void main(String[] _args) {
+    public static void main(String[] args) {
         Configuration conf;
         try {
             conf = ConfigurationLoader.load();
@@ -58,33 +120,116 @@ public final class PortfolioServiceApplication {
             throw new ServiceException(ErrorType.INTERNAL, e, SafeArg.of("reason", "Failed to load the config"));
         }
 
+        if (args.length > 0 && args[0].equals("import")) {
+            System.exit(importTrades(conf, args) ? 0 : 1);
+        }
+
         startServer(conf);
     }
 
+    /**
+     * Replays a trade file ({@code import <file> [csv|ndjson]}) into a fresh in-memory portfolio without starting the
+     * server, using the configured market data. Portfolio state is not persisted, so this validates a file and
+     * measures the import throughput before it is posted to a running service. Returns whether every row imported.
+     */
+    private static boolean importTrades(Configuration conf, String[] args) {
+        Preconditions.checkArgument(
+                args.length == 2 || args.length == 3,
+                "Usage: import <file> [csv|ndjson]",
+                SafeArg.of("arguments", args.length));
+        Path file = Paths.get(args[1]);
+        Optional<ImportFormat> format = args.length == 3
+                ? Optional.of(ImportFormat.valueOf(args[2].toUpperCase(Locale.ROOT)))
+                : Optional.empty();
+
+        Duration marketDataRefreshPeriod = Duration.ofMinutes(conf.getExternalApiResponseCacheDurationMinutes());
+        // the import keeps its prices on the heap, so that it never touches the segments of a running server
+        MarketApiClient marketApiClient = marketApiClient(conf, new MetricRegistry());
+        PositionResource positionResource = new PositionResource(
+                new MarketDataProvider(marketApiClient, marketDataRefreshPeriod),
+                new BucketManagementResource());
+
+        ImportResult result;
+        try (InputStream trades = Files.newInputStream(file)) {
+            result = positionResource.importOrders(format, trades);
+        } catch (IOException e) {
+            throw new SafeUncheckedIoException("Failed to read the trades", e, UnsafeArg.of("file", file));
+        }
+
+        result.getErrors()
+                .forEach(error -> log.warn(
+                        "Failed to import a trade",
+                        SafeArg.of("line", error.getLine()),
+                        UnsafeArg.of("reason", error.getReason())));
+        log.info(
+                "Imported the trades",
+                SafeArg.of("rows", result.getRows()),
+                SafeArg.of("imported", result.getImported()),
+                SafeArg.of("failed", result.getFailed()),
+                SafeArg.of("durationMillis", result.getDurationMillis()),
+                SafeArg.of("rowsPerSecond", result.getRowsPerSecond()));
+        return result.getFailed().longValue() == 0;
+    }
+
     public static Undertow startServer(Configuration conf) {
         SslConfiguration sslConfig =
                 SslConfiguration.of(Paths.get(TRUSTSTORE_PATH), Paths.get(KEY_STORE_PATH), KEYSTORE_PASSWORD);
         SSLContext sslContext = SslSocketFactories.createSslContext(sslConfig);
 
+        PortfolioChangeNotifier changeNotifier = new PortfolioChangeNotifier();
+        MetricRegistry metrics = new MetricRegistry();
+
+        Duration marketDataRefreshPeriod = Duration.ofMinutes(conf.getExternalApiResponseCacheDurationMinutes());
+        MarketApiClient marketApiClient = marketApiClient(conf, metrics);
         MarketDataProvider marketDataProvider = new MarketDataProvider(
-                new MarketApiClient(new OkHttpClient()),
-                Duration.ofMinutes(conf.getExternalApiResponseCacheDurationMinutes()));
+                marketApiClient, marketDataRefreshPeriod, changeNotifier, metrics, priceStorage(conf));
+
+        BucketManagementResource bucketManagementResource = new BucketManagementResource(changeNotifier);
+        PositionResource positionResource =
+                new PositionResource(marketDataProvider, bucketManagementResource, metrics, conf.getOrderPipeline());
+
+        metrics.gauge("portfolio_positions", "Number of symbols held", positionResource::positionCount);
+        metrics.gauge("portfolio_buckets", "Number of buckets", bucketManagementResource::bucketCount);
 
-        BucketManagementResource bucketManagementResource = new BucketManagementResource();
+        UnaryOperator<UndertowService> admissionControl = conf.getAdmission()
+                .map(admission -> admissionControl(admission, marketDataProvider, metrics))
+                .orElseGet(UnaryOperator::identity);
 
-        Undertow server = Undertow.builder()
+        HttpHandler apiHandler = conf.getPartition()
+                .map(partition -> partitionedApiHandler(
+                        partition,
+                        sslConfig,
+                        marketDataProvider,
+                        bucketManagementResource,
+                        positionResource,
+                        admissionControl,
+                        metrics))
+                .orElseGet(() -> singleNodeApiHandler(
+                        changeNotifier,
+                        marketDataProvider,
+                        bucketManagementResource,
+                        positionResource,
+                        admissionControl,
+                        metrics));
+
+        Undertow.Builder builder = Undertow.builder()
                 .addHttpsListener(conf.getPort(), conf.getHost(), sslContext)
                 .addHttpListener(conf.getPort() + 1, conf.getHost())
-                .setHandler(Handlers.path()
-                        .addPrefixPath(
-                                "api/",
-                                ConjureHandler.builder()
-                                        .services(DateServiceEndpoints.of(new DateResource(marketDataProvider)))
-                                        .services(BucketManagementServiceEndpoints.of(bucketManagementResource))
-                                        .services(PositionServiceEndpoints.of(
-                                                new PositionResource(marketDataProvider, bucketManagementResource)))
-                                        .build()))
-                .build();
+                .setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true);
+        conf.getIoThreads().ifPresent(builder::setIoThreads);
+        conf.getWorkerThreads().ifPresent(builder::setWorkerThreads);
+
+        PathHandler paths = Handlers.path()
+                .addPrefixPath("api/", ResponseCompression.gzip(handlerExecution(conf, apiHandler)))
+                .addExactPath("admin/metrics", new MetricsHandler(metrics));
+        if (conf.getPartition().isEmpty()) {
+            PositionStreamHandler positionStreamHandler =
+                    new PositionStreamHandler(positionResource, bucketManagementResource);
+            changeNotifier.addListener(positionStreamHandler);
+            paths.addExactPath("stream/v1/positions", Handlers.serverSentEvents(positionStreamHandler));
+        }
+
+        Undertow server = builder.setHandler(paths).build();
 
         server.start();
 
@@ -92,4 +237,189 @@ public final class PortfolioServiceApplication {
 
         return server;
     }
+
+    /**
+     * Serves the whole API of a single node. Position requests pass admission control before they reach the conditional
+     * position service, so that the positions it has to compute are shed like any other request. Alert long-polls are
+     * not admission controlled: they are cheap while they wait, and their duration would otherwise read as latency and
+     * cut the concurrency limit.
+     */
+    private static HttpHandler singleNodeApiHandler(
+            PortfolioChangeNotifier changeNotifier,
+            MarketDataProvider marketDataProvider,
+            BucketManagementResource bucketManagementResource,
+            PositionResource positionResource,
+            UnaryOperator<UndertowService> admissionControl,
+            MetricRegistry metrics) {
+        AlertResource alertResource =
+                new AlertResource(marketDataProvider, positionResource, bucketManagementResource, metrics);
+        changeNotifier.addListener(alertResource);
+
+        return ConjureHandler.builder()
+                .services(InstrumentedService.of(
+                        admissionControl.apply(DateServiceEndpoints.of(new DateResource(marketDataProvider))),
+                        metrics))
+                .services(InstrumentedService.of(
+                        admissionControl.apply(BucketManagementServiceEndpoints.of(bucketManagementResource)),
+                        metrics))
+                .services(InstrumentedService.of(
+                        admissionControl.apply(ConditionalPositionService.of(
+                                PositionServiceEndpoints.of(positionResource),
+                                positionResource,
+                                positionResource.versionTracker(),
+                                metrics)),
+                        metrics))
+                .services(InstrumentedService.of(
+                        admissionControl.apply(RiskServiceEndpoints.of(
+                                new RiskResource(marketDataProvider, positionResource::exposures))),
+                        metrics))
+                .services(InstrumentedService.of(AlertServiceEndpoints.of(alertResource), metrics))
+                .build();
+    }
+
+    /**
+     * Sheds the requests beyond an adaptive concurrency limit, starting with the ones that may have to wait for the
+     * market data API.
+     */
+    private static UnaryOperator<UndertowService> admissionControl(
+            AdmissionConfiguration admission, MarketDataProvider marketDataProvider, MetricRegistry metrics) {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(
+                Duration.ofMillis(admission.getLatencyTargetMillis()),
+                admission.getInitialLimit().orElse(DEFAULT_INITIAL_CONCURRENCY_LIMIT),
+                admission.getMaxLimit().orElse(DEFAULT_MAX_CONCURRENCY_LIMIT),
+                metrics);
+        return service -> AdmissionControlledService.of(
+                service, limiter, marketDataProvider::hasCachedData, marketDataProvider::hasFreshData);
+    }
+
+    /**
+     * Serves the API of one node of a partitioned deployment. The conditional position service is left out: its
+     * version-keyed response cache cannot see changes made on other nodes. Nodes only call each other's partition
+     * service, which is not admission controlled, so that a node does not shed the work that its peers have already
+     * admitted. Risk is computed on the node that receives the request, from the exposures of every node and the
+     * prices it fetches itself. Alert rules are only served by single nodes, as they would have to be evaluated against
+     * the positions of all nodes.
+     */
+    private static HttpHandler partitionedApiHandler(
+            PartitionConfiguration partition,
+            SslConfiguration sslConfig,
+            MarketDataProvider marketDataProvider,
+            BucketManagementResource bucketManagementResource,
+            PositionResource positionResource,
+            UnaryOperator<UndertowService> admissionControl,
+            MetricRegistry metrics) {
+        PartitionRouter router = partitionRouter(partition, sslConfig);
+        DateResource dateResource = new DateResource(marketDataProvider);
+        PartitionResource partitionResource =
+                new PartitionResource(dateResource, positionResource, bucketManagementResource, router);
+        PartitionedPositionService partitionedPositionService = new PartitionedPositionService(
+                positionResource, bucketManagementResource, partitionResource, router);
+
+        log.info(
+                "Serving a partition of the portfolio",
+                SafeArg.of("node", partition.getSelf()),
+                SafeArg.of("nodes", partition.getNodes().size()));
+
+        return ConjureHandler.builder()
+                .services(InstrumentedService.of(
+                        admissionControl.apply(
+                                DateServiceEndpoints.of(new PartitionedDateService(dateResource, router))),
+                        metrics))
+                .services(InstrumentedService.of(
+                        admissionControl.apply(BucketManagementServiceEndpoints.of(
+                                new PartitionedBucketManagementService(bucketManagementResource, router))),
+                        metrics))
+                .services(InstrumentedService.of(
+                        admissionControl.apply(PositionServiceEndpoints.of(partitionedPositionService)),
+                        metrics))
+                .services(InstrumentedService.of(
+                        admissionControl.apply(RiskServiceEndpoints.of(
+                                new RiskResource(marketDataProvider, partitionedPositionService::exposures))),
+                        metrics))
+                .services(InstrumentedService.of(PartitionServiceEndpoints.of(partitionResource), metrics))
+                .build();
+    }
+
+    private static PartitionRouter partitionRouter(PartitionConfiguration partition, SslConfiguration sslConfig) {
+        List<String> nodes = partition.getNodes();
+        int self = partition.getSelf();
+        Preconditions.checkArgument(
+                self >= 0 && self < nodes.size(),
+                "This node must be one of the nodes",
+                SafeArg.of("self", self),
+                SafeArg.of("nodes", nodes.size()));
+
+        SSLSocketFactory socketFactory = SslSocketFactories.createSslSocketFactory(sslConfig);
+        X509TrustManager trustManager = SslSocketFactories.createX509TrustManager(sslConfig);
+        Map<Integer, Peer> peers = new HashMap<>();
+        for (int node = 0; node < nodes.size(); node++) {
+            if (node != self) {
+                peers.put(
+                        node,
+                        Peer.of(ClientConfigurations.of(
+                                ImmutableList.of(nodes.get(node)), socketFactory, trustManager, PEER_USER_AGENT)));
+            }
+        }
+
+        // a fan-out calls every peer once, so concurrent fan-outs queue for these threads instead of adding more
+        ExecutorService peerCalls = Executors.newFixedThreadPool(
+                Math.max(1, peers.size()),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("partition-peer-call-%d")
+                        .setDaemon(true)
+                        .build());
+        return new PartitionRouter(
+                new HashRing(nodes, partition.getVirtualNodes().orElse(DEFAULT_VIRTUAL_NODES)), self, peers, peerCalls);
+    }
+
+    private static MarketApiClient marketApiClient(Configuration conf, MetricRegistry metrics) {
+        PriceHistoryConfiguration priceHistory = priceHistory(conf);
+        return new MarketApiClient(
+                marketApiHttpClient(conf),
+                conf.getMarketApiBaseUrl().orElse(MarketApiClient.DEFAULT_BASE_URL),
+                priceHistory.getRange().orElse(MarketApiClient.DEFAULT_RANGE),
+                priceHistory.getInterval().orElse(PriceInterval.DAY),
+                metrics);
+    }
+
+    private static PriceStorage priceStorage(Configuration conf) {
+        PriceHistoryConfiguration priceHistory = priceHistory(conf);
+        return priceHistory
+                .getDirectory()
+                .map(directory -> PriceStorage.tiered(
+                        Paths.get(directory),
+                        Duration.ofDays(priceHistory.getInMemoryDays().orElse(DEFAULT_IN_MEMORY_PRICE_DAYS))))
+                .orElseGet(PriceStorage::onHeap);
+    }
+
+    private static PriceHistoryConfiguration priceHistory(Configuration conf) {
+        return conf.getPriceHistory().orElseGet(() -> PriceHistoryConfiguration.builder().build());
+    }
+
+    /**
+     * Enough idle connections are kept open for the market data API that concurrent refreshes reuse them instead of
+     * each paying for a new TLS handshake.
+     */
+    private static OkHttpClient marketApiHttpClient(Configuration conf) {
+        MarketApiConfiguration marketApi =
+                conf.getMarketApi().orElseGet(() -> MarketApiConfiguration.builder().build());
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(
+                        marketApi.getMaxIdleConnections().orElse(DEFAULT_MARKET_API_MAX_IDLE_CONNECTIONS),
+                        marketApi.getKeepAliveSeconds().orElse(DEFAULT_MARKET_API_KEEP_ALIVE_SECONDS),
+                        TimeUnit.SECONDS))
+                .connectTimeout(Duration.ofMillis(
+                        marketApi.getConnectTimeoutMillis().orElse(DEFAULT_MARKET_API_CONNECT_TIMEOUT_MILLIS)))
+                .readTimeout(Duration.ofMillis(
+                        marketApi.getReadTimeoutMillis().orElse(DEFAULT_MARKET_API_READ_TIMEOUT_MILLIS)))
+                .build();
+    }
+
+    private static HttpHandler handlerExecution(Configuration conf, HttpHandler handler) {
+        HandlerExecution execution = conf.getHandlerExecution().orElse(HandlerExecution.WORKER_POOL);
+        if (execution.get() == HandlerExecution.Value.VIRTUAL_THREADS) {
+            return new DispatchingHandler(HandlerExecutors.virtualThreadPerTask(), handler);
+        }
+        return handler;
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.admission;
+
+import com.google.common.collect.ImmutableSet;
+import com.palantir.conjure.java.api.errors.QosException;
+import com.palantir.conjure.java.undertow.lib.Endpoint;
+import com.palantir.conjure.java.undertow.lib.UndertowRuntime;
+import com.palantir.conjure.java.undertow.lib.UndertowService;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import io.undertow.util.PathTemplateMatch;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Wraps every endpoint of a Conjure service so that its requests are only handled when the {@link ConcurrencyLimiter}
+ * admits them. Requests beyond the limit fail fast with {@link QosException#unavailable()}, a 503 that the Conjure
+ * clients retry with backoff, possibly on another node.
+ *
+ * <p>Orders, imports, simulations, bucket and portfolio risk, and reads of symbols whose market data would have to be
+ * fetched are {@link Priority#UPSTREAM}, everything else is {@link Priority#CACHED}. A position or its dates are
+ * served from whatever prices are cached, while the risk of a holding needs prices that are not stale.
+ *
+ * <p>Latency is measured from {@link HttpServerExchange#getRequestStartTime}, so time spent queued for a worker thread
+ * counts against the latency target.
+ */
+public final class AdmissionControlledService implements UndertowService {
+
+    private static final String SYMBOL = "symbol";
+
+    private final UndertowService delegate;
+    private final ConcurrencyLimiter limiter;
+    private final Predicate<String> hasCachedMarketData;
+    private final Predicate<String> hasFreshMarketData;
+    private final ExchangeCompletionListener release;
+
+    private AdmissionControlledService(
+            UndertowService delegate,
+            ConcurrencyLimiter limiter,
+            Predicate<String> hasCachedMarketData,
+            Predicate<String> hasFreshMarketData) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.hasCachedMarketData = hasCachedMarketData;
+        this.hasFreshMarketData = hasFreshMarketData;
+        this.release = (exchange, nextListener) -> {
+            try {
+                long start = exchange.getRequestStartTime();
+                limiter.release(start > 0 ? System.nanoTime() - start : 0);
+            } finally {
+                nextListener.proceed();
+            }
+        };
+    }
+
+    public static UndertowService of(
+            UndertowService delegate,
+            ConcurrencyLimiter limiter,
+            Predicate<String> hasCachedMarketData,
+            Predicate<String> hasFreshMarketData) {
+        return new AdmissionControlledService(delegate, limiter, hasCachedMarketData, hasFreshMarketData);
+    }
+
+    @Override
+    public List<Endpoint> endpoints(UndertowRuntime runtime) {
+        return delegate.endpoints(runtime).stream()
+                .map(endpoint -> new AdmissionControlledEndpoint(endpoint, priority(endpoint.name())))
+                .collect(Collectors.toList());
+    }
+
+    private Function<HttpServerExchange, Priority> priority(String endpointName) {
+        switch (endpointName) {
+            case "addOrder":
+            case "simulateOrders":
+            case "importOrders":
+            case "getBucketRisk":
+            case "getPortfolioRisk":
+                return _exchange -> Priority.UPSTREAM;
+            case "getStockPosition":
+                return exchange -> priority(first(exchange.getQueryParameters().get(SYMBOL)), hasCachedMarketData);
+            case "getHoldingRisk":
+                return exchange -> priority(first(exchange.getQueryParameters().get(SYMBOL)), hasFreshMarketData);
+            case "getAvailableDates":
+                return exchange -> priority(pathParameter(exchange, SYMBOL), hasCachedMarketData);
+            default:
+                return _exchange -> Priority.CACHED;
+        }
+    }
+
+    private static Priority priority(Optional<String> symbol, Predicate<String> servedWithoutUpstream) {
+        return symbol.filter(servedWithoutUpstream).isPresent() ? Priority.CACHED : Priority.UPSTREAM;
+    }
+
+    private static Optional<String> pathParameter(HttpServerExchange exchange, String name) {
+        PathTemplateMatch match = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+        return match == null ? Optional.empty() : Optional.ofNullable(match.getParameters().get(name));
+    }
+
+    private static Optional<String> first(Deque<String> values) {
+        return values == null ? Optional.empty() : Optional.ofNullable(values.peekFirst());
+    }
+
+    private final class AdmissionControlledEndpoint implements Endpoint {
+        private final Endpoint delegate;
+        private final HttpHandler handler;
+
+        private AdmissionControlledEndpoint(Endpoint delegate, Function<HttpServerExchange, Priority> priority) {
+            this.delegate = delegate;
+            HttpHandler delegateHandler = delegate.handler();
+            this.handler = exchange -> {
+                if (!limiter.tryAcquire(priority.apply(exchange))) {
+                    throw QosException.unavailable();
+                }
+                exchange.addExchangeCompleteListener(release);
+                delegateHandler.handleRequest(exchange);
+            };
+        }
+
+        @Override
+        public HttpString method() {
+            return delegate.method();
+        }
+
+        @Override
+        public String template() {
+            return delegate.template();
+        }
+
+        @Override
+        public HttpHandler handler() {
+            return handler;
+        }
+
+        @Override
+        public String serviceName() {
+            return delegate.serviceName();
+        }
+
+        @Override
+        public String name() {
+            return delegate.name();
+        }
+
+        @Override
+        public Optional<String> deprecated() {
+            return delegate.deprecated();
+        }
+
+        @Override
+        public ImmutableSet<String> tags() {
+            return delegate.tags();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.admission;
+
+import com.achomutovskij.portfolioservice.metrics.Counter;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An adaptive limit on the number of requests in flight (AIMD, as in TCP congestion avoidance). While responses
+ * complete within the latency target and the limit is in use, it grows by one for every limit's worth of responses;
+ * when a response is slower than the target, it is cut by {@link #BACKOFF_RATIO}, at most once per target duration so
+ * that a single burst of slow responses does not collapse it.
+ *
+ * <p>{@link Priority#UPSTREAM} requests may only take {@link #UPSTREAM_SHARE} of the limit, so that the rest is kept
+ * for cached reads, which would otherwise queue up behind requests waiting for the market data API.
+ */
+public final class ConcurrencyLimiter {
+
+    static final int MIN_LIMIT = 1;
+    static final double BACKOFF_RATIO = 0.9;
+    static final double UPSTREAM_SHARE = 0.75;
+
+    private final long latencyTargetNanos;
+    private final int maxLimit;
+    private final AtomicInteger inFlight;
+    private final Counter[] rejected; // indexed by priority
+
+    private double limit; // guarded by this
+    private long lastBackoffNanos; // guarded by this
+    private volatile int currentLimit;
+
+    public ConcurrencyLimiter(Duration latencyTarget, int initialLimit, int maxLimit, MetricRegistry metrics) {
+        Preconditions.checkNotNull(latencyTarget, "Latency target must be non-null");
+        Preconditions.checkArgument(
+                !latencyTarget.isNegative() && !latencyTarget.isZero(),
+                "Latency target must be positive",
+                SafeArg.of("latencyTarget", latencyTarget));
+        Preconditions.checkArgument(
+                initialLimit >= MIN_LIMIT && initialLimit <= maxLimit,
+                "Initial limit must be between 1 and the max limit",
+                SafeArg.of("initialLimit", initialLimit),
+                SafeArg.of("maxLimit", maxLimit));
+        Preconditions.checkNotNull(metrics, "Metric registry must be non-null");
+
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        this.maxLimit = maxLimit;
+        this.inFlight = new AtomicInteger();
+        this.rejected = new Counter[Priority.values().length];
+        for (Priority priority : Priority.values()) {
+            rejected[priority.ordinal()] = metrics.counter(
+                    "portfolio_admission_rejected_total",
+                    "Requests rejected because the service was at its concurrency limit, by priority",
+                    "priority",
+                    priority.name().toLowerCase(Locale.ROOT));
+        }
+        this.limit = initialLimit;
+        this.lastBackoffNanos = System.nanoTime() - latencyTargetNanos;
+        this.currentLimit = initialLimit;
+
+        metrics.gauge("portfolio_admission_limit", "The current concurrency limit", this::limit);
+        metrics.gauge("portfolio_admission_in_flight", "Admitted requests that have not completed", this::inFlight);
+    }
+
+    /** Admits a request if there is room for its priority; an admitted request must be {@link #release}d. */
+    public boolean tryAcquire(Priority priority) {
+        int allowed = priority == Priority.CACHED
+                ? currentLimit
+                : Math.max(MIN_LIMIT, (int) (currentLimit * UPSTREAM_SHARE));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                rejected[priority.ordinal()].increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Completes an admitted request that took the given time, from arrival to response, and adjusts the limit. */
+    public void release(long latencyNanos) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        adjust(latencyNanos, inFlightBefore, System.nanoTime());
+    }
+
+    public int limit() {
+        return currentLimit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void adjust(long latencyNanos, int inFlightBefore, long nowNanos) {
+        if (latencyNanos > latencyTargetNanos) {
+            if (nowNanos - lastBackoffNanos >= latencyTargetNanos) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+                lastBackoffNanos = nowNanos;
+            }
+        } else if (inFlightBefore * 2 >= limit) {
+            // only grow a limit that is actually being used, or it drifts up while the service is idle
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        currentLimit = (int) limit;
+    }
+}
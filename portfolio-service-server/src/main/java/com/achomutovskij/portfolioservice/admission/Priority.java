@@ -0,0 +1,26 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.admission;
+
+/** How readily a request is admitted once the service is close to its concurrency limit. */
+public enum Priority {
+    /** Served from memory; admitted as long as anything is. */
+    CACHED,
+
+    /** May have to wait for the market data API; only admitted while part of the limit is still left for reads. */
+    UPSTREAM
+}
@@ -0,0 +1,136 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.alert;
+
+import com.achomutovskij.portfolioservice.api.AlertRule;
+import com.achomutovskij.portfolioservice.api.TriggeredAlert;
+import com.achomutovskij.portfolioservice.api.TriggeredAlerts;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The most recently triggered alerts, numbered in order, and the long-poll requests waiting for the next ones. Only
+ * the last {@code capacity} alerts are retained; a poller that falls further behind skips the alerts it missed.
+ */
+public final class AlertLog {
+
+    private final int capacity;
+    private final ScheduledExecutorService timer;
+    private final Deque<TriggeredAlert> alerts;
+    private final List<Waiter> waiters;
+    private long lastSequence;
+
+    public AlertLog(int capacity, ScheduledExecutorService timer) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive", SafeArg.of("capacity", capacity));
+        this.capacity = capacity;
+        this.timer = Preconditions.checkNotNull(timer, "Timer must be non-null");
+        this.alerts = new ArrayDeque<>();
+        this.waiters = new ArrayList<>();
+    }
+
+    /** Records that the rule was triggered by the value, and hands the alert to the waiting polls. */
+    public TriggeredAlert append(AlertRule rule, double value) {
+        TriggeredAlert alert;
+        List<Waiter> completed = new ArrayList<>();
+        synchronized (this) {
+            lastSequence++;
+            alert = TriggeredAlert.builder()
+                    .sequence(SafeLong.of(lastSequence))
+                    .rule(rule)
+                    .value(value)
+                    .triggeredAt(OffsetDateTime.now(ZoneOffset.UTC))
+                    .build();
+            alerts.addLast(alert);
+            if (alerts.size() > capacity) {
+                alerts.removeFirst();
+            }
+            completed.addAll(waiters);
+            waiters.clear();
+        }
+
+        // complete the futures outside the lock, as their listeners run on this thread
+        completed.forEach(waiter -> waiter.future.set(alertsAfter(waiter.after)));
+        return alert;
+    }
+
+    /**
+     * Returns the retained alerts that follow {@code after}, or the current last sequence if it is empty, as soon as
+     * there are any, or an empty list once the timeout expires.
+     */
+    public ListenableFuture<TriggeredAlerts> poll(Optional<Long> after, Duration timeout) {
+        Waiter waiter;
+        synchronized (this) {
+            long afterSequence = after.orElse(lastSequence);
+            TriggeredAlerts available = alertsAfter(afterSequence);
+            if (!available.getAlerts().isEmpty() || timeout.isZero()) {
+                return Futures.immediateFuture(available);
+            }
+            waiter = new Waiter(afterSequence);
+            waiters.add(waiter);
+        }
+
+        timer.schedule(
+                () -> {
+                    synchronized (this) {
+                        waiters.remove(waiter);
+                    }
+                    waiter.future.set(TriggeredAlerts.of(Collections.emptyList(), SafeLong.of(waiter.after)));
+                },
+                timeout.toMillis(),
+                TimeUnit.MILLISECONDS);
+        return waiter.future;
+    }
+
+    private synchronized TriggeredAlerts alertsAfter(long after) {
+        List<TriggeredAlert> result = new ArrayList<>();
+        for (Iterator<TriggeredAlert> iterator = alerts.descendingIterator(); iterator.hasNext(); ) {
+            TriggeredAlert alert = iterator.next();
+            if (alert.getSequence().longValue() <= after) {
+                break;
+            }
+            result.add(alert);
+        }
+        Collections.reverse(result);
+        return TriggeredAlerts.of(result, SafeLong.of(Math.max(after, lastSequence)));
+    }
+
+    private static final class Waiter {
+        private final long after;
+        private final SettableFuture<TriggeredAlerts> future;
+
+        private Waiter(long after) {
+            this.after = after;
+            this.future = SettableFuture.create();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.alert;
+
+import com.achomutovskij.portfolioservice.api.AlertDirection;
+import com.achomutovskij.portfolioservice.api.AlertRule;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The alert rules on one metric of one symbol or bucket, sorted by threshold. A rule triggers when the metric moves
+ * beyond its threshold, so a new value only needs to look at the rules whose thresholds lie between the previous value
+ * and the new one. Not thread-safe.
+ */
+public final class ThresholdIndex {
+
+    private final NavigableMap<Double, Map<String, AlertRule>> above; // threshold -> rule id -> rule
+    private final NavigableMap<Double, Map<String, AlertRule>> below; // threshold -> rule id -> rule
+    private double lastValue;
+
+    public ThresholdIndex() {
+        this.above = new TreeMap<>();
+        this.below = new TreeMap<>();
+        this.lastValue = Double.NaN;
+    }
+
+    /**
+     * Adds the rule, returning whether the last value of the metric is already beyond its threshold. Such a rule is
+     * not triggered again by {@link #update} until the metric has moved back and crossed the threshold anew.
+     */
+    public boolean add(AlertRule rule) {
+        sideOf(rule).computeIfAbsent(rule.getThreshold(), _threshold -> new LinkedHashMap<>())
+                .put(rule.getId(), rule);
+        return !Double.isNaN(lastValue) && isBeyond(rule, lastValue);
+    }
+
+    public void remove(AlertRule rule) {
+        NavigableMap<Double, Map<String, AlertRule>> side = sideOf(rule);
+        Map<String, AlertRule> rules = side.get(rule.getThreshold());
+        if (rules != null) {
+            rules.remove(rule.getId());
+            if (rules.isEmpty()) {
+                side.remove(rule.getThreshold());
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return above.isEmpty() && below.isEmpty();
+    }
+
+    /** The last value of the metric, or {@link Double#NaN} if it has not been evaluated yet. */
+    public double lastValue() {
+        return lastValue;
+    }
+
+    /** Records the new value of the metric and returns the rules it has just moved beyond the thresholds of. */
+    public List<AlertRule> update(double value) {
+        List<AlertRule> triggered = new ArrayList<>();
+        if (Double.isNaN(lastValue)) {
+            addAll(triggered, above.headMap(value, false).values());
+            addAll(triggered, below.tailMap(value, false).values());
+        } else if (value > lastValue) {
+            addAll(triggered, above.subMap(lastValue, true, value, false).values());
+        } else if (value < lastValue) {
+            addAll(triggered, below.subMap(value, false, lastValue, true).values());
+        }
+        lastValue = value;
+        return triggered;
+    }
+
+    private NavigableMap<Double, Map<String, AlertRule>> sideOf(AlertRule rule) {
+        return rule.getDirection().get() == AlertDirection.Value.ABOVE ? above : below;
+    }
+
+    private static boolean isBeyond(AlertRule rule, double value) {
+        return rule.getDirection().get() == AlertDirection.Value.ABOVE
+                ? value > rule.getThreshold()
+                : value < rule.getThreshold();
+    }
+
+    private static void addAll(List<AlertRule> triggered, Collection<Map<String, AlertRule>> rulesByThreshold) {
+        rulesByThreshold.forEach(rules -> triggered.addAll(rules.values()));
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.bucket;
+
+import com.achomutovskij.portfolioservice.profiling.BucketIndexEvent;
+import com.achomutovskij.portfolioservice.util.PersistentMap;
+import com.achomutovskij.portfolioservice.util.PersistentSortedMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bidirectional bucket membership index (bucket -> symbols and symbol -> buckets).
+ *
+ * <p>The state is held in {@link PersistentMap}s of immutable sets. Writers are serialized by a single lock and derive
+ * the next version of each map from the previous one, sharing everything they did not change. After every write, or
+ * once at the end of a batch, the maps are published together as a {@link BucketMemberships}, which readers take
+ * without locking and can read for as long as they like: every membership and parent in it is from the same point in
+ * time. The thread holding the lock reads its own changes instead. Deleting a bucket only touches the entries of the
+ * symbols in that bucket.
+ *
+ * <p>Every bucket is also kept as a {@link SymbolBitmap} over interned symbol ids, which lets queries combine buckets
+ * with unions, intersections and differences without materializing any intermediate symbol sets.
+ *
+ * <p>Buckets can be nested. The roll-up of a bucket is the union of its own bitmap and the roll-ups of its children,
+ * so a symbol held in several descendants is only counted once. Roll-ups are cached per bucket together with a
+ * version; a membership change only moves the versions of the changed bucket and its ancestors, which leaves the
+ * cached roll-ups of every other subtree valid.
+ *
+ * <p>A sorted view (bucket name -> sorted symbols) is maintained alongside in a {@link PersistentSortedMap}, so
+ * listing buckets never sorts or copies: a write splices the one symbol into or out of the affected sorted list, and
+ * the view is published together with the memberships it was derived from, so full listings and pages are served from
+ * a consistent version.
+ *
+ * <p>Changes made through {@link #inBatch} are applied as a single writer, and the derived state above is invalidated
+ * and published once for the whole batch instead of once per change. A batch that fails is rolled back by resetting
+ * the working versions to the published one, which they were derived from.
+ */
+public final class BucketIndex {
+
+    private final ReentrantLock writeLock;
+    private final SymbolInterner interner;
+    private final Map<String, CachedRollUp> rollUps; // bucket -> latest computed roll-up
+    private final List<Consumer<BucketMemberships>> publishListeners;
+    private final List<Runnable> rollBackListeners;
+    private final Set<String> batchInvalidations; // buckets changed by the running batch, guarded by the write lock
+    private volatile BucketMemberships published;
+
+    // the working versions, guarded by the write lock
+    private PersistentMap<String, ImmutableSet<String>> bucketToSymbols;
+    private PersistentMap<String, ImmutableSet<String>> symbolToBuckets;
+    private PersistentMap<String, SymbolBitmap> bucketToBitmap;
+    private PersistentMap<String, String> parents; // child -> parent
+    private PersistentMap<String, ImmutableSet<String>> children; // parent -> children
+    private PersistentMap<String, Long> rollUpVersions; // bucket -> version of the membership of its subtree
+    private PersistentSortedMap<String, List<String>> sortedBuckets; // bucket -> sorted immutable symbols
+    private long rollUpSequence;
+    private int batchDepth;
+    private boolean dirty; // changed since the last publication
+
+    public BucketIndex() {
+        this.writeLock = new ReentrantLock();
+        this.interner = new SymbolInterner();
+        this.rollUps = new ConcurrentHashMap<>();
+        this.publishListeners = new CopyOnWriteArrayList<>();
+        this.rollBackListeners = new CopyOnWriteArrayList<>();
+        this.batchInvalidations = new HashSet<>();
+        this.bucketToSymbols = PersistentMap.empty();
+        this.symbolToBuckets = PersistentMap.empty();
+        this.bucketToBitmap = PersistentMap.empty();
+        this.parents = PersistentMap.empty();
+        this.children = PersistentMap.empty();
+        this.rollUpVersions = PersistentMap.empty();
+        this.sortedBuckets = PersistentSortedMap.empty();
+        this.published = working();
+    }
+
+    /**
+     * Registers a listener that is called with every version as it is published, while the write lock is still held,
+     * so that it sees the versions in order and can publish state of its own that was changed in the same batch.
+     */
+    public void onPublish(Consumer<BucketMemberships> listener) {
+        publishListeners.add(listener);
+    }
+
+    /**
+     * Registers a listener that is called, while the write lock is still held, whenever a batch fails and its changes
+     * are discarded, so that it can discard the changes it made to state of its own in the same batch.
+     */
+    public void onRollBack(Runnable listener) {
+        rollBackListeners.add(listener);
+    }
+
+    /**
+     * Runs the changes while holding the write lock, so no other writer can interleave with them, and invalidates the
+     * roll-ups and publishes a new version once when they are done. The changes may call any of the write methods. A
+     * version is published even if the index did not change, for the listeners whose own state did. If the changes
+     * throw, everything the batch changed is rolled back and nothing is published.
+     */
+    public <T> T inBatch(Supplier<T> changes) {
+        BucketIndexEvent event = lockForWrite();
+        int changeds = 0;
+        boolean completed = false;
+        try {
+            batchDepth++;
+            try {
+                T result = changes.get();
+                completed = true;
+                return result;
+            } finally {
+                batchDepth--;
+                if (batchDepth == 0) {
+                    changeds = batchInvalidations.size();
+                    if (completed) {
+                        publishBatch();
+                    } else {
+                        rollBack();
+                    }
+                }
+            }
+        } finally {
+            writeLock.unlock();
+            event.commit("batch", null, null, changeds);
+        }
+    }
+
+    /** Returns the latest published version, or, to the thread holding the write lock, its working version. */
+    public BucketMemberships memberships() {
+        return writeLock.isHeldByCurrentThread() ? working() : published;
+    }
+
+    /** Returns false if the bucket already exists. */
+    public boolean createBucket(String bucketName) {
+        BucketIndexEvent event = lockForWrite();
+        try {
+            if (bucketToSymbols.containsKey(bucketName)) {
+                return false;
+            }
+            bucketToSymbols = bucketToSymbols.plus(bucketName, ImmutableSet.of());
+            bucketToBitmap = bucketToBitmap.plus(bucketName, SymbolBitmap.empty());
+            sortedBuckets = sortedBuckets.plus(bucketName, ImmutableList.of());
+            dirty = true;
+            return true;
+        } finally {
+            unlock(event, "createBucket", bucketName, null);
+        }
+    }
+
+    /** Deletes the bucket, returning the symbols it contained, or empty if there was no such bucket. */
+    public Optional<ImmutableSet<String>> deleteBucket(String bucketName) {
+        BucketIndexEvent event = lockForWrite();
+        try {
+            ImmutableSet<String> symbols = bucketToSymbols.get(bucketName);
+            if (symbols == null) {
+                return Optional.empty();
+            }
+            bucketToSymbols = bucketToSymbols.minus(bucketName);
+            bucketToBitmap = bucketToBitmap.minus(bucketName);
+            for (String symbol : symbols) {
+                symbolToBuckets = updated(symbolToBuckets, symbol, buckets -> without(buckets, bucketName));
+            }
+
+            // the children become top-level buckets, the parent loses this subtree
+            for (String child : children.getOrDefault(bucketName, ImmutableSet.of())) {
+                parents = parents.minus(child);
+            }
+            children = children.minus(bucketName);
+            detachFromParent(bucketName);
+            rollUps.remove(bucketName);
+            rollUpVersions = rollUpVersions.minus(bucketName);
+            sortedBuckets = sortedBuckets.minus(bucketName);
+            dirty = true;
+            return Optional.of(symbols);
+        } finally {
+            unlock(event, "deleteBucket", bucketName, null);
+        }
+    }
+
+    /** Adds the symbol to the bucket, creating the bucket if needed. Returns false if it was already a member. */
+    public boolean addSymbol(String bucketName, String symbol) {
+        BucketIndexEvent event = lockForWrite();
+        try {
+            ImmutableSet<String> symbols = bucketToSymbols.getOrDefault(bucketName, ImmutableSet.of());
+            if (symbols.contains(symbol)) {
+                return false;
+            }
+            int id = interner.intern(symbol);
+            bucketToBitmap = bucketToBitmap.plus(
+                    bucketName, bucketToBitmap.getOrDefault(bucketName, SymbolBitmap.empty()).with(id));
+            bucketToSymbols = bucketToSymbols.plus(bucketName, with(symbols, symbol));
+            symbolToBuckets = symbolToBuckets.plus(
+                    symbol, with(symbolToBuckets.getOrDefault(symbol, ImmutableSet.of()), bucketName));
+            sortedBuckets = sortedBuckets.plus(
+                    bucketName, sortedWith(sortedBuckets.getOrDefault(bucketName, ImmutableList.of()), symbol));
+            invalidateRollUps(bucketName);
+            dirty = true;
+            return true;
+        } finally {
+            unlock(event, "addSymbol", bucketName, symbol);
+        }
+    }
+
+    /** Returns false if the symbol was not a member of the bucket. */
+    public boolean removeSymbol(String bucketName, String symbol) {
+        BucketIndexEvent event = lockForWrite();
+        try {
+            ImmutableSet<String> symbols = bucketToSymbols.get(bucketName);
+            if (symbols == null || !symbols.contains(symbol)) {
+                return false;
+            }
+            int id = interner.idOf(symbol).getAsInt(); // every member has been interned
+            bucketToBitmap = updated(bucketToBitmap, bucketName, bitmap -> bitmap.without(id));
+            bucketToSymbols = bucketToSymbols.plus(bucketName, without(symbols, symbol));
+            symbolToBuckets = updated(symbolToBuckets, symbol, buckets -> without(buckets, bucketName));
+            sortedBuckets = updated(sortedBuckets, bucketName, sorted -> sortedWithout(sorted, symbol));
+            invalidateRollUps(bucketName);
+            dirty = true;
+            return true;
+        } finally {
+            unlock(event, "removeSymbol", bucketName, symbol);
+        }
+    }
+
+    /** Removes the symbol from every bucket, returning the buckets it was removed from. */
+    public ImmutableSet<String> removeSymbolFromAllBuckets(String symbol) {
+        BucketIndexEvent event = lockForWrite();
+        int changeds = 0;
+        try {
+            ImmutableSet<String> buckets = symbolToBuckets.get(symbol);
+            if (buckets == null) {
+                return ImmutableSet.of();
+            }
+            symbolToBuckets = symbolToBuckets.minus(symbol);
+            changeds = buckets.size();
+            int id = interner.idOf(symbol).getAsInt();
+            for (String bucket : buckets) {
+                bucketToBitmap = updated(bucketToBitmap, bucket, bitmap -> bitmap.without(id));
+                bucketToSymbols = updated(bucketToSymbols, bucket, symbols -> without(symbols, symbol));
+                sortedBuckets = updated(sortedBuckets, bucket, sorted -> sortedWithout(sorted, symbol));
+                invalidateRollUps(bucket);
+            }
+            dirty = true;
+            return buckets;
+        } finally {
+            publishIfChanged();
+            writeLock.unlock();
+            event.commit("removeSymbolFromAllBuckets", null, symbol, changeds);
+        }
+    }
+
+    /** Nests the bucket under the parent, replacing any previous parent. */
+    public ParentUpdate setParent(String bucketName, String parentName) {
+        BucketIndexEvent event = lockForWrite();
+        try {
+            if (!bucketToSymbols.containsKey(bucketName) || !bucketToSymbols.containsKey(parentName)) {
+                return ParentUpdate.MISSING_BUCKET;
+            }
+            if (parentName.equals(parents.get(bucketName))) {
+                return ParentUpdate.UNCHANGED;
+            }
+            for (String ancestor = parentName; ancestor != null; ancestor = parents.get(ancestor)) {
+                if (ancestor.equals(bucketName)) {
+                    return ParentUpdate.CYCLE;
+                }
+            }
+
+            detachFromParent(bucketName);
+            parents = parents.plus(bucketName, parentName);
+            children = children.plus(
+                    parentName, with(children.getOrDefault(parentName, ImmutableSet.of()), bucketName));
+            invalidateRollUps(parentName);
+            return ParentUpdate.UPDATED;
+        } finally {
+            unlock(event, "setParent", bucketName, null);
+        }
+    }
+
+    /** Makes the bucket a top-level bucket again, returning its previous parent. */
+    public Optional<String> removeParent(String bucketName) {
+        BucketIndexEvent event = lockForWrite();
+        try {
+            return detachFromParent(bucketName);
+        } finally {
+            unlock(event, "removeParent", bucketName, null);
+        }
+    }
+
+    public Optional<String> parentOf(String bucketName) {
+        return memberships().parentOf(bucketName);
+    }
+
+    /** Returns the parent, grandparent and so on, nearest first. */
+    public ImmutableList<String> ancestorsOf(String bucketName) {
+        return memberships().ancestorsOf(bucketName);
+    }
+
+    /** Immutable child -> parent relation of the current version. */
+    public Map<String, String> parents() {
+        return memberships().parents();
+    }
+
+    /** Returns the symbols of the bucket and all of its descendants, each symbol once. */
+    public Optional<SymbolBitmap> rollUp(String bucketName) {
+        return rollUp(memberships(), bucketName);
+    }
+
+    /** Returns the roll-up of the bucket as of the given version. */
+    public Optional<SymbolBitmap> rollUp(BucketMemberships memberships, String bucketName) {
+        long version = memberships.rollUpVersion(bucketName);
+        SymbolBitmap own = memberships.bitmapOf(bucketName);
+        ImmutableSet<String> bucketChildren = memberships.childrenOf(bucketName);
+        if (own == null || bucketChildren.isEmpty()) {
+            return Optional.ofNullable(own);
+        }
+
+        CachedRollUp cached = rollUps.get(bucketName);
+        if (cached != null && cached.version == version) {
+            return Optional.of(cached.bitmap);
+        }
+
+        BucketIndexEvent event = BucketIndexEvent.start();
+        SymbolBitmap rolledUp = own;
+        for (String child : bucketChildren) {
+            Optional<SymbolBitmap> childRollUp = rollUp(memberships, child);
+            if (childRollUp.isPresent()) {
+                rolledUp = rolledUp.or(childRollUp.get());
+            }
+        }
+        // readers of an older version must not replace the roll-up of a newer one
+        rollUps.merge(
+                bucketName,
+                new CachedRollUp(version, rolledUp),
+                (existing, computed) -> existing.version > computed.version ? existing : computed);
+        if (event.shouldCommit()) {
+            event.commit("rollUp", bucketName, null, rolledUp.cardinality());
+        }
+        return Optional.of(rolledUp);
+    }
+
+    public boolean hasChildren(String bucketName) {
+        return memberships().hasChildren(bucketName);
+    }
+
+    public boolean containsBucket(String bucketName) {
+        return memberships().containsBucket(bucketName);
+    }
+
+    public Optional<ImmutableSet<String>> symbolsInBucket(String bucketName) {
+        return memberships().symbolsInBucket(bucketName);
+    }
+
+    public ImmutableSet<String> bucketsForSymbol(String symbol) {
+        return memberships().bucketsForSymbol(symbol);
+    }
+
+    /** Resolves the bitmap back to symbols, in a single pass over the set bits. */
+    public ImmutableList<String> symbolsOf(SymbolBitmap bitmap) {
+        ImmutableList.Builder<String> symbols = ImmutableList.builderWithExpectedSize(bitmap.cardinality());
+        bitmap.ids().forEach(id -> symbols.add(interner.symbolOf(id)));
+        return symbols.build();
+    }
+
+    /** Immutable bucket -> symbols relation of the current version. */
+    public Map<String, ImmutableSet<String>> buckets() {
+        return memberships().buckets();
+    }
+
+    /** Immutable bucket -> sorted symbols relation of the current version, ordered by bucket name. */
+    public PersistentSortedMap<String, List<String>> sortedBuckets() {
+        return memberships().sortedBuckets();
+    }
+
+    /** Like {@link #sortedBuckets()}, but of the latest published version even to the writer of a running batch. */
+    public PersistentSortedMap<String, List<String>> sortedSnapshot() {
+        return published.sortedBuckets();
+    }
+
+    private BucketIndexEvent lockForWrite() {
+        BucketIndexEvent event = BucketIndexEvent.start();
+        writeLock.lock();
+        event.lockAcquired();
+        return event;
+    }
+
+    private void unlock(BucketIndexEvent event, String operation, String bucketName, String symbol) {
+        int size = bucketToSymbols.getOrDefault(bucketName, ImmutableSet.of()).size();
+        publishIfChanged();
+        writeLock.unlock();
+        if (event.shouldCommit()) {
+            event.commit(operation, bucketName, symbol, size);
+        }
+    }
+
+    private Optional<String> detachFromParent(String bucketName) {
+        String parent = parents.get(bucketName);
+        if (parent == null) {
+            return Optional.empty();
+        }
+        parents = parents.minus(bucketName);
+        ImmutableSet<String> remaining = without(children.getOrDefault(parent, ImmutableSet.of()), bucketName);
+        children = remaining.isEmpty() ? children.minus(parent) : children.plus(parent, remaining);
+        invalidateRollUps(parent);
+        return Optional.of(parent);
+    }
+
+    /** Moves the roll-up versions of the bucket and of all of its ancestors forward. Requires the write lock. */
+    private void invalidateRollUps(String bucketName) {
+        dirty = true;
+        if (batchDepth > 0) {
+            batchInvalidations.add(bucketName);
+            return;
+        }
+        for (String bucket = bucketName; bucket != null; bucket = parents.get(bucket)) {
+            rollUpVersions = rollUpVersions.plus(bucket, ++rollUpSequence);
+        }
+    }
+
+    /** Requires the write lock. */
+    private void publishBatch() {
+        Set<String> invalidated = new HashSet<>();
+        for (String changed : batchInvalidations) {
+            if (!bucketToSymbols.containsKey(changed)) {
+                continue; // deleted later in the batch
+            }
+            for (String bucket = changed; bucket != null && invalidated.add(bucket); bucket = parents.get(bucket)) {
+                rollUpVersions = rollUpVersions.plus(bucket, ++rollUpSequence);
+            }
+        }
+        batchInvalidations.clear();
+        publish();
+    }
+
+    /**
+     * Resets the working versions to the published one, which the batch started from, discarding all of its changes.
+     * Requires the write lock.
+     */
+    private void rollBack() {
+        BucketMemberships memberships = published;
+        bucketToSymbols = memberships.buckets();
+        symbolToBuckets = memberships.symbolToBuckets();
+        bucketToBitmap = memberships.bucketToBitmap();
+        parents = memberships.parents();
+        children = memberships.children();
+        rollUpVersions = memberships.rollUpVersions();
+        sortedBuckets = memberships.sortedBuckets();
+        batchInvalidations.clear();
+        dirty = false;
+        // roll-ups computed from the working versions within the batch are cached under the published versions
+        rollUps.clear();
+        rollBackListeners.forEach(Runnable::run);
+    }
+
+    /** Publishes the changes of a write made outside of a batch. Requires the write lock. */
+    private void publishIfChanged() {
+        if (batchDepth == 0 && dirty) {
+            publish();
+        }
+    }
+
+    /** Requires the write lock. */
+    private void publish() {
+        dirty = false;
+        BucketMemberships memberships = working();
+        published = memberships;
+        publishListeners.forEach(listener -> listener.accept(memberships));
+    }
+
+    /** Requires the write lock. */
+    private BucketMemberships working() {
+        return new BucketMemberships(
+                bucketToSymbols, symbolToBuckets, bucketToBitmap, parents, children, rollUpVersions, sortedBuckets);
+    }
+
+    private static <V> PersistentMap<String, V> updated(
+            PersistentMap<String, V> map, String key, UnaryOperator<V> update) {
+        V value = map.get(key);
+        return value == null ? map : map.plus(key, update.apply(value));
+    }
+
+    private static <V> PersistentSortedMap<String, V> updated(
+            PersistentSortedMap<String, V> map, String key, UnaryOperator<V> update) {
+        V value = map.get(key);
+        return value == null ? map : map.plus(key, update.apply(value));
+    }
+
+    private static List<String> sortedWithout(List<String> list, String element) {
+        int index = Collections.binarySearch(list, element);
+        if (index < 0) {
+            return list;
+        }
+        return ImmutableList.<String>builderWithExpectedSize(list.size() - 1)
+                .addAll(list.subList(0, index))
+                .addAll(list.subList(index + 1, list.size()))
+                .build();
+    }
+
+    private static List<String> sortedWith(List<String> list, String element) {
+        int index = Collections.binarySearch(list, element);
+        if (index >= 0) {
+            return list;
+        }
+        int insertionPoint = -index - 1;
+        return ImmutableList.<String>builderWithExpectedSize(list.size() + 1)
+                .addAll(list.subList(0, insertionPoint))
+                .add(element)
+                .addAll(list.subList(insertionPoint, list.size()))
+                .build();
+    }
+
+    private static ImmutableSet<String> with(Set<String> set, String element) {
+        return ImmutableSet.<String>builderWithExpectedSize(set.size() + 1)
+                .addAll(set)
+                .add(element)
+                .build();
+    }
+
+    private static ImmutableSet<String> without(Set<String> set, String element) {
+        ImmutableSet.Builder<String> builder = ImmutableSet.builderWithExpectedSize(set.size());
+        set.stream().filter(existing -> !existing.equals(element)).forEach(builder::add);
+        return builder.build();
+    }
+
+    public enum ParentUpdate {
+        UPDATED,
+        UNCHANGED,
+        MISSING_BUCKET,
+        CYCLE
+    }
+
+    private static final class CachedRollUp {
+        private final long version;
+        private final SymbolBitmap bitmap;
+
+        private CachedRollUp(long version, SymbolBitmap bitmap) {
+            this.version = version;
+            this.bitmap = bitmap;
+        }
+    }
+}
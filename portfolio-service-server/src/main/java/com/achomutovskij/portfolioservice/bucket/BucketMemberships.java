@@ -0,0 +1,130 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.bucket;
+
+import com.achomutovskij.portfolioservice.util.PersistentMap;
+import com.achomutovskij.portfolioservice.util.PersistentSortedMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * One version of the bucket memberships and of the bucket hierarchy, as published by {@link BucketIndex} after a
+ * write or a batch of writes. It is immutable, so it can be read lock-free for as long as needed and never shows a
+ * change half applied. Consecutive versions share everything the writes between them did not touch.
+ */
+public final class BucketMemberships {
+
+    private final PersistentMap<String, ImmutableSet<String>> bucketToSymbols;
+    private final PersistentMap<String, ImmutableSet<String>> symbolToBuckets;
+    private final PersistentMap<String, SymbolBitmap> bucketToBitmap;
+    private final PersistentMap<String, String> parents; // child -> parent
+    private final PersistentMap<String, ImmutableSet<String>> children; // parent -> children
+    private final PersistentMap<String, Long> rollUpVersions; // bucket -> version of the membership of its subtree
+    private final PersistentSortedMap<String, List<String>> sortedBuckets; // bucket -> sorted symbols
+
+    BucketMemberships(
+            PersistentMap<String, ImmutableSet<String>> bucketToSymbols,
+            PersistentMap<String, ImmutableSet<String>> symbolToBuckets,
+            PersistentMap<String, SymbolBitmap> bucketToBitmap,
+            PersistentMap<String, String> parents,
+            PersistentMap<String, ImmutableSet<String>> children,
+            PersistentMap<String, Long> rollUpVersions,
+            PersistentSortedMap<String, List<String>> sortedBuckets) {
+        this.bucketToSymbols = bucketToSymbols;
+        this.symbolToBuckets = symbolToBuckets;
+        this.bucketToBitmap = bucketToBitmap;
+        this.parents = parents;
+        this.children = children;
+        this.rollUpVersions = rollUpVersions;
+        this.sortedBuckets = sortedBuckets;
+    }
+
+    public boolean containsBucket(String bucketName) {
+        return bucketToSymbols.containsKey(bucketName);
+    }
+
+    public Optional<ImmutableSet<String>> symbolsInBucket(String bucketName) {
+        return Optional.ofNullable(bucketToSymbols.get(bucketName));
+    }
+
+    public ImmutableSet<String> bucketsForSymbol(String symbol) {
+        return symbolToBuckets.getOrDefault(symbol, ImmutableSet.of());
+    }
+
+    public Optional<String> parentOf(String bucketName) {
+        return Optional.ofNullable(parents.get(bucketName));
+    }
+
+    /** Returns the parent, grandparent and so on, nearest first. */
+    public ImmutableList<String> ancestorsOf(String bucketName) {
+        ImmutableList.Builder<String> ancestors = ImmutableList.builder();
+        for (String parent = parents.get(bucketName); parent != null; parent = parents.get(parent)) {
+            ancestors.add(parent);
+        }
+        return ancestors.build();
+    }
+
+    /** Immutable child -> parent relation. */
+    public PersistentMap<String, String> parents() {
+        return parents;
+    }
+
+    public boolean hasChildren(String bucketName) {
+        return children.containsKey(bucketName);
+    }
+
+    /** Immutable bucket -> symbols relation. */
+    public PersistentMap<String, ImmutableSet<String>> buckets() {
+        return bucketToSymbols;
+    }
+
+    /** Immutable bucket -> sorted symbols relation, ordered by bucket name. */
+    public PersistentSortedMap<String, List<String>> sortedBuckets() {
+        return sortedBuckets;
+    }
+
+    PersistentMap<String, ImmutableSet<String>> symbolToBuckets() {
+        return symbolToBuckets;
+    }
+
+    PersistentMap<String, SymbolBitmap> bucketToBitmap() {
+        return bucketToBitmap;
+    }
+
+    PersistentMap<String, ImmutableSet<String>> children() {
+        return children;
+    }
+
+    PersistentMap<String, Long> rollUpVersions() {
+        return rollUpVersions;
+    }
+
+    ImmutableSet<String> childrenOf(String bucketName) {
+        return children.getOrDefault(bucketName, ImmutableSet.of());
+    }
+
+    /** Returns null if there is no such bucket. */
+    SymbolBitmap bitmapOf(String bucketName) {
+        return bucketToBitmap.get(bucketName);
+    }
+
+    long rollUpVersion(String bucketName) {
+        return rollUpVersions.getOrDefault(bucketName, 0L);
+    }
+}
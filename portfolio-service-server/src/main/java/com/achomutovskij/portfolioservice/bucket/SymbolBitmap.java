@@ -0,0 +1,107 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.bucket;
+
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable set of interned symbol ids. Ids handed out by {@link SymbolInterner} are dense, so a plain word-aligned
+ * bitmap is as compact as a compressed one would be here, and set algebra between buckets is a single pass over a
+ * few words per 64 symbols.
+ */
+public final class SymbolBitmap {
+
+    private static final SymbolBitmap EMPTY = new SymbolBitmap(new BitSet());
+
+    private final BitSet bits; // never mutated once the bitmap is constructed
+
+    private SymbolBitmap(BitSet bits) {
+        this.bits = bits;
+    }
+
+    public static SymbolBitmap empty() {
+        return EMPTY;
+    }
+
+    public SymbolBitmap with(int id) {
+        if (bits.get(id)) {
+            return this;
+        }
+        BitSet copy = (BitSet) bits.clone();
+        copy.set(id);
+        return new SymbolBitmap(copy);
+    }
+
+    public SymbolBitmap without(int id) {
+        if (!bits.get(id)) {
+            return this;
+        }
+        BitSet copy = (BitSet) bits.clone();
+        copy.clear(id);
+        return new SymbolBitmap(copy);
+    }
+
+    public SymbolBitmap or(SymbolBitmap other) {
+        BitSet copy = (BitSet) bits.clone();
+        copy.or(other.bits);
+        return new SymbolBitmap(copy);
+    }
+
+    public SymbolBitmap and(SymbolBitmap other) {
+        BitSet copy = (BitSet) bits.clone();
+        copy.and(other.bits);
+        return new SymbolBitmap(copy);
+    }
+
+    public SymbolBitmap andNot(SymbolBitmap other) {
+        BitSet copy = (BitSet) bits.clone();
+        copy.andNot(other.bits);
+        return new SymbolBitmap(copy);
+    }
+
+    public boolean contains(int id) {
+        return bits.get(id);
+    }
+
+    public boolean isEmpty() {
+        return bits.isEmpty();
+    }
+
+    public int cardinality() {
+        return bits.cardinality();
+    }
+
+    public IntStream ids() {
+        return bits.stream();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || (other instanceof SymbolBitmap && bits.equals(((SymbolBitmap) other).bits));
+    }
+
+    @Override
+    public int hashCode() {
+        return bits.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return bits.toString();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.bucket;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps symbols to dense integer ids. Ids are never reused, so a bitmap taken at any point in time always resolves to
+ * the symbols it was built from. New ids are only handed out by the {@link BucketIndex} writer, which holds its lock
+ * while doing so; lookups are lock-free.
+ */
+final class SymbolInterner {
+
+    private final Map<String, Integer> ids; // symbol -> id
+    private volatile String[] symbols; // id -> symbol
+    private int size;
+
+    SymbolInterner() {
+        this.ids = new ConcurrentHashMap<>();
+        this.symbols = new String[64];
+    }
+
+    /** Must only be called by the index writer. */
+    int intern(String symbol) {
+        Integer existing = ids.get(symbol);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = size++;
+        String[] current = symbols;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = symbol;
+        symbols = current;
+        ids.put(symbol, id);
+        return id;
+    }
+
+    OptionalInt idOf(String symbol) {
+        Integer id = ids.get(symbol);
+        return id == null ? OptionalInt.empty() : OptionalInt.of(id);
+    }
+
+    String symbolOf(int id) {
+        return symbols[id];
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.cache;
+
+import com.achomutovskij.portfolioservice.encoding.ResponseEncoding;
+import com.achomutovskij.portfolioservice.metrics.Counter;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.achomutovskij.portfolioservice.resources.PositionResource;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.conjure.java.undertow.lib.Endpoint;
+import com.palantir.conjure.java.undertow.lib.UndertowRuntime;
+import com.palantir.conjure.java.undertow.lib.UndertowService;
+import com.palantir.logsafe.Preconditions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Wraps the {@code getStockPosition} and {@code getBucketPosition} endpoints of the position service so that they are
+ * served from a cache of serialized responses keyed by the {@link VersionTracker} version of the symbol or bucket, and
+ * answer {@code If-None-Match} requests carrying the current {@code ETag} with a 304 without recomputing anything.
+ * The other endpoints are left as they are.
+ *
+ * <p>A cached response is dropped as soon as its version moves on, so the cache only ever holds the current responses
+ * of the symbols and buckets that exist.
+ *
+ * <p>Responses are encoded as negotiated from the {@code Accept} header, like Conjure does, and each encoding is cached
+ * and tagged separately.
+ *
+ * <p>The endpoints stay Conjure endpoints: whatever a position fails with is serialized by Conjure like any other
+ * error, and the wrappers applied around this service, e.g. the endpoint metrics, see every request.
+ */
+public final class ConditionalPositionService implements UndertowService, VersionTracker.Listener {
+
+    private static final String STOCK_ENDPOINT = "getStockPosition";
+    private static final String BUCKET_ENDPOINT = "getBucketPosition";
+
+    private final UndertowService delegate;
+    private final PositionResource positionResource;
+    private final VersionTracker versionTracker;
+    private final String epoch; // distinguishes the ETags of this process from the ones of a previous run
+    private final Map<String, CachedResponse> responses; // request key and encoding -> latest serialized response
+    private final Counter stockCacheHits;
+    private final Counter stockCacheMisses;
+    private final Counter bucketCacheHits;
+    private final Counter bucketCacheMisses;
+
+    private ConditionalPositionService(
+            UndertowService delegate,
+            PositionResource positionResource,
+            VersionTracker versionTracker,
+            MetricRegistry metrics) {
+        this.delegate = Preconditions.checkNotNull(delegate, "Delegate service must be non-null");
+        this.positionResource = Preconditions.checkNotNull(positionResource, "Position resource must be non-null");
+        this.versionTracker = Preconditions.checkNotNull(versionTracker, "Version tracker must be non-null");
+        this.epoch = Long.toHexString(System.currentTimeMillis());
+        this.responses = new ConcurrentHashMap<>();
+
+        Preconditions.checkNotNull(metrics, "Metric registry must be non-null");
+        this.stockCacheHits = cacheLookups(metrics, STOCK_ENDPOINT, "hit");
+        this.stockCacheMisses = cacheLookups(metrics, STOCK_ENDPOINT, "miss");
+        this.bucketCacheHits = cacheLookups(metrics, BUCKET_ENDPOINT, "hit");
+        this.bucketCacheMisses = cacheLookups(metrics, BUCKET_ENDPOINT, "miss");
+        versionTracker.addListener(this);
+    }
+
+    public static UndertowService of(
+            UndertowService delegate,
+            PositionResource positionResource,
+            VersionTracker versionTracker,
+            MetricRegistry metrics) {
+        return new ConditionalPositionService(delegate, positionResource, versionTracker, metrics);
+    }
+
+    @Override
+    public List<Endpoint> endpoints(UndertowRuntime runtime) {
+        return delegate.endpoints(runtime).stream()
+                .map(endpoint -> {
+                    switch (endpoint.name()) {
+                        case STOCK_ENDPOINT:
+                            return new ConditionalEndpoint(endpoint, "symbol", true);
+                        case BUCKET_ENDPOINT:
+                            return new ConditionalEndpoint(endpoint, "name", false);
+                        default:
+                            return endpoint;
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+
+    private void handle(HttpServerExchange exchange, HttpHandler conjureHandler, String parameter, boolean stock)
+            throws Exception {
+        Deque<String> values = exchange.getQueryParameters().get(parameter);
+        if (values == null || values.size() != 1) {
+            conjureHandler.handleRequest(exchange); // let Conjure produce the usual error
+            return;
+        }
+
+        String name = values.getFirst();
+        ResponseEncoding encoding = ResponseEncoding.negotiate(exchange.getRequestHeaders().getFirst(Headers.ACCEPT));
+        String key = key(encoding, stock, name);
+        long version = version(stock, name);
+
+        CachedResponse cached = responses.get(key);
+        if (cached == null || cached.version != version) {
+            // a failure propagates to Conjure's exception handling, which serializes it as usual
+            Object response =
+                    stock ? positionResource.getStockPosition(name) : positionResource.getBucketPosition(name);
+            String etag = '"' + epoch + '-' + version + encoding.etagSuffix() + '"';
+            cached = new CachedResponse(version, etag, encoding.serialize(response));
+            responses.put(key, cached);
+            if (version(stock, name) != version) {
+                responses.remove(key, cached); // the version moved on while computing, possibly already evicted
+            }
+            (stock ? stockCacheMisses : bucketCacheMisses).increment();
+        } else {
+            (stock ? stockCacheHits : bucketCacheHits).increment();
+        }
+
+        exchange.getResponseHeaders().put(Headers.ETAG, cached.etag);
+        exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_STRING);
+        if (matches(exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH), cached.etag)) {
+            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+            exchange.endExchange();
+            return;
+        }
+
+        exchange.setStatusCode(StatusCodes.OK);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, encoding.contentType());
+        exchange.getResponseSender().send(ByteBuffer.wrap(cached.body));
+    }
+
+    @Override
+    public void symbolVersionChanged(String symbol) {
+        evict(true, symbol);
+    }
+
+    @Override
+    public void bucketVersionChanged(String bucketName) {
+        evict(false, bucketName);
+    }
+
+    private void evict(boolean stock, String name) {
+        for (ResponseEncoding encoding : ResponseEncoding.values()) {
+            responses.remove(key(encoding, stock, name));
+        }
+    }
+
+    private long version(boolean stock, String name) {
+        return stock ? versionTracker.symbolVersion(name) : versionTracker.bucketVersion(name);
+    }
+
+    private static String key(ResponseEncoding encoding, boolean stock, String name) {
+        return encoding.name() + (stock ? "/stock/" : "/bucket/") + name;
+    }
+
+    private static Counter cacheLookups(MetricRegistry metrics, String endpoint, String result) {
+        return metrics.counter(
+                "portfolio_response_cache_lookups_total",
+                "Position responses served from the serialized response cache, or computed on a miss",
+                "endpoint",
+                endpoint,
+                "result",
+                result);
+    }
+
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.startsWith("W/")) {
+                trimmed = trimmed.substring(2);
+            }
+            if (trimmed.equals("*") || trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class ConditionalEndpoint implements Endpoint {
+        private final Endpoint delegate;
+        private final HttpHandler handler;
+
+        private ConditionalEndpoint(Endpoint delegate, String parameter, boolean stock) {
+            this.delegate = delegate;
+            HttpHandler delegateHandler = delegate.handler();
+            this.handler = exchange -> handle(exchange, delegateHandler, parameter, stock);
+        }
+
+        @Override
+        public HttpString method() {
+            return delegate.method();
+        }
+
+        @Override
+        public String template() {
+            return delegate.template();
+        }
+
+        @Override
+        public HttpHandler handler() {
+            return handler;
+        }
+
+        @Override
+        public String serviceName() {
+            return delegate.serviceName();
+        }
+
+        @Override
+        public String name() {
+            return delegate.name();
+        }
+
+        @Override
+        public Optional<String> deprecated() {
+            return delegate.deprecated();
+        }
+
+        @Override
+        public ImmutableSet<String> tags() {
+            return delegate.tags();
+        }
+    }
+
+    private static final class CachedResponse {
+        private final long version;
+        private final String etag;
+        private final byte[] body;
+
+        private CachedResponse(long version, String etag, byte[] body) {
+            this.version = version;
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.cache;
+
+import com.achomutovskij.portfolioservice.events.PortfolioChangeListener;
+import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
+import com.palantir.logsafe.Preconditions;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks a version per symbol and per bucket. Every change that can alter a position response moves the affected
+ * versions forward, so a response computed at a given version stays valid for as long as the version is unchanged.
+ *
+ * <p>All versions are drawn from one process-wide sequence, which means a version is never reused, not even for a
+ * bucket that is deleted and created again.
+ *
+ * <p>Listeners are told about every version that moves forward, after it has moved, so they can drop whatever they
+ * derived from the previous one.
+ */
+public final class VersionTracker implements PortfolioChangeListener {
+
+    private final BucketManagementResource bucketManager;
+    private final AtomicLong sequence;
+    private final Map<String, Long> symbolVersions; // symbol -> version
+    private final Map<String, Long> bucketVersions; // bucket -> version
+    private final List<Listener> listeners;
+
+    public VersionTracker(BucketManagementResource bucketManager) {
+        this.bucketManager = Preconditions.checkNotNull(bucketManager, "Bucket manager must be non-null");
+        this.sequence = new AtomicLong();
+        this.symbolVersions = new ConcurrentHashMap<>();
+        this.bucketVersions = new ConcurrentHashMap<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(Preconditions.checkNotNull(listener, "Listener must be non-null"));
+    }
+
+    public long symbolVersion(String symbol) {
+        return symbolVersions.getOrDefault(symbol, 0L);
+    }
+
+    public long bucketVersion(String bucketName) {
+        return bucketVersions.getOrDefault(bucketName, 0L);
+    }
+
+    @Override
+    public void onPositionChanged(String symbol) {
+        bumpSymbol(symbol);
+    }
+
+    @Override
+    public void onPriceChanged(String symbol) {
+        bumpSymbol(symbol);
+    }
+
+    @Override
+    public void onBucketChanged(String bucketName) {
+        // a parent rolls up its descendants, so the whole path up to the top-level bucket moves together
+        bumpBucket(bucketName);
+        bucketManager.getBucketAncestors(bucketName).forEach(this::bumpBucket);
+    }
+
+    private void bumpSymbol(String symbol) {
+        symbolVersions.put(symbol, sequence.incrementAndGet());
+        listeners.forEach(listener -> listener.symbolVersionChanged(symbol));
+        // a bucket's aggregates include every member, so they move together with the symbol
+        bucketManager.getBucketTreesForSymbol(symbol).forEach(this::bumpBucket);
+    }
+
+    private void bumpBucket(String bucketName) {
+        bucketVersions.put(bucketName, sequence.incrementAndGet());
+        listeners.forEach(listener -> listener.bucketVersionChanged(bucketName));
+    }
+
+    public interface Listener {
+        void symbolVersionChanged(String symbol);
+
+        void bucketVersionChanged(String bucketName);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.encoding;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
+import io.undertow.util.Headers;
+
+/**
+ * Gzip-compresses responses for clients that send {@code Accept-Encoding: gzip}, skipping the ones known to be too
+ * small to benefit. Responses streamed without a {@code Content-Length}, which are the large ones, are always
+ * compressed.
+ */
+public final class ResponseCompression {
+
+    static final long MIN_COMPRESSED_BYTES = 1024;
+
+    private static final int GZIP_PRIORITY = 50;
+
+    private ResponseCompression() {}
+
+    public static HttpHandler gzip(HttpHandler next) {
+        return new EncodingHandler(
+                next,
+                new ContentEncodingRepository()
+                        .addEncodingHandler(
+                                "gzip", new GzipEncodingProvider(), GZIP_PRIORITY, ResponseCompression::largeEnough));
+    }
+
+    static boolean largeEnough(HttpServerExchange exchange) {
+        String contentLength = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+        return contentLength == null || Long.parseLong(contentLength) >= MIN_COMPRESSED_BYTES;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.encoding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The body encodings the Conjure endpoints can respond with, chosen from the {@code Accept} header of the request.
+ * Smile and CBOR are binary encodings of the same data model as JSON: they skip number formatting and parsing and
+ * repeat field names far more cheaply, which matters for bucket positions with large breakdowns. JSON remains the
+ * default for clients that do not ask for anything else.
+ */
+public enum ResponseEncoding {
+    JSON("application/json", "", ObjectMappers.newServerObjectMapper()),
+    SMILE("application/x-jackson-smile", "-smile", ObjectMappers.newSmileServerObjectMapper()),
+    CBOR("application/cbor", "-cbor", ObjectMappers.newCborServerObjectMapper());
+
+    private final String contentType;
+    private final String etagSuffix;
+    private final ObjectMapper objectMapper;
+
+    ResponseEncoding(String contentType, String etagSuffix, ObjectMapper objectMapper) {
+        this.contentType = contentType;
+        this.etagSuffix = etagSuffix;
+        this.objectMapper = objectMapper;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    /** Distinguishes the entity tags of the encodings of one response from each other; empty for JSON. */
+    public String etagSuffix() {
+        return etagSuffix;
+    }
+
+    public byte[] serialize(Object value) throws IOException {
+        return objectMapper.writeValueAsBytes(value);
+    }
+
+    /**
+     * Returns the encoding with the highest quality in the given {@code Accept} header, the one listed first among
+     * equals, or JSON if the header is absent or names none of the encodings.
+     */
+    public static ResponseEncoding negotiate(String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+
+        ResponseEncoding best = JSON;
+        double bestQuality = 0;
+        for (String range : accept.split(",")) {
+            String[] parameters = range.split(";");
+            ResponseEncoding encoding = forMediaRange(parameters[0].trim().toLowerCase(Locale.ROOT));
+            double quality = quality(parameters);
+            if (encoding != null && quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the encoding of the given media range, or null if it is not one of the encodings. */
+    private static ResponseEncoding forMediaRange(String mediaRange) {
+        if (mediaRange.equals("*/*") || mediaRange.equals("application/*")) {
+            return JSON;
+        }
+        for (ResponseEncoding encoding : values()) {
+            if (encoding.contentType.equals(mediaRange)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
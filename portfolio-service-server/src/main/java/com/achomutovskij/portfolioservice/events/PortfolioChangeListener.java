@@ -0,0 +1,33 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.events;
+
+/**
+ * Receives a notification whenever something visible through the position endpoints changes. Callbacks run on the
+ * thread that made the change, so implementations must be cheap and must not block.
+ */
+public interface PortfolioChangeListener {
+
+    /** The position held in the symbol (its quantity, cost or bucket membership) changed or was closed. */
+    default void onPositionChanged(String _symbol) {}
+
+    /** The latest market price of the symbol changed. */
+    default void onPriceChanged(String _symbol) {}
+
+    /** The bucket was created, deleted or had symbols added to or removed from it. */
+    default void onBucketChanged(String _bucketName) {}
+}
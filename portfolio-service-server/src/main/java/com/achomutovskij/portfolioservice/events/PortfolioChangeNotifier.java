@@ -0,0 +1,46 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.events;
+
+import com.palantir.logsafe.Preconditions;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public final class PortfolioChangeNotifier {
+
+    private final List<PortfolioChangeListener> listeners;
+
+    public PortfolioChangeNotifier() {
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    public void addListener(PortfolioChangeListener listener) {
+        listeners.add(Preconditions.checkNotNull(listener, "Listener must be non-null"));
+    }
+
+    public void positionChanged(String symbol) {
+        listeners.forEach(listener -> listener.onPositionChanged(symbol));
+    }
+
+    public void priceChanged(String symbol) {
+        listeners.forEach(listener -> listener.onPriceChanged(symbol));
+    }
+
+    public void bucketChanged(String bucketName) {
+        listeners.forEach(listener -> listener.onBucketChanged(bucketName));
+    }
+}
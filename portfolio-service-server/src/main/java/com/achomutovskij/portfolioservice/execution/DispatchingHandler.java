@@ -0,0 +1,47 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.execution;
+
+import com.palantir.logsafe.Preconditions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import java.util.concurrent.Executor;
+
+/**
+ * Moves requests off the IO thread onto the given executor before handing them to the next handler. Handlers further
+ * down only dispatch to Undertow's worker pool when they find themselves on an IO thread, so everything downstream,
+ * including the Conjure endpoints, runs on the executor instead.
+ */
+public final class DispatchingHandler implements HttpHandler {
+
+    private final Executor executor;
+    private final HttpHandler next;
+
+    public DispatchingHandler(Executor executor, HttpHandler next) {
+        this.executor = Preconditions.checkNotNull(executor, "Executor must be non-null");
+        this.next = Preconditions.checkNotNull(next, "Next handler must be non-null");
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(executor, next);
+            return;
+        }
+        next.handleRequest(exchange);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.execution;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors that request handlers run on when they are not left to Undertow's worker pool.
+ *
+ * <p>The service is built for Java 17, which has no virtual threads, so they are looked up reflectively and used
+ * whenever the service runs on a JVM that has them (Java 21 onwards).
+ */
+public final class HandlerExecutors {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(HandlerExecutors.class);
+
+    private HandlerExecutors() {}
+
+    /**
+     * Returns an executor that starts a virtual thread per task or, on a JVM without virtual threads, an unbounded pool
+     * of daemon platform threads. Either way a handler blocked on the market data API never holds up other requests.
+     */
+    public static ExecutorService virtualThreadPerTask() {
+        return newVirtualThreadPerTaskExecutor().orElseGet(() -> {
+            log.warn("Virtual threads are not available on this JVM, falling back to an unbounded thread pool");
+            return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("portfolio-handler-%d")
+                    .setDaemon(true)
+                    .build());
+        });
+    }
+
+    static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+        Method factory;
+        try {
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of((ExecutorService) factory.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            throw new SafeIllegalStateException("Failed to create a virtual thread executor", e);
+        }
+    }
+}
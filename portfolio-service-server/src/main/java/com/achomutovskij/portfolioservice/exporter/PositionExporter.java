@@ -0,0 +1,113 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.exporter;
+
+import com.achomutovskij.portfolioservice.api.ExportFormat;
+import com.achomutovskij.portfolioservice.api.ExportedPosition;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import com.palantir.conjure.java.undertow.lib.BinaryResponseBody;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Writes exported positions to a response body one row at a time, so the export is never materialized as a whole.
+ * The rows are pulled from the iterator as they are written.
+ */
+public final class PositionExporter implements BinaryResponseBody {
+
+    static final String CSV_HEADER = "symbol,tradeType,quantity,avgCostPerShare,totalPurchaseCost,latestPrice,"
+            + "totalMarketValue,profitLossAmount,profitLossPercent,buckets";
+
+    private static final ObjectMapper MAPPER = ObjectMappers.newServerObjectMapper();
+    private static final Joiner FIELD_JOINER = Joiner.on(',');
+    private static final Joiner BUCKET_JOINER = Joiner.on(';');
+    private static final CharMatcher CSV_SPECIAL = CharMatcher.anyOf(",\"\r\n");
+
+    private final ExportFormat format;
+    private final Iterator<ExportedPosition> positions;
+
+    private PositionExporter(ExportFormat format, Iterator<ExportedPosition> positions) {
+        this.format = Preconditions.checkNotNull(format, "Export format must be non-null");
+        if (format.get() == ExportFormat.Value.UNKNOWN) {
+            throw new SafeIllegalArgumentException("Unknown export format", SafeArg.of("format", format));
+        }
+        this.positions = Preconditions.checkNotNull(positions, "Positions must be non-null");
+    }
+
+    public static PositionExporter of(ExportFormat format, Iterator<ExportedPosition> positions) {
+        return new PositionExporter(format, positions);
+    }
+
+    /** Whether the export starts with a header row, which a concatenation of several exports only keeps once. */
+    public static boolean hasHeader(ExportFormat format) {
+        return format.get() == ExportFormat.Value.CSV;
+    }
+
+    @Override
+    public void write(OutputStream responseBody) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(responseBody, StandardCharsets.UTF_8));
+        switch (format.get()) {
+            case CSV:
+                writer.write(CSV_HEADER);
+                writer.write('\n');
+                while (positions.hasNext()) {
+                    writer.write(csvRow(positions.next()));
+                    writer.write('\n');
+                }
+                break;
+            case NDJSON:
+                while (positions.hasNext()) {
+                    writer.write(MAPPER.writeValueAsString(positions.next()));
+                    writer.write('\n');
+                }
+                break;
+            default:
+                throw new SafeIllegalStateException("Unknown export format", SafeArg.of("format", format));
+        }
+        writer.flush();
+    }
+
+    static String csvRow(ExportedPosition position) {
+        return FIELD_JOINER.join(
+                csvField(position.getSymbol()),
+                position.getTradeType(),
+                position.getQuantity(),
+                position.getAvgCostPerShare(),
+                position.getTotalPurchaseCost(),
+                position.getLatestPrice(),
+                position.getTotalMarketValue(),
+                position.getProfitLossAmount(),
+                position.getProfitLossPercent(),
+                csvField(BUCKET_JOINER.join(position.getBuckets())));
+    }
+
+    private static String csvField(String value) {
+        return CSV_SPECIAL.matchesAnyOf(value) ? '"' + value.replace("\"", "\"\"") + '"' : value;
+    }
+}
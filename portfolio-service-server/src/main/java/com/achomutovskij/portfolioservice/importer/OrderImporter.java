@@ -0,0 +1,301 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.importer;
+
+import com.achomutovskij.portfolioservice.api.ImportError;
+import com.achomutovskij.portfolioservice.api.ImportFormat;
+import com.achomutovskij.portfolioservice.api.ImportResult;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.metrics.Counter;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Replays trade files through a {@link LaneWriter}, which applies the orders of a lane of a chunk together, or through
+ * an {@code addOrder} function that applies them one by one.
+ *
+ * <p>The file is read and parsed a chunk of {@value #CHUNK_ROWS} rows at a time. Each chunk is split into lanes by
+ * symbol, and the lanes are applied in parallel, each one after the same lane of the previous chunk, so that the
+ * orders for a symbol are applied in file order. A full chunk is only submitted once the chunk before it has been
+ * applied, so at most two chunks are held at a time, the one being applied and the one being read, which bounds the
+ * memory used whatever the size of the file.
+ *
+ * <p>If reading the file fails, the chunks already submitted are applied before the failure is rethrown, so that no
+ * order is applied after the import has returned.
+ */
+public final class OrderImporter {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(OrderImporter.class);
+
+    static final int CHUNK_ROWS = 8192;
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final int lanes;
+    private final ExecutorService executor;
+    private final Counter importedRows;
+    private final Counter failedRows;
+
+    public OrderImporter(int parallelism, MetricRegistry metrics) {
+        Preconditions.checkArgument(
+                parallelism > 0, "Parallelism must be positive", SafeArg.of("parallelism", parallelism));
+        Preconditions.checkNotNull(metrics, "Metric registry must be non-null");
+        this.lanes = parallelism;
+        this.executor = Executors.newFixedThreadPool(
+                parallelism,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("order-importer-%d")
+                        .setDaemon(true)
+                        .build());
+        this.importedRows = importRows(metrics, "imported");
+        this.failedRows = importRows(metrics, "failed");
+    }
+
+    public ImportResult importOrders(InputStream trades, ImportFormat format, Consumer<OrderRequest> addOrder)
+            throws IOException {
+        return importOrders(trades, format, oneByOne(addOrder));
+    }
+
+    public ImportResult importOrders(InputStream trades, ImportFormat format, LaneWriter writer) throws IOException {
+        TradeParser parser = TradeParser.of(format);
+        Progress progress = new Progress();
+
+        List<CompletableFuture<Void>> laneTails = new ArrayList<>(lanes);
+        for (int lane = 0; lane < lanes; lane++) {
+            laneTails.add(CompletableFuture.completedFuture(null));
+        }
+        CompletableFuture<Void> previousChunk = CompletableFuture.completedFuture(null);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(trades, StandardCharsets.UTF_8))) {
+            long lineNumber = 0;
+            List<List<Row>> chunk = newChunk();
+            int chunkRows = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && parser.isHeader(line))) {
+                    continue;
+                }
+
+                progress.rows.incrementAndGet();
+                try {
+                    OrderRequest order = parser.parse(line);
+                    chunk.get(Math.floorMod(order.getSymbol().hashCode(), lanes)).add(new Row(lineNumber, order));
+                    chunkRows++;
+                } catch (RuntimeException e) {
+                    progress.fail(lineNumber, e);
+                }
+
+                if (chunkRows == CHUNK_ROWS) {
+                    // the previous chunk is the one being applied, so wait for it before this one takes its place
+                    previousChunk.join();
+                    previousChunk = submit(chunk, laneTails, writer, progress);
+                    chunk = newChunk();
+                    chunkRows = 0;
+                    progress.logIfDue();
+                }
+            }
+            submit(chunk, laneTails, writer, progress).join();
+        } catch (IOException | RuntimeException e) {
+            awaitLanes(laneTails, e);
+            throw e;
+        }
+
+        return progress.result();
+    }
+
+    /** Waits for the chunks already submitted to be applied, adding any failure of theirs to the given one. */
+    private static void awaitLanes(List<CompletableFuture<Void>> laneTails, Exception failure) {
+        try {
+            CompletableFuture.allOf(laneTails.toArray(new CompletableFuture<?>[0])).join();
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private List<List<Row>> newChunk() {
+        List<List<Row>> chunk = new ArrayList<>(lanes);
+        for (int lane = 0; lane < lanes; lane++) {
+            chunk.add(new ArrayList<>());
+        }
+        return chunk;
+    }
+
+    private CompletableFuture<Void> submit(
+            List<List<Row>> chunk,
+            List<CompletableFuture<Void>> laneTails,
+            LaneWriter writer,
+            Progress progress) {
+        for (int lane = 0; lane < lanes; lane++) {
+            List<Row> rows = chunk.get(lane);
+            if (!rows.isEmpty()) {
+                laneTails.set(lane, laneTails.get(lane).thenRunAsync(() -> apply(rows, writer, progress), executor));
+            }
+        }
+        return CompletableFuture.allOf(laneTails.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void apply(List<Row> rows, LaneWriter writer, Progress progress) {
+        boolean[] failed = new boolean[rows.size()];
+        try {
+            writer.apply(rows.stream().map(row -> row.order).collect(Collectors.toList()), (exception, index) -> {
+                failed[index] = true;
+                progress.fail(rows.get(index).line, exception);
+            });
+        } catch (RuntimeException e) {
+            // none of the orders took effect, apart from those already reported as failed
+            for (int index = 0; index < failed.length; index++) {
+                if (!failed[index]) {
+                    failed[index] = true;
+                    progress.fail(rows.get(index).line, e);
+                }
+            }
+        }
+
+        for (boolean rowFailed : failed) {
+            if (!rowFailed) {
+                progress.imported.incrementAndGet();
+                importedRows.increment();
+            }
+        }
+    }
+
+    /** A lane writer that applies each order on its own, e.g. by forwarding it to the node that owns its symbol. */
+    public static LaneWriter oneByOne(Consumer<OrderRequest> addOrder) {
+        return (orders, failed) -> {
+            for (int index = 0; index < orders.size(); index++) {
+                try {
+                    addOrder.accept(orders.get(index));
+                } catch (RuntimeException e) {
+                    failed.accept(e, index);
+                }
+            }
+        };
+    }
+
+    private static Counter importRows(MetricRegistry metrics, String result) {
+        return metrics.counter(
+                "portfolio_import_rows_total", "Rows of imported trade files, by outcome", "result", result);
+    }
+
+    private static String reason(RuntimeException exception) {
+        // the messages of service exceptions name the error, e.g. Date:DateNotFound
+        return exception.getMessage() == null ? exception.getClass().getSimpleName() : exception.getMessage();
+    }
+
+    private final class Progress {
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong imported = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final List<ImportError> errors = new ArrayList<>(); // guarded by itself
+        private long lastLoggedNanos = startNanos;
+
+        void fail(long line, RuntimeException exception) {
+            failed.incrementAndGet();
+            failedRows.increment();
+            synchronized (errors) {
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(ImportError.of(SafeLong.of(line), reason(exception)));
+                }
+            }
+        }
+
+        void logIfDue() {
+            long now = System.nanoTime();
+            if (now - lastLoggedNanos >= PROGRESS_INTERVAL_NANOS) {
+                lastLoggedNanos = now;
+                log.info(
+                        "Importing trades",
+                        SafeArg.of("rows", rows.get()),
+                        SafeArg.of("imported", imported.get()),
+                        SafeArg.of("failed", failed.get()),
+                        SafeArg.of("rowsPerSecond", (long) rowsPerSecond(now)));
+            }
+        }
+
+        ImportResult result() {
+            long now = System.nanoTime();
+            List<ImportError> reportedErrors;
+            synchronized (errors) {
+                reportedErrors = new ArrayList<>(errors);
+            }
+            // rows failing to parse are reported as they are read, the others as their lane gets to them
+            reportedErrors.sort(Comparator.comparing(error -> error.getLine().longValue()));
+
+            ImportResult result = ImportResult.builder()
+                    .rows(SafeLong.of(rows.get()))
+                    .imported(SafeLong.of(imported.get()))
+                    .failed(SafeLong.of(failed.get()))
+                    .errors(reportedErrors)
+                    .durationMillis(SafeLong.of(TimeUnit.NANOSECONDS.toMillis(now - startNanos)))
+                    .rowsPerSecond(rowsPerSecond(now))
+                    .build();
+            log.info(
+                    "Imported trades",
+                    SafeArg.of("rows", result.getRows()),
+                    SafeArg.of("imported", result.getImported()),
+                    SafeArg.of("failed", result.getFailed()),
+                    SafeArg.of("durationMillis", result.getDurationMillis()));
+            return result;
+        }
+
+        private double rowsPerSecond(long now) {
+            long elapsedNanos = Math.max(now - startNanos, 1);
+            return rows.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+    }
+
+    /** Applies the orders of one lane of a chunk, in file order, on an importer thread. */
+    public interface LaneWriter {
+        /**
+         * Reports every order that fails to {@code failed}, with its index in {@code orders}. If this throws, none of
+         * the orders that were not reported took effect.
+         */
+        void apply(List<OrderRequest> orders, ObjIntConsumer<RuntimeException> failed);
+    }
+
+    private static final class Row {
+        private final long line;
+        private final OrderRequest order;
+
+        private Row(long line, OrderRequest order) {
+            this.line = line;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.importer;
+
+import com.achomutovskij.portfolioservice.api.ImportFormat;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Locale;
+
+/** Parses one line of a trade file into an order. */
+abstract class TradeParser {
+
+    private static final ObjectMapper MAPPER = ObjectMappers.newServerObjectMapper();
+    private static final Splitter FIELD_SPLITTER = Splitter.on(',').trimResults();
+    private static final Splitter BUCKET_SPLITTER = Splitter.on(';').trimResults().omitEmptyStrings();
+    private static final int CSV_FIELDS = 5;
+    private static final int DATE_LENGTH = 10; // yyyy-MM-dd
+
+    static TradeParser of(ImportFormat format) {
+        switch (format.get()) {
+            case CSV:
+                return new CsvParser();
+            case NDJSON:
+                return new NdjsonParser();
+            default:
+                throw new SafeIllegalArgumentException("Unknown import format", SafeArg.of("format", format));
+        }
+    }
+
+    /** Whether the line is a header to skip, given that it is the first line of the file. */
+    abstract boolean isHeader(String firstLine);
+
+    final OrderRequest parse(String line) {
+        OrderRequest order = parseOrder(line);
+        if (order.getType().get() == TradeType.Value.UNKNOWN) {
+            throw new SafeIllegalArgumentException("Expected BUY or SELL", UnsafeArg.of("type", order.getType()));
+        }
+        return order;
+    }
+
+    abstract OrderRequest parseOrder(String line);
+
+    private static final class CsvParser extends TradeParser {
+        @Override
+        boolean isHeader(String firstLine) {
+            return firstLine.toLowerCase(Locale.ROOT).startsWith("type,");
+        }
+
+        @Override
+        OrderRequest parseOrder(String line) {
+            List<String> fields = FIELD_SPLITTER.splitToList(line);
+            if (fields.size() != CSV_FIELDS) {
+                throw new SafeIllegalArgumentException(
+                        "Expected type,symbol,quantity,date,buckets", SafeArg.of("fields", fields.size()));
+            }
+
+            return OrderRequest.builder()
+                    .type(TradeType.valueOf(fields.get(0).toUpperCase(Locale.ROOT)))
+                    .symbol(fields.get(1))
+                    .quantity(Integer.parseInt(fields.get(2)))
+                    .date(parseDate(fields.get(3)))
+                    .buckets(BUCKET_SPLITTER.splitToList(fields.get(4)))
+                    .build();
+        }
+
+        private static OffsetDateTime parseDate(String date) {
+            return date.length() == DATE_LENGTH
+                    ? LocalDate.parse(date).atStartOfDay().atOffset(ZoneOffset.UTC)
+                    : OffsetDateTime.parse(date);
+        }
+    }
+
+    private static final class NdjsonParser extends TradeParser {
+        @Override
+        boolean isHeader(String _firstLine) {
+            return false;
+        }
+
+        @Override
+        OrderRequest parseOrder(String line) {
+            try {
+                return MAPPER.readValue(line, OrderRequest.class);
+            } catch (JsonProcessingException e) {
+                throw new SafeIllegalArgumentException(
+                        "Not an order", e, UnsafeArg.of("reason", e.getOriginalMessage()));
+            }
+        }
+    }
+}
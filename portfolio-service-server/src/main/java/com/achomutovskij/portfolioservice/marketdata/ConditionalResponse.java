@@ -0,0 +1,60 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.marketdata;
+
+import com.palantir.logsafe.Preconditions;
+import java.util.Optional;
+
+/**
+ * The outcome of a conditional request to the market data API: either the symbol's prices have not changed since the
+ * response the caller already holds, or the API sent a new response, or there was no usable response at all.
+ */
+public final class ConditionalResponse {
+
+    private static final ConditionalResponse NOT_MODIFIED = new ConditionalResponse(true, Optional.empty());
+    private static final ConditionalResponse FAILED = new ConditionalResponse(false, Optional.empty());
+
+    private final boolean notModified;
+    private final Optional<MarketApiResponse> response;
+
+    private ConditionalResponse(boolean notModified, Optional<MarketApiResponse> response) {
+        this.notModified = notModified;
+        this.response = response;
+    }
+
+    public static ConditionalResponse notModified() {
+        return NOT_MODIFIED;
+    }
+
+    public static ConditionalResponse modified(MarketApiResponse response) {
+        return new ConditionalResponse(false, Optional.of(Preconditions.checkNotNull(response, "Response is null")));
+    }
+
+    public static ConditionalResponse failed() {
+        return FAILED;
+    }
+
+    /** Whether the API confirmed that the response the caller holds is still current. */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /** The new response, if the API sent one. */
+    public Optional<MarketApiResponse> response() {
+        return response;
+    }
+}
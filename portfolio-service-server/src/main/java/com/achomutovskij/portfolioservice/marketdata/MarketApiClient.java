@@ -16,50 +16,221 @@
 
 package com.achomutovskij.portfolioservice.marketdata;
 
+import com.achomutovskij.portfolioservice.PriceInterval;
+import com.achomutovskij.portfolioservice.metrics.Counter;
+import com.achomutovskij.portfolioservice.metrics.Histogram;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.achomutovskij.portfolioservice.profiling.MarketApiRequestEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.guava.GuavaModule;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
 import com.palantir.logsafe.logger.SafeLogger;
 import com.palantir.logsafe.logger.SafeLoggerFactory;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
+/**
+ * Fetches the price history of a symbol from the market data API.
+ *
+ * <p>Responses are requested gzip-compressed and decompressed here rather than by OkHttp, so the bytes actually
+ * received can be counted. The validators ({@code ETag}, {@code Last-Modified}) of the last full response for each
+ * symbol are kept, so that a caller who still holds that response can revalidate it with a conditional request, which
+ * costs a bodiless {@code 304} when the prices have not changed.
+ */
 public final class MarketApiClient {
 
     private static final SafeLogger log = SafeLoggerFactory.get(MarketApiClient.class);
 
+    public static final String DEFAULT_BASE_URL = "https://api.dev.app.getbaraka.com";
+    public static final String DEFAULT_RANGE = "month";
+
     private final ObjectMapper objectMapper;
     private final OkHttpClient okHttpClient;
+    private final String baseUrl;
+    private final String range;
+    private final PriceInterval interval;
+    private final Histogram succeeded;
+    private final Histogram rejected; // the API responded, but without data
+    private final Histogram failed; // no usable response at all
+    private final Histogram notModified; // the caller's last response is still current
+    private final Counter receivedBytes;
+    private final Map<String, Validators> validators; // symbol -> validators of its last full response
 
     public MarketApiClient(OkHttpClient okHttpClient) {
+        this(okHttpClient, DEFAULT_BASE_URL);
+    }
+
+    public MarketApiClient(OkHttpClient okHttpClient, String baseUrl) {
+        this(okHttpClient, baseUrl, new MetricRegistry());
+    }
+
+    public MarketApiClient(OkHttpClient okHttpClient, String baseUrl, MetricRegistry metrics) {
+        this(okHttpClient, baseUrl, DEFAULT_RANGE, PriceInterval.DAY, metrics);
+    }
+
+    /** Fetches the prices of the last {@code range} (e.g. month or 5y), one bar per {@code interval}. */
+    public MarketApiClient(
+            OkHttpClient okHttpClient, String baseUrl, String range, PriceInterval interval, MetricRegistry metrics) {
         this.okHttpClient = Preconditions.checkNotNull(okHttpClient, "OkHttpClient needs to be non-null");
+        this.baseUrl = Preconditions.checkNotNull(baseUrl, "Base URL needs to be non-null");
+        this.range = Preconditions.checkNotNull(range, "Range needs to be non-null");
+        this.interval = Preconditions.checkNotNull(interval, "Interval needs to be non-null");
+        queryValue(interval); // rejects unknown intervals up front
+        Preconditions.checkNotNull(metrics, "Metric registry needs to be non-null");
+        this.succeeded = requestDuration(metrics, "success");
+        this.rejected = requestDuration(metrics, "error_response");
+        this.failed = requestDuration(metrics, "failure");
+        this.notModified = requestDuration(metrics, "not_modified");
+        this.receivedBytes = metrics.counter(
+                "portfolio_market_api_received_bytes_total",
+                "Bytes of market data API response bodies as received, i.e. before decompression");
+        this.validators = new ConcurrentHashMap<>();
 
         objectMapper = new ObjectMapper();
         objectMapper.registerModules(new GuavaModule()); // for ImmutableList
         objectMapper.registerModule(new JavaTimeModule()); // for OffsetDateTime
     }
 
+    /** The length of the price bars the API returns, each of which starts at its entry's date. */
+    public Duration barLength() {
+        switch (interval.get()) {
+            case MINUTE:
+                return Duration.ofMinutes(1);
+            case FIVE_MINUTES:
+                return Duration.ofMinutes(5);
+            case FIFTEEN_MINUTES:
+                return Duration.ofMinutes(15);
+            case HOUR:
+                return Duration.ofHours(1);
+            case DAY:
+                return Duration.ofDays(1);
+            default:
+                throw unknownInterval(interval);
+        }
+    }
+
     public Optional<MarketApiResponse> getApiResponse(String symbol) {
+        return fetch(symbol, Optional.empty()).response();
+    }
+
+    /**
+     * Like {@link #getApiResponse}, but only sends the prices if they changed since the last full response for the
+     * symbol, which the caller must still hold. Without validators for the symbol this is an unconditional request.
+     */
+    public ConditionalResponse getApiResponseIfModified(String symbol) {
+        return fetch(symbol, Optional.ofNullable(validators.get(symbol)));
+    }
+
+    private ConditionalResponse fetch(String symbol, Optional<Validators> conditional) {
 
         String url = String.format(
-                "https://api.dev.app.getbaraka.com/v1/finance_market/quotes/%s/historical?range=month&interval=day",
-                symbol);
+                "%s/v1/finance_market/quotes/%s/historical?range=%s&interval=%s",
+                baseUrl,
+                symbol,
+                range,
+                queryValue(interval));
 
-        Request request = new Request.Builder().url(url).get().build();
+        Request.Builder request = new Request.Builder().url(url).header("Accept-Encoding", "gzip");
+        conditional.ifPresent(previous -> {
+            previous.etag.ifPresent(etag -> request.header("If-None-Match", etag));
+            previous.lastModified.ifPresent(lastModified -> request.header("If-Modified-Since", lastModified));
+        });
 
-        try (Response response = okHttpClient.newCall(request).execute()) {
-            if (response.code() != 200 || response.body() == null) {
-                return Optional.empty();
+        MarketApiRequestEvent event = new MarketApiRequestEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try (Response response = okHttpClient.newCall(request.get().build()).execute()) {
+            if (response.code() == 304 && conditional.isPresent()) {
+                notModified.recordNanos(System.nanoTime() - start);
+                event.commit(symbol, response.code(), 0, 0);
+                return ConditionalResponse.notModified();
             }
 
-            return Optional.of(objectMapper.readValue(response.body().string(), MarketApiResponse.class));
+            ResponseBody body = response.body();
+            if (response.code() != 200 || body == null) {
+                rejected.recordNanos(System.nanoTime() - start);
+                event.commit(symbol, response.code(), 0, 0);
+                return ConditionalResponse.failed();
+            }
+
+            CountingInputStream received = new CountingInputStream(body.byteStream());
+            byte[] json;
+            try (InputStream decoded = "gzip".equalsIgnoreCase(response.header("Content-Encoding"))
+                    ? new GZIPInputStream(received)
+                    : received) {
+                json = ByteStreams.toByteArray(decoded);
+            }
+            receivedBytes.increment(received.getCount());
+
+            MarketApiResponse marketApiResponse = objectMapper.readValue(json, MarketApiResponse.class);
+            Optional<String> etag = Optional.ofNullable(response.header("ETag"));
+            Optional<String> lastModified = Optional.ofNullable(response.header("Last-Modified"));
+            if (etag.isPresent() || lastModified.isPresent()) {
+                validators.put(symbol, new Validators(etag, lastModified));
+            } else {
+                validators.remove(symbol);
+            }
+            succeeded.recordNanos(System.nanoTime() - start);
+            event.commit(symbol, response.code(), received.getCount(), marketApiResponse.data().size());
+            return ConditionalResponse.modified(marketApiResponse);
         } catch (IOException | RuntimeException e) {
+            failed.recordNanos(System.nanoTime() - start);
+            event.commit(symbol, 0, 0, 0);
             log.error("Failed to get or parse the response from Market Data API", e);
-            return Optional.empty();
+            return ConditionalResponse.failed();
+        }
+    }
+
+    private static String queryValue(PriceInterval priceInterval) {
+        switch (priceInterval.get()) {
+            case MINUTE:
+                return "1m";
+            case FIVE_MINUTES:
+                return "5m";
+            case FIFTEEN_MINUTES:
+                return "15m";
+            case HOUR:
+                return "1h";
+            case DAY:
+                return "day";
+            default:
+                throw unknownInterval(priceInterval);
+        }
+    }
+
+    private static SafeIllegalArgumentException unknownInterval(PriceInterval priceInterval) {
+        return new SafeIllegalArgumentException("Unknown price interval", SafeArg.of("interval", priceInterval));
+    }
+
+    private static Histogram requestDuration(MetricRegistry metrics, String outcome) {
+        return metrics.histogram(
+                "portfolio_market_api_request_duration_seconds",
+                "Duration of the requests to the market data API, by outcome",
+                "outcome",
+                outcome);
+    }
+
+    private static final class Validators {
+        private final Optional<String> etag;
+        private final Optional<String> lastModified;
+
+        private Validators(Optional<String> etag, Optional<String> lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
         }
     }
 }
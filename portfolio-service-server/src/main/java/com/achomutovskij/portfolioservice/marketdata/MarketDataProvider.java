@@ -18,57 +18,137 @@ package com.achomutovskij.portfolioservice.marketdata;
 
 import com.achomutovskij.portfolioservice.api.DataErrors;
 import com.achomutovskij.portfolioservice.api.DateErrors;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeNotifier;
+import com.achomutovskij.portfolioservice.metrics.Counter;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.achomutovskij.portfolioservice.profiling.MarketDataUpdateEvent;
+import com.achomutovskij.portfolioservice.profiling.PriceMapEvent;
+import com.google.common.util.concurrent.Striped;
 import com.palantir.logsafe.Preconditions;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.Lock;
 import javax.annotation.Nonnull;
 
+/**
+ * Caches the price bars of the symbols fetched from the market data API, and refreshes them once they are older than
+ * the refresh period. Bars accumulate across fetches, so prices stay available after they drop out of the range the
+ * API returns; where they are kept is up to the {@link PriceStorage}.
+ */
 public final class MarketDataProvider {
 
     private static final String NO_DATA = "No market data exists for the specified symbol";
+    private static final int MERGE_LOCK_STRIPES = 64;
 
     private final MarketApiClient apiClient;
     private final Duration refreshPeriod;
+    private final long barSeconds;
+    private final PriceStorage storage;
+    private final PortfolioChangeNotifier changeNotifier;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Counter refreshes;
 
-    private final Map<String, Map<OffsetDateTime, Double>> symbolToDatePrices; // symbol -> date -> price
+    private final Map<String, SymbolPrices> symbolPrices; // symbol -> cached bars, replaced when they change
     private final Map<String, Double> latestPrices; // symbol -> latest price
     private final Map<String, OffsetDateTime> lastTimeSymbolDataUpdated; // symbol -> timestamp when it was last updated
+    private final Map<String, DailyCloses> priceHistories; // symbol -> daily closes, derived when first asked for
+    private final Striped<Lock> mergeLocks; // serializes the merges of fetched bars into the bars of a symbol
 
     public MarketDataProvider(MarketApiClient apiClient, Duration refreshPeriod) {
+        this(apiClient, refreshPeriod, new PortfolioChangeNotifier());
+    }
+
+    public MarketDataProvider(
+            MarketApiClient apiClient, Duration refreshPeriod, PortfolioChangeNotifier changeNotifier) {
+        this(apiClient, refreshPeriod, changeNotifier, new MetricRegistry());
+    }
+
+    public MarketDataProvider(
+            MarketApiClient apiClient,
+            Duration refreshPeriod,
+            PortfolioChangeNotifier changeNotifier,
+            MetricRegistry metrics) {
+        this(apiClient, refreshPeriod, changeNotifier, metrics, PriceStorage.onHeap());
+    }
+
+    public MarketDataProvider(
+            MarketApiClient apiClient,
+            Duration refreshPeriod,
+            PortfolioChangeNotifier changeNotifier,
+            MetricRegistry metrics,
+            PriceStorage storage) {
         this.apiClient = Preconditions.checkNotNull(apiClient, "API Client must be non-null");
         this.refreshPeriod = Preconditions.checkNotNull(refreshPeriod, "Refresh period must be non-null");
-        this.symbolToDatePrices = new ConcurrentHashMap<>();
+        this.barSeconds = apiClient.barLength().getSeconds();
+        this.storage = Preconditions.checkNotNull(storage, "Price storage must be non-null");
+        this.changeNotifier = Preconditions.checkNotNull(changeNotifier, "Change notifier must be non-null");
+        Preconditions.checkNotNull(metrics, "Metric registry must be non-null");
+        this.cacheHits = cacheLookups(metrics, "hit");
+        this.cacheMisses = cacheLookups(metrics, "miss");
+        this.refreshes = metrics.counter(
+                "portfolio_market_data_refreshes_total",
+                "Market data API requests made for symbols that were already cached, because their data was stale");
+        this.symbolPrices = new ConcurrentHashMap<>();
         this.latestPrices = new ConcurrentHashMap<>();
         this.lastTimeSymbolDataUpdated = new ConcurrentHashMap<>();
+        this.priceHistories = new ConcurrentHashMap<>();
+        this.mergeLocks = Striped.lock(MERGE_LOCK_STRIPES);
+        metrics.gauge(
+                "portfolio_market_data_bars",
+                "Cached price bars, by whether they are kept on the heap or spilled to disk",
+                () -> symbolPrices.values().stream()
+                        .mapToLong(SymbolPrices::recentSize)
+                        .sum(),
+                "tier",
+                "heap");
+        metrics.gauge(
+                "portfolio_market_data_bars",
+                "Cached price bars, by whether they are kept on the heap or spilled to disk",
+                () -> symbolPrices.values().stream()
+                        .mapToLong(prices -> prices.spilled().size())
+                        .sum(),
+                "tier",
+                "disk");
     }
 
+    /** The close of the price bar that {@code date} falls into, e.g. of its day with daily bars. */
     public double getPrice(@Nonnull String symbol, @Nonnull OffsetDateTime date) {
-        if (!symbolToDatePrices.containsKey(symbol)
-                || !symbolToDatePrices.get(symbol).containsKey(date)) {
+        long epochSecond = date.toEpochSecond();
+        if (barIndex(symbolPrices.get(symbol), epochSecond) < 0) {
+            cacheMisses.increment();
             updateState(symbol);
+        } else {
+            cacheHits.increment();
         }
 
-        if (!symbolToDatePrices.containsKey(symbol)) {
+        SymbolPrices prices = symbolPrices.get(symbol);
+        if (prices == null) {
             throw DataErrors.symbolNotFound(symbol, NO_DATA);
         }
 
-        if (!symbolToDatePrices.get(symbol).containsKey(date)) {
+        int index = barIndex(prices, epochSecond);
+        if (index < 0) {
             throw DateErrors.dateNotFound(date);
         }
 
-        return symbolToDatePrices.get(symbol).get(date);
+        return prices.close(index);
     }
 
     public double getLatestPrice(@Nonnull String symbol) {
         if (!latestPrices.containsKey(symbol)) {
+            cacheMisses.increment();
             updateState(symbol);
+        } else {
+            cacheHits.increment();
         }
 
         if (!latestPrices.containsKey(symbol)) {
@@ -78,18 +158,73 @@ public final class MarketDataProvider {
         return latestPrices.get(symbol);
     }
 
+    /** The start of every cached price bar of the symbol, newest first. */
     public List<OffsetDateTime> getAvailableDates(String symbol) {
-        if (!symbolToDatePrices.containsKey(symbol)) {
+        if (!symbolPrices.containsKey(symbol)) {
+            cacheMisses.increment();
+            updateState(symbol);
+        } else {
+            cacheHits.increment();
+        }
+
+        SymbolPrices prices = symbolPrices.get(symbol);
+        if (prices == null) {
+            throw DataErrors.symbolNotFound(symbol, NO_DATA);
+        }
+
+        List<OffsetDateTime> dates = new ArrayList<>(prices.size());
+        for (int index = prices.size() - 1; index >= 0; index--) {
+            dates.add(OffsetDateTime.ofInstant(Instant.ofEpochSecond(prices.epochSecond(index)), ZoneOffset.UTC));
+        }
+        return dates;
+    }
+
+    /**
+     * Returns the daily closes of all the cached bars of the symbol, refreshing them first if they are stale. They are
+     * only derived from the bars when asked for, and the same instance is returned for as long as the prices do not
+     * change.
+     */
+    public PriceHistory getPriceHistory(@Nonnull String symbol) {
+        if (!hasFreshData(symbol)) {
+            cacheMisses.increment();
             updateState(symbol);
+        } else {
+            cacheHits.increment();
         }
 
-        if (!symbolToDatePrices.containsKey(symbol)) {
+        SymbolPrices prices = symbolPrices.get(symbol);
+        if (prices == null) {
             throw DataErrors.symbolNotFound(symbol, NO_DATA);
         }
 
-        return symbolToDatePrices.get(symbol).keySet().stream()
-                .sorted(Collections.reverseOrder())
-                .collect(Collectors.toList());
+        DailyCloses dailyCloses = priceHistories.get(symbol);
+        if (dailyCloses == null || dailyCloses.prices != prices) {
+            PriceHistory priceHistory = PriceHistory.ofDailyCloses(prices);
+            // keep the previous history if nothing changed, so the results derived from it stay cached
+            if (dailyCloses != null && dailyCloses.history.equals(priceHistory)) {
+                priceHistory = dailyCloses.history;
+            }
+            dailyCloses = new DailyCloses(prices, priceHistory);
+            priceHistories.put(symbol, dailyCloses);
+        }
+        return dailyCloses.history;
+    }
+
+    /**
+     * Whether the symbol's prices are cached and recent enough to be served without calling the market data API, as
+     * {@link #getPriceHistory} requires.
+     */
+    public boolean hasFreshData(@Nonnull String symbol) {
+        OffsetDateTime lastUpdated = lastTimeSymbolDataUpdated.get(symbol);
+        return lastUpdated != null && !shouldRefresh(lastUpdated);
+    }
+
+    /**
+     * Whether {@link #getLatestPrice} and {@link #getAvailableDates} can answer without calling the market data API.
+     * Unlike the price history, neither refreshes prices that are already cached, however old they are.
+     */
+    public boolean hasCachedData(@Nonnull String symbol) {
+        return (latestPrices.containsKey(symbol) && symbolPrices.containsKey(symbol)) || hasFreshData(symbol);
     }
 
     private void updateState(@Nonnull String symbol) {
@@ -97,23 +232,91 @@ public final class MarketDataProvider {
             return;
         }
 
-        apiClient.getApiResponse(symbol).ifPresent(marketApiResponse -> {
+        boolean refresh = lastTimeSymbolDataUpdated.containsKey(symbol);
+        if (refresh) {
+            refreshes.increment();
+        }
+
+        MarketDataUpdateEvent event = new MarketDataUpdateEvent();
+        event.begin();
+        // a refresh only needs the prices if they changed; if not, what is cached is current for another period
+        ConditionalResponse fetched = refresh
+                ? apiClient.getApiResponseIfModified(symbol)
+                : apiClient.getApiResponse(symbol)
+                        .map(ConditionalResponse::modified)
+                        .orElseGet(ConditionalResponse::failed);
+        if (fetched.isNotModified()) {
+            lastTimeSymbolDataUpdated.put(symbol, OffsetDateTime.now(ZoneOffset.UTC));
+        }
+        fetched.response().ifPresent(marketApiResponse -> {
             List<MarketApiResponse.DataEntry> data = marketApiResponse.data();
+            boolean latestPriceChanged = false;
             if (!data.isEmpty()) {
-                latestPrices.put(symbol, data.get(data.size() - 1).close());
+                double latestPrice = data.get(data.size() - 1).close();
+                Double previousLatestPrice = latestPrices.put(symbol, latestPrice);
+                latestPriceChanged = previousLatestPrice == null || previousLatestPrice != latestPrice;
             }
 
-            Map<OffsetDateTime, Double> pricesForSymbol = data.stream()
-                    .collect(Collectors.toMap(MarketApiResponse.DataEntry::date, MarketApiResponse.DataEntry::close));
+            PriceMapEvent priceMapEvent = new PriceMapEvent();
+            priceMapEvent.begin();
+            NavigableMap<Long, Double> fetchedBars = new TreeMap<>();
+            data.forEach(entry -> fetchedBars.put(entry.date().toEpochSecond(), entry.close()));
 
-            symbolToDatePrices.computeIfAbsent(symbol, _key -> new HashMap<>()).putAll(pricesForSymbol);
+            // merges of the same symbol take turns, as each may replace the segment the previous one spilled; they
+            // run outside the map, so its readers and the other symbols are not held up by the disk writes
+            Lock mergeLock = mergeLocks.get(symbol);
+            mergeLock.lock();
+            try {
+                SymbolPrices current = symbolPrices.getOrDefault(symbol, SymbolPrices.EMPTY);
+                symbolPrices.put(symbol, storage.merge(current, fetchedBars));
+            } finally {
+                mergeLock.unlock();
+            }
+            priceMapEvent.commit(symbol, fetchedBars.size());
 
             lastTimeSymbolDataUpdated.put(symbol, OffsetDateTime.now(ZoneOffset.UTC));
+
+            if (latestPriceChanged) {
+                changeNotifier.priceChanged(symbol);
+            }
         });
+
+        if (event.shouldCommit()) {
+            SymbolPrices cachedPrices = symbolPrices.get(symbol);
+            event.commit(symbol, refresh, cachedPrices == null ? 0 : cachedPrices.size());
+        }
+    }
+
+    /** The index of the cached bar that {@code epochSecond} falls into, or -1 if there is none. */
+    private int barIndex(SymbolPrices prices, long epochSecond) {
+        if (prices == null) {
+            return -1;
+        }
+        int index = prices.floorIndex(epochSecond);
+        return index >= 0 && epochSecond - prices.epochSecond(index) < barSeconds ? index : -1;
+    }
+
+    private static Counter cacheLookups(MetricRegistry metrics, String result) {
+        return metrics.counter(
+                "portfolio_market_data_cache_lookups_total",
+                "Market data lookups, by whether the data was already cached",
+                "result",
+                result);
     }
 
     private boolean shouldRefresh(OffsetDateTime lastTimeRefreshed) {
         OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
         return Duration.between(lastTimeRefreshed, now).compareTo(refreshPeriod) > 0;
     }
+
+    /** The history derived from one version of a symbol's bars, rebuilt on demand once the bars are replaced. */
+    private static final class DailyCloses {
+        private final SymbolPrices prices;
+        private final PriceHistory history;
+
+        private DailyCloses(SymbolPrices prices, PriceHistory history) {
+            this.prices = prices;
+            this.history = history;
+        }
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.marketdata;
+
+import com.palantir.logsafe.Preconditions;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The closing prices of a symbol, ordered by date, in primitive arrays. Instances are immutable and are replaced,
+ * never updated, when the market data of the symbol changes, so a reference to one identifies the prices it holds.
+ */
+public final class PriceHistory {
+
+    private static final long SECONDS_PER_DAY = 86_400;
+
+    private final long[] epochDays;
+    private final double[] closes;
+
+    private PriceHistory(long[] epochDays, double[] closes) {
+        this.epochDays = epochDays;
+        this.closes = closes;
+    }
+
+    public static PriceHistory of(Map<OffsetDateTime, Double> datePrices) {
+        Preconditions.checkNotNull(datePrices, "Prices must be non-null");
+        TreeMap<Long, Double> byDay = new TreeMap<>();
+        datePrices.forEach((date, price) -> byDay.put(date.toLocalDate().toEpochDay(), price));
+
+        long[] epochDays = new long[byDay.size()];
+        double[] closes = new double[byDay.size()];
+        int index = 0;
+        for (Map.Entry<Long, Double> entry : byDay.entrySet()) {
+            epochDays[index] = entry.getKey();
+            closes[index] = entry.getValue();
+            index++;
+        }
+        return new PriceHistory(epochDays, closes);
+    }
+
+    /** The daily closes of the bars, i.e. the close of the last bar of each UTC day, read through once in order. */
+    static PriceHistory ofDailyCloses(SymbolPrices prices) {
+        int days = 0;
+        long previousDay = Long.MIN_VALUE;
+        for (int index = 0; index < prices.size(); index++) {
+            long day = Math.floorDiv(prices.epochSecond(index), SECONDS_PER_DAY);
+            if (day != previousDay) {
+                days++;
+                previousDay = day;
+            }
+        }
+
+        long[] epochDays = new long[days];
+        double[] closes = new double[days];
+        int day = -1;
+        for (int index = 0; index < prices.size(); index++) {
+            long epochDay = Math.floorDiv(prices.epochSecond(index), SECONDS_PER_DAY);
+            if (day < 0 || epochDays[day] != epochDay) {
+                day++;
+                epochDays[day] = epochDay;
+            }
+            closes[day] = prices.close(index);
+        }
+        return new PriceHistory(epochDays, closes);
+    }
+
+    public int size() {
+        return epochDays.length;
+    }
+
+    /** The day of the {@code index}-th price, counted in days since 1970-01-01. */
+    public long epochDay(int index) {
+        return epochDays[index];
+    }
+
+    public double close(int index) {
+        return closes[index];
+    }
+
+    /** The index of the price on the day, or a negative number if there is none, as {@link Arrays#binarySearch}. */
+    public int indexOf(long epochDay) {
+        return Arrays.binarySearch(epochDays, epochDay);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PriceHistory)) {
+            return false;
+        }
+        PriceHistory that = (PriceHistory) other;
+        return Arrays.equals(epochDays, that.epochDays) && Arrays.equals(closes, that.closes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(epochDays) + Arrays.hashCode(closes);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.marketdata;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Price bars spilled to disk: a file of fixed-size (epoch second, close) records in time order, read in place through
+ * a read-only memory mapping. Lookups binary search the mapping, so only the pages they touch are ever read, and
+ * they live in the page cache rather than on the heap. Instances are immutable.
+ */
+final class PriceSegment {
+
+    static final PriceSegment EMPTY = new PriceSegment(Optional.empty(), ByteBuffer.allocate(0));
+
+    private static final int RECORD_BYTES = Long.BYTES + Double.BYTES;
+
+    private final Optional<Path> file;
+    private final ByteBuffer records;
+
+    private PriceSegment(Optional<Path> file, ByteBuffer records) {
+        this.file = file;
+        this.records = records;
+    }
+
+    Optional<Path> file() {
+        return file;
+    }
+
+    int size() {
+        return records.capacity() / RECORD_BYTES;
+    }
+
+    long epochSecond(int index) {
+        return records.getLong(index * RECORD_BYTES);
+    }
+
+    double close(int index) {
+        return records.getDouble(index * RECORD_BYTES + Long.BYTES);
+    }
+
+    /** The index of the last bar at or before {@code epochSecond}, or -1 if there is none. */
+    int floorIndex(long epochSecond) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (epochSecond(mid) <= epochSecond) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /** Writes the records of a new segment, which must be appended in time order. */
+    static final class Writer implements Closeable {
+        private final Path file;
+        private final DataOutputStream out;
+
+        Writer(Path file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        }
+
+        void append(long epochSecond, double close) throws IOException {
+            out.writeLong(epochSecond);
+            out.writeDouble(close);
+        }
+
+        /** Completes the file and maps it. The mapping stays valid after the file is deleted. */
+        PriceSegment finish() throws IOException {
+            out.close();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return new PriceSegment(
+                        Optional.of(file), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.marketdata;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.logsafe.exceptions.SafeUncheckedIoException;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Decides where the cached price bars of the symbols are kept. Bars from the last {@code inMemory} period stay on the
+ * heap, where the lookups for new orders and the latest prices go. Older bars are spilled to {@link PriceSegment}
+ * files in the directory, so a history of years costs page cache rather than heap. Without a directory every bar
+ * stays on the heap.
+ *
+ * <p>A spilled segment is only rewritten when bars age out of the heap or a fetch changes a spilled bar; a refresh
+ * that returns the same old bars again leaves it as it is.
+ */
+public final class PriceStorage {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(PriceStorage.class);
+
+    private static final String SEGMENT_PREFIX = "prices-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Optional<Path> directory;
+    private final Duration inMemory;
+
+    private PriceStorage(Optional<Path> directory, Duration inMemory) {
+        this.directory = directory;
+        this.inMemory = inMemory;
+    }
+
+    public static PriceStorage onHeap() {
+        return new PriceStorage(Optional.empty(), Duration.ZERO);
+    }
+
+    /** Spills bars older than {@code inMemory} to {@code directory}, deleting any segments left there before. */
+    public static PriceStorage tiered(Path directory, Duration inMemory) {
+        Preconditions.checkNotNull(directory, "Directory must be non-null");
+        Preconditions.checkArgument(
+                !Preconditions.checkNotNull(inMemory, "In-memory period must be non-null").isNegative(),
+                "In-memory period must not be negative");
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> leftovers =
+                    Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+                for (Path leftover : leftovers) {
+                    Files.delete(leftover);
+                }
+            }
+        } catch (IOException e) {
+            throw new SafeUncheckedIoException(
+                    "Failed to prepare the price segment directory", e, UnsafeArg.of("directory", directory));
+        }
+        return new PriceStorage(Optional.of(directory), inMemory);
+    }
+
+    /** Adds the fetched bars, keyed by epoch second, to the symbol's prices. They replace bars of the same time. */
+    SymbolPrices merge(SymbolPrices current, NavigableMap<Long, Double> fetched) {
+        NavigableMap<Long, Double> recent = new TreeMap<>();
+        for (int index = current.size() - current.recentSize(); index < current.size(); index++) {
+            recent.put(current.epochSecond(index), current.close(index));
+        }
+        recent.putAll(fetched);
+        if (!directory.isPresent()) {
+            return SymbolPrices.of(PriceSegment.EMPTY, recent);
+        }
+
+        PriceSegment spilled = current.spilled();
+        long cutoff = Instant.now().minus(inMemory).getEpochSecond();
+        if (spilled.size() > 0) {
+            // whatever overlaps the spilled bars goes to disk too, so they all stay older than the bars on the heap
+            cutoff = Math.max(cutoff, spilled.epochSecond(spilled.size() - 1) + 1);
+        }
+
+        NavigableMap<Long, Double> older = recent.headMap(cutoff, false);
+        if (!older.isEmpty() && !isSpilled(spilled, older)) {
+            spilled = spill(directory.get(), spilled, older);
+        }
+        older.clear();
+        return SymbolPrices.of(spilled, recent);
+    }
+
+    private static boolean isSpilled(PriceSegment spilled, NavigableMap<Long, Double> bars) {
+        for (Map.Entry<Long, Double> bar : bars.entrySet()) {
+            int index = spilled.floorIndex(bar.getKey());
+            if (index < 0 || spilled.epochSecond(index) != bar.getKey() || spilled.close(index) != bar.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes a new segment of the spilled bars and the older ones, which replace spilled bars of the same time. */
+    private static PriceSegment spill(Path directory, PriceSegment spilled, NavigableMap<Long, Double> older) {
+        Path file = null;
+        try {
+            file = Files.createTempFile(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            PriceSegment merged;
+            try (PriceSegment.Writer writer = new PriceSegment.Writer(file)) {
+                int index = 0;
+                for (Map.Entry<Long, Double> bar : older.entrySet()) {
+                    for (; index < spilled.size() && spilled.epochSecond(index) < bar.getKey(); index++) {
+                        writer.append(spilled.epochSecond(index), spilled.close(index));
+                    }
+                    if (index < spilled.size() && spilled.epochSecond(index) == bar.getKey()) {
+                        index++;
+                    }
+                    writer.append(bar.getKey(), bar.getValue());
+                }
+                for (; index < spilled.size(); index++) {
+                    writer.append(spilled.epochSecond(index), spilled.close(index));
+                }
+                merged = writer.finish();
+            }
+            // readers still holding the previous segment keep its mapping, which outlives the file
+            spilled.file().ifPresent(PriceStorage::delete);
+            return merged;
+        } catch (IOException e) {
+            if (file != null) {
+                delete(file);
+            }
+            throw new SafeUncheckedIoException("Failed to spill price bars", e, UnsafeArg.of("directory", directory));
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete a price segment", UnsafeArg.of("file", file), e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.marketdata;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * The cached price bars of one symbol, in time order, over two tiers: the older bars in a {@link PriceSegment} on
+ * disk, then the recent ones in primitive arrays on the heap. Every spilled bar is older than every bar on the heap,
+ * so indexes simply run through the spilled bars first. Instances are immutable and are replaced when bars are added.
+ */
+final class SymbolPrices {
+
+    static final SymbolPrices EMPTY = new SymbolPrices(PriceSegment.EMPTY, new long[0], new double[0]);
+
+    private final PriceSegment spilled;
+    private final long[] recentEpochSeconds;
+    private final double[] recentCloses;
+
+    private SymbolPrices(PriceSegment spilled, long[] recentEpochSeconds, double[] recentCloses) {
+        this.spilled = spilled;
+        this.recentEpochSeconds = recentEpochSeconds;
+        this.recentCloses = recentCloses;
+    }
+
+    static SymbolPrices of(PriceSegment spilled, NavigableMap<Long, Double> recent) {
+        long[] epochSeconds = new long[recent.size()];
+        double[] closes = new double[recent.size()];
+        int index = 0;
+        for (Map.Entry<Long, Double> bar : recent.entrySet()) {
+            epochSeconds[index] = bar.getKey();
+            closes[index] = bar.getValue();
+            index++;
+        }
+        return new SymbolPrices(spilled, epochSeconds, closes);
+    }
+
+    PriceSegment spilled() {
+        return spilled;
+    }
+
+    int size() {
+        return spilled.size() + recentEpochSeconds.length;
+    }
+
+    /** The number of bars on the heap, which are the last {@code recentSize()} ones. */
+    int recentSize() {
+        return recentEpochSeconds.length;
+    }
+
+    /** The start of the {@code index}-th bar, in seconds since the epoch. */
+    long epochSecond(int index) {
+        int spilledSize = spilled.size();
+        return index < spilledSize ? spilled.epochSecond(index) : recentEpochSeconds[index - spilledSize];
+    }
+
+    double close(int index) {
+        int spilledSize = spilled.size();
+        return index < spilledSize ? spilled.close(index) : recentCloses[index - spilledSize];
+    }
+
+    /** The index of the last bar starting at or before {@code epochSecond}, or -1 if there is none. */
+    int floorIndex(long epochSecond) {
+        if (recentEpochSeconds.length == 0 || epochSecond < recentEpochSeconds[0]) {
+            return spilled.floorIndex(epochSecond);
+        }
+        int index = Arrays.binarySearch(recentEpochSeconds, epochSecond);
+        return spilled.size() + (index >= 0 ? index : -index - 2);
+    }
+}
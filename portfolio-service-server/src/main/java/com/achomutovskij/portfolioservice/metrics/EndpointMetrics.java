@@ -0,0 +1,78 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.metrics;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * Records the latency and the status of every exchange of one endpoint, once the exchange completes. A single
+ * instance is registered as the completion listener of all of the endpoint's exchanges, so recording does not
+ * allocate. Latency is measured from {@link HttpServerExchange#getRequestStartTime}, which requires the server
+ * option {@code RECORD_REQUEST_START_TIME}.
+ */
+public final class EndpointMetrics implements ExchangeCompletionListener {
+
+    private final Histogram latency;
+    private final Counter[] responses; // indexed by status code / 100
+
+    private EndpointMetrics(Histogram latency, Counter[] responses) {
+        this.latency = latency;
+        this.responses = responses;
+    }
+
+    public static EndpointMetrics register(MetricRegistry registry, String service, String endpoint) {
+        Histogram latency = registry.histogram(
+                "portfolio_http_request_duration_seconds",
+                "Time from receiving a request until its response completed",
+                "service",
+                service,
+                "endpoint",
+                endpoint);
+
+        Counter[] responses = new Counter[6];
+        for (int statusClass = 1; statusClass < responses.length; statusClass++) {
+            responses[statusClass] = registry.counter(
+                    "portfolio_http_responses_total",
+                    "Completed responses by status class",
+                    "service",
+                    service,
+                    "endpoint",
+                    endpoint,
+                    "status",
+                    statusClass + "xx");
+        }
+        return new EndpointMetrics(latency, responses);
+    }
+
+    @Override
+    public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+        try {
+            long start = exchange.getRequestStartTime();
+            if (start > 0) {
+                latency.recordNanos(System.nanoTime() - start);
+            }
+
+            int statusClass = exchange.getStatusCode() / 100;
+            if (statusClass > 0 && statusClass < responses.length) {
+                responses[statusClass].increment();
+            }
+        } finally {
+            nextListener.proceed();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency distribution over fixed buckets, exported as a Prometheus histogram. Obtained from
+ * {@link MetricRegistry#histogram}.
+ *
+ * <p>Recording is a scan over a dozen or so bounds and two {@link LongAdder} increments: it neither allocates nor
+ * contends between threads.
+ */
+public final class Histogram {
+
+    /** Upper bounds of the buckets, in seconds: Prometheus' defaults, extended down to 100 micros and up to 30s. */
+    static final double[] BUCKET_BOUNDS_SECONDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+
+    private static final long[] BUCKET_BOUNDS_NANOS = toNanos(BUCKET_BOUNDS_SECONDS);
+
+    private final LongAdder[] buckets; // per bucket, not cumulative; the last one is +Inf
+    private final LongAdder sumNanos;
+
+    Histogram() {
+        this.buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+        this.sumNanos = new LongAdder();
+    }
+
+    public void recordNanos(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_NANOS.length && nanos > BUCKET_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /** Returns the number of values recorded in each bucket, the last one being +Inf. Not cumulative. */
+    long[] bucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    double sumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static long[] toNanos(double[] seconds) {
+        long[] nanos = new long[seconds.length];
+        for (int i = 0; i < seconds.length; i++) {
+            nanos[i] = (long) (seconds[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.metrics;
+
+import com.google.common.collect.ImmutableSet;
+import com.palantir.conjure.java.undertow.lib.Endpoint;
+import com.palantir.conjure.java.undertow.lib.UndertowRuntime;
+import com.palantir.conjure.java.undertow.lib.UndertowService;
+import io.undertow.server.HttpHandler;
+import io.undertow.util.HttpString;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/** Wraps every endpoint of a Conjure service so that its requests are recorded by {@link EndpointMetrics}. */
+public final class InstrumentedService implements UndertowService {
+
+    private final UndertowService delegate;
+    private final MetricRegistry registry;
+
+    private InstrumentedService(UndertowService delegate, MetricRegistry registry) {
+        this.delegate = delegate;
+        this.registry = registry;
+    }
+
+    public static UndertowService of(UndertowService delegate, MetricRegistry registry) {
+        return new InstrumentedService(delegate, registry);
+    }
+
+    @Override
+    public List<Endpoint> endpoints(UndertowRuntime runtime) {
+        return delegate.endpoints(runtime).stream()
+                .map(endpoint -> new InstrumentedEndpoint(
+                        endpoint, EndpointMetrics.register(registry, endpoint.serviceName(), endpoint.name())))
+                .collect(Collectors.toList());
+    }
+
+    private static final class InstrumentedEndpoint implements Endpoint {
+        private final Endpoint delegate;
+        private final HttpHandler handler;
+
+        private InstrumentedEndpoint(Endpoint delegate, EndpointMetrics metrics) {
+            this.delegate = delegate;
+            HttpHandler delegateHandler = delegate.handler();
+            this.handler = exchange -> {
+                exchange.addExchangeCompleteListener(metrics);
+                delegateHandler.handleRequest(exchange);
+            };
+        }
+
+        @Override
+        public HttpString method() {
+            return delegate.method();
+        }
+
+        @Override
+        public String template() {
+            return delegate.template();
+        }
+
+        @Override
+        public HttpHandler handler() {
+            return handler;
+        }
+
+        @Override
+        public String serviceName() {
+            return delegate.serviceName();
+        }
+
+        @Override
+        public String name() {
+            return delegate.name();
+        }
+
+        @Override
+        public Optional<String> deprecated() {
+            return delegate.deprecated();
+        }
+
+        @Override
+        public ImmutableSet<String> tags() {
+            return delegate.tags();
+        }
+    }
+}
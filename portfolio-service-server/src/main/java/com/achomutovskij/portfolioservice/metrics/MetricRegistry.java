@@ -0,0 +1,169 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.metrics;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the metrics of the service and renders them in the Prometheus text format.
+ *
+ * <p>Metrics are registered once, up front, and the returned {@link Counter} and {@link Histogram} instances are kept
+ * by the code that records into them, so the hot paths never look anything up. Registering the same name and labels
+ * again returns the existing metric. Labels are given as alternating names and values.
+ */
+public final class MetricRegistry {
+
+    private final Map<String, Family> families; // name -> family, in registration order
+
+    public MetricRegistry() {
+        this.families = new LinkedHashMap<>();
+    }
+
+    public synchronized Counter counter(String name, String help, String... labels) {
+        return (Counter)
+                family(name, help, Type.COUNTER).children.computeIfAbsent(render(labels), _labels -> new Counter());
+    }
+
+    public synchronized Histogram histogram(String name, String help, String... labels) {
+        return (Histogram)
+                family(name, help, Type.HISTOGRAM).children.computeIfAbsent(render(labels), _labels -> new Histogram());
+    }
+
+    /** Registers a value that is read when the metrics are exported, replacing any earlier one with the same labels. */
+    public synchronized void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).children.put(render(labels), value);
+    }
+
+    /** Renders all the metrics in the Prometheus text exposition format (version 0.0.4). */
+    public synchronized String toPrometheusText() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.prometheusName).append('\n');
+            family.children.forEach((labels, metric) -> family.type.write(out, family.name, labels, metric));
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, Type type) {
+        Preconditions.checkNotNull(name, "Metric name must be non-null");
+        Family family = families.computeIfAbsent(name, _name -> new Family(name, escapeHelp(help), type));
+        if (family.type != type) {
+            throw new SafeIllegalArgumentException(
+                    "Metric already registered with a different type",
+                    SafeArg.of("name", name),
+                    SafeArg.of("registeredType", family.type),
+                    SafeArg.of("requestedType", type));
+        }
+        return family;
+    }
+
+    private static String render(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new SafeIllegalArgumentException(
+                    "Labels must be given as name and value pairs", SafeArg.of("labelCount", labels.length));
+        }
+        StringBuilder rendered = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                rendered.append(',');
+            }
+            rendered.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+        }
+        return rendered.toString();
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        return (labels.isEmpty() ? "" : labels + ',') + name + "=\"" + value + '"';
+    }
+
+    private enum Type {
+        COUNTER("counter") {
+            @Override
+            void write(StringBuilder out, String name, String labels, Object metric) {
+                sample(out, name, labels, Long.toString(((Counter) metric).count()));
+            }
+        },
+        GAUGE("gauge") {
+            @Override
+            void write(StringBuilder out, String name, String labels, Object metric) {
+                sample(out, name, labels, Long.toString(((LongSupplier) metric).getAsLong()));
+            }
+        },
+        HISTOGRAM("histogram") {
+            @Override
+            void write(StringBuilder out, String name, String labels, Object metric) {
+                Histogram histogram = (Histogram) metric;
+                long[] counts = histogram.bucketCounts();
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    String bound = i < Histogram.BUCKET_BOUNDS_SECONDS.length
+                            ? BigDecimal.valueOf(Histogram.BUCKET_BOUNDS_SECONDS[i]).toPlainString()
+                            : "+Inf";
+                    sample(out, name + "_bucket", withLabel(labels, "le", bound), Long.toString(cumulative));
+                }
+                sample(out, name + "_sum", labels, Double.toString(histogram.sumSeconds()));
+                sample(out, name + "_count", labels, Long.toString(cumulative));
+            }
+        };
+
+        private final String prometheusName;
+
+        Type(String prometheusName) {
+            this.prometheusName = prometheusName;
+        }
+
+        abstract void write(StringBuilder out, String name, String labels, Object metric);
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final Map<String, Object> children; // rendered labels -> metric, in registration order
+
+        private Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.children = new LinkedHashMap<>();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import com.achomutovskij.portfolioservice.api.BucketPosition;
+import com.achomutovskij.portfolioservice.api.ProfitLossAmountAndPercent;
+import com.palantir.conjure.java.lib.SafeLong;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.decimal4j.immutable.Decimal2f;
+import org.decimal4j.immutable.Decimal4f;
+import org.decimal4j.mutable.MutableDecimal2f;
+
+/** Merges the partial bucket positions computed by the nodes of a partitioned deployment. */
+final class BucketPositions {
+
+    private BucketPositions() {}
+
+    /**
+     * Combines partial positions over disjoint sets of symbols into the position of all of them, as if it had been
+     * computed on a single node: amounts are summed and the profit/loss percentage is recomputed from the sums.
+     */
+    static BucketPosition merge(String name, List<BucketPosition> partials) {
+        long sharesLong = 0;
+        long sharesShort = 0;
+        int numberOfPositions = 0;
+        MutableDecimal2f purchaseCost = MutableDecimal2f.zero();
+        MutableDecimal2f marketValue = MutableDecimal2f.zero();
+        MutableDecimal2f profitLoss = MutableDecimal2f.zero();
+        Map<String, ProfitLossAmountAndPercent> breakdown = new TreeMap<>();
+
+        for (BucketPosition partial : partials) {
+            sharesLong += partial.getTotalNumberOfSharesLong().longValue();
+            sharesShort += partial.getTotalNumberOfSharesShort().longValue();
+            numberOfPositions += partial.getNumberOfPositions();
+            purchaseCost.add(partial.getTotalPurchaseCost());
+            marketValue.add(partial.getTotalMarketValue());
+            profitLoss.add(partial.getProfitLossAmount());
+            breakdown.putAll(partial.getBucketBreakdown());
+        }
+
+        double profitLossPercent = numberOfPositions == 0
+                ? 0
+                : Decimal2f.valueOf(Decimal4f.valueOf(profitLoss)
+                                .divide(Decimal4f.valueOf(purchaseCost))
+                                .multiply(100))
+                        .doubleValue();
+
+        return BucketPosition.builder()
+                .name(name)
+                .totalNumberOfSharesLong(SafeLong.of(sharesLong))
+                .totalNumberOfSharesShort(SafeLong.of(sharesShort))
+                .totalPurchaseCost(purchaseCost.doubleValue())
+                .totalMarketValue(marketValue.doubleValue())
+                .numberOfPositions(numberOfPositions)
+                .profitLossAmount(profitLoss.doubleValue())
+                .profitLossPercent(profitLossPercent)
+                .bucketBreakdown(breakdown)
+                .build();
+    }
+}
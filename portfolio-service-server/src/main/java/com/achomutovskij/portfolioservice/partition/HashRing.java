@@ -0,0 +1,83 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assigns keys to nodes by consistent hashing: every node is hashed onto a ring at {@code virtualNodes} points, and a
+ * key belongs to the node of the first point at or after the key's own hash. Adding or removing a node only moves the
+ * keys of the ring ranges it gains or loses, about one node's share, and the virtual nodes keep the shares even.
+ *
+ * <p>The assignment depends only on the node names and their order, so every node computes the same ring.
+ */
+public final class HashRing {
+
+    private static final HashFunction HASH = Hashing.murmur3_32_fixed();
+
+    private final int[] points; // sorted hashes of the virtual nodes
+    private final int[] owners; // owners[i] is the index of the node at points[i]
+
+    public HashRing(List<String> nodes, int virtualNodes) {
+        Preconditions.checkArgument(!nodes.isEmpty(), "The ring needs at least one node");
+        Preconditions.checkArgument(
+                virtualNodes > 0, "Virtual nodes must be positive", SafeArg.of("virtualNodes", virtualNodes));
+
+        // a point in the high half and the node index in the low half, so that sorting orders the points and
+        // breaks the (unlikely) ties between nodes deterministically
+        long[] entries = new long[nodes.size() * virtualNodes];
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                entries[node * virtualNodes + i] = ((long) hash(nodes.get(node) + '#' + i) << 32) | node;
+            }
+        }
+        Arrays.sort(entries);
+
+        int[] sortedPoints = new int[entries.length];
+        int[] sortedOwners = new int[entries.length];
+        int size = 0;
+        for (long entry : entries) {
+            int point = (int) (entry >> 32);
+            if (size == 0 || sortedPoints[size - 1] != point) {
+                sortedPoints[size] = point;
+                sortedOwners[size] = (int) entry;
+                size++;
+            }
+        }
+        this.points = Arrays.copyOf(sortedPoints, size);
+        this.owners = Arrays.copyOf(sortedOwners, size);
+    }
+
+    /** Returns the index of the node that owns the key. */
+    public int ownerOf(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    private static int hash(String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asInt();
+    }
+}
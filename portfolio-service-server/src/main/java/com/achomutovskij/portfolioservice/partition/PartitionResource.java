@@ -0,0 +1,146 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import com.achomutovskij.portfolioservice.api.BucketExpression;
+import com.achomutovskij.portfolioservice.api.BucketOperation;
+import com.achomutovskij.portfolioservice.api.BucketPosition;
+import com.achomutovskij.portfolioservice.api.BucketsPage;
+import com.achomutovskij.portfolioservice.api.BucketsUpdateRequest;
+import com.achomutovskij.portfolioservice.api.ExportFormat;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.SimulationRequest;
+import com.achomutovskij.portfolioservice.api.SimulationResult;
+import com.achomutovskij.portfolioservice.api.StockPosition;
+import com.achomutovskij.portfolioservice.api.UndertowPartitionService;
+import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
+import com.achomutovskij.portfolioservice.resources.DateResource;
+import com.achomutovskij.portfolioservice.resources.PositionResource;
+import com.palantir.conjure.java.undertow.lib.BinaryResponseBody;
+import com.palantir.logsafe.Preconditions;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/** Serves the node-to-node requests of a partitioned deployment from the state of this node alone. */
+public final class PartitionResource implements UndertowPartitionService {
+
+    private final DateResource dateResource;
+    private final PositionResource positionResource;
+    private final BucketManagementResource bucketManager;
+    private final PartitionRouter router;
+
+    public PartitionResource(
+            DateResource dateResource,
+            PositionResource positionResource,
+            BucketManagementResource bucketManager,
+            PartitionRouter router) {
+        this.dateResource = Preconditions.checkNotNull(dateResource, "Date resource must be non-null");
+        this.positionResource = Preconditions.checkNotNull(positionResource, "Position resource must be non-null");
+        this.bucketManager = Preconditions.checkNotNull(bucketManager, "Bucket manager must be non-null");
+        this.router = Preconditions.checkNotNull(router, "Partition router must be non-null");
+    }
+
+    @Override
+    public void ensureBuckets(Set<String> bucketNames) {
+        bucketManager.ensureBuckets(bucketNames);
+    }
+
+    @Override
+    public void deleteLocalBucket(String bucketName) {
+        if (bucketManager.bucketExists(bucketName)) {
+            bucketManager.deleteBucket(bucketName);
+        }
+    }
+
+    @Override
+    public void setLocalBucketParent(String bucketName, String parentName) {
+        bucketManager.setBucketParent(bucketName, parentName);
+    }
+
+    @Override
+    public void removeLocalBucketParent(String bucketName) {
+        bucketManager.removeBucketParent(bucketName);
+    }
+
+    @Override
+    public void applyLocalBucketOperations(List<BucketOperation> operations) {
+        positionResource.applyBucketOperations(operations, router::ownsSymbol);
+    }
+
+    @Override
+    public Map<String, List<String>> getLocalBuckets() {
+        return bucketManager.getAllBuckets();
+    }
+
+    @Override
+    public BucketsPage getLocalBucketsPage(Optional<String> pageToken, Optional<Integer> pageSize) {
+        return bucketManager.getBucketsPage(pageToken, pageSize);
+    }
+
+    @Override
+    public List<OffsetDateTime> getLocalAvailableDates(String symbol) {
+        return dateResource.getAvailableDates(symbol);
+    }
+
+    @Override
+    public void addLocalOrder(OrderRequest orderRequest) {
+        positionResource.addOrder(orderRequest);
+    }
+
+    @Override
+    public void addLocalSymbolToBuckets(BucketsUpdateRequest bucketsUpdateRequest) {
+        positionResource.addSymbolToBuckets(bucketsUpdateRequest);
+    }
+
+    @Override
+    public void removeLocalSymbolFromBuckets(BucketsUpdateRequest bucketsUpdateRequest) {
+        positionResource.removeSymbolFromBuckets(bucketsUpdateRequest);
+    }
+
+    @Override
+    public StockPosition getLocalStockPosition(String symbol) {
+        return positionResource.getStockPosition(symbol);
+    }
+
+    @Override
+    public Optional<BucketPosition> getLocalBucketPosition(String name) {
+        return positionResource.findBucketPosition(name);
+    }
+
+    @Override
+    public BucketPosition getLocalBucketExpressionPosition(BucketExpression expression) {
+        return positionResource.getBucketExpressionPosition(expression);
+    }
+
+    @Override
+    public SimulationResult simulateLocalOrders(SimulationRequest request) {
+        return positionResource.simulateOrders(request, router::ownsSymbol);
+    }
+
+    @Override
+    public BinaryResponseBody exportLocalPositions(Optional<ExportFormat> format) {
+        return positionResource.exportPositions(format);
+    }
+
+    @Override
+    public Map<String, Double> getLocalExposures(Optional<String> bucket) {
+        return positionResource.exposures(bucket);
+    }
+}
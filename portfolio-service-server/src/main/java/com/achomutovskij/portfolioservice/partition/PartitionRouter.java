@@ -0,0 +1,155 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import com.google.common.collect.ImmutableMap;
+import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.errors.RemoteException;
+import com.palantir.conjure.java.api.errors.SerializableError;
+import com.palantir.conjure.java.api.errors.ServiceException;
+import com.palantir.logsafe.Arg;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Routes work between the nodes of a partitioned deployment: to the node that owns a symbol, or to all of them.
+ *
+ * <p>Calls to other nodes that fail with a Conjure error are rethrown as a {@link ServiceException} of the same error
+ * type, so a client sees the same error whichever node it sent its request to.
+ */
+public final class PartitionRouter {
+
+    private final HashRing ring;
+    private final int self;
+    private final Map<Integer, Peer> peers; // node index -> clients, for every node but this one
+    private final Executor executor;
+
+    public PartitionRouter(HashRing ring, int self, Map<Integer, Peer> peers, Executor executor) {
+        this.ring = Preconditions.checkNotNull(ring, "Hash ring must be non-null");
+        this.self = self;
+        this.peers = ImmutableMap.copyOf(Preconditions.checkNotNull(peers, "Peers must be non-null"));
+        this.executor = Preconditions.checkNotNull(executor, "Executor must be non-null");
+        Preconditions.checkArgument(!this.peers.containsKey(self), "This node must not be one of its own peers");
+    }
+
+    public boolean ownsSymbol(String symbol) {
+        return ring.ownerOf(symbol) == self;
+    }
+
+    /** Runs the call on this node if it owns the symbol, or sends it to the node that does. */
+    public <T> T onOwner(String symbol, Supplier<T> local, Function<Peer, T> remote) {
+        int owner = ring.ownerOf(symbol);
+        if (owner == self) {
+            return local.get();
+        }
+        return call(remote, peer(owner));
+    }
+
+    public void onOwner(String symbol, Runnable local, Consumer<Peer> remote) {
+        onOwner(
+                symbol,
+                () -> {
+                    local.run();
+                    return null;
+                },
+                peer -> {
+                    remote.accept(peer);
+                    return null;
+                });
+    }
+
+    /**
+     * Runs the call on every node, on the other nodes in parallel with this one, and returns the results with this
+     * node's first.
+     */
+    public <T> List<T> onAllNodes(Supplier<T> local, Function<Peer, T> remote) {
+        List<CompletableFuture<T>> remoteResults = new ArrayList<>(peers.size());
+        for (Peer peer : peers.values()) {
+            remoteResults.add(CompletableFuture.supplyAsync(() -> call(remote, peer), executor));
+        }
+
+        List<T> results = new ArrayList<>(peers.size() + 1);
+        results.add(local.get());
+        for (CompletableFuture<T> result : remoteResults) {
+            results.add(join(result));
+        }
+        return results;
+    }
+
+    /** Runs the call on every other node in parallel and waits for all of them. */
+    public void onAllPeers(Consumer<Peer> remote) {
+        onAllNodes(() -> null, peer -> {
+            remote.accept(peer);
+            return null;
+        });
+    }
+
+    private Peer peer(int node) {
+        Peer peer = peers.get(node);
+        if (peer == null) {
+            throw new SafeIllegalStateException("No clients for the node", SafeArg.of("node", node));
+        }
+        return peer;
+    }
+
+    private static <T> T call(Function<Peer, T> remote, Peer peer) {
+        try {
+            return remote.apply(peer);
+        } catch (RemoteException e) {
+            throw propagate(e);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    static ServiceException propagate(RemoteException exception) {
+        SerializableError error = exception.getError();
+        Arg<?>[] parameters = error.parameters().entrySet().stream()
+                .map(parameter -> UnsafeArg.of(parameter.getKey(), parameter.getValue()))
+                .toArray(Arg<?>[]::new);
+        return new ServiceException(errorType(error), exception, parameters);
+    }
+
+    private static ErrorType errorType(SerializableError error) {
+        try {
+            return ErrorType.create(ErrorType.Code.valueOf(error.errorCode()), error.errorName());
+        } catch (IllegalArgumentException e) {
+            // an error code or name this version cannot re-create, e.g. one of Conjure's own Default: errors
+            return ErrorType.INTERNAL;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import com.achomutovskij.portfolioservice.api.BucketContents;
+import com.achomutovskij.portfolioservice.api.BucketsPage;
+import com.achomutovskij.portfolioservice.api.UndertowBucketManagementService;
+import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.logsafe.Preconditions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Manages the buckets of a partitioned deployment. Every node holds all the buckets and the whole bucket hierarchy but
+ * only the memberships of the symbols it owns: changes are validated and applied on this node first, then copied to
+ * the others, and listings merge the memberships of all nodes.
+ */
+public final class PartitionedBucketManagementService implements UndertowBucketManagementService {
+
+    private final BucketManagementResource local;
+    private final PartitionRouter router;
+
+    public PartitionedBucketManagementService(BucketManagementResource local, PartitionRouter router) {
+        this.local = Preconditions.checkNotNull(local, "Bucket management resource must be non-null");
+        this.router = Preconditions.checkNotNull(router, "Partition router must be non-null");
+    }
+
+    @Override
+    public void createBucket(String bucketName) {
+        local.createBucket(bucketName);
+        router.onAllPeers(peer -> peer.partition().ensureBuckets(ImmutableSet.of(bucketName)));
+    }
+
+    @Override
+    public void deleteBucket(String bucketName) {
+        local.deleteBucket(bucketName);
+        router.onAllPeers(peer -> peer.partition().deleteLocalBucket(bucketName));
+    }
+
+    @Override
+    public Map<String, List<String>> getAllBuckets() {
+        Map<String, List<String>> merged = new TreeMap<>();
+        for (Map<String, List<String>> buckets :
+                router.onAllNodes(local::getAllBuckets, peer -> peer.partition().getLocalBuckets())) {
+            buckets.forEach((bucketName, symbols) -> addSymbols(merged, bucketName, symbols));
+        }
+        merged.values().forEach(Collections::sort);
+        return merged;
+    }
+
+    @Override
+    public BucketsPage getBucketsPage(Optional<String> pageToken, Optional<Integer> pageSize) {
+        int limit = BucketManagementResource.pageLimit(pageSize);
+        List<BucketsPage> pages = router.onAllNodes(
+                () -> local.getBucketsPage(pageToken, pageSize),
+                peer -> peer.partition().getLocalBucketsPage(pageToken, pageSize));
+
+        // every node pages through the buckets in name order, so the first buckets of the merged page are among the
+        // first buckets of every node's page
+        TreeMap<String, List<String>> merged = new TreeMap<>();
+        boolean more = false;
+        for (BucketsPage page : pages) {
+            page.getBuckets().forEach(bucket -> addSymbols(merged, bucket.getName(), bucket.getSymbols()));
+            more |= page.getNextPageToken().isPresent();
+        }
+
+        BucketsPage.Builder page = BucketsPage.builder();
+        String last = null;
+        int size = 0;
+        for (Map.Entry<String, List<String>> bucket : merged.entrySet()) {
+            if (size == limit) {
+                more = true;
+                break;
+            }
+            Collections.sort(bucket.getValue());
+            page.buckets(BucketContents.of(bucket.getKey(), bucket.getValue()));
+            last = bucket.getKey();
+            size++;
+        }
+
+        if (last != null && more) {
+            page.nextPageToken(last);
+        }
+        return page.build();
+    }
+
+    @Override
+    public void setBucketParent(String bucketName, String parentName) {
+        local.setBucketParent(bucketName, parentName);
+        router.onAllPeers(peer -> peer.partition().setLocalBucketParent(bucketName, parentName));
+    }
+
+    @Override
+    public void removeBucketParent(String bucketName) {
+        local.removeBucketParent(bucketName);
+        router.onAllPeers(peer -> peer.partition().removeLocalBucketParent(bucketName));
+    }
+
+    @Override
+    public Map<String, String> getBucketParents() {
+        return local.getBucketParents(); // the hierarchy is the same on every node
+    }
+
+    private static void addSymbols(Map<String, List<String>> merged, String bucketName, List<String> symbols) {
+        merged.computeIfAbsent(bucketName, _bucketName -> new ArrayList<>()).addAll(symbols);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import com.achomutovskij.portfolioservice.api.UndertowDateService;
+import com.achomutovskij.portfolioservice.resources.DateResource;
+import com.palantir.logsafe.Preconditions;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/** Answers from the market data of the node that owns the symbol. */
+public final class PartitionedDateService implements UndertowDateService {
+
+    private final DateResource local;
+    private final PartitionRouter router;
+
+    public PartitionedDateService(DateResource local, PartitionRouter router) {
+        this.local = Preconditions.checkNotNull(local, "Date resource must be non-null");
+        this.router = Preconditions.checkNotNull(router, "Partition router must be non-null");
+    }
+
+    @Override
+    public List<OffsetDateTime> getAvailableDates(String symbol) {
+        return router.onOwner(
+                symbol, () -> local.getAvailableDates(symbol), peer -> peer.partition().getLocalAvailableDates(symbol));
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import com.achomutovskij.portfolioservice.api.BucketErrors;
+import com.achomutovskij.portfolioservice.api.BucketExpression;
+import com.achomutovskij.portfolioservice.api.BucketOperation;
+import com.achomutovskij.portfolioservice.api.BucketPosition;
+import com.achomutovskij.portfolioservice.api.BucketsUpdateRequest;
+import com.achomutovskij.portfolioservice.api.ExportFormat;
+import com.achomutovskij.portfolioservice.api.ImportFormat;
+import com.achomutovskij.portfolioservice.api.ImportResult;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.ProjectedStockPosition;
+import com.achomutovskij.portfolioservice.api.SimulationRequest;
+import com.achomutovskij.portfolioservice.api.SimulationResult;
+import com.achomutovskij.portfolioservice.api.StockPosition;
+import com.achomutovskij.portfolioservice.api.UndertowPositionService;
+import com.achomutovskij.portfolioservice.exporter.PositionExporter;
+import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
+import com.achomutovskij.portfolioservice.resources.PositionResource;
+import com.palantir.conjure.java.undertow.lib.BinaryResponseBody;
+import com.palantir.logsafe.Preconditions;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Serves positions in a partitioned deployment: symbol requests go to the node that owns the symbol, and bucket
+ * positions are aggregated on every node over the symbols it owns, then merged.
+ *
+ * <p>Buckets that an order or a bucket update adds a symbol to are created on every node, so that all nodes keep the
+ * same buckets. A batch of bucket operations is applied atomically on each node, this one first, but not across
+ * nodes: a symbol update rejected by another node leaves this node's changes in place.
+ *
+ * <p>Imported trades are read on this node and added one by one, each forwarded to the node owning its symbol.
+ *
+ * <p>Exports are streamed from every node in turn, each ordered by symbol and consistent within the node.
+ *
+ * <p>Exposures, the signed market values that risk is computed from, are collected from every node.
+ *
+ * <p>Simulations run on every node over the symbols it owns, for the same list of buckets; the stock projections are
+ * then collected and the bucket projections merged like bucket positions.
+ */
+public final class PartitionedPositionService implements UndertowPositionService {
+
+    private final PositionResource local;
+    private final BucketManagementResource bucketManager;
+    private final PartitionResource localPartition;
+    private final PartitionRouter router;
+
+    public PartitionedPositionService(
+            PositionResource local,
+            BucketManagementResource bucketManager,
+            PartitionResource localPartition,
+            PartitionRouter router) {
+        this.local = Preconditions.checkNotNull(local, "Position resource must be non-null");
+        this.bucketManager = Preconditions.checkNotNull(bucketManager, "Bucket manager must be non-null");
+        this.localPartition = Preconditions.checkNotNull(localPartition, "Partition resource must be non-null");
+        this.router = Preconditions.checkNotNull(router, "Partition router must be non-null");
+    }
+
+    @Override
+    public void addOrder(OrderRequest orderRequest) {
+        Set<String> missingBuckets = missingBuckets(orderRequest.getBuckets());
+        router.onOwner(
+                orderRequest.getSymbol(),
+                () -> local.addOrder(orderRequest),
+                peer -> peer.partition().addLocalOrder(orderRequest));
+        replicateBuckets(missingBuckets);
+    }
+
+    @Override
+    public ImportResult importOrders(Optional<ImportFormat> format, InputStream trades) {
+        return local.importOrders(format, trades, this::addOrder);
+    }
+
+    @Override
+    public void addSymbolToBuckets(BucketsUpdateRequest bucketsUpdateRequest) {
+        Set<String> missingBuckets = missingBuckets(bucketsUpdateRequest.getBuckets());
+        router.onOwner(
+                bucketsUpdateRequest.getSymbol(),
+                () -> local.addSymbolToBuckets(bucketsUpdateRequest),
+                peer -> peer.partition().addLocalSymbolToBuckets(bucketsUpdateRequest));
+        replicateBuckets(missingBuckets);
+    }
+
+    @Override
+    public void removeSymbolFromBuckets(BucketsUpdateRequest bucketsUpdateRequest) {
+        router.onOwner(
+                bucketsUpdateRequest.getSymbol(),
+                () -> local.removeSymbolFromBuckets(bucketsUpdateRequest),
+                peer -> peer.partition().removeLocalSymbolFromBuckets(bucketsUpdateRequest));
+    }
+
+    @Override
+    public void applyBucketOperations(List<BucketOperation> operations) {
+        localPartition.applyLocalBucketOperations(operations);
+        router.onAllPeers(peer -> peer.partition().applyLocalBucketOperations(operations));
+    }
+
+    @Override
+    public StockPosition getStockPosition(String symbol) {
+        return router.onOwner(
+                symbol, () -> local.getStockPosition(symbol), peer -> peer.partition().getLocalStockPosition(symbol));
+    }
+
+    @Override
+    public BucketPosition getBucketPosition(String name) {
+        if (!bucketManager.bucketExists(name)) {
+            throw BucketErrors.bucketNotFound(name);
+        }
+
+        List<BucketPosition> partials = router
+                .onAllNodes(
+                        () -> local.findBucketPosition(name),
+                        peer -> peer.partition().getLocalBucketPosition(name))
+                .stream()
+                .flatMap(Optional::stream)
+                .collect(Collectors.toList());
+        return BucketPositions.merge(name, partials);
+    }
+
+    @Override
+    public BucketPosition getBucketExpressionPosition(BucketExpression expression) {
+        return BucketPositions.merge(
+                BucketManagementResource.describe(expression),
+                router.onAllNodes(
+                        () -> local.getBucketExpressionPosition(expression),
+                        peer -> peer.partition().getLocalBucketExpressionPosition(expression)));
+    }
+
+    @Override
+    public SimulationResult simulateOrders(SimulationRequest request) {
+        // every node has to project the same buckets, including those it has no changed symbols in
+        SimulationRequest withBuckets = SimulationRequest.builder()
+                .from(request)
+                .buckets(local.simulatedBuckets(request))
+                .build();
+        List<SimulationResult> partials = router.onAllNodes(
+                () -> localPartition.simulateLocalOrders(withBuckets),
+                peer -> peer.partition().simulateLocalOrders(withBuckets));
+
+        Map<String, List<BucketPosition>> bucketPartials = new TreeMap<>();
+        partials.forEach(partial -> partial.getBucketPositions()
+                .forEach(position -> bucketPartials
+                        .computeIfAbsent(position.getName(), _name -> new ArrayList<>())
+                        .add(position)));
+
+        return SimulationResult.builder()
+                .stockPositions(partials.stream()
+                        .flatMap(partial -> partial.getStockPositions().stream())
+                        .sorted(Comparator.comparing(ProjectedStockPosition::getSymbol))
+                        .collect(Collectors.toList()))
+                .bucketPositions(bucketPartials.entrySet().stream()
+                        .map(entry -> BucketPositions.merge(entry.getKey(), entry.getValue()))
+                        .collect(Collectors.toList()))
+                .build();
+    }
+
+    @Override
+    public BinaryResponseBody exportPositions(Optional<ExportFormat> format) {
+        // every node takes its snapshot as the request reaches it, so the nodes' snapshots are taken at about the
+        // same time; the peers' exports are only read once this node's has been written
+        List<BinaryResponseBody> exports = router.onAllNodes(
+                () -> localPartition.exportLocalPositions(format),
+                peer -> withoutHeader(peer.partition().exportLocalPositions(format), format));
+        return responseBody -> {
+            for (BinaryResponseBody export : exports) {
+                export.write(responseBody);
+            }
+        };
+    }
+
+    private static BinaryResponseBody withoutHeader(InputStream export, Optional<ExportFormat> format) {
+        boolean hasHeader = PositionExporter.hasHeader(format.orElse(ExportFormat.CSV));
+        return responseBody -> {
+            try (InputStream input = export) {
+                if (hasHeader) {
+                    // this node's export already starts with the header row
+                    int next = input.read();
+                    while (next != -1 && next != '\n') {
+                        next = input.read();
+                    }
+                }
+                input.transferTo(responseBody);
+            }
+        };
+    }
+
+    /** Returns the signed market values of the positions on every node, like {@link PositionResource#exposures}. */
+    public Map<String, Double> exposures(Optional<String> bucketName) {
+        bucketName.ifPresent(name -> {
+            if (!bucketManager.bucketExists(name)) {
+                throw BucketErrors.bucketNotFound(name);
+            }
+        });
+
+        Map<String, Double> exposures = new TreeMap<>();
+        router.onAllNodes(
+                        () -> localPartition.getLocalExposures(bucketName),
+                        peer -> peer.partition().getLocalExposures(bucketName))
+                .forEach(exposures::putAll);
+        return exposures;
+    }
+
+    private Set<String> missingBuckets(Set<String> bucketNames) {
+        return bucketNames.stream().filter(name -> !bucketManager.bucketExists(name)).collect(Collectors.toSet());
+    }
+
+    private void replicateBuckets(Set<String> bucketNames) {
+        if (!bucketNames.isEmpty()) {
+            bucketManager.ensureBuckets(bucketNames);
+            router.onAllPeers(peer -> peer.partition().ensureBuckets(bucketNames));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import com.achomutovskij.portfolioservice.api.PartitionServiceBlocking;
+import com.palantir.conjure.java.client.config.ClientConfiguration;
+import com.palantir.dialogue.clients.DialogueClients;
+import com.palantir.logsafe.Preconditions;
+
+/**
+ * The clients of another node of a partitioned deployment. Nodes only call each other's partition service, which is
+ * not admission controlled, so that work admitted by one node is not shed by the nodes it fans out to.
+ */
+public final class Peer {
+
+    private final PartitionServiceBlocking partition;
+
+    public Peer(PartitionServiceBlocking partition) {
+        this.partition = Preconditions.checkNotNull(partition, "Partition service must be non-null");
+    }
+
+    public static Peer of(ClientConfiguration clientConfiguration) {
+        return new Peer(DialogueClients.create(PartitionServiceBlocking.class, clientConfiguration));
+    }
+
+    public PartitionServiceBlocking partition() {
+        return partition;
+    }
+}
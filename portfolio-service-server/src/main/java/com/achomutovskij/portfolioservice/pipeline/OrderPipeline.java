@@ -0,0 +1,318 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.pipeline;
+
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.metrics.Counter;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.google.common.math.IntMath;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Applies orders through a ring buffer with a single writer.
+ *
+ * <p>Request threads claim the next sequence number and publish their order into the pre-allocated slot for it, then
+ * wait for the order to complete. The orders go through two stages: a fixed set of pricer threads resolve their
+ * prices in parallel, each taking every n-th sequence, and then one writer thread applies them in sequence order. The
+ * writer takes every order that has been priced by the time it gets to it as one batch, so under load orders are
+ * batched naturally and each batch is published to readers once, while a lone order is applied on its own straight
+ * away. Callers are completed once their batch is visible. A caller that finds the ring full waits for the writer to
+ * free its slot, which bounds the orders in flight.
+ *
+ * <p>The stages hand slots over through volatile sequence numbers rather than locks or queues. An idle stage spins
+ * briefly, then yields, then naps for a few tens of microseconds at a time, and for a millisecond at a time once it
+ * has been idle for a while.
+ *
+ * <p>An order whose pricing or writing throws fails on its own. Anything else that stops a stage closes the pipeline,
+ * failing the orders in flight and any submitted after.
+ */
+public final class OrderPipeline implements Closeable {
+
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final int SHORT_NAPS = 1000;
+    private static final long SHORT_NAP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long LONG_NAP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Slot[] ring;
+    private final int mask;
+    private final int pricers;
+    private final ToDoubleFunction<OrderRequest> prices;
+    private final OrderWriter writer;
+    private final AtomicLong claimed; // the last sequence claimed by a caller
+    private final Counter orders;
+    private final Counter batches;
+    private final Thread writerThread;
+    private volatile long applied; // the last sequence applied by the writer, whose slot may be reused
+    private volatile boolean closed;
+    private volatile Throwable fatal; // what stopped a stage, if one failed
+
+    public OrderPipeline(
+            int ringSize,
+            int pricers,
+            ToDoubleFunction<OrderRequest> prices,
+            OrderWriter writer,
+            MetricRegistry metrics) {
+        Preconditions.checkArgument(ringSize > 0, "Ring size must be positive", SafeArg.of("ringSize", ringSize));
+        Preconditions.checkArgument(pricers > 0, "Pricer count must be positive", SafeArg.of("pricers", pricers));
+        this.ring = new Slot[IntMath.ceilingPowerOfTwo(ringSize)];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Slot();
+        }
+        this.mask = ring.length - 1;
+        this.pricers = pricers;
+        this.prices = Preconditions.checkNotNull(prices, "Prices must be non-null");
+        this.writer = Preconditions.checkNotNull(writer, "Order writer must be non-null");
+        this.claimed = new AtomicLong(-1);
+        this.applied = -1;
+
+        Preconditions.checkNotNull(metrics, "Metric registry must be non-null");
+        this.orders = metrics.counter(
+                "portfolio_order_pipeline_orders_total", "Orders completed by the order pipeline, applied or failed");
+        this.batches = metrics.counter(
+                "portfolio_order_pipeline_batches_total", "Batches of orders applied by the order pipeline's writer");
+        metrics.gauge(
+                "portfolio_order_pipeline_orders_in_flight",
+                "Orders claimed in the order pipeline's ring and not applied yet",
+                () -> claimed.get() - applied);
+
+        ThreadFactory pricerThreads = new ThreadFactoryBuilder()
+                .setNameFormat("order-pricer-%d")
+                .setDaemon(true)
+                .build();
+        for (int pricer = 0; pricer < pricers; pricer++) {
+            long firstSequence = pricer;
+            pricerThreads.newThread(() -> price(firstSequence)).start();
+        }
+        this.writerThread = new ThreadFactoryBuilder()
+                .setNameFormat("order-writer")
+                .setDaemon(true)
+                .build()
+                .newThread(this::write);
+        writerThread.start();
+    }
+
+    /** Publishes the order, waiting for a free slot if the ring is full. The result completes once it is applied. */
+    public CompletableFuture<Void> submit(OrderRequest order) {
+        Preconditions.checkNotNull(order, "Order must be non-null");
+        checkOpen();
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        long sequence = claimed.incrementAndGet();
+        for (int idle = 0; sequence - ring.length > applied; idle = idle(idle)) {
+            checkOpen();
+        }
+
+        Slot slot = ring[index(sequence)];
+        slot.order = order;
+        slot.completion = completion;
+        slot.published = sequence;
+        if (closed) {
+            // closed while publishing, so the order may have been missed by the clean-up
+            completion.completeExceptionally(closedException());
+        }
+        return completion;
+    }
+
+    /**
+     * Stops the stages once the writer has finished its current batch, and fails the orders still in the ring. This is
+     * meant for shutdown.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (Thread.currentThread() != writerThread) {
+            Uninterruptibles.joinUninterruptibly(writerThread);
+        }
+        failInFlight();
+    }
+
+    private void price(long firstSequence) {
+        try {
+            long next = firstSequence;
+            int idle = 0;
+            while (!closed) {
+                Slot slot = ring[index(next)];
+                if (slot.published != next) {
+                    idle = idle(idle);
+                    continue;
+                }
+
+                idle = 0;
+                try {
+                    slot.price = prices.applyAsDouble(slot.order);
+                } catch (Throwable t) {
+                    slot.failure = t;
+                }
+                slot.priced = next;
+                next += pricers;
+            }
+        } catch (Throwable t) {
+            stop(t);
+        }
+    }
+
+    private void write() {
+        try {
+            long next = 0;
+            int idle = 0;
+            while (!closed) {
+                if (ring[index(next)].priced != next) {
+                    idle = idle(idle);
+                    continue;
+                }
+
+                idle = 0;
+                long last = next;
+                while (last - next + 1 < ring.length && ring[index(last + 1)].priced == last + 1) {
+                    last++;
+                }
+                write(next, last);
+                applied = last;
+                next = last + 1;
+            }
+        } catch (Throwable t) {
+            stop(t);
+        }
+    }
+
+    /** Closes the pipeline after a stage failed, since the orders behind the failure would never complete. */
+    private void stop(Throwable failure) {
+        fatal = failure;
+        closed = true;
+        failInFlight();
+    }
+
+    /** Fails the callers of every order published but not yet applied. Completing a future twice is a no-op. */
+    private void failInFlight() {
+        Throwable failure = closedException();
+        long first = applied + 1;
+        long last = Math.min(claimed.get(), first + mask);
+        for (long sequence = first; sequence <= last; sequence++) {
+            Slot slot = ring[index(sequence)];
+            if (slot.published == sequence) {
+                CompletableFuture<Void> completion = slot.completion;
+                if (completion != null) {
+                    completion.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    /** Applies the priced orders from {@code first} to {@code last} as one batch, then completes their callers. */
+    private void write(long first, long last) {
+        try {
+            writer.inBatch(() -> {
+                for (long sequence = first; sequence <= last; sequence++) {
+                    Slot slot = ring[index(sequence)];
+                    if (slot.failure == null) {
+                        try {
+                            writer.apply(slot.order, slot.price);
+                        } catch (Throwable t) {
+                            slot.failure = t;
+                        }
+                    }
+                }
+            });
+        } catch (Throwable t) {
+            // the writer rolled the failed batch back, so none of its orders took effect
+            for (long sequence = first; sequence <= last; sequence++) {
+                Slot slot = ring[index(sequence)];
+                if (slot.failure == null) {
+                    slot.failure = t;
+                }
+            }
+        }
+
+        for (long sequence = first; sequence <= last; sequence++) {
+            Slot slot = ring[index(sequence)];
+            if (slot.failure == null) {
+                try {
+                    writer.applied(slot.order);
+                } catch (Throwable t) {
+                    slot.failure = t;
+                }
+            }
+        }
+
+        batches.increment();
+        for (long sequence = first; sequence <= last; sequence++) {
+            Slot slot = ring[index(sequence)];
+            CompletableFuture<Void> completion = slot.completion;
+            Throwable failure = slot.failure;
+            slot.order = null;
+            slot.completion = null;
+            slot.failure = null;
+            orders.increment();
+            if (failure == null) {
+                completion.complete(null);
+            } else {
+                completion.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw closedException();
+        }
+    }
+
+    private SafeIllegalStateException closedException() {
+        return new SafeIllegalStateException("The order pipeline is closed", fatal);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+
+    /** Spins, then yields, then naps, the longer the stage has been idle. Returns the next idle count. */
+    private static int idle(int idleCount) {
+        if (idleCount < SPINS) {
+            Thread.onSpinWait();
+        } else if (idleCount < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(idleCount < SPINS + YIELDS + SHORT_NAPS ? SHORT_NAP_NANOS : LONG_NAP_NANOS);
+        }
+        return idleCount == Integer.MAX_VALUE ? idleCount : idleCount + 1;
+    }
+
+    /**
+     * One pre-allocated entry of the ring. The caller's fields are visible to the pricer once it reads
+     * {@code published}, the pricer's to the writer once it reads {@code priced}, and the writer's clean-up to the
+     * next caller once it reads the pipeline's {@code applied}.
+     */
+    private static final class Slot {
+        private volatile long published = -1;
+        private volatile long priced = -1;
+        private OrderRequest order;
+        private CompletableFuture<Void> completion;
+        private double price;
+        private Throwable failure;
+    }
+}
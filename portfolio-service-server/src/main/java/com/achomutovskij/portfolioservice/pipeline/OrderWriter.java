@@ -0,0 +1,35 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.pipeline;
+
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+
+/** The mutations the writer stage of an {@link OrderPipeline} applies. Only ever called by the writer thread. */
+public interface OrderWriter {
+
+    /**
+     * Runs the application of a whole batch of orders, e.g. as a single write batch of the portfolio, which takes
+     * effect either as a whole or, if it throws, not at all.
+     */
+    void inBatch(Runnable applyOrders);
+
+    /** Applies one order at its resolved price. Called within {@link #inBatch}. */
+    void apply(OrderRequest order, double pricePerShare);
+
+    /** Called for every applied order once its batch is visible to readers, before its caller is completed. */
+    void applied(OrderRequest order);
+}
@@ -0,0 +1,45 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.position;
+
+import com.achomutovskij.portfolioservice.bucket.BucketMemberships;
+import com.achomutovskij.portfolioservice.util.PersistentSortedMap;
+import com.palantir.logsafe.Preconditions;
+
+/**
+ * One version of the whole portfolio: every position together with the bucket memberships as of the same write
+ * batch. Reads against a single snapshot never see a position without its memberships or the other way round.
+ */
+public final class PortfolioSnapshot {
+
+    private final PersistentSortedMap<String, SymbolPosition> positions;
+    private final BucketMemberships memberships;
+
+    public PortfolioSnapshot(PersistentSortedMap<String, SymbolPosition> positions, BucketMemberships memberships) {
+        this.positions = Preconditions.checkNotNull(positions, "Positions must be non-null");
+        this.memberships = Preconditions.checkNotNull(memberships, "Memberships must be non-null");
+    }
+
+    /** Symbol -> position, ordered by symbol. */
+    public PersistentSortedMap<String, SymbolPosition> positions() {
+        return positions;
+    }
+
+    public BucketMemberships memberships() {
+        return memberships;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.position;
+
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.palantir.logsafe.Preconditions;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * A copy-on-write view of the positions and their bucket memberships, for trying out orders without placing them.
+ *
+ * <p>Reads fall through to the live state until an order changes a symbol; from then on the overlay holds its own
+ * position and buckets for that symbol. Positions are immutable, so nothing else is ever copied, and any number of
+ * overlays can be used at the same time as each other and as live orders, without taking any locks. Symbols the
+ * overlay has not changed are read through the given functions every time; reading them off one {@link
+ * PortfolioSnapshot} makes the whole projection as of that version.
+ */
+public final class PositionOverlay {
+
+    private final Function<String, SymbolPosition> livePositions;
+    private final Function<String, Collection<String>> liveBuckets;
+    private final Map<String, Optional<SymbolPosition>> positions; // changed symbol -> position, empty once closed
+    private final Map<String, SortedSet<String>> buckets; // changed symbol -> buckets
+
+    public PositionOverlay(
+            Function<String, SymbolPosition> livePositions, Function<String, Collection<String>> liveBuckets) {
+        this.livePositions = Preconditions.checkNotNull(livePositions, "Live positions must be non-null");
+        this.liveBuckets = Preconditions.checkNotNull(liveBuckets, "Live buckets must be non-null");
+        this.positions = new TreeMap<>();
+        this.buckets = new TreeMap<>();
+    }
+
+    /** Applies the order as {@code PositionResource#addOrder} would, at the given price per share. */
+    public void addOrder(TradeType type, String symbol, int quantity, double pricePerShare, Set<String> orderBuckets) {
+        Optional<SymbolPosition> current = position(symbol);
+        Optional<SymbolPosition> merged = current.isPresent()
+                ? current.get().mergeWithNewOrder(type, quantity, pricePerShare)
+                : Optional.of(SymbolPosition.of(type, symbol, quantity, pricePerShare));
+
+        SortedSet<String> symbolBuckets = new TreeSet<>();
+        if (merged.isPresent()) {
+            symbolBuckets.addAll(bucketsOf(symbol));
+            symbolBuckets.addAll(orderBuckets);
+        }
+
+        positions.put(symbol, merged);
+        buckets.put(symbol, symbolBuckets);
+    }
+
+    public Optional<SymbolPosition> position(String symbol) {
+        Optional<SymbolPosition> changed = positions.get(symbol);
+        return changed != null ? changed : Optional.ofNullable(livePositions.apply(symbol));
+    }
+
+    public Collection<String> bucketsOf(String symbol) {
+        SortedSet<String> changed = buckets.get(symbol);
+        return changed != null ? Collections.unmodifiableSortedSet(changed) : liveBuckets.apply(symbol);
+    }
+
+    /** The symbols that orders have changed, in order. */
+    public Set<String> changedSymbols() {
+        return Collections.unmodifiableSet(positions.keySet());
+    }
+}
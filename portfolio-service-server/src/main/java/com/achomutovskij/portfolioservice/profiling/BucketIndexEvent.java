@@ -0,0 +1,79 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One operation on the bucket index. Write operations include the time spent waiting for the write lock, which is
+ * also recorded on its own.
+ */
+@Name("com.achomutovskij.portfolioservice.BucketIndexOperation")
+@Label("Bucket Index Operation")
+@Category({"Portfolio Service", "Buckets"})
+@StackTrace(false)
+public final class BucketIndexEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Bucket")
+    String bucket;
+
+    @Label("Symbol")
+    String symbol;
+
+    @Label("Size")
+    @Description("Symbols in the bucket after the operation, or, for operations on a symbol or a batch, the number of "
+            + "buckets they changed")
+    int size;
+
+    @Label("Lock Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long lockWait;
+
+    private transient long startNanos;
+
+    /** Begins an event that {@link #lockAcquired} can later tell the lock wait of. */
+    public static BucketIndexEvent start() {
+        BucketIndexEvent event = new BucketIndexEvent();
+        if (event.isEnabled()) {
+            event.startNanos = System.nanoTime();
+        }
+        event.begin();
+        return event;
+    }
+
+    public void lockAcquired() {
+        if (isEnabled()) {
+            lockWait = System.nanoTime() - startNanos;
+        }
+    }
+
+    public void commit(String indexOperation, String operationBucket, String operationSymbol, int operationSize) {
+        this.operation = indexOperation;
+        this.bucket = operationBucket;
+        this.symbol = operationSymbol;
+        this.size = operationSize;
+        commit();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** One request to the market data API, from sending it until its response has been parsed. */
+@Name("com.achomutovskij.portfolioservice.MarketApiRequest")
+@Label("Market Data API Request")
+@Category({"Portfolio Service", "Market Data"})
+public final class MarketApiRequestEvent extends jdk.jfr.Event {
+
+    @Label("Symbol")
+    String symbol;
+
+    @Label("Status Code")
+    @Description("HTTP status of the response, 0 if there was none")
+    int statusCode;
+
+    @Label("Response Size")
+    @Description("Bytes of the response body as received, i.e. compressed if the API compressed it")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Prices")
+    @Description("Price bars in the parsed response")
+    int prices;
+
+    public void commit(String requestSymbol, int responseStatusCode, long responseSize, int responsePrices) {
+        this.symbol = requestSymbol;
+        this.statusCode = responseStatusCode;
+        this.responseBytes = responseSize;
+        this.prices = responsePrices;
+        commit();
+    }
+}
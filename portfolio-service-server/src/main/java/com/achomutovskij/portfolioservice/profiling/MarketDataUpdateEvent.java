@@ -0,0 +1,47 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Fetching and caching the market data of one symbol, because it was missing or stale. */
+@Name("com.achomutovskij.portfolioservice.MarketDataUpdate")
+@Label("Market Data Update")
+@Category({"Portfolio Service", "Market Data"})
+public final class MarketDataUpdateEvent extends jdk.jfr.Event {
+
+    @Label("Symbol")
+    String symbol;
+
+    @Label("Refresh")
+    @Description("Whether the symbol was already cached and its data had gone stale")
+    boolean refresh;
+
+    @Label("Prices")
+    @Description("Price bars cached for the symbol after the update")
+    int prices;
+
+    public void commit(String updatedSymbol, boolean wasRefresh, int cachedPrices) {
+        this.symbol = updatedSymbol;
+        this.refresh = wasRefresh;
+        this.prices = cachedPrices;
+        commit();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Computing the position of a bucket or bucket expression from the positions of its symbols. Market data updates
+ * made for the symbols' latest prices happen within it and show up as nested events.
+ */
+@Name("com.achomutovskij.portfolioservice.PositionAggregation")
+@Label("Position Aggregation")
+@Category({"Portfolio Service", "Positions"})
+public final class PositionAggregationEvent extends jdk.jfr.Event {
+
+    @Label("Bucket")
+    @Description("The bucket name, or a description of the bucket expression")
+    String bucket;
+
+    @Label("Positions")
+    int positions;
+
+    public void commit(String aggregatedBucket, int aggregatedPositions) {
+        this.bucket = aggregatedBucket;
+        this.positions = aggregatedPositions;
+        commit();
+    }
+}
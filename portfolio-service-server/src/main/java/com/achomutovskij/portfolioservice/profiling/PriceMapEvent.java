@@ -0,0 +1,44 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Turning a market data API response into the price bars of a symbol and merging them into the cache. */
+@Name("com.achomutovskij.portfolioservice.PriceMap")
+@Label("Price Map Construction")
+@Category({"Portfolio Service", "Market Data"})
+@StackTrace(false)
+public final class PriceMapEvent extends jdk.jfr.Event {
+
+    @Label("Symbol")
+    String symbol;
+
+    @Label("Prices")
+    @Description("Price bars in the response")
+    int prices;
+
+    public void commit(String mappedSymbol, int mappedPrices) {
+        this.symbol = mappedSymbol;
+        this.prices = mappedPrices;
+        commit();
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.resources;
+
+import com.achomutovskij.portfolioservice.alert.AlertLog;
+import com.achomutovskij.portfolioservice.alert.ThresholdIndex;
+import com.achomutovskij.portfolioservice.api.AlertDirection;
+import com.achomutovskij.portfolioservice.api.AlertErrors;
+import com.achomutovskij.portfolioservice.api.AlertMetric;
+import com.achomutovskij.portfolioservice.api.AlertRule;
+import com.achomutovskij.portfolioservice.api.AlertRuleRequest;
+import com.achomutovskij.portfolioservice.api.AlertTarget;
+import com.achomutovskij.portfolioservice.api.BucketErrors;
+import com.achomutovskij.portfolioservice.api.BucketPosition;
+import com.achomutovskij.portfolioservice.api.StockPosition;
+import com.achomutovskij.portfolioservice.api.TriggeredAlerts;
+import com.achomutovskij.portfolioservice.api.UndertowAlertService;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeListener;
+import com.achomutovskij.portfolioservice.marketdata.MarketDataProvider;
+import com.achomutovskij.portfolioservice.metrics.Counter;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serves alert rules on the prices and profit/loss of symbols and buckets.
+ *
+ * <p>Change notifications only mark the changed symbols and buckets; a single evaluator thread then looks up the rules
+ * of each of them, and of the buckets holding them, and computes each metric that has rules once. Rules are indexed by
+ * threshold, so only the rules whose thresholds the new value crossed are triggered, whatever the number of rules.
+ */
+public final class AlertResource implements UndertowAlertService, PortfolioChangeListener {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(AlertResource.class);
+
+    private static final String PRICE_NEEDS_SYMBOL = "Price alerts can only target symbols";
+    private static final String UNKNOWN_METRIC_OR_DIRECTION = "The metric and the direction must be known";
+    private static final String THRESHOLD_NOT_FINITE = "The threshold must be a finite number";
+    private static final int RETAINED_ALERTS = 1000;
+    private static final long MAX_POLL_TIMEOUT_MILLIS = 30_000L;
+
+    private final MarketDataProvider marketDataProvider;
+    private final PositionResource positionResource;
+    private final BucketManagementResource bucketManager;
+    private final ScheduledExecutorService evaluator;
+    private final AlertLog alertLog;
+    private final Counter triggeredAlerts;
+
+    private final Map<String, AlertRule> rules; // rule id -> rule, also guards the threshold indexes
+    private final Map<AlertTarget, Map<AlertMetric, ThresholdIndex>> indexes; // target -> metric -> rules
+    private final Set<String> dirtySymbols;
+    private final Set<String> dirtyBuckets;
+    private final AtomicBoolean evaluationScheduled;
+
+    public AlertResource(
+            MarketDataProvider marketDataProvider,
+            PositionResource positionResource,
+            BucketManagementResource bucketManager,
+            MetricRegistry metrics) {
+        this.marketDataProvider =
+                Preconditions.checkNotNull(marketDataProvider, "Market data provider must be non-null");
+        this.positionResource = Preconditions.checkNotNull(positionResource, "Position resource must be non-null");
+        this.bucketManager = Preconditions.checkNotNull(bucketManager, "Bucket manager must be non-null");
+        Preconditions.checkNotNull(metrics, "Metric registry must be non-null");
+        this.evaluator = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("alert-evaluator-%d")
+                .setDaemon(true)
+                .build());
+        this.alertLog = new AlertLog(RETAINED_ALERTS, evaluator);
+        this.triggeredAlerts = metrics.counter("portfolio_alerts_triggered_total", "Alert rules triggered");
+        this.rules = new TreeMap<>();
+        this.indexes = new ConcurrentHashMap<>();
+        this.dirtySymbols = ConcurrentHashMap.newKeySet();
+        this.dirtyBuckets = ConcurrentHashMap.newKeySet();
+        this.evaluationScheduled = new AtomicBoolean();
+        metrics.gauge("portfolio_alert_rules", "Number of alert rules", this::ruleCount);
+    }
+
+    @Override
+    public AlertRule createAlertRule(AlertRuleRequest request) {
+        validate(request);
+        AlertRule rule = AlertRule.builder()
+                .id(UUID.randomUUID().toString())
+                .target(request.getTarget())
+                .metric(request.getMetric())
+                .direction(request.getDirection())
+                .threshold(request.getThreshold())
+                .build();
+
+        boolean alreadyBeyond;
+        double lastValue;
+        synchronized (rules) {
+            rules.put(rule.getId(), rule);
+            ThresholdIndex index = indexes.computeIfAbsent(rule.getTarget(), _target -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(rule.getMetric(), _metric -> new ThresholdIndex());
+            alreadyBeyond = index.add(rule);
+            lastValue = index.lastValue();
+        }
+
+        if (alreadyBeyond) {
+            trigger(rule, lastValue);
+        } else if (Double.isNaN(lastValue)) {
+            // the metric has not been computed yet, so find out whether the rule applies straight away
+            Optional<String> bucket = bucketOf(rule.getTarget());
+            if (bucket.isPresent()) {
+                markDirty(dirtyBuckets, bucket.get());
+            } else {
+                markDirty(dirtySymbols, symbolOf(rule.getTarget()).orElseThrow());
+            }
+        }
+        return rule;
+    }
+
+    @Override
+    public List<AlertRule> getAlertRules() {
+        synchronized (rules) {
+            return new ArrayList<>(rules.values());
+        }
+    }
+
+    @Override
+    public void deleteAlertRule(String ruleId) {
+        synchronized (rules) {
+            AlertRule rule = rules.remove(ruleId);
+            if (rule == null) {
+                throw AlertErrors.alertRuleNotFound(ruleId);
+            }
+
+            Map<AlertMetric, ThresholdIndex> metrics = indexes.get(rule.getTarget());
+            ThresholdIndex index = metrics.get(rule.getMetric());
+            index.remove(rule);
+            if (index.isEmpty()) {
+                metrics.remove(rule.getMetric());
+                if (metrics.isEmpty()) {
+                    indexes.remove(rule.getTarget());
+                }
+            }
+        }
+    }
+
+    @Override
+    public ListenableFuture<TriggeredAlerts> getTriggeredAlerts(
+            Optional<SafeLong> after, Optional<Integer> timeoutMillis) {
+        long timeout = timeoutMillis.map(Integer::longValue).orElse(MAX_POLL_TIMEOUT_MILLIS);
+        timeout = Math.max(0, Math.min(timeout, MAX_POLL_TIMEOUT_MILLIS));
+        return alertLog.poll(after.map(SafeLong::longValue), Duration.ofMillis(timeout));
+    }
+
+    public long ruleCount() {
+        synchronized (rules) {
+            return rules.size();
+        }
+    }
+
+    @Override
+    public void onPositionChanged(String symbol) {
+        markDirty(dirtySymbols, symbol);
+    }
+
+    @Override
+    public void onPriceChanged(String symbol) {
+        markDirty(dirtySymbols, symbol);
+    }
+
+    @Override
+    public void onBucketChanged(String bucketName) {
+        markDirty(dirtyBuckets, bucketName);
+    }
+
+    private void markDirty(Set<String> dirty, String key) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        dirty.add(key);
+        if (evaluationScheduled.compareAndSet(false, true)) {
+            evaluator.execute(this::evaluate);
+        }
+    }
+
+    private void evaluate() {
+        evaluationScheduled.set(false);
+
+        // a symbol's price and position also move the profit/loss of the buckets holding it, and of their ancestors
+        Set<AlertTarget> targets = new LinkedHashSet<>();
+        for (String symbol : drain(dirtySymbols)) {
+            targets.add(AlertTarget.symbol(symbol));
+            bucketManager.getBucketTreesForSymbol(symbol).forEach(bucket -> targets.add(AlertTarget.bucket(bucket)));
+        }
+        for (String bucket : drain(dirtyBuckets)) {
+            targets.add(AlertTarget.bucket(bucket));
+            if (bucketManager.bucketExists(bucket)) {
+                bucketManager.getBucketAncestors(bucket).forEach(ancestor -> targets.add(AlertTarget.bucket(ancestor)));
+            }
+        }
+
+        for (AlertTarget target : targets) {
+            Map<AlertMetric, ThresholdIndex> metrics = indexes.get(target);
+            if (metrics != null) {
+                metrics.keySet().forEach(metric -> evaluate(target, metric, metrics));
+            }
+        }
+    }
+
+    private void evaluate(AlertTarget target, AlertMetric metric, Map<AlertMetric, ThresholdIndex> metrics) {
+        Optional<Double> value;
+        try {
+            value = value(target, metric);
+        } catch (RuntimeException e) {
+            log.warn("Failed to evaluate alert rules", SafeArg.of("metric", metric), e);
+            return;
+        }
+
+        value.ifPresent(currentValue -> {
+            List<AlertRule> triggered;
+            synchronized (rules) {
+                ThresholdIndex index = metrics.get(metric);
+                if (index == null) {
+                    return; // the last rule was deleted in the meantime
+                }
+                triggered = index.update(currentValue);
+            }
+            triggered.forEach(rule -> trigger(rule, currentValue));
+        });
+    }
+
+    private Optional<Double> value(AlertTarget target, AlertMetric metric) {
+        Optional<String> bucket = bucketOf(target);
+        if (bucket.isPresent()) {
+            // the profit/loss of an empty bucket is not defined
+            return positionResource
+                    .findBucketPosition(bucket.get())
+                    .filter(position -> position.getNumberOfPositions() > 0)
+                    .map(BucketPosition::getProfitLossPercent);
+        }
+
+        String symbol = symbolOf(target).orElseThrow();
+        if (metric.get() == AlertMetric.Value.PRICE) {
+            return Optional.of(marketDataProvider.getLatestPrice(symbol));
+        }
+        return positionResource.findStockPosition(symbol).map(StockPosition::getProfitLossPercent);
+    }
+
+    private void trigger(AlertRule rule, double value) {
+        alertLog.append(rule, value);
+        triggeredAlerts.increment();
+    }
+
+    private void validate(AlertRuleRequest request) {
+        if (!Double.isFinite(request.getThreshold())) {
+            throw AlertErrors.invalidAlertRule(THRESHOLD_NOT_FINITE);
+        }
+        if (request.getMetric().get() == AlertMetric.Value.UNKNOWN
+                || request.getDirection().get() == AlertDirection.Value.UNKNOWN) {
+            throw AlertErrors.invalidAlertRule(UNKNOWN_METRIC_OR_DIRECTION);
+        }
+
+        Optional<String> bucket = bucketOf(request.getTarget());
+        if (bucket.isPresent()) {
+            if (request.getMetric().get() == AlertMetric.Value.PRICE) {
+                throw AlertErrors.invalidAlertRule(PRICE_NEEDS_SYMBOL);
+            }
+            if (!bucketManager.bucketExists(bucket.get())) {
+                throw BucketErrors.bucketNotFound(bucket.get());
+            }
+        }
+    }
+
+    private static Optional<String> bucketOf(AlertTarget target) {
+        return target.accept(new AlertTarget.Visitor<Optional<String>>() {
+            @Override
+            public Optional<String> visitSymbol(String _symbol) {
+                return Optional.empty();
+            }
+
+            @Override
+            public Optional<String> visitBucket(String bucketName) {
+                return Optional.of(bucketName);
+            }
+
+            @Override
+            public Optional<String> visitUnknown(String unknownType) {
+                throw new SafeIllegalArgumentException("Unknown alert target type", SafeArg.of("type", unknownType));
+            }
+        });
+    }
+
+    private static Optional<String> symbolOf(AlertTarget target) {
+        return target.accept(new AlertTarget.Visitor<Optional<String>>() {
+            @Override
+            public Optional<String> visitSymbol(String symbol) {
+                return Optional.of(symbol);
+            }
+
+            @Override
+            public Optional<String> visitBucket(String _bucketName) {
+                return Optional.empty();
+            }
+
+            @Override
+            public Optional<String> visitUnknown(String unknownType) {
+                throw new SafeIllegalArgumentException("Unknown alert target type", SafeArg.of("type", unknownType));
+            }
+        });
+    }
+
+    private static List<String> drain(Set<String> dirty) {
+        List<String> drained = new ArrayList<>();
+        for (Iterator<String> iterator = dirty.iterator(); iterator.hasNext(); ) {
+            drained.add(iterator.next());
+            iterator.remove();
+        }
+        return drained;
+    }
+}
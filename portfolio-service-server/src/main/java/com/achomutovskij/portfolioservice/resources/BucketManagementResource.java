@@ -16,92 +16,544 @@
 
 package com.achomutovskij.portfolioservice.resources;
 
+import com.achomutovskij.portfolioservice.api.BucketContents;
+import com.achomutovskij.portfolioservice.api.BucketDifference;
 import com.achomutovskij.portfolioservice.api.BucketErrors;
+import com.achomutovskij.portfolioservice.api.BucketExpression;
+import com.achomutovskij.portfolioservice.api.BucketOperation;
+import com.achomutovskij.portfolioservice.api.BucketsPage;
+import com.achomutovskij.portfolioservice.api.BucketsUpdateRequest;
 import com.achomutovskij.portfolioservice.api.UndertowBucketManagementService;
+import com.achomutovskij.portfolioservice.bucket.BucketIndex;
+import com.achomutovskij.portfolioservice.bucket.BucketMemberships;
+import com.achomutovskij.portfolioservice.bucket.SymbolBitmap;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeNotifier;
+import com.achomutovskij.portfolioservice.util.PersistentSortedMap;
 import com.google.common.collect.ImmutableSet;
-import java.util.Collections;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public final class BucketManagementResource implements UndertowBucketManagementService {
 
     private static final String BUCKET_ALREADY_EXISTS = "Bucket with the given name already exists";
+    private static final String EXPRESSION_LIST_EMPTY = "Unions and intersections need at least one bucket expression";
+    private static final String PAGE_SIZE_NOT_POSITIVE = "Page size must be positive";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
 
-    private final Map<String, Set<String>> bucketNameToSymbols;
-    private final Map<String, Set<String>> symbolToBuckets;
+    private final BucketIndex bucketIndex;
+    private final PortfolioChangeNotifier changeNotifier;
+    private BatchChanges batch; // changes of the running batch, guarded by the bucket index's write lock
 
     public BucketManagementResource() {
-        this.bucketNameToSymbols = new ConcurrentHashMap<>();
-        this.symbolToBuckets = new ConcurrentHashMap<>();
+        this(new PortfolioChangeNotifier());
+    }
+
+    public BucketManagementResource(PortfolioChangeNotifier changeNotifier) {
+        this.changeNotifier = Preconditions.checkNotNull(changeNotifier, "Change notifier must be non-null");
+        this.bucketIndex = new BucketIndex();
+    }
+
+    public PortfolioChangeNotifier changeNotifier() {
+        return changeNotifier;
+    }
+
+    /**
+     * Runs the changes as a single writer of the bucket index, together with any changes they make through this
+     * resource, so readers see either all or none of them. The index publishes its new version at the end of the
+     * batch, and only then are the listeners notified of the changed buckets and symbols. If the changes throw, the
+     * batch is rolled back and no one is notified.
+     */
+    public void inBatch(Runnable changes) {
+        change(_changes -> {
+            changes.run();
+            return null;
+        });
+    }
+
+    /**
+     * Notifies the listeners that the position of the symbol changed, once the batch it is called in is published, and
+     * only once per batch however often it is called or the symbol's memberships change.
+     */
+    public void positionChanged(String symbol) {
+        change(changes -> {
+            changes.symbols.add(symbol);
+            return null;
+        });
+    }
+
+    /** Returns the latest published version of the memberships, or, within a batch, the batch's own. */
+    public BucketMemberships memberships() {
+        return bucketIndex.memberships();
+    }
+
+    /** See {@link BucketIndex#onPublish}. */
+    public void onPublish(Consumer<BucketMemberships> listener) {
+        bucketIndex.onPublish(listener);
+    }
+
+    /** See {@link BucketIndex#onRollBack}. */
+    public void onRollBack(Runnable listener) {
+        bucketIndex.onRollBack(listener);
     }
 
     @Override
     public void createBucket(String bucketName) {
-        if (bucketNameToSymbols.containsKey(bucketName)) {
-            throw BucketErrors.bucketCreationFailed(bucketName, BUCKET_ALREADY_EXISTS);
-        }
-        bucketNameToSymbols.put(bucketName, new HashSet<>());
+        change(changes -> {
+            if (!bucketIndex.createBucket(bucketName)) {
+                throw BucketErrors.bucketCreationFailed(bucketName, BUCKET_ALREADY_EXISTS);
+            }
+            changes.buckets.add(bucketName);
+            return null;
+        });
     }
 
     @Override
     public void deleteBucket(String bucketName) {
-        if (!bucketNameToSymbols.containsKey(bucketName)) {
-            throw BucketErrors.bucketNotFound(bucketName);
-        }
-        bucketNameToSymbols.remove(bucketName);
-        symbolToBuckets.forEach((_symbol, buckets) -> buckets.remove(bucketName));
+        change(changes -> {
+            Optional<String> parent = bucketIndex.parentOf(bucketName);
+            Set<String> symbols =
+                    bucketIndex.deleteBucket(bucketName).orElseThrow(() -> BucketErrors.bucketNotFound(bucketName));
+
+            changes.buckets.add(bucketName);
+            parent.ifPresent(changes.buckets::add);
+            changes.symbols.addAll(symbols);
+            return null;
+        });
     }
 
     @Override
     public Map<String, List<String>> getAllBuckets() {
-        return bucketNameToSymbols.entrySet().stream()
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        entry -> entry.getValue().stream().sorted().collect(Collectors.toList()),
-                        (first, _second) -> first,
-                        TreeMap::new));
+        return bucketIndex.sortedBuckets();
+    }
+
+    @Override
+    public BucketsPage getBucketsPage(Optional<String> pageToken, Optional<Integer> pageSize) {
+        int limit = pageLimit(pageSize);
+        PersistentSortedMap<String, List<String>> sortedBuckets = bucketIndex.sortedBuckets();
+        Iterator<Map.Entry<String, List<String>>> remaining = pageToken
+                .map(sortedBuckets::entriesAfter)
+                .orElseGet(() -> sortedBuckets.entrySet().iterator());
+
+        BucketsPage.Builder page = BucketsPage.builder();
+        String last = null;
+        for (int i = 0; i < limit && remaining.hasNext(); i++) {
+            Map.Entry<String, List<String>> bucket = remaining.next();
+            page.buckets(BucketContents.of(bucket.getKey(), bucket.getValue()));
+            last = bucket.getKey();
+        }
+
+        if (last != null && remaining.hasNext()) {
+            page.nextPageToken(last);
+        }
+        return page.build();
+    }
+
+    /** Returns the number of buckets a page holds at most, given the requested page size. */
+    public static int pageLimit(Optional<Integer> pageSize) {
+        int limit = pageSize.orElse(DEFAULT_PAGE_SIZE);
+        if (limit <= 0) {
+            throw BucketErrors.invalidPageSize(limit, PAGE_SIZE_NOT_POSITIVE);
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    @Override
+    public void setBucketParent(String bucketName, String parentName) {
+        change(changes -> {
+            Optional<String> previousParent = bucketIndex.parentOf(bucketName);
+            switch (bucketIndex.setParent(bucketName, parentName)) {
+                case UPDATED:
+                    changes.buckets.add(parentName);
+                    previousParent.ifPresent(changes.buckets::add);
+                    return null;
+                case UNCHANGED:
+                    return null;
+                case CYCLE:
+                    throw BucketErrors.bucketHierarchyCycle(bucketName, parentName);
+                case MISSING_BUCKET:
+                    throw BucketErrors.bucketNotFound(
+                            bucketIndex.containsBucket(bucketName) ? parentName : bucketName);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void removeBucketParent(String bucketName) {
+        change(changes -> {
+            if (!bucketIndex.containsBucket(bucketName)) {
+                throw BucketErrors.bucketNotFound(bucketName);
+            }
+            bucketIndex.removeParent(bucketName).ifPresent(changes.buckets::add);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<String, String> getBucketParents() {
+        return new TreeMap<>(bucketIndex.parents());
+    }
+
+    /** Creates those of the buckets that do not exist yet. */
+    public void ensureBuckets(Set<String> bucketNames) {
+        change(changes -> {
+            bucketNames.stream().filter(bucketIndex::createBucket).forEach(changes.buckets::add);
+            return null;
+        });
     }
 
     public void insertSymbolIntoBuckets(String symbol, Set<String> buckets) {
-        buckets.forEach(bucket -> {
-            bucketNameToSymbols.computeIfAbsent(bucket, _key -> new HashSet<>()).add(symbol);
-            symbolToBuckets.computeIfAbsent(symbol, _key -> new HashSet<>()).add(bucket);
+        change(changes -> {
+            for (String bucket : buckets) {
+                if (bucketIndex.addSymbol(bucket, symbol)) {
+                    changes.buckets.add(bucket);
+                    changes.symbols.add(symbol);
+                }
+            }
+            return null;
         });
     }
 
     public void removeSymbolFromAllBuckets(String symbol) {
-        // create a copy to avoid a concurrent modification exception in the for each loop below
-        Set<String> buckets = ImmutableSet.copyOf(symbolToBuckets.getOrDefault(symbol, Collections.emptySet()));
-
-        buckets.forEach(bucket -> removeSymbolFromBucket(bucket, symbol));
-        symbolToBuckets.remove(symbol);
+        change(changes -> {
+            ImmutableSet<String> buckets = bucketIndex.removeSymbolFromAllBuckets(symbol);
+            changes.buckets.addAll(buckets);
+            if (!buckets.isEmpty()) {
+                changes.symbols.add(symbol);
+            }
+            return null;
+        });
     }
 
     public void removeSymbolFromBucket(String bucketName, String symbol) {
-        if (bucketNameToSymbols.containsKey(bucketName)) {
-            bucketNameToSymbols.get(bucketName).remove(symbol);
-        }
+        change(changes -> {
+            if (bucketIndex.removeSymbol(bucketName, symbol)) {
+                changes.buckets.add(bucketName);
+                changes.symbols.add(symbol);
+            }
+            return null;
+        });
+    }
 
-        if (symbolToBuckets.containsKey(symbol)) {
-            symbolToBuckets.get(symbol).remove(bucketName);
-        }
+    /**
+     * Validates all the operations and then applies them as a single writer, so either all of them take effect or,
+     * if any of them is invalid, none do. The symbol updates are additionally checked by the given validator. Listeners
+     * are notified once per changed bucket and symbol, after the whole batch has been applied.
+     */
+    public void applyOperations(
+            List<BucketOperation> operations, Consumer<BucketsUpdateRequest> symbolUpdateValidator) {
+        applyOperations(operations, symbolUpdateValidator, _symbol -> true);
+    }
+
+    /**
+     * Like {@link #applyOperations(List, Consumer)}, but only validates and applies the symbol updates of the symbols
+     * accepted by {@code ownsSymbol}. For the other symbols, only the buckets they are added to are created, so that
+     * the bucket set ends up the same as on the node that owns them.
+     */
+    public void applyOperations(
+            List<BucketOperation> operations,
+            Consumer<BucketsUpdateRequest> symbolUpdateValidator,
+            Predicate<String> ownsSymbol) {
+        change(changes -> {
+            validate(operations, symbolUpdateValidator, ownsSymbol);
+            operations.forEach(operation -> apply(operation, changes, ownsSymbol));
+            return null;
+        });
+    }
+
+    public int bucketCount() {
+        return bucketIndex.memberships().buckets().size();
+    }
+
+    public boolean bucketExists(String bucketName) {
+        return bucketIndex.containsBucket(bucketName);
     }
 
+    /** Returns an immutable snapshot of the bucket's members. */
     public Set<String> getPositionsInBucket(String bucket) {
-        if (!bucketNameToSymbols.containsKey(bucket)) {
-            throw BucketErrors.bucketNotFound(bucket);
+        return bucketIndex.symbolsInBucket(bucket).orElseThrow(() -> BucketErrors.bucketNotFound(bucket));
+    }
+
+    /** Returns the symbols of the bucket and of all of its descendants, each symbol once. */
+    public Collection<String> getPositionsInBucketTree(String bucket) {
+        return getPositionsInBucketTree(bucketIndex.memberships(), bucket);
+    }
+
+    /** Like {@link #getPositionsInBucketTree(String)}, as of the given version of the memberships. */
+    public Collection<String> getPositionsInBucketTree(BucketMemberships memberships, String bucket) {
+        if (!memberships.hasChildren(bucket)) {
+            return memberships.symbolsInBucket(bucket).orElseThrow(() -> BucketErrors.bucketNotFound(bucket));
         }
-        return bucketNameToSymbols.get(bucket);
+        return bucketIndex.symbolsOf(
+                bucketIndex.rollUp(memberships, bucket).orElseThrow(() -> BucketErrors.bucketNotFound(bucket)));
     }
 
     public List<String> getBucketsForSymbol(String symbol) {
-        return symbolToBuckets.getOrDefault(symbol, Collections.emptySet()).stream()
-                .sorted()
-                .collect(Collectors.toList());
+        return getBucketsForSymbol(bucketIndex.memberships(), symbol);
+    }
+
+    /** Returns the buckets the symbol is a member of as of the given version of the memberships, in order. */
+    public static List<String> getBucketsForSymbol(BucketMemberships memberships, String symbol) {
+        return memberships.bucketsForSymbol(symbol).stream().sorted().collect(Collectors.toList());
+    }
+
+    /** Returns the buckets whose rolled-up position includes the symbol: its own buckets and all of their ancestors. */
+    public Set<String> getBucketTreesForSymbol(String symbol) {
+        BucketMemberships memberships = bucketIndex.memberships();
+        Set<String> buckets = new HashSet<>();
+        memberships.bucketsForSymbol(symbol).forEach(bucket -> {
+            buckets.add(bucket);
+            buckets.addAll(memberships.ancestorsOf(bucket));
+        });
+        return buckets;
+    }
+
+    public List<String> getBucketAncestors(String bucketName) {
+        return bucketIndex.ancestorsOf(bucketName);
+    }
+
+    /** Evaluates the bucket expression with bitmap operations, returning the selected symbols. */
+    public List<String> getPositionsInExpression(BucketExpression expression) {
+        return getPositionsInExpression(bucketIndex.memberships(), expression);
+    }
+
+    /** Like {@link #getPositionsInExpression(BucketExpression)}, as of the given version of the memberships. */
+    public List<String> getPositionsInExpression(BucketMemberships memberships, BucketExpression expression) {
+        return bucketIndex.symbolsOf(evaluate(memberships, expression));
+    }
+
+    /** Renders the expression for display, e.g. {@code ((tech & long-term) - hedges)}. */
+    public static String describe(BucketExpression expression) {
+        return expression.accept(new BucketExpression.Visitor<String>() {
+            @Override
+            public String visitBucket(String bucketName) {
+                return bucketName;
+            }
+
+            @Override
+            public String visitUnion(List<BucketExpression> operands) {
+                return join(operands, " | ");
+            }
+
+            @Override
+            public String visitIntersection(List<BucketExpression> operands) {
+                return join(operands, " & ");
+            }
+
+            @Override
+            public String visitDifference(BucketDifference difference) {
+                return '(' + describe(difference.getInclude()) + " - " + describe(difference.getExclude()) + ')';
+            }
+
+            @Override
+            public String visitUnknown(String unknownType) {
+                throw new SafeIllegalArgumentException(
+                        "Unknown bucket expression type", SafeArg.of("type", unknownType));
+            }
+
+            private String join(List<BucketExpression> operands, String operator) {
+                return operands.stream()
+                        .map(BucketManagementResource::describe)
+                        .collect(Collectors.joining(operator, "(", ")"));
+            }
+        });
+    }
+
+    /** Checks the operations in order against the bucket set as the operations before them would leave it. */
+    private void validate(
+            List<BucketOperation> operations,
+            Consumer<BucketsUpdateRequest> symbolUpdateValidator,
+            Predicate<String> ownsSymbol) {
+        Map<String, Boolean> existence = new HashMap<>(); // buckets created or deleted by the earlier operations
+        Predicate<String> exists = bucketName -> existence.computeIfAbsent(bucketName, bucketIndex::containsBucket);
+
+        for (BucketOperation operation : operations) {
+            operation.accept(new BucketOperation.Visitor<Void>() {
+                @Override
+                public Void visitCreateBucket(String bucketName) {
+                    if (exists.test(bucketName)) {
+                        throw BucketErrors.bucketCreationFailed(bucketName, BUCKET_ALREADY_EXISTS);
+                    }
+                    existence.put(bucketName, true);
+                    return null;
+                }
+
+                @Override
+                public Void visitDeleteBucket(String bucketName) {
+                    if (!exists.test(bucketName)) {
+                        throw BucketErrors.bucketNotFound(bucketName);
+                    }
+                    existence.put(bucketName, false);
+                    return null;
+                }
+
+                @Override
+                public Void visitAddSymbolToBuckets(BucketsUpdateRequest update) {
+                    if (ownsSymbol.test(update.getSymbol())) {
+                        symbolUpdateValidator.accept(update);
+                    }
+                    update.getBuckets().forEach(bucketName -> existence.put(bucketName, true));
+                    return null;
+                }
+
+                @Override
+                public Void visitRemoveSymbolFromBuckets(BucketsUpdateRequest update) {
+                    if (ownsSymbol.test(update.getSymbol())) {
+                        symbolUpdateValidator.accept(update);
+                    }
+                    return null;
+                }
+
+                @Override
+                public Void visitUnknown(String unknownType) {
+                    throw new SafeIllegalArgumentException(
+                            "Unknown bucket operation type", SafeArg.of("type", unknownType));
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs the changes in a batch of the bucket index. A change made within another one joins the outer batch; the
+     * listeners are notified of everything a batch changed once the index has published it. A batch that fails part
+     * way through is rolled back by the index, so its listeners are not notified of any of it.
+     */
+    private <T> T change(Function<BatchChanges, T> changes) {
+        BatchChanges[] completed = new BatchChanges[1];
+        T result = bucketIndex.inBatch(() -> {
+            if (batch != null) {
+                return changes.apply(batch);
+            }
+            batch = new BatchChanges();
+            try {
+                return changes.apply(batch);
+            } finally {
+                completed[0] = batch;
+                batch = null;
+            }
+        });
+        if (completed[0] != null) {
+            completed[0].buckets.forEach(changeNotifier::bucketChanged);
+            completed[0].symbols.forEach(changeNotifier::positionChanged);
+        }
+        return result;
+    }
+
+    /** Applies an already validated operation. Requires the batch started by {@link #applyOperations}. */
+    private void apply(BucketOperation operation, BatchChanges changes, Predicate<String> ownsSymbol) {
+        operation.accept(new BucketOperation.Visitor<Void>() {
+            @Override
+            public Void visitCreateBucket(String bucketName) {
+                bucketIndex.createBucket(bucketName);
+                changes.buckets.add(bucketName);
+                return null;
+            }
+
+            @Override
+            public Void visitDeleteBucket(String bucketName) {
+                bucketIndex.parentOf(bucketName).ifPresent(changes.buckets::add);
+                bucketIndex.deleteBucket(bucketName).ifPresent(changes.symbols::addAll);
+                changes.buckets.add(bucketName);
+                return null;
+            }
+
+            @Override
+            public Void visitAddSymbolToBuckets(BucketsUpdateRequest update) {
+                if (!ownsSymbol.test(update.getSymbol())) {
+                    update.getBuckets().stream().filter(bucketIndex::createBucket).forEach(changes.buckets::add);
+                    return null;
+                }
+                for (String bucketName : update.getBuckets()) {
+                    if (bucketIndex.addSymbol(bucketName, update.getSymbol())) {
+                        changes.buckets.add(bucketName);
+                        changes.symbols.add(update.getSymbol());
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitRemoveSymbolFromBuckets(BucketsUpdateRequest update) {
+                if (!ownsSymbol.test(update.getSymbol())) {
+                    return null;
+                }
+                for (String bucketName : update.getBuckets()) {
+                    if (bucketIndex.removeSymbol(bucketName, update.getSymbol())) {
+                        changes.buckets.add(bucketName);
+                        changes.symbols.add(update.getSymbol());
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitUnknown(String unknownType) {
+                throw new SafeIllegalArgumentException(
+                        "Unknown bucket operation type", SafeArg.of("type", unknownType));
+            }
+        });
+    }
+
+    private SymbolBitmap evaluate(BucketMemberships memberships, BucketExpression expression) {
+        return expression.accept(new BucketExpression.Visitor<SymbolBitmap>() {
+            @Override
+            public SymbolBitmap visitBucket(String bucketName) {
+                return bucketIndex
+                        .rollUp(memberships, bucketName)
+                        .orElseThrow(() -> BucketErrors.bucketNotFound(bucketName));
+            }
+
+            @Override
+            public SymbolBitmap visitUnion(List<BucketExpression> operands) {
+                return operands(operands).stream().reduce(SymbolBitmap::or).orElseThrow();
+            }
+
+            @Override
+            public SymbolBitmap visitIntersection(List<BucketExpression> operands) {
+                return operands(operands).stream().reduce(SymbolBitmap::and).orElseThrow();
+            }
+
+            @Override
+            public SymbolBitmap visitDifference(BucketDifference difference) {
+                return evaluate(memberships, difference.getInclude())
+                        .andNot(evaluate(memberships, difference.getExclude()));
+            }
+
+            @Override
+            public SymbolBitmap visitUnknown(String unknownType) {
+                throw new SafeIllegalArgumentException(
+                        "Unknown bucket expression type", SafeArg.of("type", unknownType));
+            }
+
+            private List<SymbolBitmap> operands(List<BucketExpression> operands) {
+                if (operands.isEmpty()) {
+                    throw BucketErrors.bucketSetEmpty(EXPRESSION_LIST_EMPTY);
+                }
+                return operands.stream()
+                        .map(operand -> evaluate(memberships, operand))
+                        .collect(Collectors.toList());
+            }
+        });
+    }
+
+    private static final class BatchChanges {
+        private final Set<String> buckets = new LinkedHashSet<>();
+        private final Set<String> symbols = new LinkedHashSet<>();
     }
 }
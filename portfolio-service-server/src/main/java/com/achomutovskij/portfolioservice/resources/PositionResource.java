@@ -16,28 +16,64 @@
 
 package com.achomutovskij.portfolioservice.resources;
 
+import com.achomutovskij.portfolioservice.OrderPipelineConfiguration;
 import com.achomutovskij.portfolioservice.api.BucketErrors;
+import com.achomutovskij.portfolioservice.api.BucketExpression;
+import com.achomutovskij.portfolioservice.api.BucketOperation;
 import com.achomutovskij.portfolioservice.api.BucketPosition;
 import com.achomutovskij.portfolioservice.api.BucketsUpdateRequest;
+import com.achomutovskij.portfolioservice.api.ExportFormat;
+import com.achomutovskij.portfolioservice.api.ExportedPosition;
 import com.achomutovskij.portfolioservice.api.HoldingErrors;
+import com.achomutovskij.portfolioservice.api.ImportFormat;
+import com.achomutovskij.portfolioservice.api.ImportResult;
 import com.achomutovskij.portfolioservice.api.OrderErrors;
 import com.achomutovskij.portfolioservice.api.OrderRequest;
 import com.achomutovskij.portfolioservice.api.ProfitLossAmountAndPercent;
+import com.achomutovskij.portfolioservice.api.ProjectedStockPosition;
+import com.achomutovskij.portfolioservice.api.SimulationRequest;
+import com.achomutovskij.portfolioservice.api.SimulationResult;
 import com.achomutovskij.portfolioservice.api.StockPosition;
 import com.achomutovskij.portfolioservice.api.UndertowPositionService;
+import com.achomutovskij.portfolioservice.bucket.BucketMemberships;
+import com.achomutovskij.portfolioservice.cache.VersionTracker;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeNotifier;
+import com.achomutovskij.portfolioservice.exporter.PositionExporter;
+import com.achomutovskij.portfolioservice.importer.OrderImporter;
 import com.achomutovskij.portfolioservice.marketdata.MarketDataProvider;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.achomutovskij.portfolioservice.pipeline.OrderPipeline;
+import com.achomutovskij.portfolioservice.pipeline.OrderWriter;
+import com.achomutovskij.portfolioservice.position.PortfolioSnapshot;
+import com.achomutovskij.portfolioservice.position.PositionOverlay;
 import com.achomutovskij.portfolioservice.position.SymbolPosition;
-import com.achomutovskij.portfolioservice.util.OffsetDateTimeUtils;
+import com.achomutovskij.portfolioservice.profiling.PositionAggregationEvent;
+import com.achomutovskij.portfolioservice.util.PersistentSortedMap;
+import com.google.common.collect.Iterators;
 import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.conjure.java.undertow.lib.BinaryResponseBody;
 import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.exceptions.SafeUncheckedIoException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
 import org.decimal4j.immutable.Decimal2f;
@@ -49,87 +85,243 @@ public final class PositionResource implements UndertowPositionService {
     private static final String NO_SUCH_HOLDING = "User does not hold specified symbol";
     private static final String BUCKET_SET_EMPTY = "The bucket set must be non-empty";
     private static final String QUANTITY_MUST_BE_POSITIVE = "Quantity must be positive";
+    private static final int IMPORT_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int DEFAULT_ORDER_RING_SIZE = 1024;
+    private static final int DEFAULT_ORDER_PRICERS = 8;
 
     private final MarketDataProvider marketDataProvider;
     private final BucketManagementResource bucketManager;
-    private final Map<String, SymbolPosition> symbolPositions;
+    private final PortfolioChangeNotifier changeNotifier;
+    private final VersionTracker versionTracker;
+    private final OrderImporter orderImporter;
+    private final AtomicReference<PortfolioSnapshot> snapshot; // the latest published version
+    private final Map<String, CachedBucketPosition> bucketPositions; // bucket -> latest computed roll-up
+    private final Optional<OrderPipeline> orderPipeline;
+    private PersistentSortedMap<String, SymbolPosition> positions; // the working version, guarded by the bucket batches
 
     public PositionResource(MarketDataProvider marketDataProvider, BucketManagementResource bucketManager) {
+        this(marketDataProvider, bucketManager, new MetricRegistry());
+    }
+
+    /**
+     * Every read is served lock-free from a single {@link PortfolioSnapshot}. Orders and bucket updates are applied
+     * one batch at a time by {@link BucketManagementResource#inBatch}, which derives the next positions from the
+     * previous ones; whenever the bucket index publishes the result of a batch, the positions are published with it,
+     * and whenever it rolls a failed batch back, so are the positions.
+     */
+    public PositionResource(
+            MarketDataProvider marketDataProvider, BucketManagementResource bucketManager, MetricRegistry metrics) {
+        this(marketDataProvider, bucketManager, metrics, Optional.empty());
+    }
+
+    /**
+     * With an {@code orderPipeline}, orders are applied by the single writer of an {@link OrderPipeline}, which batches
+     * the orders that arrive together, instead of each by its request thread.
+     */
+    public PositionResource(
+            MarketDataProvider marketDataProvider,
+            BucketManagementResource bucketManager,
+            MetricRegistry metrics,
+            Optional<OrderPipelineConfiguration> orderPipeline) {
         this.marketDataProvider =
                 Preconditions.checkNotNull(marketDataProvider, "Market Data Provider must be non-null");
         this.bucketManager = Preconditions.checkNotNull(bucketManager, "Bucket manager must be non-null");
-        this.symbolPositions = new ConcurrentHashMap<>();
+        this.changeNotifier = bucketManager.changeNotifier();
+        this.versionTracker = new VersionTracker(bucketManager);
+        this.changeNotifier.addListener(versionTracker);
+        this.orderImporter = new OrderImporter(
+                IMPORT_PARALLELISM, Preconditions.checkNotNull(metrics, "Metric registry must be non-null"));
+        this.bucketPositions = new ConcurrentHashMap<>();
+        this.positions = PersistentSortedMap.empty();
+        this.snapshot = new AtomicReference<>(new PortfolioSnapshot(positions, bucketManager.memberships()));
+        bucketManager.onPublish(memberships -> snapshot.set(new PortfolioSnapshot(positions, memberships)));
+        bucketManager.onRollBack(() -> positions = snapshot.get().positions());
+        this.orderPipeline = orderPipeline.map(conf -> new OrderPipeline(
+                conf.getRingSize().orElse(DEFAULT_ORDER_RING_SIZE),
+                conf.getPricers().orElse(DEFAULT_ORDER_PRICERS),
+                this::priceOf,
+                new PositionOrderWriter(),
+                metrics));
+    }
+
+    public VersionTracker versionTracker() {
+        return versionTracker;
+    }
+
+    public int positionCount() {
+        return snapshot.get().positions().size();
     }
 
     @Override
     public void addOrder(OrderRequest orderRequest) {
+        checkQuantity(orderRequest);
+
+        if (orderPipeline.isPresent()) {
+            try {
+                orderPipeline.get().submit(orderRequest).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+            return;
+        }
+
+        double priceOnSpecifiedDate = priceOf(orderRequest);
+
+        bucketManager.inBatch(() -> applyOrder(orderRequest, priceOnSpecifiedDate));
+
+        changeNotifier.positionChanged(orderRequest.getSymbol());
+    }
+
+    private static void checkQuantity(OrderRequest orderRequest) {
         if (orderRequest.getQuantity() <= 0) {
             throw OrderErrors.invalidQuantityAmount(QUANTITY_MUST_BE_POSITIVE);
         }
+    }
 
-        String symbol = orderRequest.getSymbol();
-
-        double priceOnSpecifiedDate =
-                marketDataProvider.getPrice(symbol, OffsetDateTimeUtils.utcStartOfDay(orderRequest.getDate()));
+    private double priceOf(OrderRequest orderRequest) {
+        return marketDataProvider.getPrice(orderRequest.getSymbol(), orderRequest.getDate());
+    }
 
-        if (!symbolPositions.containsKey(symbol)) {
-            symbolPositions.put(
+    /** Requires a batch of the bucket manager. */
+    private void applyOrder(OrderRequest orderRequest, double priceOnSpecifiedDate) {
+        String symbol = orderRequest.getSymbol();
+        SymbolPosition current = positions.get(symbol);
+        if (current == null) {
+            positions = positions.plus(
                     symbol,
                     SymbolPosition.of(
                             orderRequest.getType(), symbol, orderRequest.getQuantity(), priceOnSpecifiedDate));
 
             bucketManager.insertSymbolIntoBuckets(symbol, orderRequest.getBuckets());
         } else {
-            Optional<SymbolPosition> mergedPositionOptional = symbolPositions
-                    .get(symbol)
-                    .mergeWithNewOrder(orderRequest.getType(), orderRequest.getQuantity(), priceOnSpecifiedDate);
+            Optional<SymbolPosition> mergedPositionOptional = current.mergeWithNewOrder(
+                    orderRequest.getType(), orderRequest.getQuantity(), priceOnSpecifiedDate);
 
             // we will delete the position from the buckets below in case merged position is an empty optional
             bucketManager.insertSymbolIntoBuckets(symbol, orderRequest.getBuckets());
 
-            mergedPositionOptional.ifPresentOrElse(merged -> symbolPositions.put(symbol, merged), () -> {
-                symbolPositions.remove(symbol);
+            mergedPositionOptional.ifPresentOrElse(merged -> positions = positions.plus(symbol, merged), () -> {
+                positions = positions.minus(symbol);
                 bucketManager.removeSymbolFromAllBuckets(symbol);
             });
         }
     }
 
+    /**
+     * Each lane of a chunk of the file is applied as one batch, bypassing the order pipeline, and every symbol it
+     * changed is notified once, so a large file does not pay for a batch and a published snapshot per row.
+     */
     @Override
-    public void addSymbolToBuckets(BucketsUpdateRequest bucketUpdateRequest) {
-        String symbol = bucketUpdateRequest.getSymbol();
-        if (!symbolPositions.containsKey(symbol)) {
-            throw HoldingErrors.noSuchHolding(symbol, NO_SUCH_HOLDING);
+    public ImportResult importOrders(Optional<ImportFormat> format, InputStream trades) {
+        return importOrders(format, trades, this::applyImportedOrders);
+    }
+
+    /** Imports the trades through {@code addOrder}, e.g. one that forwards the orders for other nodes' symbols. */
+    public ImportResult importOrders(
+            Optional<ImportFormat> format, InputStream trades, Consumer<OrderRequest> addOrder) {
+        return importOrders(format, trades, OrderImporter.oneByOne(addOrder));
+    }
+
+    private ImportResult importOrders(
+            Optional<ImportFormat> format, InputStream trades, OrderImporter.LaneWriter writer) {
+        try {
+            return orderImporter.importOrders(trades, format.orElse(ImportFormat.CSV), writer);
+        } catch (IOException e) {
+            throw new SafeUncheckedIoException("Failed to read the trades", e);
         }
+    }
 
-        if (bucketUpdateRequest.getBuckets().isEmpty()) {
-            throw BucketErrors.bucketSetEmpty(BUCKET_SET_EMPTY);
+    /**
+     * Prices the orders one by one, then applies those that could be priced in a single batch, which notifies every
+     * symbol it changed once.
+     */
+    private void applyImportedOrders(List<OrderRequest> orders, ObjIntConsumer<RuntimeException> failed) {
+        double[] prices = new double[orders.size()];
+        boolean[] priced = new boolean[orders.size()];
+        for (int index = 0; index < orders.size(); index++) {
+            try {
+                checkQuantity(orders.get(index));
+                prices[index] = priceOf(orders.get(index));
+                priced[index] = true;
+            } catch (RuntimeException e) {
+                failed.accept(e, index);
+            }
         }
 
-        bucketManager.insertSymbolIntoBuckets(symbol, bucketUpdateRequest.getBuckets());
+        bucketManager.inBatch(() -> {
+            for (int index = 0; index < orders.size(); index++) {
+                if (priced[index]) {
+                    try {
+                        applyOrder(orders.get(index), prices[index]);
+                        bucketManager.positionChanged(orders.get(index).getSymbol());
+                    } catch (RuntimeException e) {
+                        failed.accept(e, index);
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void addSymbolToBuckets(BucketsUpdateRequest bucketUpdateRequest) {
+        bucketManager.inBatch(() -> {
+            validateBucketsUpdate(bucketUpdateRequest);
+            bucketManager.insertSymbolIntoBuckets(bucketUpdateRequest.getSymbol(), bucketUpdateRequest.getBuckets());
+        });
     }
 
     @Override
     public void removeSymbolFromBuckets(BucketsUpdateRequest bucketUpdateRequest) {
         String symbol = bucketUpdateRequest.getSymbol();
-        if (!symbolPositions.containsKey(symbol)) {
+        bucketManager.inBatch(() -> {
+            validateBucketsUpdate(bucketUpdateRequest);
+            bucketUpdateRequest.getBuckets().forEach(bucket -> bucketManager.removeSymbolFromBucket(bucket, symbol));
+        });
+    }
+
+    @Override
+    public void applyBucketOperations(List<BucketOperation> operations) {
+        bucketManager.applyOperations(operations, this::validateBucketsUpdate);
+    }
+
+    /** Applies the batch, changing the bucket memberships of only the symbols accepted by {@code ownsSymbol}. */
+    public void applyBucketOperations(List<BucketOperation> operations, Predicate<String> ownsSymbol) {
+        bucketManager.applyOperations(operations, this::validateBucketsUpdate, ownsSymbol);
+    }
+
+    /** Requires a batch of the bucket manager, so that the position cannot be closed before the update is applied. */
+    private void validateBucketsUpdate(BucketsUpdateRequest bucketUpdateRequest) {
+        String symbol = bucketUpdateRequest.getSymbol();
+        if (!positions.containsKey(symbol)) {
             throw HoldingErrors.noSuchHolding(symbol, NO_SUCH_HOLDING);
         }
 
         if (bucketUpdateRequest.getBuckets().isEmpty()) {
             throw BucketErrors.bucketSetEmpty(BUCKET_SET_EMPTY);
         }
-
-        bucketUpdateRequest.getBuckets().forEach(bucket -> bucketManager.removeSymbolFromBucket(bucket, symbol));
     }
 
     @Override
     public StockPosition getStockPosition(String symbol) {
-        if (!symbolPositions.containsKey(symbol)) {
-            throw HoldingErrors.noSuchHolding(symbol, NO_SUCH_HOLDING);
+        return findStockPosition(symbol).orElseThrow(() -> HoldingErrors.noSuchHolding(symbol, NO_SUCH_HOLDING));
+    }
+
+    public Optional<StockPosition> findStockPosition(String symbol) {
+        PortfolioSnapshot current = snapshot.get();
+        SymbolPosition symbolPosition = current.positions().get(symbol);
+        if (symbolPosition == null) {
+            return Optional.empty();
         }
 
-        SymbolPosition symbolPosition = symbolPositions.get(symbol);
-        double latestPrice = marketDataProvider.getLatestPrice(symbol);
+        return Optional.of(stockPosition(
+                symbolPosition, BucketManagementResource.getBucketsForSymbol(current.memberships(), symbol)));
+    }
+
+    private StockPosition stockPosition(SymbolPosition symbolPosition, Collection<String> buckets) {
+        double latestPrice = marketDataProvider.getLatestPrice(symbolPosition.symbol());
 
         Pair<Double, Double> profitLossAmountAndPercent =
                 symbolPosition.computeProfitLossAmountAndPercentage(latestPrice);
@@ -143,13 +335,200 @@ public final class PositionResource implements UndertowPositionService {
                 .position(1)
                 .profitLossAmount(profitLossAmountAndPercent.getLeft())
                 .profitLossPercent(profitLossAmountAndPercent.getRight())
-                .buckets(bucketManager.getBucketsForSymbol(symbol))
+                .buckets(buckets)
                 .build();
     }
 
+    /** Returns nothing if the bucket does not exist in the snapshot that the position would be computed from. */
+    public Optional<BucketPosition> findBucketPosition(String bucketName) {
+        long version = versionTracker.bucketVersion(bucketName);
+        PortfolioSnapshot current = snapshot.get();
+        if (!current.memberships().containsBucket(bucketName)) {
+            return Optional.empty();
+        }
+        return Optional.of(bucketPosition(bucketName, version, current));
+    }
+
     @Override
     public BucketPosition getBucketPosition(String bucketName) {
-        Set<String> symbols = bucketManager.getPositionsInBucket(bucketName);
+        long version = versionTracker.bucketVersion(bucketName);
+        return bucketPosition(bucketName, version, snapshot.get());
+    }
+
+    /**
+     * The version must be read before the snapshot, so that a concurrent change can only leave behind an already stale
+     * entry.
+     */
+    private BucketPosition bucketPosition(String bucketName, long version, PortfolioSnapshot current) {
+        CachedBucketPosition cached = bucketPositions.get(bucketName);
+        if (cached != null && cached.version == version) {
+            return cached.position;
+        }
+
+        BucketPosition position = aggregate(
+                bucketName,
+                bucketManager.getPositionsInBucketTree(current.memberships(), bucketName),
+                current.positions()::get);
+        bucketPositions.put(bucketName, new CachedBucketPosition(version, position));
+        return position;
+    }
+
+    @Override
+    public BucketPosition getBucketExpressionPosition(BucketExpression expression) {
+        PortfolioSnapshot current = snapshot.get();
+        return aggregate(
+                BucketManagementResource.describe(expression),
+                bucketManager.getPositionsInExpression(current.memberships(), expression),
+                current.positions()::get);
+    }
+
+    /**
+     * Returns the signed market value of every position in the bucket and its descendants, or of every position if no
+     * bucket is given. Short positions have negative values.
+     */
+    public Map<String, Double> exposures(Optional<String> bucketName) {
+        PortfolioSnapshot current = snapshot.get();
+        Collection<String> symbols;
+        if (bucketName.isPresent()) {
+            if (!current.memberships().containsBucket(bucketName.get())) {
+                throw BucketErrors.bucketNotFound(bucketName.get());
+            }
+            symbols = bucketManager.getPositionsInBucketTree(current.memberships(), bucketName.get());
+        } else {
+            symbols = current.positions().keySet();
+        }
+
+        Map<String, Double> exposures = new TreeMap<>();
+        for (String symbol : symbols) {
+            SymbolPosition position = current.positions().get(symbol);
+            if (position != null) {
+                double marketValue = position.computeMarketValue(marketDataProvider.getLatestPrice(symbol));
+                exposures.put(symbol, position.totalShares() < 0 ? -marketValue : marketValue);
+            }
+        }
+        return exposures;
+    }
+
+    /**
+     * Exports every position of a single snapshot, ordered by symbol. The positions are streamed straight off the
+     * snapshot, which is already sorted, so nothing is copied. Valuations use the latest prices.
+     */
+    @Override
+    public BinaryResponseBody exportPositions(Optional<ExportFormat> format) {
+        PortfolioSnapshot current = snapshot.get();
+        return PositionExporter.of(
+                format.orElse(ExportFormat.CSV),
+                Iterators.transform(
+                        current.positions().values().iterator(),
+                        position -> exportedPosition(position, current.memberships())));
+    }
+
+    private ExportedPosition exportedPosition(SymbolPosition position, BucketMemberships memberships) {
+        double latestPrice = marketDataProvider.getLatestPrice(position.symbol());
+        Pair<Double, Double> profitLossAmountAndPercent = position.computeProfitLossAmountAndPercentage(latestPrice);
+
+        return ExportedPosition.builder()
+                .symbol(position.symbol())
+                .tradeType(position.tradeType())
+                .quantity(position.totalShares())
+                .avgCostPerShare(position.averageCostPerShareAsDouble())
+                .totalPurchaseCost(position.totalPurchaseCostAsDouble())
+                .latestPrice(latestPrice)
+                .totalMarketValue(position.computeMarketValue(latestPrice))
+                .profitLossAmount(profitLossAmountAndPercent.getLeft())
+                .profitLossPercent(profitLossAmountAndPercent.getRight())
+                .buckets(BucketManagementResource.getBucketsForSymbol(memberships, position.symbol()))
+                .build();
+    }
+
+    @Override
+    public SimulationResult simulateOrders(SimulationRequest request) {
+        return simulateOrders(request, _symbol -> true);
+    }
+
+    /**
+     * Simulates the orders for the symbols accepted by {@code ownsSymbol}, leaving the other orders out of both the
+     * stock and the bucket projections. Orders are validated and priced one by one, like {@link #addOrder}.
+     */
+    public SimulationResult simulateOrders(SimulationRequest request, Predicate<String> ownsSymbol) {
+        PortfolioSnapshot current = snapshot.get();
+        BucketMemberships memberships = current.memberships();
+        PositionOverlay overlay = new PositionOverlay(
+                current.positions()::get,
+                symbol -> BucketManagementResource.getBucketsForSymbol(memberships, symbol));
+        for (OrderRequest order : request.getOrders()) {
+            if (order.getQuantity() <= 0) {
+                throw OrderErrors.invalidQuantityAmount(QUANTITY_MUST_BE_POSITIVE);
+            }
+            if (ownsSymbol.test(order.getSymbol())) {
+                double priceOnSpecifiedDate = marketDataProvider.getPrice(order.getSymbol(), order.getDate());
+                overlay.addOrder(
+                        order.getType(),
+                        order.getSymbol(),
+                        order.getQuantity(),
+                        priceOnSpecifiedDate,
+                        order.getBuckets());
+            }
+        }
+
+        Set<String> createdBuckets = new HashSet<>();
+        request.getOrders().forEach(order -> createdBuckets.addAll(order.getBuckets()));
+
+        SimulationResult.Builder result = SimulationResult.builder();
+        overlay.changedSymbols()
+                .forEach(symbol -> result.stockPositions(ProjectedStockPosition.of(
+                        symbol,
+                        overlay.position(symbol).map(position -> stockPosition(position, overlay.bucketsOf(symbol))))));
+        for (String bucketName : simulatedBuckets(request, memberships)) {
+            if (!memberships.containsBucket(bucketName) && !createdBuckets.contains(bucketName)) {
+                throw BucketErrors.bucketNotFound(bucketName);
+            }
+            result.bucketPositions(aggregate(
+                    bucketName,
+                    projectedBucketTree(bucketName, overlay, memberships),
+                    symbol -> overlay.position(symbol).orElse(null)));
+        }
+        return result.build();
+    }
+
+    /** The buckets whose positions a simulation projects, in order: the requested ones, or the orders' and theirs. */
+    public SortedSet<String> simulatedBuckets(SimulationRequest request) {
+        return simulatedBuckets(request, snapshot.get().memberships());
+    }
+
+    private static SortedSet<String> simulatedBuckets(SimulationRequest request, BucketMemberships memberships) {
+        SortedSet<String> buckets = new TreeSet<>();
+        if (request.getBuckets().isPresent()) {
+            buckets.addAll(request.getBuckets().get());
+            return buckets;
+        }
+        request.getOrders().forEach(order -> order.getBuckets().forEach(bucket -> {
+            buckets.add(bucket);
+            buckets.addAll(memberships.ancestorsOf(bucket));
+        }));
+        return buckets;
+    }
+
+    /** The symbols the bucket and its descendants would hold once the overlay's changes were applied. */
+    private Set<String> projectedBucketTree(String bucketName, PositionOverlay overlay, BucketMemberships memberships) {
+        Set<String> symbols = new HashSet<>();
+        if (memberships.containsBucket(bucketName)) {
+            symbols.addAll(bucketManager.getPositionsInBucketTree(memberships, bucketName));
+        }
+        for (String symbol : overlay.changedSymbols()) {
+            symbols.remove(symbol);
+            boolean inTree = overlay.bucketsOf(symbol).stream()
+                    .anyMatch(bucket -> bucket.equals(bucketName)
+                            || memberships.ancestorsOf(bucket).contains(bucketName));
+            if (inTree) {
+                symbols.add(symbol);
+            }
+        }
+        return symbols;
+    }
+
+    private BucketPosition aggregate(
+            String bucketName, Collection<String> symbols, Function<String, SymbolPosition> positionOf) {
         if (symbols.isEmpty()) {
             return BucketPosition.builder()
                     .name(bucketName)
@@ -164,8 +543,10 @@ public final class PositionResource implements UndertowPositionService {
                     .build();
         }
 
+        PositionAggregationEvent event = new PositionAggregationEvent();
+        event.begin();
         List<SymbolPosition> positions =
-                symbols.stream().map(symbolPositions::get).collect(Collectors.toList());
+                symbols.stream().map(positionOf).collect(Collectors.toList());
 
         Map<String, Double> latestPriceForEachSymbol =
                 symbols.stream().collect(Collectors.toMap(symbol -> symbol, marketDataProvider::getLatestPrice));
@@ -173,7 +554,7 @@ public final class PositionResource implements UndertowPositionService {
         Pair<Double, Double> profitLossAmountAndPercent =
                 getBucketProfitLossAmountAndPercentage(positions, latestPriceForEachSymbol);
 
-        return BucketPosition.builder()
+        BucketPosition position = BucketPosition.builder()
                 .name(bucketName)
                 .totalNumberOfSharesLong(SafeLong.of(getTotalNumberOfSharesLong(positions)))
                 .totalNumberOfSharesShort(SafeLong.of(getTotalNumberOfSharesShort(positions)))
@@ -184,6 +565,8 @@ public final class PositionResource implements UndertowPositionService {
                 .profitLossPercent(profitLossAmountAndPercent.getRight())
                 .bucketBreakdown(computeBucketBreakDown(positions, latestPriceForEachSymbol))
                 .build();
+        event.commit(bucketName, positions.size());
+        return position;
     }
 
     private static Pair<Double, Double> getBucketProfitLossAmountAndPercentage(
@@ -253,4 +636,32 @@ public final class PositionResource implements UndertowPositionService {
                         (first, _second) -> first,
                         TreeMap::new));
     }
+
+    /** Applies the orders of the pipeline's batches in one batch of the bucket manager each. */
+    private final class PositionOrderWriter implements OrderWriter {
+        @Override
+        public void inBatch(Runnable applyOrders) {
+            bucketManager.inBatch(applyOrders);
+        }
+
+        @Override
+        public void apply(OrderRequest order, double pricePerShare) {
+            applyOrder(order, pricePerShare);
+        }
+
+        @Override
+        public void applied(OrderRequest order) {
+            changeNotifier.positionChanged(order.getSymbol());
+        }
+    }
+
+    private static final class CachedBucketPosition {
+        private final long version;
+        private final BucketPosition position;
+
+        private CachedBucketPosition(long version, BucketPosition position) {
+            this.version = version;
+            this.position = position;
+        }
+    }
 }
@@ -0,0 +1,163 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.resources;
+
+import com.achomutovskij.portfolioservice.api.BucketRisk;
+import com.achomutovskij.portfolioservice.api.HoldingRisk;
+import com.achomutovskij.portfolioservice.api.RiskErrors;
+import com.achomutovskij.portfolioservice.api.UndertowRiskService;
+import com.achomutovskij.portfolioservice.api.ValueAtRisk;
+import com.achomutovskij.portfolioservice.marketdata.MarketDataProvider;
+import com.achomutovskij.portfolioservice.marketdata.PriceHistory;
+import com.achomutovskij.portfolioservice.risk.Covariance;
+import com.achomutovskij.portfolioservice.risk.ReturnMatrix;
+import com.google.common.collect.ImmutableList;
+import com.palantir.logsafe.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Estimates risk from the daily closing prices cached by the market data provider. The returns and the covariance
+ * matrix computed for a symbol, a bucket or the whole portfolio are kept until the holdings or the prices they were
+ * computed from change.
+ */
+public final class RiskResource implements UndertowRiskService {
+
+    private static final String NOT_ENOUGH_COMMON_PRICES =
+            "The symbols do not have prices on enough common dates to estimate their risk";
+    private static final double DEFAULT_CONFIDENCE = 0.95;
+    private static final double MIN_CONFIDENCE = 0.5;
+    private static final int MIN_OBSERVATIONS = 2;
+    private static final double TRADING_DAYS_PER_YEAR = 252;
+    private static final String PORTFOLIO_KEY = "portfolio";
+
+    private final MarketDataProvider marketDataProvider;
+    private final Function<Optional<String>, Map<String, Double>> exposures;
+    private final Map<String, ReturnMatrix> returnMatrices; // symbol, bucket or portfolio key -> latest returns
+
+    /**
+     * @param exposures returns the signed market value of every position in a bucket tree, or of every position if no
+     *     bucket is given
+     */
+    public RiskResource(
+            MarketDataProvider marketDataProvider, Function<Optional<String>, Map<String, Double>> exposures) {
+        this.marketDataProvider =
+                Preconditions.checkNotNull(marketDataProvider, "Market data provider must be non-null");
+        this.exposures = Preconditions.checkNotNull(exposures, "Exposures must be non-null");
+        this.returnMatrices = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public HoldingRisk getHoldingRisk(String symbol) {
+        ReturnMatrix returns = returnMatrix("symbol/" + symbol, ImmutableList.of(symbol));
+        double dailyVolatility = Math.sqrt(returns.covariance()[0][0]);
+        return HoldingRisk.builder()
+                .symbol(symbol)
+                .observations(returns.observations())
+                .dailyVolatility(dailyVolatility)
+                .annualizedVolatility(annualized(dailyVolatility))
+                .build();
+    }
+
+    @Override
+    public BucketRisk getBucketRisk(String name, Optional<Double> confidence) {
+        double confidenceLevel = confidenceLevel(confidence);
+        Map<String, Double> bucketExposures = new TreeMap<>(exposures.apply(Optional.of(name)));
+        ReturnMatrix returns = returnMatrix("bucket/" + name, new ArrayList<>(bucketExposures.keySet()));
+
+        double[][] covariance = returns.covariance();
+        List<Double> volatilities = new ArrayList<>(covariance.length);
+        for (int i = 0; i < covariance.length; i++) {
+            volatilities.add(annualized(Math.sqrt(covariance[i][i])));
+        }
+
+        return BucketRisk.builder()
+                .name(name)
+                .symbols(returns.symbols())
+                .volatilities(volatilities)
+                .covariance(toLists(covariance))
+                .correlation(toLists(Covariance.correlation(covariance)))
+                .valueAtRisk(valueAtRisk(returns, bucketExposures, confidenceLevel))
+                .build();
+    }
+
+    @Override
+    public ValueAtRisk getPortfolioRisk(Optional<Double> confidence) {
+        double confidenceLevel = confidenceLevel(confidence);
+        Map<String, Double> portfolioExposures = new TreeMap<>(exposures.apply(Optional.empty()));
+        ReturnMatrix returns = returnMatrix(PORTFOLIO_KEY, new ArrayList<>(portfolioExposures.keySet()));
+        return valueAtRisk(returns, portfolioExposures, confidenceLevel);
+    }
+
+    /** Returns the cached returns of the symbols if their prices have not changed since, or computes them anew. */
+    private ReturnMatrix returnMatrix(String key, List<String> symbols) {
+        List<PriceHistory> priceHistories =
+                symbols.stream().map(marketDataProvider::getPriceHistory).collect(Collectors.toList());
+
+        ReturnMatrix cached = returnMatrices.get(key);
+        if (cached != null && cached.isComputedFrom(symbols, priceHistories)) {
+            return cached;
+        }
+
+        ReturnMatrix returns = ReturnMatrix.of(symbols, priceHistories);
+        if (!symbols.isEmpty() && returns.observations() < MIN_OBSERVATIONS) {
+            throw RiskErrors.insufficientPriceHistory(returns.observations(), NOT_ENOUGH_COMMON_PRICES);
+        }
+        returnMatrices.put(key, returns);
+        return returns;
+    }
+
+    private static ValueAtRisk valueAtRisk(ReturnMatrix returns, Map<String, Double> exposures, double confidence) {
+        double[] exposureBySymbol = returns.symbols().stream().mapToDouble(exposures::get).toArray();
+        return ValueAtRisk.builder()
+                .confidence(confidence)
+                .amount(returns.valueAtRisk(exposureBySymbol, confidence))
+                .marketValue(exposures.values().stream().mapToDouble(Double::doubleValue).sum())
+                .observations(returns.observations())
+                .build();
+    }
+
+    private static double confidenceLevel(Optional<Double> confidence) {
+        double confidenceLevel = confidence.orElse(DEFAULT_CONFIDENCE);
+        if (!(confidenceLevel >= MIN_CONFIDENCE && confidenceLevel < 1)) {
+            throw RiskErrors.invalidConfidenceLevel(confidenceLevel);
+        }
+        return confidenceLevel;
+    }
+
+    private static double annualized(double dailyVolatility) {
+        return dailyVolatility * Math.sqrt(TRADING_DAYS_PER_YEAR);
+    }
+
+    private static List<List<Double>> toLists(double[][] matrix) {
+        List<List<Double>> rows = new ArrayList<>(matrix.length);
+        for (double[] row : matrix) {
+            List<Double> values = new ArrayList<>(row.length);
+            for (double value : row) {
+                values.add(value);
+            }
+            rows.add(values);
+        }
+        return rows;
+    }
+}
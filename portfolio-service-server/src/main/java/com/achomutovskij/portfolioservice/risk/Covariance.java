@@ -0,0 +1,143 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.risk;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.util.stream.IntStream;
+
+/**
+ * Sample covariance and correlation of return series held as one primitive row per symbol.
+ *
+ * <p>The covariance matrix is computed in square tiles of {@value #SYMBOL_BLOCK} by {@value #SYMBOL_BLOCK} symbols
+ * and in chunks of {@value #TIME_CHUNK} observations, so that the rows a tile reads stay in cache while every pair of
+ * them is multiplied. Only the tiles on and above the diagonal are computed, each writing its own cells and their
+ * mirror images, which lets large matrices be computed on the common fork-join pool without synchronization.
+ */
+public final class Covariance {
+
+    private static final int SYMBOL_BLOCK = 64;
+    private static final int TIME_CHUNK = 512;
+    // multiply-adds below which forking onto the common pool costs more than it saves
+    private static final long PARALLEL_THRESHOLD = 1L << 20;
+
+    private Covariance() {}
+
+    /** The covariance matrix of the rows, which must all have the same number of observations, at least two. */
+    public static double[][] of(double[][] returns) {
+        int symbols = returns.length;
+        if (symbols == 0) {
+            return new double[0][];
+        }
+        int observations = returns[0].length;
+        Preconditions.checkArgument(
+                observations >= 2, "At least two observations are needed", SafeArg.of("observations", observations));
+
+        double[][] centered = new double[symbols][];
+        for (int i = 0; i < symbols; i++) {
+            Preconditions.checkArgument(
+                    returns[i].length == observations,
+                    "All the series must have the same number of observations",
+                    SafeArg.of("expected", observations),
+                    SafeArg.of("actual", returns[i].length));
+            centered[i] = centered(returns[i]);
+        }
+
+        int blocks = (symbols + SYMBOL_BLOCK - 1) / SYMBOL_BLOCK;
+        int[] rowBlocks = new int[blocks * (blocks + 1) / 2];
+        int[] columnBlocks = new int[rowBlocks.length];
+        int tile = 0;
+        for (int rowBlock = 0; rowBlock < blocks; rowBlock++) {
+            for (int columnBlock = rowBlock; columnBlock < blocks; columnBlock++) {
+                rowBlocks[tile] = rowBlock;
+                columnBlocks[tile] = columnBlock;
+                tile++;
+            }
+        }
+
+        double[][] covariance = new double[symbols][symbols];
+        IntStream tiles = IntStream.range(0, rowBlocks.length);
+        if ((long) symbols * symbols * observations / 2 >= PARALLEL_THRESHOLD) {
+            tiles = tiles.parallel();
+        }
+        tiles.forEach(index -> computeTile(centered, covariance, rowBlocks[index], columnBlocks[index]));
+        return covariance;
+    }
+
+    /** The correlation matrix for a covariance matrix; series that do not vary are uncorrelated with all others. */
+    public static double[][] correlation(double[][] covariance) {
+        int symbols = covariance.length;
+        double[] deviations = new double[symbols];
+        for (int i = 0; i < symbols; i++) {
+            deviations[i] = Math.sqrt(covariance[i][i]);
+        }
+
+        double[][] correlation = new double[symbols][symbols];
+        for (int i = 0; i < symbols; i++) {
+            for (int j = 0; j < symbols; j++) {
+                double deviationProduct = deviations[i] * deviations[j];
+                correlation[i][j] = deviationProduct == 0 ? 0 : covariance[i][j] / deviationProduct;
+            }
+        }
+        return correlation;
+    }
+
+    private static double[] centered(double[] series) {
+        double sum = 0;
+        for (double value : series) {
+            sum += value;
+        }
+        double mean = sum / series.length;
+
+        double[] centered = new double[series.length];
+        for (int t = 0; t < series.length; t++) {
+            centered[t] = series[t] - mean;
+        }
+        return centered;
+    }
+
+    private static void computeTile(double[][] centered, double[][] covariance, int rowBlock, int columnBlock) {
+        int observations = centered[0].length;
+        int rowStart = rowBlock * SYMBOL_BLOCK;
+        int rowEnd = Math.min(rowStart + SYMBOL_BLOCK, centered.length);
+        int columnStart = columnBlock * SYMBOL_BLOCK;
+        int columnEnd = Math.min(columnStart + SYMBOL_BLOCK, centered.length);
+
+        for (int chunkStart = 0; chunkStart < observations; chunkStart += TIME_CHUNK) {
+            int chunkEnd = Math.min(chunkStart + TIME_CHUNK, observations);
+            for (int i = rowStart; i < rowEnd; i++) {
+                double[] row = centered[i];
+                // on the diagonal tile only the upper triangle is computed
+                for (int j = Math.max(columnStart, i); j < columnEnd; j++) {
+                    double[] column = centered[j];
+                    double sum = 0;
+                    for (int t = chunkStart; t < chunkEnd; t++) {
+                        sum += row[t] * column[t];
+                    }
+                    covariance[i][j] += sum;
+                }
+            }
+        }
+
+        for (int i = rowStart; i < rowEnd; i++) {
+            for (int j = Math.max(columnStart, i); j < columnEnd; j++) {
+                covariance[i][j] /= observations - 1;
+                covariance[j][i] = covariance[i][j];
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.risk;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.util.Arrays;
+
+/**
+ * One-day value at risk by historical simulation: the holdings are revalued with every day's observed returns, and
+ * the loss at the chosen quantile of the resulting profits and losses is reported.
+ */
+public final class HistoricalValueAtRisk {
+
+    private HistoricalValueAtRisk() {}
+
+    /**
+     * The loss that the simulated days exceed with probability at most {@code 1 - confidence}, or 0 if even that day
+     * makes a profit.
+     *
+     * @param returns the daily log returns, one row per symbol, all of the same length
+     * @param exposures the signed market value held in each symbol, in the order of the rows
+     */
+    public static double of(double[][] returns, double[] exposures, double confidence) {
+        Preconditions.checkArgument(
+                returns.length == exposures.length,
+                "There must be one exposure for every series of returns",
+                SafeArg.of("series", returns.length),
+                SafeArg.of("exposures", exposures.length));
+        if (returns.length == 0 || returns[0].length == 0) {
+            return 0;
+        }
+
+        double[] profitsAndLosses = new double[returns[0].length];
+        for (int i = 0; i < returns.length; i++) {
+            double[] series = returns[i];
+            double exposure = exposures[i];
+            for (int t = 0; t < profitsAndLosses.length; t++) {
+                profitsAndLosses[t] += exposure * Math.expm1(series[t]);
+            }
+        }
+        Arrays.sort(profitsAndLosses);
+
+        int quantile =
+                Math.min((int) Math.floor((1 - confidence) * profitsAndLosses.length), profitsAndLosses.length - 1);
+        return Math.max(0, -profitsAndLosses[quantile]);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.risk;
+
+import com.achomutovskij.portfolioservice.marketdata.PriceHistory;
+import com.google.common.collect.ImmutableList;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The daily log returns of a list of symbols over the days on which every one of them has a closing price, one
+ * primitive row per symbol. The covariance matrix is computed on first use and kept with the returns, which are only
+ * valid for as long as the price histories they were computed from are current.
+ */
+public final class ReturnMatrix {
+
+    private final List<String> symbols;
+    private final List<PriceHistory> priceHistories;
+    private final double[][] returns;
+    private volatile double[][] covariance;
+
+    private ReturnMatrix(List<String> symbols, List<PriceHistory> priceHistories, double[][] returns) {
+        this.symbols = symbols;
+        this.priceHistories = priceHistories;
+        this.returns = returns;
+    }
+
+    /** Computes the returns of the symbols from their price histories, given in the same order. */
+    public static ReturnMatrix of(List<String> symbols, List<PriceHistory> priceHistories) {
+        Preconditions.checkArgument(
+                symbols.size() == priceHistories.size(),
+                "There must be one price history for every symbol",
+                SafeArg.of("symbols", symbols.size()),
+                SafeArg.of("priceHistories", priceHistories.size()));
+
+        long[] commonDays = commonDays(priceHistories);
+        double[][] returns = new double[symbols.size()][];
+        for (int i = 0; i < symbols.size(); i++) {
+            returns[i] = logReturns(priceHistories.get(i), commonDays);
+        }
+        return new ReturnMatrix(ImmutableList.copyOf(symbols), ImmutableList.copyOf(priceHistories), returns);
+    }
+
+    /** Whether these returns were computed from exactly these price history instances, for these symbols. */
+    public boolean isComputedFrom(List<String> otherSymbols, List<PriceHistory> otherPriceHistories) {
+        if (!symbols.equals(otherSymbols) || priceHistories.size() != otherPriceHistories.size()) {
+            return false;
+        }
+        for (int i = 0; i < priceHistories.size(); i++) {
+            if (priceHistories.get(i) != otherPriceHistories.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<String> symbols() {
+        return symbols;
+    }
+
+    /** The number of daily returns of every symbol. */
+    public int observations() {
+        return returns.length == 0 ? 0 : returns[0].length;
+    }
+
+    public double[][] covariance() {
+        double[][] result = covariance;
+        if (result == null) {
+            // racing threads compute the same matrix, and either result may be kept
+            result = Covariance.of(returns);
+            covariance = result;
+        }
+        return result;
+    }
+
+    /** The one-day historical value at risk of holding {@code exposures}, in the order of {@link #symbols()}. */
+    public double valueAtRisk(double[] exposures, double confidence) {
+        return HistoricalValueAtRisk.of(returns, exposures, confidence);
+    }
+
+    private static long[] commonDays(List<PriceHistory> priceHistories) {
+        if (priceHistories.isEmpty()) {
+            return new long[0];
+        }
+
+        PriceHistory first = priceHistories.get(0);
+        long[] days = new long[first.size()];
+        int count = 0;
+        for (int index = 0; index < first.size(); index++) {
+            long day = first.epochDay(index);
+            if (priceHistories.stream().allMatch(history -> history.indexOf(day) >= 0)) {
+                days[count++] = day;
+            }
+        }
+        return Arrays.copyOf(days, count);
+    }
+
+    private static double[] logReturns(PriceHistory priceHistory, long[] days) {
+        double[] logReturns = new double[Math.max(days.length - 1, 0)];
+        double previous = days.length == 0 ? 0 : priceHistory.close(priceHistory.indexOf(days[0]));
+        for (int t = 0; t < logReturns.length; t++) {
+            double close = priceHistory.close(priceHistory.indexOf(days[t + 1]));
+            logReturns[t] = Math.log(close / previous);
+            previous = close;
+        }
+        return logReturns;
+    }
+}
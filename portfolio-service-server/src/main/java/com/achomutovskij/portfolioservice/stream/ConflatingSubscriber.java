@@ -0,0 +1,117 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.stream;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single stream subscriber. At most one event is in flight on the connection at a time; anything offered while it
+ * is being written replaces the pending event for the same key, so a slow consumer only ever receives the latest
+ * state of each position rather than the full history of updates. A payload identical to the last one offered for
+ * the same key is dropped, whether it came with the initial state or with a later change.
+ */
+final class ConflatingSubscriber implements ServerSentEventConnection.EventCallback {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(ConflatingSubscriber.class);
+
+    private final ServerSentEventConnection connection;
+    private final Map<String, PendingEvent> pending; // event:id -> latest payload, in first-offered order
+    private final Map<String, String> lastPayloads; // event:id -> last payload offered
+    private boolean sending;
+
+    ConflatingSubscriber(ServerSentEventConnection connection) {
+        this.connection = connection;
+        this.pending = new LinkedHashMap<>();
+        this.lastPayloads = new HashMap<>();
+    }
+
+    void offer(String event, String id, String data) {
+        String key = event + ':' + id;
+        synchronized (this) {
+            if (data.equals(lastPayloads.put(key, data))) {
+                return; // the subscriber already has this state
+            }
+            pending.put(key, new PendingEvent(event, id, data));
+        }
+        sendNext();
+    }
+
+    synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void done(ServerSentEventConnection _connection, String _data, String _event, String _id) {
+        synchronized (this) {
+            sending = false;
+        }
+        sendNext();
+    }
+
+    @Override
+    public void failed(
+            ServerSentEventConnection _connection, String _data, String event, String id, IOException exception) {
+        log.debug(
+                "Failed to push a position update, dropping the subscriber",
+                SafeArg.of("event", event),
+                SafeArg.of("id", id),
+                exception);
+        synchronized (this) {
+            pending.clear();
+            sending = false;
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            log.debug("Failed to close the stream connection", e);
+        }
+    }
+
+    private void sendNext() {
+        PendingEvent next;
+        synchronized (this) {
+            if (sending || pending.isEmpty()) {
+                return;
+            }
+            Iterator<PendingEvent> iterator = pending.values().iterator();
+            next = iterator.next();
+            iterator.remove();
+            sending = true;
+        }
+        connection.send(next.data, next.event, next.id, this);
+    }
+
+    private static final class PendingEvent {
+        private final String event;
+        private final String id;
+        private final String data;
+
+        private PendingEvent(String event, String id, String data) {
+            this.event = event;
+            this.id = id;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.stream;
+
+import com.achomutovskij.portfolioservice.api.BucketPositionUpdate;
+import com.achomutovskij.portfolioservice.api.StockPositionUpdate;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeListener;
+import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
+import com.achomutovskij.portfolioservice.resources.PositionResource;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.logger.SafeLogger;
+import com.palantir.logsafe.logger.SafeLoggerFactory;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.server.handlers.sse.ServerSentEventConnectionCallback;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Server-Sent Events endpoint pushing {@link StockPositionUpdate} and {@link BucketPositionUpdate} events to
+ * subscribers. Subscriptions are given as repeated {@code symbol} and {@code bucket} query parameters.
+ *
+ * <p>Change notifications only mark the affected symbols and buckets as dirty; a single publisher thread recomputes
+ * each dirty position once, drops it if it is identical to what was last pushed, and hands it to every interested
+ * subscriber. Each subscriber remembers the payloads it has been offered, starting with the initial state sent on
+ * connect, so it is never sent the same state twice.
+ *
+ * <p>The stream is only served by single nodes. A node of a partitioned deployment only holds the positions of the
+ * symbols it owns, so its bucket events would carry partial totals, and it is not told about changes on other nodes.
+ */
+public final class PositionStreamHandler implements ServerSentEventConnectionCallback, PortfolioChangeListener {
+
+    private static final SafeLogger log = SafeLoggerFactory.get(PositionStreamHandler.class);
+
+    static final String SYMBOL_PARAM = "symbol";
+    static final String BUCKET_PARAM = "bucket";
+    static final String STOCK_EVENT = "stock";
+    static final String BUCKET_EVENT = "bucket";
+
+    private static final long KEEP_ALIVE_MILLIS = 15_000L;
+
+    private final PositionResource positionResource;
+    private final BucketManagementResource bucketManager;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService publisher;
+
+    private final Map<String, Set<ConflatingSubscriber>> symbolSubscribers; // symbol -> subscribers
+    private final Map<String, Set<ConflatingSubscriber>> bucketSubscribers; // bucket -> subscribers
+    private final Map<String, String> lastStockPayloads; // symbol -> last pushed payload
+    private final Map<String, String> lastBucketPayloads; // bucket -> last pushed payload
+    private final Set<String> dirtySymbols;
+    private final Set<String> dirtyBuckets;
+    private final AtomicBoolean flushScheduled;
+
+    public PositionStreamHandler(PositionResource positionResource, BucketManagementResource bucketManager) {
+        this.positionResource = Preconditions.checkNotNull(positionResource, "Position resource must be non-null");
+        this.bucketManager = Preconditions.checkNotNull(bucketManager, "Bucket manager must be non-null");
+        this.objectMapper = ObjectMappers.newServerObjectMapper();
+        this.publisher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("position-stream-publisher-%d")
+                .setDaemon(true)
+                .build());
+        this.symbolSubscribers = new ConcurrentHashMap<>();
+        this.bucketSubscribers = new ConcurrentHashMap<>();
+        this.lastStockPayloads = new ConcurrentHashMap<>();
+        this.lastBucketPayloads = new ConcurrentHashMap<>();
+        this.dirtySymbols = ConcurrentHashMap.newKeySet();
+        this.dirtyBuckets = ConcurrentHashMap.newKeySet();
+        this.flushScheduled = new AtomicBoolean();
+    }
+
+    @Override
+    public void connected(ServerSentEventConnection connection, String _lastEventId) {
+        Set<String> symbols = queryValues(connection, SYMBOL_PARAM);
+        Set<String> buckets = queryValues(connection, BUCKET_PARAM);
+        ConflatingSubscriber subscriber = new ConflatingSubscriber(connection);
+
+        symbols.forEach(symbol -> symbolSubscribers
+                .computeIfAbsent(symbol, _key -> ConcurrentHashMap.newKeySet())
+                .add(subscriber));
+        buckets.forEach(bucket -> bucketSubscribers
+                .computeIfAbsent(bucket, _key -> ConcurrentHashMap.newKeySet())
+                .add(subscriber));
+
+        connection.setKeepAliveTime(KEEP_ALIVE_MILLIS);
+        connection.addCloseTask(_closed -> {
+            symbols.forEach(symbol -> unsubscribe(symbolSubscribers, symbol, subscriber));
+            buckets.forEach(bucket -> unsubscribe(bucketSubscribers, bucket, subscriber));
+        });
+
+        // computing the initial state can hit the market data API, so keep it off the IO thread
+        publisher.execute(() -> {
+            symbols.forEach(symbol -> computePayload(STOCK_EVENT, symbol)
+                    .ifPresent(payload -> subscriber.offer(STOCK_EVENT, symbol, payload)));
+            buckets.forEach(bucket -> computePayload(BUCKET_EVENT, bucket)
+                    .ifPresent(payload -> subscriber.offer(BUCKET_EVENT, bucket, payload)));
+        });
+    }
+
+    @Override
+    public void onPositionChanged(String symbol) {
+        markSymbolDirty(symbol);
+    }
+
+    @Override
+    public void onPriceChanged(String symbol) {
+        markSymbolDirty(symbol);
+    }
+
+    @Override
+    public void onBucketChanged(String bucketName) {
+        if (bucketSubscribers.isEmpty()) {
+            return;
+        }
+        // a parent bucket rolls up its descendants, so its subscribers are interested too
+        boolean subscribed = markBucketDirty(bucketName);
+        for (String ancestor : bucketManager.getBucketAncestors(bucketName)) {
+            subscribed |= markBucketDirty(ancestor);
+        }
+        if (subscribed) {
+            scheduleFlush();
+        }
+    }
+
+    private void markSymbolDirty(String symbol) {
+        // the symbol's buckets are resolved at flush time, so even unsubscribed symbols need to be tracked
+        if (!symbolSubscribers.isEmpty() || !bucketSubscribers.isEmpty()) {
+            dirtySymbols.add(symbol);
+            scheduleFlush();
+        }
+    }
+
+    private boolean markBucketDirty(String bucketName) {
+        if (!bucketSubscribers.containsKey(bucketName)) {
+            return false;
+        }
+        dirtyBuckets.add(bucketName);
+        return true;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            publisher.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+
+        for (String symbol : drain(dirtySymbols)) {
+            bucketManager.getBucketTreesForSymbol(symbol).forEach(this::markBucketDirty);
+            publish(symbolSubscribers, lastStockPayloads, STOCK_EVENT, symbol);
+        }
+
+        for (String bucket : drain(dirtyBuckets)) {
+            publish(bucketSubscribers, lastBucketPayloads, BUCKET_EVENT, bucket);
+        }
+    }
+
+    private void publish(
+            Map<String, Set<ConflatingSubscriber>> subscribersByKey,
+            Map<String, String> lastPayloads,
+            String event,
+            String key) {
+        Set<ConflatingSubscriber> subscribers = subscribersByKey.getOrDefault(key, Collections.emptySet());
+        if (subscribers.isEmpty()) {
+            lastPayloads.remove(key);
+            return;
+        }
+
+        computePayload(event, key).ifPresent(payload -> {
+            if (Objects.equals(lastPayloads.put(key, payload), payload)) {
+                return; // nothing a subscriber can see has changed
+            }
+            subscribers.forEach(subscriber -> subscriber.offer(event, key, payload));
+        });
+    }
+
+    private Optional<String> computePayload(String event, String key) {
+        try {
+            Object update = event.equals(STOCK_EVENT)
+                    ? StockPositionUpdate.of(key, positionResource.findStockPosition(key))
+                    : BucketPositionUpdate.of(key, positionResource.findBucketPosition(key));
+            return Optional.of(objectMapper.writeValueAsString(update));
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("Failed to compute a position update", SafeArg.of("event", event), SafeArg.of("key", key), e);
+            return Optional.empty();
+        }
+    }
+
+    private static void unsubscribe(
+            Map<String, Set<ConflatingSubscriber>> subscribersByKey, String key, ConflatingSubscriber subscriber) {
+        subscribersByKey.computeIfPresent(key, (_key, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    private static List<String> drain(Set<String> dirty) {
+        List<String> drained = new ArrayList<>();
+        for (Iterator<String> iterator = dirty.iterator(); iterator.hasNext(); ) {
+            drained.add(iterator.next());
+            iterator.remove();
+        }
+        return drained;
+    }
+
+    private static Set<String> queryValues(ServerSentEventConnection connection, String name) {
+        Deque<String> values = connection.getQueryParameters().get(name);
+        return values == null ? ImmutableSet.of() : ImmutableSet.copyOf(values);
+    }
+}
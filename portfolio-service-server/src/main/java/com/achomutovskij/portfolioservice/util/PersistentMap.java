@@ -0,0 +1,389 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.util;
+
+import com.palantir.logsafe.Preconditions;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash map (a hash array mapped trie). {@link #plus} and {@link #minus} return a new map that shares all
+ * but the O(log32 n) nodes on the path to the changed key with this one, so a writer can derive the next version of a
+ * large map cheaply while readers keep using the previous one without any coordination. The {@link Map} mutators are
+ * not supported. Keys and values must be non-null.
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(BitmapNode.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /** Returns a map with the key mapped to the value, or this map if it already was. */
+    public PersistentMap<K, V> plus(K key, V value) {
+        Preconditions.checkNotNull(key, "Key must be non-null");
+        Preconditions.checkNotNull(value, "Value must be non-null");
+        boolean[] added = new boolean[1];
+        Node newRoot = root.plus(key, value, hash(key), 0, added);
+        return newRoot == root ? this : new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** Returns a map without the key, or this map if it had no such key. */
+    public PersistentMap<K, V> minus(Object key) {
+        if (key == null) {
+            return this;
+        }
+        Node newRoot = root.minus(key, hash(key), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentMap<>(newRoot, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        return key == null ? null : (V) root.find(key, hash(key), 0);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        root.forEach((BiConsumer<Object, Object>) action);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int index(int hash, int shift) {
+        return (hash >>> shift) & MASK;
+    }
+
+    private interface Node {
+        Object find(Object key, int hash, int shift);
+
+        /** Returns this node if the key already maps to the value. Sets {@code added} if the key is new. */
+        Node plus(Object key, Object value, int hash, int shift, boolean[] added);
+
+        /** Returns this node if it has no such key, or null if the key was its only entry. */
+        Node minus(Object key, int hash, int shift);
+
+        void forEach(BiConsumer<Object, Object> action);
+
+        /** Keys and values interleaved; a null key means the value is a child node. */
+        Object[] slots();
+    }
+
+    /** Up to 32 slots, one per 5 bit fragment of the hash that is present, in fragment order. */
+    private static final class BitmapNode implements Node {
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        private BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        @Override
+        public Object find(Object key, int hash, int shift) {
+            int bit = 1 << index(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int slot = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object existingKey = slots[slot];
+            if (existingKey == null) {
+                return ((Node) slots[slot + 1]).find(key, hash, shift + BITS);
+            }
+            return key.equals(existingKey) ? slots[slot + 1] : null;
+        }
+
+        @Override
+        public Node plus(Object key, Object value, int hash, int shift, boolean[] added) {
+            int bit = 1 << index(hash, shift);
+            int slot = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Object[] newSlots = new Object[slots.length + 2];
+                System.arraycopy(slots, 0, newSlots, 0, slot);
+                newSlots[slot] = key;
+                newSlots[slot + 1] = value;
+                System.arraycopy(slots, slot, newSlots, slot + 2, slots.length - slot);
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+
+            Object existingKey = slots[slot];
+            Object existingValue = slots[slot + 1];
+            if (existingKey == null) {
+                Node child = (Node) existingValue;
+                Node newChild = child.plus(key, value, hash, shift + BITS, added);
+                return newChild == child ? this : with(slot + 1, newChild);
+            }
+            if (key.equals(existingKey)) {
+                return value == existingValue ? this : with(slot + 1, value);
+            }
+
+            added[0] = true;
+            Node child = pair(existingKey, existingValue, key, value, hash, shift + BITS);
+            Object[] newSlots = slots.clone();
+            newSlots[slot] = null;
+            newSlots[slot + 1] = child;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        @Override
+        public Node minus(Object key, int hash, int shift) {
+            int bit = 1 << index(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int slot = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object existingKey = slots[slot];
+            if (existingKey == null) {
+                Node child = (Node) slots[slot + 1];
+                Node newChild = child.minus(key, hash, shift + BITS);
+                if (newChild == child) {
+                    return this;
+                }
+                return newChild == null ? without(bit, slot) : with(slot + 1, newChild);
+            }
+            return key.equals(existingKey) ? without(bit, slot) : this;
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int slot = 0; slot < slots.length; slot += 2) {
+                if (slots[slot] == null) {
+                    ((Node) slots[slot + 1]).forEach(action);
+                } else {
+                    action.accept(slots[slot], slots[slot + 1]);
+                }
+            }
+        }
+
+        @Override
+        public Object[] slots() {
+            return slots;
+        }
+
+        private BitmapNode with(int slot, Object value) {
+            Object[] newSlots = slots.clone();
+            newSlots[slot] = value;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        private BitmapNode without(int bit, int slot) {
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - 2];
+            System.arraycopy(slots, 0, newSlots, 0, slot);
+            System.arraycopy(slots, slot + 2, newSlots, slot, slots.length - slot - 2);
+            return new BitmapNode(bitmap & ~bit, newSlots);
+        }
+
+        private static Node pair(Object key1, Object value1, Object key2, Object value2, int hash2, int shift) {
+            int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+            }
+            // the hashes differ, so they end up in different slots at some depth within the 32 bits
+            boolean[] added = new boolean[1];
+            return EMPTY.plus(key1, value1, hash1, shift, added).plus(key2, value2, hash2, shift, added);
+        }
+    }
+
+    /** The keys whose whole hashes are equal, in a flat list. */
+    private static final class CollisionNode implements Node {
+        private final int hash;
+        private final Object[] slots;
+
+        private CollisionNode(int hash, Object[] slots) {
+            this.hash = hash;
+            this.slots = slots;
+        }
+
+        @Override
+        public Object find(Object key, int keyHash, int _shift) {
+            int slot = slotOf(key);
+            return slot < 0 ? null : slots[slot + 1];
+        }
+
+        @Override
+        public Node plus(Object key, Object value, int keyHash, int shift, boolean[] added) {
+            if (keyHash != hash) {
+                // nest this node one level down, next to the new key
+                return new BitmapNode(1 << index(hash, shift), new Object[] {null, this})
+                        .plus(key, value, keyHash, shift, added);
+            }
+            int slot = slotOf(key);
+            if (slot >= 0) {
+                if (slots[slot + 1] == value) {
+                    return this;
+                }
+                Object[] newSlots = slots.clone();
+                newSlots[slot + 1] = value;
+                return new CollisionNode(hash, newSlots);
+            }
+            added[0] = true;
+            Object[] newSlots = new Object[slots.length + 2];
+            System.arraycopy(slots, 0, newSlots, 0, slots.length);
+            newSlots[slots.length] = key;
+            newSlots[slots.length + 1] = value;
+            return new CollisionNode(hash, newSlots);
+        }
+
+        @Override
+        public Node minus(Object key, int keyHash, int _shift) {
+            int slot = slotOf(key);
+            if (slot < 0) {
+                return this;
+            }
+            if (slots.length == 2) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - 2];
+            System.arraycopy(slots, 0, newSlots, 0, slot);
+            System.arraycopy(slots, slot + 2, newSlots, slot, slots.length - slot - 2);
+            return new CollisionNode(hash, newSlots);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int slot = 0; slot < slots.length; slot += 2) {
+                action.accept(slots[slot], slots[slot + 1]);
+            }
+        }
+
+        @Override
+        public Object[] slots() {
+            return slots;
+        }
+
+        private int slotOf(Object key) {
+            for (int slot = 0; slot < slots.length; slot += 2) {
+                if (key.equals(slots[slot])) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** Walks the trie depth first, keeping the slots of every node on the way down and the position in each. */
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+        private final Deque<Object[]> nodes = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private Entry<K, V> next;
+
+        private EntryIterator(Node root) {
+            nodes.push(root.slots());
+            positions.push(0);
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> current = next;
+            advance();
+            return current;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (!nodes.isEmpty()) {
+                Object[] slots = nodes.peek();
+                int slot = positions.pop();
+                if (slot >= slots.length) {
+                    nodes.pop();
+                    continue;
+                }
+                positions.push(slot + 2);
+                if (slots[slot] == null) {
+                    nodes.push(((Node) slots[slot + 1]).slots());
+                    positions.push(0);
+                } else {
+                    next = new SimpleImmutableEntry<>((K) slots[slot], (V) slots[slot + 1]);
+                    return;
+                }
+            }
+        }
+    }
+}
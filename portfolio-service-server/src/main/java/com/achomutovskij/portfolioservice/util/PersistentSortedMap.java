@@ -0,0 +1,277 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.util;
+
+import com.palantir.logsafe.Preconditions;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable sorted map (an AVL tree). Like {@link PersistentMap}, {@link #plus} and {@link #minus} return a new map
+ * that shares all but the O(log n) nodes on the path to the changed key with this one, but the entries are iterated in
+ * key order, so a sorted view can be published together with the state it is derived from and read without copying or
+ * sorting. The {@link Map} mutators are not supported. Keys and values must be non-null.
+ */
+public final class PersistentSortedMap<K extends Comparable<? super K>, V> extends AbstractMap<K, V> {
+
+    private static final PersistentSortedMap<?, ?> EMPTY = new PersistentSortedMap<>(null, 0);
+
+    private final Node<K, V> root; // null if empty
+    private final int size;
+
+    private PersistentSortedMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+        return (PersistentSortedMap<K, V>) EMPTY;
+    }
+
+    /** Returns a map with the key mapped to the value, or this map if it already was. */
+    public PersistentSortedMap<K, V> plus(K key, V value) {
+        Preconditions.checkNotNull(key, "Key must be non-null");
+        Preconditions.checkNotNull(value, "Value must be non-null");
+        boolean[] added = new boolean[1];
+        Node<K, V> newRoot = plus(root, key, value, added);
+        return newRoot == root ? this : new PersistentSortedMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** Returns a map without the key, or this map if it had no such key. */
+    @SuppressWarnings("unchecked")
+    public PersistentSortedMap<K, V> minus(Object key) {
+        if (key == null || root == null) {
+            return this;
+        }
+        Node<K, V> newRoot = minus(root, (K) key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentSortedMap<>(newRoot, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        K sought = (K) key;
+        Node<K, V> node = root;
+        while (node != null) {
+            int comparison = sought.compareTo(node.key);
+            if (comparison == 0) {
+                return node.value;
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, action);
+    }
+
+    /** Iterates in key order. */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator<>(root, null);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /** Iterates in key order over the entries whose keys are greater than {@code key}, e.g. to resume a listing. */
+    public Iterator<Entry<K, V>> entriesAfter(K key) {
+        return new EntryIterator<>(root, Preconditions.checkNotNull(key, "Key must be non-null"));
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> plus(
+            Node<K, V> node, K key, V value, boolean[] added) {
+        if (node == null) {
+            added[0] = true;
+            return new Node<>(key, value, null, null);
+        }
+        int comparison = key.compareTo(node.key);
+        if (comparison < 0) {
+            Node<K, V> left = plus(node.left, key, value, added);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        if (comparison > 0) {
+            Node<K, V> right = plus(node.right, key, value, added);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        return value == node.value ? node : new Node<>(key, value, node.left, node.right);
+    }
+
+    /** Returns the same node if there is no such key below it. */
+    private static <K extends Comparable<? super K>, V> Node<K, V> minus(Node<K, V> node, K key) {
+        if (node == null) {
+            return null;
+        }
+        int comparison = key.compareTo(node.key);
+        if (comparison < 0) {
+            Node<K, V> left = minus(node.left, key);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        if (comparison > 0) {
+            Node<K, V> right = minus(node.right, key);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        // the successor takes the place of the removed node
+        Node<K, V> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, successor.value, node.left, withoutFirst(node.right));
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> withoutFirst(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, node.value, withoutFirst(node.left), node.right);
+    }
+
+    /** Builds the node, rotating once or twice if its subtrees' heights differ by two. */
+    private static <K extends Comparable<? super K>, V> Node<K, V> balance(
+            K key, V value, Node<K, V> left, Node<K, V> right) {
+        if (height(left) > height(right) + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            }
+            Node<K, V> pivot = left.right;
+            return new Node<>(
+                    pivot.key,
+                    pivot.value,
+                    new Node<>(left.key, left.value, left.left, pivot.left),
+                    new Node<>(key, value, pivot.right, right));
+        }
+        if (height(right) > height(left) + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            }
+            Node<K, V> pivot = right.left;
+            return new Node<>(
+                    pivot.key,
+                    pivot.value,
+                    new Node<>(key, value, left, pivot.left),
+                    new Node<>(right.key, right.value, pivot.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static <K, V> void forEach(Node<K, V> node, BiConsumer<? super K, ? super V> action) {
+        if (node != null) {
+            forEach(node.left, action);
+            action.accept(node.key, node.value);
+            forEach(node.right, action);
+        }
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+        private final int height;
+
+        private Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+        }
+    }
+
+    /** Walks the tree in order, keeping the nodes on the way down whose entries and right subtrees are still due. */
+    private static final class EntryIterator<K extends Comparable<? super K>, V> implements Iterator<Entry<K, V>> {
+        private final Deque<Node<K, V>> due = new ArrayDeque<>();
+
+        /** Starts after {@code after}, or at the first entry if it is null. */
+        private EntryIterator(Node<K, V> root, K after) {
+            for (Node<K, V> node = root; node != null; ) {
+                if (after == null || after.compareTo(node.key) < 0) {
+                    due.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !due.isEmpty();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (due.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> current = due.pop();
+            for (Node<K, V> node = current.right; node != null; node = node.left) {
+                due.push(node);
+            }
+            return new SimpleImmutableEntry<>(current.key, current.value);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.achomutovskij.portfolioservice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** A single node that admits one request at a time, in front of a market data API that answers when told to. */
+public class AdmissionControlTest {
+
+    private static final int PORT = 8390;
+    private static final String API = "http://localhost:" + (PORT + 1) + "/api/v1/position/";
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    private final CountDownLatch marketApiCalled = new CountDownLatch(1);
+    private final CountDownLatch marketApiAnswers = new CountDownLatch(1);
+    private final OkHttpClient httpClient = new OkHttpClient();
+
+    private Undertow marketApi;
+    private Undertow server;
+
+    @BeforeEach
+    public void beforeEach() {
+        marketApi = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(this::handleMarketApi)
+                .build();
+        marketApi.start();
+        int marketApiPort = ((InetSocketAddress) marketApi.getListenerInfo().get(0).getAddress()).getPort();
+
+        server = PortfolioServiceApplication.startServer(Configuration.builder()
+                .port(PORT)
+                .host("0.0.0.0")
+                .externalApiResponseCacheDurationMinutes(15)
+                .marketApiBaseUrl("http://localhost:" + marketApiPort)
+                .admission(AdmissionConfiguration.builder()
+                        .latencyTargetMillis(60_000)
+                        .initialLimit(1)
+                        .maxLimit(1)
+                        .build())
+                .build());
+    }
+
+    @AfterEach
+    public void afterEach() {
+        marketApiAnswers.countDown();
+        server.stop();
+        marketApi.stop();
+    }
+
+    @Test
+    public void shedsAColdStockPositionWhileTheLimitIsTaken() throws InterruptedException {
+        // the order holds the only permit while it waits for the price of its symbol
+        CompletableFuture<Integer> order = CompletableFuture.supplyAsync(() -> call(new Request.Builder()
+                .url(API + "add")
+                .post(RequestBody.create(
+                        "{\"type\":\"BUY\",\"symbol\":\"NVDA\",\"date\":\"2023-09-05T00:00:00Z\",\"quantity\":1,"
+                                + "\"buckets\":[]}",
+                        JSON))
+                .build()));
+        assertThat(marketApiCalled.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // a position without cached prices is shed before it reaches the conditional position service
+        assertThat(call(new Request.Builder().url(API + "stock?symbol=NVDA").build()))
+                .isEqualTo(StatusCodes.SERVICE_UNAVAILABLE);
+
+        marketApiAnswers.countDown();
+        assertThat(order.join()).isNotEqualTo(StatusCodes.SERVICE_UNAVAILABLE);
+    }
+
+    private int call(Request request) {
+        try (Response response = httpClient.newCall(request).execute()) {
+            return response.code();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void handleMarketApi(HttpServerExchange exchange) throws InterruptedException {
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this::handleMarketApi);
+            return;
+        }
+        marketApiCalled.countDown();
+        marketApiAnswers.await();
+        exchange.setStatusCode(StatusCodes.NOT_FOUND);
+    }
+}
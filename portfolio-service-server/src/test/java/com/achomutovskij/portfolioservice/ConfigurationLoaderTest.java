@@ -29,5 +29,14 @@ public class ConfigurationLoaderTest {
         assertThat(conf.getHost()).isEqualTo("0.0.0.0");
         assertThat(conf.getPort()).isEqualTo(8345);
         assertThat(conf.getExternalApiResponseCacheDurationMinutes()).isEqualTo(15);
+        assertThat(conf.getMarketApiBaseUrl()).isEmpty();
+        assertThat(conf.getHandlerExecution()).isEmpty();
+        assertThat(conf.getIoThreads()).isEmpty();
+        assertThat(conf.getWorkerThreads()).isEmpty();
+        assertThat(conf.getPartition()).isEmpty();
+        assertThat(conf.getAdmission()).isEmpty();
+        assertThat(conf.getOrderPipeline()).isEmpty();
+        assertThat(conf.getMarketApi()).isEmpty();
+        assertThat(conf.getPriceHistory()).isEmpty();
     }
 }
@@ -0,0 +1,284 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.achomutovskij.portfolioservice.api.BucketErrors;
+import com.achomutovskij.portfolioservice.api.BucketManagementServiceBlocking;
+import com.achomutovskij.portfolioservice.api.BucketPosition;
+import com.achomutovskij.portfolioservice.api.BucketRisk;
+import com.achomutovskij.portfolioservice.api.BucketsPage;
+import com.achomutovskij.portfolioservice.api.HoldingErrors;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.PositionServiceBlocking;
+import com.achomutovskij.portfolioservice.api.ProjectedStockPosition;
+import com.achomutovskij.portfolioservice.api.RiskServiceBlocking;
+import com.achomutovskij.portfolioservice.api.SimulationRequest;
+import com.achomutovskij.portfolioservice.api.SimulationResult;
+import com.achomutovskij.portfolioservice.api.StockPosition;
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.achomutovskij.portfolioservice.partition.HashRing;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.conjure.java.api.config.service.UserAgent;
+import com.palantir.conjure.java.api.testing.Assertions;
+import com.palantir.conjure.java.client.config.ClientConfiguration;
+import com.palantir.conjure.java.client.config.ClientConfigurations;
+import com.palantir.dialogue.clients.DialogueClients;
+import io.undertow.Undertow;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Three partitioned nodes on localhost, each owning about a third of the symbols. */
+public class PartitionedClusterTest {
+
+    private static final OffsetDateTime SEPT_5 = OffsetDateTime.of(2023, 9, 5, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final List<Integer> PORTS = ImmutableList.of(8360, 8370, 8380);
+    private static final List<String> NODES =
+            PORTS.stream().map(port -> "https://localhost:" + port + "/api/").collect(Collectors.toList());
+    private static final List<String> SYMBOLS = ImmutableList.of("NVDA", "AMZN", "TSLA", "AMD", "GS", "MSFT", "AAPL");
+
+    private static final List<Undertow> servers = new ArrayList<>();
+    private static final List<PositionServiceBlocking> positionServices = new ArrayList<>();
+    private static final List<BucketManagementServiceBlocking> bucketManagementServices = new ArrayList<>();
+    private static final List<RiskServiceBlocking> riskServices = new ArrayList<>();
+
+    @BeforeAll
+    public static void before() throws Exception {
+        for (int node = 0; node < NODES.size(); node++) {
+            servers.add(PortfolioServiceApplication.startServer(Configuration.builder()
+                    .port(PORTS.get(node))
+                    .host("0.0.0.0")
+                    .externalApiResponseCacheDurationMinutes(15)
+                    .partition(PartitionConfiguration.builder()
+                            .nodes(NODES)
+                            .self(node)
+                            .build())
+                    .build()));
+        }
+
+        for (String node : NODES) {
+            ClientConfiguration clientConfig = clientConfiguration(node);
+            positionServices.add(DialogueClients.create(PositionServiceBlocking.class, clientConfig));
+            bucketManagementServices.add(DialogueClients.create(BucketManagementServiceBlocking.class, clientConfig));
+            riskServices.add(DialogueClients.create(RiskServiceBlocking.class, clientConfig));
+        }
+
+        // every node takes some of the orders, for symbols that are mostly owned by other nodes
+        for (int i = 0; i < SYMBOLS.size(); i++) {
+            positionServices
+                    .get(i % NODES.size())
+                    .addOrder(OrderRequest.builder()
+                            .type(TradeType.BUY)
+                            .symbol(SYMBOLS.get(i))
+                            .date(SEPT_5)
+                            .quantity(i + 1)
+                            .buckets(ImmutableSet.of("Tech"))
+                            .build());
+        }
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        servers.forEach(Undertow::stop);
+    }
+
+    @Test
+    public void symbolsAreSpreadOverTheNodes() {
+        HashRing ring = new HashRing(NODES, 128);
+        assertThat(SYMBOLS.stream().map(ring::ownerOf).distinct().count()).isGreaterThan(1);
+    }
+
+    @Test
+    public void everyNodeServesEverySymbol() {
+        for (String symbol : SYMBOLS) {
+            StockPosition position = positionServices.get(0).getStockPosition(symbol);
+            assertThat(position.getBuckets()).containsExactly("Tech");
+            for (PositionServiceBlocking positionService : positionServices) {
+                assertThat(positionService.getStockPosition(symbol)).isEqualTo(position);
+            }
+        }
+
+        for (PositionServiceBlocking positionService : positionServices) {
+            Assertions.assertThatRemoteExceptionThrownBy(() -> positionService.getStockPosition("NOPE"))
+                    .isGeneratedFromErrorType(HoldingErrors.NO_SUCH_HOLDING);
+        }
+    }
+
+    @Test
+    public void bucketPositionsAreMergedFromAllNodes() {
+        BucketPosition position = positionServices.get(0).getBucketPosition("Tech");
+        assertThat(position.getNumberOfPositions()).isEqualTo(SYMBOLS.size());
+        assertThat(position.getBucketBreakdown()).containsOnlyKeys(SYMBOLS);
+        assertThat(position.getTotalNumberOfSharesLong().longValue())
+                .isEqualTo(SYMBOLS.size() * (SYMBOLS.size() + 1) / 2);
+
+        for (PositionServiceBlocking positionService : positionServices) {
+            assertThat(positionService.getBucketPosition("Tech")).isEqualTo(position);
+        }
+    }
+
+    @Test
+    public void bucketRiskCoversTheSymbolsOfAllNodes() {
+        BucketPosition position = positionServices.get(0).getBucketPosition("Tech");
+
+        for (RiskServiceBlocking riskService : riskServices) {
+            BucketRisk risk = riskService.getBucketRisk("Tech", Optional.empty());
+            assertThat(risk.getSymbols()).isSorted().containsExactlyInAnyOrderElementsOf(SYMBOLS);
+            assertThat(risk.getCovariance()).hasSize(SYMBOLS.size());
+            assertThat(risk.getValueAtRisk().getMarketValue())
+                    .isCloseTo(position.getTotalMarketValue(), within(0.01 * SYMBOLS.size()));
+        }
+    }
+
+    @Test
+    public void exportsCoverThePositionsOfAllNodes() throws IOException {
+        for (PositionServiceBlocking positionService : positionServices) {
+            List<String> rows;
+            try (InputStream export = positionService.exportPositions(Optional.empty())) {
+                rows = Splitter.on('\n')
+                        .omitEmptyStrings()
+                        .splitToList(new String(export.readAllBytes(), StandardCharsets.UTF_8));
+            }
+
+            assertThat(rows.get(0)).startsWith("symbol,");
+            assertThat(rows.subList(1, rows.size()))
+                    .extracting(row -> row.substring(0, row.indexOf(',')))
+                    .containsExactlyInAnyOrderElementsOf(SYMBOLS);
+        }
+    }
+
+    @Test
+    public void bucketsAreTheSameOnEveryNode() {
+        bucketManagementServices.get(1).createBucket("Empty");
+
+        for (BucketManagementServiceBlocking bucketManagementService : bucketManagementServices) {
+            assertThat(bucketManagementService.getAllBuckets()).containsKey("Empty");
+            assertThat(bucketManagementService.getAllBuckets().get("Tech"))
+                    .isSorted()
+                    .containsExactlyInAnyOrderElementsOf(SYMBOLS);
+
+            BucketsPage page = bucketManagementService.getBucketsPage(Optional.empty(), Optional.of(1));
+            assertThat(page.getBuckets()).hasSize(1);
+            assertThat(page.getBuckets().get(0).getName()).isEqualTo("Empty");
+            assertThat(page.getNextPageToken()).contains("Empty");
+
+            Assertions.assertThatRemoteExceptionThrownBy(() -> bucketManagementService.createBucket("Empty"))
+                    .isGeneratedFromErrorType(BucketErrors.BUCKET_CREATION_FAILED);
+        }
+    }
+
+    @Test
+    public void simulationsSpanAllNodes() {
+        SimulationRequest request = SimulationRequest.builder()
+                .orders(SYMBOLS.stream()
+                        .map(symbol -> OrderRequest.builder()
+                                .type(TradeType.SELL)
+                                .symbol(symbol)
+                                .date(SEPT_5)
+                                .quantity(1)
+                                .build())
+                        .collect(Collectors.toList()))
+                .build();
+
+        SimulationResult result = positionServices.get(0).simulateOrders(request);
+        assertThat(result.getStockPositions())
+                .extracting(ProjectedStockPosition::getSymbol)
+                .containsExactlyElementsOf(SYMBOLS.stream().sorted().collect(Collectors.toList()));
+        // the first symbol was bought once, so selling one share closes it
+        assertThat(result.getStockPositions().stream().filter(position -> position.getPosition().isEmpty()))
+                .extracting(ProjectedStockPosition::getSymbol)
+                .containsExactly(SYMBOLS.get(0));
+        assertThat(result.getBucketPositions()).isEmpty();
+
+        SimulationResult tech = positionServices
+                .get(1)
+                .simulateOrders(SimulationRequest.builder()
+                        .from(request)
+                        .buckets(ImmutableSet.of("Tech"))
+                        .build());
+        assertThat(tech.getBucketPositions()).hasSize(1);
+        assertThat(tech.getBucketPositions().get(0).getNumberOfPositions()).isEqualTo(SYMBOLS.size() - 1);
+        assertThat(tech.getBucketPositions().get(0).getTotalNumberOfSharesLong().longValue())
+                .isEqualTo(SYMBOLS.size() * (SYMBOLS.size() + 1) / 2 - SYMBOLS.size());
+
+        for (PositionServiceBlocking positionService : positionServices) {
+            assertThat(positionService.simulateOrders(request)).isEqualTo(result);
+            assertThat(positionService.getBucketPosition("Tech").getNumberOfPositions())
+                    .isEqualTo(SYMBOLS.size());
+        }
+    }
+
+    @Test
+    public void positionStreamIsNotServed() throws IOException {
+        OkHttpClient httpClient = new OkHttpClient();
+        for (int port : PORTS) {
+            Request request = new Request.Builder()
+                    .url("http://localhost:" + (port + 1) + "/stream/v1/positions?bucket=Tech")
+                    .build();
+            try (Response response = httpClient.newCall(request).execute()) {
+                assertThat(response.code()).isEqualTo(404);
+            }
+        }
+    }
+
+    private static ClientConfiguration clientConfiguration(String node) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        try (InputStream certificate = new FileInputStream("var/certs/ca-cert")) {
+            keyStore.setCertificateEntry(
+                    "server", CertificateFactory.getInstance("X.509").generateCertificate(certificate));
+        }
+
+        TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        TrustManager[] trustManager = trustManagerFactory.getTrustManagers();
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManager, null);
+
+        // one node per client, so that each request is sent to the node under test
+        return ClientConfigurations.of(
+                ImmutableList.of(node),
+                sslContext.getSocketFactory(),
+                (X509TrustManager) trustManager[0],
+                UserAgent.of(UserAgent.Agent.of("portfolio-service-cluster-test", "0.0.0")));
+    }
+}
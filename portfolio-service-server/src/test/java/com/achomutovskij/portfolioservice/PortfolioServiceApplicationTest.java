@@ -27,6 +27,7 @@ import com.achomutovskij.portfolioservice.api.OrderRequest;
 import com.achomutovskij.portfolioservice.api.PositionServiceBlocking;
 import com.achomutovskij.portfolioservice.api.StockPosition;
 import com.achomutovskij.portfolioservice.api.TradeType;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -35,11 +36,13 @@ import com.palantir.conjure.java.api.testing.Assertions;
 import com.palantir.conjure.java.client.config.ClientConfiguration;
 import com.palantir.conjure.java.client.config.ClientConfigurations;
 import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.conjure.java.serialization.ObjectMappers;
 import com.palantir.dialogue.clients.DialogueClients;
 import io.undertow.Undertow;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -49,10 +52,16 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -231,4 +240,152 @@ public class PortfolioServiceApplicationTest {
                         () -> positionService.removeSymbolFromBuckets(BucketsUpdateRequest.of("AA", ImmutableSet.of())))
                 .isGeneratedFromErrorType(BucketErrors.BUCKET_SET_EMPTY);
     }
+
+    @Test
+    public void conditionalGetTest() throws IOException {
+        positionService.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("AAPL")
+                .date(SEPT_5)
+                .quantity(3)
+                .buckets(ImmutableSet.of())
+                .build());
+
+        OkHttpClient httpClient = new OkHttpClient();
+        String url = "http://localhost:8346/api/v1/position/stock?symbol=AAPL";
+
+        String etag;
+        try (Response response = httpClient.newCall(new Request.Builder().url(url).build()).execute()) {
+            assertThat(response.code()).isEqualTo(200);
+            etag = response.header("ETag");
+            assertThat(etag).isNotNull();
+        }
+
+        try (Response response = httpClient
+                .newCall(new Request.Builder().url(url).header("If-None-Match", etag).build())
+                .execute()) {
+            assertThat(response.code()).isEqualTo(304);
+        }
+
+        positionService.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("AAPL")
+                .date(SEPT_5)
+                .quantity(1)
+                .buckets(ImmutableSet.of())
+                .build());
+
+        try (Response response = httpClient
+                .newCall(new Request.Builder().url(url).header("If-None-Match", etag).build())
+                .execute()) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header("ETag")).isNotEqualTo(etag);
+        }
+
+        // failures are serialized by Conjure like those of any other endpoint
+        String missingUrl = "http://localhost:8346/api/v1/position/stock?symbol=MISSING";
+        try (Response response = httpClient.newCall(new Request.Builder().url(missingUrl).build()).execute()) {
+            assertThat(response.code()).isEqualTo(404);
+            assertThat(response.header("ETag")).isNull();
+            assertThat(response.body().string()).contains("\"errorName\":\"Holding:NoSuchHolding\"");
+        }
+    }
+
+    @Test
+    public void metricsEndpointTest() throws IOException {
+        positionService.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("AAPL")
+                .date(SEPT_5)
+                .quantity(3)
+                .buckets(ImmutableSet.of())
+                .build());
+
+        OkHttpClient httpClient = new OkHttpClient();
+        String stockUrl = "http://localhost:8346/api/v1/position/stock?symbol=AAPL";
+        for (int i = 0; i < 2; i++) {
+            try (Response response = httpClient.newCall(new Request.Builder().url(stockUrl).build()).execute()) {
+                assertThat(response.code()).isEqualTo(200);
+            }
+        }
+
+        String metricsUrl = "http://localhost:8346/admin/metrics";
+        try (Response response = httpClient.newCall(new Request.Builder().url(metricsUrl).build()).execute()) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header("Content-Type")).startsWith("text/plain");
+            assertThat(response.body().string())
+                    .contains("# TYPE portfolio_http_request_duration_seconds histogram")
+                    .contains("portfolio_http_request_duration_seconds_count{service=\"PositionService\","
+                            + "endpoint=\"getStockPosition\"}")
+                    .contains("portfolio_http_responses_total{service=\"PositionService\","
+                            + "endpoint=\"addOrder\",status=\"2xx\"}")
+                    .contains("portfolio_response_cache_lookups_total{endpoint=\"getStockPosition\","
+                            + "result=\"hit\"}")
+                    .contains("portfolio_market_api_request_duration_seconds")
+                    .contains("portfolio_positions ");
+        }
+    }
+
+    @Test
+    public void binaryEncodingNegotiationTest() throws IOException {
+        positionService.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("AAPL")
+                .date(SEPT_5)
+                .quantity(2)
+                .buckets(ImmutableSet.of())
+                .build());
+
+        OkHttpClient httpClient = new OkHttpClient();
+        String url = "http://localhost:8346/api/v1/position/stock?symbol=AAPL";
+
+        String jsonEtag;
+        try (Response response = httpClient.newCall(new Request.Builder().url(url).build()).execute()) {
+            assertThat(response.header("Content-Type")).isEqualTo("application/json");
+            jsonEtag = response.header("ETag");
+        }
+
+        try (Response response = httpClient
+                .newCall(new Request.Builder()
+                        .url(url)
+                        .header("Accept", "application/x-jackson-smile, application/json;q=0.9")
+                        .build())
+                .execute()) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header("Content-Type")).isEqualTo("application/x-jackson-smile");
+            assertThat(response.header("Vary")).isEqualTo("Accept");
+            assertThat(response.header("ETag")).isNotEqualTo(jsonEtag);
+            assertThat(ObjectMappers.newSmileClientObjectMapper()
+                            .readValue(response.body().bytes(), StockPosition.class))
+                    .isEqualTo(positionService.getStockPosition("AAPL"));
+        }
+    }
+
+    @Test
+    public void gzipCompressionTest() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            bucketManagementService.createBucket(String.format("GzipBucket-%03d", i));
+        }
+
+        OkHttpClient httpClient = new OkHttpClient();
+        String url = "http://localhost:8346/api/v1/buckets/all";
+
+        // setting Accept-Encoding explicitly stops OkHttp from transparently decompressing the response
+        try (Response response = httpClient
+                .newCall(new Request.Builder().url(url).header("Accept-Encoding", "gzip").build())
+                .execute()) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header("Content-Encoding")).isEqualTo("gzip");
+            try (InputStream body = new GZIPInputStream(response.body().byteStream())) {
+                Map<String, List<String>> buckets =
+                        ObjectMappers.newClientObjectMapper().readValue(body, new TypeReference<>() {});
+                assertThat(buckets).containsKey("GzipBucket-099");
+            }
+        }
+
+        try (Response response = httpClient.newCall(new Request.Builder().url(url).build()).execute()) {
+            assertThat(response.header("Content-Encoding")).isNull(); // OkHttp asked for gzip and decompressed it
+            assertThat(response.body().string()).contains("GzipBucket-099");
+        }
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.admission;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyLimiterTest {
+
+    private static final Duration LATENCY_TARGET = Duration.ofSeconds(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(11);
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private MetricRegistry metrics;
+
+    @BeforeEach
+    public void beforeEach() {
+        metrics = new MetricRegistry();
+    }
+
+    @Test
+    public void admitsUpToTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(LATENCY_TARGET, 4, 8, metrics);
+        for (int i = 0; i < 4; i++) {
+            assertThat(limiter.tryAcquire(Priority.CACHED)).isTrue();
+        }
+        assertThat(limiter.tryAcquire(Priority.CACHED)).isFalse();
+        assertThat(limiter.inFlight()).isEqualTo(4);
+
+        limiter.release(FAST);
+        assertThat(limiter.tryAcquire(Priority.CACHED)).isTrue();
+
+        assertThat(metrics.toPrometheusText())
+                .contains("portfolio_admission_rejected_total{priority=\"cached\"} 1\n")
+                .contains("portfolio_admission_rejected_total{priority=\"upstream\"} 0\n")
+                .contains("portfolio_admission_in_flight 4\n");
+    }
+
+    @Test
+    public void upstreamRequestsLeaveRoomForCachedReads() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(LATENCY_TARGET, 4, 8, metrics);
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire(Priority.UPSTREAM)).isTrue();
+        }
+        assertThat(limiter.tryAcquire(Priority.UPSTREAM)).isFalse();
+        assertThat(limiter.tryAcquire(Priority.CACHED)).isTrue();
+    }
+
+    @Test
+    public void slowResponsesShrinkTheLimitOncePerTarget() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(LATENCY_TARGET, 20, 20, metrics);
+        limiter.tryAcquire(Priority.CACHED);
+        limiter.tryAcquire(Priority.CACHED);
+
+        limiter.release(SLOW);
+        assertThat(limiter.limit()).isEqualTo(18);
+
+        limiter.release(SLOW);
+        assertThat(limiter.limit()).isEqualTo(18);
+    }
+
+    @Test
+    public void fastResponsesGrowAUsedLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(LATENCY_TARGET, 2, 3, metrics);
+        for (int round = 0; round < 10; round++) {
+            assertThat(limiter.tryAcquire(Priority.CACHED)).isTrue();
+            assertThat(limiter.tryAcquire(Priority.CACHED)).isTrue();
+            limiter.release(FAST);
+            limiter.release(FAST);
+        }
+        assertThat(limiter.limit()).isEqualTo(3);
+    }
+
+    @Test
+    public void idleLimitDoesNotGrow() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(LATENCY_TARGET, 10, 20, metrics);
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire(Priority.CACHED);
+            limiter.release(FAST);
+        }
+        assertThat(limiter.limit()).isEqualTo(10);
+    }
+
+    @Test
+    public void rejectsInvalidLimits() {
+        assertThatThrownBy(() -> new ConcurrencyLimiter(LATENCY_TARGET, 0, 8, metrics))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+        assertThatThrownBy(() -> new ConcurrencyLimiter(LATENCY_TARGET, 16, 8, metrics))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+        assertThatThrownBy(() -> new ConcurrencyLimiter(Duration.ZERO, 4, 8, metrics))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.alert;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.portfolioservice.api.AlertDirection;
+import com.achomutovskij.portfolioservice.api.AlertMetric;
+import com.achomutovskij.portfolioservice.api.AlertRule;
+import com.achomutovskij.portfolioservice.api.AlertTarget;
+import com.achomutovskij.portfolioservice.api.TriggeredAlert;
+import com.achomutovskij.portfolioservice.api.TriggeredAlerts;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AlertLogTest {
+
+    private static final AlertRule RULE = AlertRule.builder()
+            .id("rule")
+            .target(AlertTarget.symbol("NVDA"))
+            .metric(AlertMetric.PRICE)
+            .direction(AlertDirection.ABOVE)
+            .threshold(100)
+            .build();
+
+    private ScheduledExecutorService timer;
+    private AlertLog alertLog;
+
+    @BeforeEach
+    public void beforeEach() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        alertLog = new AlertLog(3, timer);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void pollReturnsTheAlertsAfterTheSequence() throws Exception {
+        alertLog.append(RULE, 101);
+        alertLog.append(RULE, 102);
+
+        TriggeredAlerts alerts = alertLog.poll(Optional.of(1L), Duration.ZERO).get();
+
+        assertThat(alerts.getAlerts()).extracting(TriggeredAlert::getValue).containsExactly(102.0);
+        assertThat(alerts.getLastSequence().longValue()).isEqualTo(2);
+    }
+
+    @Test
+    public void pollWaitsForTheNextAlert() throws Exception {
+        alertLog.append(RULE, 101);
+        ListenableFuture<TriggeredAlerts> poll = alertLog.poll(Optional.empty(), Duration.ofMinutes(1));
+        assertThat(poll).isNotDone();
+
+        alertLog.append(RULE, 102);
+
+        TriggeredAlerts alerts = poll.get(1, TimeUnit.SECONDS);
+        assertThat(alerts.getAlerts()).extracting(TriggeredAlert::getValue).containsExactly(102.0);
+        assertThat(alerts.getLastSequence().longValue()).isEqualTo(2);
+    }
+
+    @Test
+    public void pollTimesOutEmpty() throws Exception {
+        alertLog.append(RULE, 101);
+
+        TriggeredAlerts alerts = alertLog.poll(Optional.of(1L), Duration.ofMillis(10)).get(1, TimeUnit.SECONDS);
+
+        assertThat(alerts.getAlerts()).isEmpty();
+        assertThat(alerts.getLastSequence().longValue()).isEqualTo(1);
+    }
+
+    @Test
+    public void onlyTheLatestAlertsAreRetained() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            alertLog.append(RULE, 100 + i);
+        }
+
+        TriggeredAlerts alerts = alertLog.poll(Optional.of(0L), Duration.ZERO).get();
+
+        assertThat(alerts.getAlerts())
+                .extracting(alert -> alert.getSequence().longValue())
+                .containsExactly(3L, 4L, 5L);
+    }
+}
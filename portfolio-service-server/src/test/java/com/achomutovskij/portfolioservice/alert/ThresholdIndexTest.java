@@ -0,0 +1,106 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.alert;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.portfolioservice.api.AlertDirection;
+import com.achomutovskij.portfolioservice.api.AlertMetric;
+import com.achomutovskij.portfolioservice.api.AlertRule;
+import com.achomutovskij.portfolioservice.api.AlertTarget;
+import org.junit.jupiter.api.Test;
+
+class ThresholdIndexTest {
+
+    private static final AlertRule ABOVE_100 = rule("above-100", AlertDirection.ABOVE, 100);
+    private static final AlertRule ABOVE_110 = rule("above-110", AlertDirection.ABOVE, 110);
+    private static final AlertRule BELOW_90 = rule("below-90", AlertDirection.BELOW, 90);
+
+    @Test
+    public void firstValueTriggersTheRulesItIsBeyond() {
+        ThresholdIndex index = index();
+
+        assertThat(index.update(105)).containsExactly(ABOVE_100);
+        assertThat(index.lastValue()).isEqualTo(105);
+    }
+
+    @Test
+    public void onlyCrossedThresholdsTrigger() {
+        ThresholdIndex index = index();
+
+        assertThat(index.update(95)).isEmpty();
+        assertThat(index.update(105)).containsExactly(ABOVE_100);
+        assertThat(index.update(108)).isEmpty();
+        assertThat(index.update(120)).containsExactly(ABOVE_110);
+        // back to exactly the threshold, which is not above it, and then above it again
+        assertThat(index.update(100)).isEmpty();
+        assertThat(index.update(101)).containsExactly(ABOVE_100);
+        assertThat(index.update(80)).containsExactly(BELOW_90);
+        assertThat(index.update(80)).isEmpty();
+    }
+
+    @Test
+    public void jumpsTriggerEveryCrossedThreshold() {
+        ThresholdIndex index = index();
+        index.update(95);
+
+        assertThat(index.update(200)).containsExactly(ABOVE_100, ABOVE_110);
+    }
+
+    @Test
+    public void addReportsRulesAlreadyBeyond() {
+        ThresholdIndex index = new ThresholdIndex();
+        assertThat(index.add(ABOVE_100)).isFalse();
+
+        index.update(105);
+
+        assertThat(index.add(ABOVE_110)).isFalse();
+        assertThat(index.add(BELOW_90)).isFalse();
+        assertThat(index.add(rule("below-110", AlertDirection.BELOW, 110))).isTrue();
+    }
+
+    @Test
+    public void removedRulesDoNotTrigger() {
+        ThresholdIndex index = index();
+        index.update(95);
+
+        index.remove(ABOVE_100);
+        index.remove(ABOVE_110);
+
+        assertThat(index.update(200)).isEmpty();
+        index.remove(BELOW_90);
+        assertThat(index.isEmpty()).isTrue();
+    }
+
+    private static ThresholdIndex index() {
+        ThresholdIndex index = new ThresholdIndex();
+        index.add(ABOVE_100);
+        index.add(ABOVE_110);
+        index.add(BELOW_90);
+        return index;
+    }
+
+    private static AlertRule rule(String id, AlertDirection direction, double threshold) {
+        return AlertRule.builder()
+                .id(id)
+                .target(AlertTarget.symbol("NVDA"))
+                .metric(AlertMetric.PRICE)
+                .direction(direction)
+                .threshold(threshold)
+                .build();
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.bucket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BucketIndexTest {
+
+    private static final int THREADS = 8;
+    private static final int SYMBOLS_PER_THREAD = 500;
+    private static final int BUCKETS = 16;
+
+    private BucketIndex bucketIndex;
+
+    @BeforeEach
+    public void beforeEach() {
+        bucketIndex = new BucketIndex();
+    }
+
+    @Test
+    public void deleteBucketOnlyTouchesItsMembers() {
+        bucketIndex.addSymbol("BucketA", "NVDA");
+        bucketIndex.addSymbol("BucketA", "AMZN");
+        bucketIndex.addSymbol("BucketB", "NVDA");
+
+        assertThat(bucketIndex.deleteBucket("BucketA")).hasValue(ImmutableSet.of("NVDA", "AMZN"));
+        assertThat(bucketIndex.deleteBucket("BucketA")).isEmpty();
+
+        assertThat(bucketIndex.bucketsForSymbol("NVDA")).containsExactly("BucketB");
+        assertThat(bucketIndex.bucketsForSymbol("AMZN")).isEmpty();
+        assertThat(bucketIndex.buckets()).containsOnlyKeys("BucketB");
+    }
+
+    @Test
+    public void snapshotsAreNotAffectedByLaterWrites() {
+        bucketIndex.addSymbol("BucketA", "NVDA");
+        Set<String> snapshot = bucketIndex.symbolsInBucket("BucketA").orElseThrow();
+
+        bucketIndex.addSymbol("BucketA", "AMZN");
+        bucketIndex.removeSymbol("BucketA", "NVDA");
+
+        assertThat(snapshot).containsExactly("NVDA");
+        assertThat(bucketIndex.symbolsInBucket("BucketA")).hasValue(ImmutableSet.of("AMZN"));
+    }
+
+    @Test
+    public void reportsWhetherAnythingChanged() {
+        assertThat(bucketIndex.createBucket("BucketA")).isTrue();
+        assertThat(bucketIndex.createBucket("BucketA")).isFalse();
+        assertThat(bucketIndex.addSymbol("BucketA", "NVDA")).isTrue();
+        assertThat(bucketIndex.addSymbol("BucketA", "NVDA")).isFalse();
+        assertThat(bucketIndex.removeSymbol("BucketA", "NVDA")).isTrue();
+        assertThat(bucketIndex.removeSymbol("BucketA", "NVDA")).isFalse();
+        assertThat(bucketIndex.removeSymbol("BucketZ", "NVDA")).isFalse();
+        assertThat(bucketIndex.removeSymbolFromAllBuckets("NVDA")).isEmpty();
+    }
+
+    @Test
+    public void sortedViewIsMaintainedIncrementally() {
+        bucketIndex.addSymbol("BucketB", "TSLA");
+        bucketIndex.addSymbol("BucketA", "NVDA");
+        bucketIndex.addSymbol("BucketA", "AMD");
+        bucketIndex.addSymbol("BucketA", "TSLA");
+        bucketIndex.addSymbol("BucketA", "AMZN");
+        bucketIndex.createBucket("BucketC");
+
+        assertThat(bucketIndex.sortedBuckets())
+                .containsExactly(
+                        Map.entry("BucketA", ImmutableList.of("AMD", "AMZN", "NVDA", "TSLA")),
+                        Map.entry("BucketB", ImmutableList.of("TSLA")),
+                        Map.entry("BucketC", ImmutableList.of()));
+
+        bucketIndex.removeSymbol("BucketA", "AMZN");
+        bucketIndex.removeSymbolFromAllBuckets("TSLA");
+        bucketIndex.deleteBucket("BucketC");
+
+        assertThat(bucketIndex.sortedSnapshot())
+                .containsExactly(
+                        Map.entry("BucketA", ImmutableList.of("AMD", "NVDA")),
+                        Map.entry("BucketB", ImmutableList.of()));
+        assertThat(bucketIndex.sortedSnapshot()).isSameAs(bucketIndex.sortedSnapshot());
+    }
+
+    @Test
+    public void batchInvalidatesDerivedStateOnceAtTheEnd() {
+        bucketIndex.addSymbol("tech", "NVDA");
+        bucketIndex.addSymbol("semis", "AMD");
+        bucketIndex.setParent("semis", "tech");
+        Map<String, List<String>> before = bucketIndex.sortedSnapshot();
+        assertThat(symbolsOfRollUp("tech")).containsExactlyInAnyOrder("NVDA", "AMD");
+
+        bucketIndex.inBatch(() -> {
+            bucketIndex.addSymbol("semis", "INTC");
+            bucketIndex.removeSymbol("tech", "NVDA");
+            bucketIndex.createBucket("software");
+
+            // nothing derived has been published yet, but the writer reads its own changes
+            assertThat(bucketIndex.sortedSnapshot()).isSameAs(before);
+            assertThat(bucketIndex.sortedBuckets()).containsKeys("software");
+            return null;
+        });
+
+        assertThat(bucketIndex.sortedSnapshot()).isNotSameAs(before).containsKeys("software");
+        assertThat(symbolsOfRollUp("tech")).containsExactlyInAnyOrder("AMD", "INTC");
+    }
+
+    @Test
+    public void publishesOneVersionPerBatch() {
+        bucketIndex.addSymbol("tech", "NVDA");
+        bucketIndex.addSymbol("semis", "AMD");
+        bucketIndex.setParent("semis", "tech");
+        BucketMemberships before = bucketIndex.memberships();
+        List<BucketMemberships> published = new ArrayList<>();
+        bucketIndex.onPublish(published::add);
+
+        bucketIndex.inBatch(() -> {
+            bucketIndex.removeSymbolFromAllBuckets("AMD");
+            bucketIndex.addSymbol("semis", "INTC");
+            bucketIndex.removeParent("semis");
+
+            // the writer reads its own changes, which are not published yet
+            assertThat(bucketIndex.bucketsForSymbol("AMD")).isEmpty();
+            assertThat(published).isEmpty();
+            return null;
+        });
+
+        assertThat(published).hasSize(1);
+        BucketMemberships after = published.get(0);
+        assertThat(bucketIndex.memberships()).isSameAs(after);
+        assertThat(after.bucketsForSymbol("INTC")).containsExactly("semis");
+        assertThat(after.parentOf("semis")).isEmpty();
+        assertThat(bucketIndex.symbolsOf(bucketIndex.rollUp(after, "tech").orElseThrow()))
+                .containsExactly("NVDA");
+
+        // the earlier version still reads as it was
+        assertThat(before.bucketsForSymbol("AMD")).containsExactly("semis");
+        assertThat(before.ancestorsOf("semis")).containsExactly("tech");
+        assertThat(bucketIndex.symbolsOf(bucketIndex.rollUp(before, "tech").orElseThrow()))
+                .containsExactlyInAnyOrder("NVDA", "AMD");
+    }
+
+    @Test
+    public void failedBatchIsRolledBack() {
+        bucketIndex.addSymbol("tech", "NVDA");
+        bucketIndex.addSymbol("semis", "AMD");
+        bucketIndex.setParent("semis", "tech");
+        BucketMemberships before = bucketIndex.memberships();
+        List<BucketMemberships> published = new ArrayList<>();
+        List<String> rolledBack = new ArrayList<>();
+        bucketIndex.onPublish(published::add);
+        bucketIndex.onRollBack(() -> rolledBack.add("batch"));
+
+        assertThatThrownBy(() -> bucketIndex.inBatch(() -> {
+                    bucketIndex.addSymbol("semis", "INTC");
+                    assertThat(symbolsOfRollUp("tech")).containsExactlyInAnyOrder("NVDA", "AMD", "INTC");
+                    bucketIndex.removeParent("semis");
+                    bucketIndex.deleteBucket("tech");
+                    throw new IllegalStateException("failed");
+                }))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(published).isEmpty();
+        assertThat(rolledBack).containsExactly("batch");
+        assertThat(bucketIndex.memberships()).isSameAs(before);
+        assertThat(symbolsOfRollUp("tech")).containsExactlyInAnyOrder("NVDA", "AMD");
+
+        // later writes start from the published version, not from what the failed batch left behind
+        bucketIndex.addSymbol("tech", "MSFT");
+        assertThat(bucketIndex.parentOf("semis")).contains("tech");
+        assertThat(bucketIndex.bucketsForSymbol("INTC")).isEmpty();
+        assertThat(symbolsOfRollUp("tech")).containsExactlyInAnyOrder("NVDA", "AMD", "MSFT");
+        assertConsistent();
+    }
+
+    @Test
+    public void rollUpFollowsChangesAnywhereInTheTree() {
+        bucketIndex.addSymbol("growth", "TSLA");
+        bucketIndex.addSymbol("tech", "NVDA");
+        bucketIndex.addSymbol("semis", "NVDA");
+        assertThat(bucketIndex.setParent("tech", "growth")).isEqualTo(BucketIndex.ParentUpdate.UPDATED);
+        assertThat(bucketIndex.setParent("semis", "tech")).isEqualTo(BucketIndex.ParentUpdate.UPDATED);
+        assertThat(bucketIndex.setParent("semis", "tech")).isEqualTo(BucketIndex.ParentUpdate.UNCHANGED);
+        assertThat(bucketIndex.setParent("growth", "semis")).isEqualTo(BucketIndex.ParentUpdate.CYCLE);
+        assertThat(bucketIndex.setParent("semis", "missing")).isEqualTo(BucketIndex.ParentUpdate.MISSING_BUCKET);
+
+        assertThat(symbolsOfRollUp("growth")).containsExactlyInAnyOrder("TSLA", "NVDA");
+
+        bucketIndex.addSymbol("semis", "AMD");
+        assertThat(symbolsOfRollUp("growth")).containsExactlyInAnyOrder("TSLA", "NVDA", "AMD");
+
+        assertThat(bucketIndex.removeParent("tech")).hasValue("growth");
+        assertThat(symbolsOfRollUp("growth")).containsExactly("TSLA");
+        assertThat(symbolsOfRollUp("tech")).containsExactlyInAnyOrder("NVDA", "AMD");
+        assertThat(bucketIndex.rollUp("missing")).isEmpty();
+    }
+
+    @Test
+    public void concurrentWritersDoNotLoseUpdates() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int thread = 0; thread < THREADS; thread++) {
+                int threadId = thread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < SYMBOLS_PER_THREAD; i++) {
+                        String symbol = "S" + threadId + "-" + i;
+                        bucketIndex.addSymbol("Bucket" + (i % BUCKETS), symbol);
+                        bucketIndex.addSymbol("Bucket" + ((i + 1) % BUCKETS), symbol);
+                        bucketIndex.addSymbol("Scratch", symbol);
+                        if (i % 3 == 0) {
+                            bucketIndex.removeSymbol("Bucket" + ((i + 1) % BUCKETS), symbol);
+                        }
+                        // readers iterate snapshots while everybody else keeps writing
+                        bucketIndex.symbolsInBucket("Scratch").ifPresent(symbols -> symbols.forEach(String::length));
+                    }
+                    return null;
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 200; i++) {
+                    bucketIndex.deleteBucket("Scratch");
+                    bucketIndex.createBucket("Scratch");
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(2));
+                }
+                return null;
+            }));
+
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            for (int i = 0; i < SYMBOLS_PER_THREAD; i++) {
+                String symbol = "S" + thread + "-" + i;
+                assertThat(bucketIndex.symbolsInBucket("Bucket" + (i % BUCKETS)).orElseThrow())
+                        .contains(symbol);
+                assertThat(bucketIndex.symbolsInBucket("Bucket" + ((i + 1) % BUCKETS)).orElseThrow()
+                                .contains(symbol))
+                        .isEqualTo(i % 3 != 0);
+            }
+        }
+        assertConsistent();
+    }
+
+    private ImmutableList<String> symbolsOfRollUp(String bucketName) {
+        return bucketIndex.symbolsOf(bucketIndex.rollUp(bucketName).orElseThrow());
+    }
+
+    private void assertConsistent() {
+        int memberships = 0;
+        for (Map.Entry<String, ImmutableSet<String>> entry : bucketIndex.buckets().entrySet()) {
+            for (String symbol : entry.getValue()) {
+                assertThat(bucketIndex.bucketsForSymbol(symbol)).contains(entry.getKey());
+                memberships++;
+            }
+            assertThat(bucketIndex.sortedBuckets().get(entry.getKey()))
+                    .isSorted()
+                    .containsExactlyInAnyOrderElementsOf(entry.getValue());
+        }
+        assertThat(bucketIndex.sortedBuckets().keySet()).isEqualTo(bucketIndex.buckets().keySet());
+
+        int reverseMemberships = 0;
+        for (int thread = 0; thread < THREADS; thread++) {
+            for (int i = 0; i < SYMBOLS_PER_THREAD; i++) {
+                Set<String> buckets = bucketIndex.bucketsForSymbol("S" + thread + "-" + i);
+                assertThat(bucketIndex.buckets()).containsKeys(buckets.toArray(new String[0]));
+                reverseMemberships += buckets.size();
+            }
+        }
+        assertThat(reverseMemberships).isEqualTo(memberships);
+    }
+}
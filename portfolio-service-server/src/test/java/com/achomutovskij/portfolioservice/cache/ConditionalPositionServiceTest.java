@@ -0,0 +1,34 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class ConditionalPositionServiceTest {
+
+    @Test
+    public void ifNoneMatch() {
+        assertThat(ConditionalPositionService.matches(null, "\"a-1\"")).isFalse();
+        assertThat(ConditionalPositionService.matches("\"a-1\"", "\"a-1\"")).isTrue();
+        assertThat(ConditionalPositionService.matches("W/\"a-1\"", "\"a-1\"")).isTrue();
+        assertThat(ConditionalPositionService.matches("\"a-0\", \"a-1\"", "\"a-1\"")).isTrue();
+        assertThat(ConditionalPositionService.matches("*", "\"a-1\"")).isTrue();
+        assertThat(ConditionalPositionService.matches("\"a-2\"", "\"a-1\"")).isFalse();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.portfolioservice.events.PortfolioChangeNotifier;
+import com.achomutovskij.portfolioservice.resources.BucketManagementResource;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VersionTrackerTest {
+
+    private BucketManagementResource bucketManagementResource;
+    private VersionTracker versionTracker;
+
+    @BeforeEach
+    public void beforeEach() {
+        PortfolioChangeNotifier changeNotifier = new PortfolioChangeNotifier();
+        bucketManagementResource = new BucketManagementResource(changeNotifier);
+        versionTracker = new VersionTracker(bucketManagementResource);
+        changeNotifier.addListener(versionTracker);
+    }
+
+    @Test
+    public void membershipChangesBumpSymbolAndBucket() {
+        long symbolVersion = versionTracker.symbolVersion("NVDA");
+        long bucketVersion = versionTracker.bucketVersion("BucketA");
+
+        bucketManagementResource.insertSymbolIntoBuckets("NVDA", ImmutableSet.of("BucketA"));
+
+        assertThat(versionTracker.symbolVersion("NVDA")).isGreaterThan(symbolVersion);
+        assertThat(versionTracker.bucketVersion("BucketA")).isGreaterThan(bucketVersion);
+    }
+
+    @Test
+    public void priceChangeBumpsEveryBucketOfTheSymbol() {
+        bucketManagementResource.insertSymbolIntoBuckets("NVDA", ImmutableSet.of("BucketA", "BucketB"));
+        bucketManagementResource.createBucket("BucketC");
+
+        long bucketAVersion = versionTracker.bucketVersion("BucketA");
+        long bucketBVersion = versionTracker.bucketVersion("BucketB");
+        long bucketCVersion = versionTracker.bucketVersion("BucketC");
+
+        versionTracker.onPriceChanged("NVDA");
+
+        assertThat(versionTracker.bucketVersion("BucketA")).isGreaterThan(bucketAVersion);
+        assertThat(versionTracker.bucketVersion("BucketB")).isGreaterThan(bucketBVersion);
+        assertThat(versionTracker.bucketVersion("BucketC")).isEqualTo(bucketCVersion);
+    }
+
+    @Test
+    public void listenersHearOfEveryVersionThatMoves() {
+        bucketManagementResource.insertSymbolIntoBuckets("NVDA", ImmutableSet.of("BucketA"));
+        List<String> changed = new ArrayList<>();
+        versionTracker.addListener(new VersionTracker.Listener() {
+            @Override
+            public void symbolVersionChanged(String symbol) {
+                changed.add("symbol " + symbol);
+            }
+
+            @Override
+            public void bucketVersionChanged(String bucketName) {
+                changed.add("bucket " + bucketName);
+            }
+        });
+
+        versionTracker.onPriceChanged("NVDA");
+
+        assertThat(changed).containsExactly("symbol NVDA", "bucket BucketA");
+    }
+
+    @Test
+    public void recreatedBucketNeverReusesAVersion() {
+        bucketManagementResource.createBucket("BucketA");
+        long firstVersion = versionTracker.bucketVersion("BucketA");
+
+        bucketManagementResource.deleteBucket("BucketA");
+        bucketManagementResource.createBucket("BucketA");
+
+        assertThat(versionTracker.bucketVersion("BucketA")).isNotEqualTo(firstVersion);
+    }
+}
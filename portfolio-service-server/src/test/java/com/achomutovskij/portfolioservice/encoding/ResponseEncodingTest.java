@@ -0,0 +1,76 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.encoding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.portfolioservice.api.ProfitLossAmountAndPercent;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class ResponseEncodingTest {
+
+    @Test
+    public void jsonByDefault() {
+        assertThat(ResponseEncoding.negotiate(null)).isEqualTo(ResponseEncoding.JSON);
+        assertThat(ResponseEncoding.negotiate("*/*")).isEqualTo(ResponseEncoding.JSON);
+        assertThat(ResponseEncoding.negotiate("text/html")).isEqualTo(ResponseEncoding.JSON);
+        assertThat(ResponseEncoding.negotiate("application/json")).isEqualTo(ResponseEncoding.JSON);
+    }
+
+    @Test
+    public void binaryEncodingsOnRequest() {
+        assertThat(ResponseEncoding.negotiate("application/x-jackson-smile")).isEqualTo(ResponseEncoding.SMILE);
+        assertThat(ResponseEncoding.negotiate("Application/CBOR")).isEqualTo(ResponseEncoding.CBOR);
+    }
+
+    @Test
+    public void highestQualityWins() {
+        assertThat(ResponseEncoding.negotiate("application/json;q=0.9, application/x-jackson-smile"))
+                .isEqualTo(ResponseEncoding.SMILE);
+        assertThat(ResponseEncoding.negotiate("application/cbor; q=0.5, application/json"))
+                .isEqualTo(ResponseEncoding.JSON);
+        assertThat(ResponseEncoding.negotiate("application/x-jackson-smile;q=0, application/cbor;q=0.1"))
+                .isEqualTo(ResponseEncoding.CBOR);
+    }
+
+    @Test
+    public void firstListedWinsAmongEquals() {
+        assertThat(ResponseEncoding.negotiate("application/cbor, application/x-jackson-smile"))
+                .isEqualTo(ResponseEncoding.CBOR);
+        assertThat(ResponseEncoding.negotiate("application/x-jackson-smile, */*")).isEqualTo(ResponseEncoding.SMILE);
+    }
+
+    @Test
+    public void malformedQualityIsIgnored() {
+        assertThat(ResponseEncoding.negotiate("application/x-jackson-smile;q=high, application/cbor;q=0.2"))
+                .isEqualTo(ResponseEncoding.CBOR);
+    }
+
+    @Test
+    public void binaryEncodingsRoundTrip() throws IOException {
+        ProfitLossAmountAndPercent value = ProfitLossAmountAndPercent.of(12.5, 3.25);
+
+        assertThat(ObjectMappers.newSmileClientObjectMapper()
+                        .readValue(ResponseEncoding.SMILE.serialize(value), ProfitLossAmountAndPercent.class))
+                .isEqualTo(value);
+        assertThat(ObjectMappers.newCborClientObjectMapper()
+                        .readValue(ResponseEncoding.CBOR.serialize(value), ProfitLossAmountAndPercent.class))
+                .isEqualTo(value);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.execution;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class HandlerExecutorsTest {
+
+    @Test
+    public void blockedTasksDoNotCapConcurrency() throws Exception {
+        int tasks = 200; // well above the size of Undertow's default worker pool on a small machine
+        CountDownLatch allStarted = new CountDownLatch(tasks);
+        ExecutorService executor = HandlerExecutors.virtualThreadPerTask();
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                results.add(executor.submit(() -> {
+                    allStarted.countDown();
+                    return allStarted.await(10, TimeUnit.SECONDS); // blocks like a call to the market data API
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS)).isTrue();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void virtualThreadsAreUsedWhenTheJvmHasThem() {
+        Optional<ExecutorService> executor = HandlerExecutors.newVirtualThreadPerTaskExecutor();
+        executor.ifPresent(ExecutorService::shutdown);
+
+        assertThat(executor.isPresent()).isEqualTo(Runtime.version().feature() >= 21);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.exporter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.achomutovskij.portfolioservice.api.ExportFormat;
+import com.achomutovskij.portfolioservice.api.ExportedPosition;
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PositionExporterTest {
+
+    private static final ObjectMapper MAPPER = ObjectMappers.newServerObjectMapper();
+
+    private static final ExportedPosition NVIDIA = ExportedPosition.builder()
+            .symbol("NVDA")
+            .tradeType(TradeType.BUY)
+            .quantity(5)
+            .avgCostPerShare(408.55)
+            .totalPurchaseCost(2042.75)
+            .latestPrice(455.72)
+            .totalMarketValue(2278.6)
+            .profitLossAmount(235.85)
+            .profitLossPercent(11.55)
+            .buckets(ImmutableList.of("Chips, \"AI\"", "Tech"))
+            .build();
+
+    private static final ExportedPosition AMD = ExportedPosition.builder()
+            .from(NVIDIA)
+            .symbol("AMD")
+            .tradeType(TradeType.SELL)
+            .quantity(-10)
+            .buckets(Collections.emptyList())
+            .build();
+
+    @Test
+    public void writesCsv() throws IOException {
+        assertThat(write(ExportFormat.CSV))
+                .isEqualTo(PositionExporter.CSV_HEADER + "\n"
+                        + "NVDA,BUY,5,408.55,2042.75,455.72,2278.6,235.85,11.55,\"Chips, \"\"AI\"\";Tech\"\n"
+                        + "AMD,SELL,-10,408.55,2042.75,455.72,2278.6,235.85,11.55,\n");
+    }
+
+    @Test
+    public void writesNdjson() throws IOException {
+        List<ExportedPosition> positions = new ArrayList<>();
+        for (String line : write(ExportFormat.NDJSON).split("\n")) {
+            positions.add(MAPPER.readValue(line, ExportedPosition.class));
+        }
+
+        assertThat(positions).containsExactly(NVIDIA, AMD);
+    }
+
+    @Test
+    public void rejectsUnknownFormats() {
+        assertThatThrownBy(() -> PositionExporter.of(
+                        ExportFormat.valueOf("XLSX"), ImmutableList.<ExportedPosition>of().iterator()))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+    }
+
+    private static String write(ExportFormat format) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PositionExporter.of(format, ImmutableList.of(NVIDIA, AMD).iterator()).write(output);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.importer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.achomutovskij.portfolioservice.api.ImportError;
+import com.achomutovskij.portfolioservice.api.ImportFormat;
+import com.achomutovskij.portfolioservice.api.ImportResult;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OrderImporterTest {
+
+    private static final int SYMBOLS = 7;
+    private static final int ROWS = 50_000; // several chunks
+
+    private OrderImporter importer;
+
+    @BeforeEach
+    public void beforeEach() {
+        importer = new OrderImporter(4, new MetricRegistry());
+    }
+
+    @Test
+    public void appliesTheOrdersOfEachSymbolInFileOrder() throws IOException {
+        String trades = "type,symbol,quantity,date,buckets\n"
+                + IntStream.range(0, ROWS)
+                        .mapToObj(row -> "BUY,S" + row % SYMBOLS + "," + (row + 1) + ",2023-09-07,")
+                        .collect(Collectors.joining("\n"));
+        Map<String, List<Integer>> quantities = new ConcurrentHashMap<>();
+
+        ImportResult result = importer.importOrders(
+                stream(trades),
+                ImportFormat.CSV,
+                order -> quantities
+                        .computeIfAbsent(order.getSymbol(), _symbol -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(order.getQuantity()));
+
+        assertThat(result.getRows()).isEqualTo(SafeLong.of(ROWS));
+        assertThat(result.getImported()).isEqualTo(SafeLong.of(ROWS));
+        assertThat(result.getFailed()).isEqualTo(SafeLong.of(0));
+        assertThat(result.getErrors()).isEmpty();
+        assertThat(quantities).hasSize(SYMBOLS);
+        assertThat(quantities.values().stream().mapToInt(List::size).sum()).isEqualTo(ROWS);
+        quantities.values().forEach(symbolQuantities -> assertThat(symbolQuantities).isSorted());
+    }
+
+    @Test
+    public void reportsTheRowsThatFailed() throws IOException {
+        String trades = String.join(
+                "\n",
+                "{\"type\":\"BUY\",\"symbol\":\"NVDA\",\"quantity\":5,\"date\":\"2023-09-07T00:00:00Z\"}",
+                "not json",
+                "",
+                "{\"type\":\"SELL\",\"symbol\":\"NVDA\",\"quantity\":9,\"date\":\"2023-09-07T00:00:00Z\"}",
+                "{\"type\":\"BUY\",\"symbol\":\"AAPL\",\"quantity\":1,\"date\":\"2023-09-07T00:00:00Z\"}");
+        List<OrderRequest> orders = Collections.synchronizedList(new ArrayList<>());
+
+        ImportResult result = importer.importOrders(stream(trades), ImportFormat.NDJSON, order -> {
+            if (order.getQuantity() > 5) {
+                throw new SafeIllegalStateException("Insufficient quantity");
+            }
+            orders.add(order);
+        });
+
+        assertThat(result.getRows()).isEqualTo(SafeLong.of(4));
+        assertThat(result.getImported()).isEqualTo(SafeLong.of(2));
+        assertThat(result.getFailed()).isEqualTo(SafeLong.of(2));
+        assertThat(result.getErrors()).extracting(ImportError::getLine).containsExactly(SafeLong.of(2), SafeLong.of(4));
+        assertThat(result.getErrors().get(1).getReason()).contains("Insufficient quantity");
+        assertThat(orders).extracting(OrderRequest::getSymbol).containsExactlyInAnyOrder("NVDA", "AAPL");
+    }
+
+    @Test
+    public void failsTheUnreportedOrdersOfALaneWhoseWriterThrows() throws IOException {
+        String trades = String.join("\n", "BUY,NVDA,5,2023-09-07,", "BUY,NVDA,6,2023-09-07,", "BUY,NVDA,7,2023-09-07,");
+
+        ImportResult result = importer.importOrders(stream(trades), ImportFormat.CSV, (orders, failed) -> {
+            assertThat(orders).extracting(OrderRequest::getQuantity).containsExactly(5, 6, 7);
+            failed.accept(new SafeIllegalStateException("Insufficient quantity"), 1);
+            throw new SafeIllegalStateException("Batch rolled back");
+        });
+
+        assertThat(result.getImported()).isEqualTo(SafeLong.of(0));
+        assertThat(result.getFailed()).isEqualTo(SafeLong.of(3));
+        assertThat(result.getErrors())
+                .extracting(ImportError::getReason)
+                .satisfiesExactly(
+                        reason -> assertThat(reason).contains("Batch rolled back"),
+                        reason -> assertThat(reason).contains("Insufficient quantity"),
+                        reason -> assertThat(reason).contains("Batch rolled back"));
+    }
+
+    @Test
+    public void finishesTheSubmittedChunksBeforeAReadFailureIsRethrown() {
+        String trades = IntStream.range(0, OrderImporter.CHUNK_ROWS * 5 / 2)
+                .mapToObj(row -> "BUY,S" + row % SYMBOLS + ",1,2023-09-07,\n")
+                .collect(Collectors.joining());
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        AtomicInteger applied = new AtomicInteger();
+
+        assertThatThrownBy(() -> importer.importOrders(
+                        new SequenceInputStream(stream(trades), failing), ImportFormat.CSV, _order -> {
+                            LockSupport.parkNanos(10_000); // keep the lanes busy while the file fails
+                            applied.incrementAndGet();
+                        }))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Connection reset");
+
+        // the two full chunks were submitted and applied, the rows of the partial one never were
+        assertThat(applied).hasValue(OrderImporter.CHUNK_ROWS * 2);
+    }
+
+    private static ByteArrayInputStream stream(String trades) {
+        return new ByteArrayInputStream(trades.getBytes(StandardCharsets.UTF_8));
+    }
+}
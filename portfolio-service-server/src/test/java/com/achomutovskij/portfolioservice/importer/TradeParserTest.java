@@ -0,0 +1,77 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.importer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.achomutovskij.portfolioservice.api.ImportFormat;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+
+class TradeParserTest {
+
+    private static final OffsetDateTime SEPT_7 = OffsetDateTime.of(2023, 9, 7, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    @Test
+    public void parsesCsv() {
+        TradeParser parser = TradeParser.of(ImportFormat.CSV);
+
+        assertThat(parser.isHeader("type,symbol,quantity,date,buckets")).isTrue();
+        assertThat(parser.isHeader("BUY,NVDA,5,2023-09-07,")).isFalse();
+        assertThat(parser.parse("buy, NVDA, 5, 2023-09-07, Tech;Chips"))
+                .isEqualTo(OrderRequest.builder()
+                        .type(TradeType.BUY)
+                        .symbol("NVDA")
+                        .quantity(5)
+                        .date(SEPT_7)
+                        .buckets(ImmutableSet.of("Tech", "Chips"))
+                        .build());
+        assertThat(parser.parse("SELL,NVDA,2,2023-09-07T00:00:00Z,").getBuckets())
+                .isEmpty();
+    }
+
+    @Test
+    public void parsesNdjson() {
+        TradeParser parser = TradeParser.of(ImportFormat.NDJSON);
+
+        assertThat(parser.parse("{\"type\":\"SELL\",\"symbol\":\"NVDA\",\"quantity\":2,"
+                        + "\"date\":\"2023-09-07T00:00:00Z\",\"buckets\":[]}"))
+                .isEqualTo(OrderRequest.builder()
+                        .type(TradeType.SELL)
+                        .symbol("NVDA")
+                        .quantity(2)
+                        .date(SEPT_7)
+                        .build());
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        TradeParser csv = TradeParser.of(ImportFormat.CSV);
+
+        assertThatThrownBy(() -> csv.parse("BUY,NVDA,5")).isInstanceOf(SafeIllegalArgumentException.class);
+        assertThatThrownBy(() -> csv.parse("HOLD,NVDA,5,2023-09-07,")).isInstanceOf(SafeIllegalArgumentException.class);
+        assertThatThrownBy(() -> csv.parse("BUY,NVDA,five,2023-09-07,")).isInstanceOf(NumberFormatException.class);
+        assertThatThrownBy(() -> TradeParser.of(ImportFormat.NDJSON).parse("{\"type\":"))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+    }
+}
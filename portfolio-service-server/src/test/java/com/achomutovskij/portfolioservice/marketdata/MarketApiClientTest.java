@@ -18,14 +18,60 @@ package com.achomutovskij.portfolioservice.marketdata;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import io.undertow.Undertow;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 class MarketApiClientTest {
 
+    private static final int HISTORY_DAYS = 250;
+    private static final long RENDER_MILLIS = 100; // what the stub takes to produce a full response
+    private static final OffsetDateTime LAST_DAY = OffsetDateTime.of(2023, 9, 8, 0, 0, 0, 0, ZoneOffset.UTC);
+
     private final MarketApiClient client = new MarketApiClient(new OkHttpClient());
 
+    private final AtomicInteger version = new AtomicInteger();
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private MetricRegistry metrics;
+    private Undertow stub;
+    private MarketApiClient stubClient;
+
+    @BeforeEach
+    public void beforeEach() {
+        stub = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(this::handle)
+                .build();
+        stub.start();
+        int port = ((InetSocketAddress) stub.getListenerInfo().get(0).getAddress()).getPort();
+        metrics = new MetricRegistry();
+        stubClient = new MarketApiClient(new OkHttpClient(), "http://localhost:" + port, metrics);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        stub.stop();
+    }
+
     @Test
     public void validSymbol() {
         Optional<MarketApiResponse> response = client.getApiResponse("NVDA");
@@ -37,4 +83,116 @@ class MarketApiClientTest {
     public void invalidSymbol() {
         assertThat(client.getApiResponse("$BADSYMBOL")).isEmpty();
     }
+
+    @Test
+    public void requestsCompressedResponses() {
+        Optional<MarketApiResponse> response = stubClient.getApiResponse("NVDA");
+
+        assertThat(response).isPresent();
+        assertThat(response.get().data()).hasSize(HISTORY_DAYS);
+        assertThat(receivedBytes()).isPositive().isLessThan(history(0).length / 2);
+    }
+
+    @Test
+    public void revalidatesUnchangedPricesWithoutABody() {
+        ConditionalResponse first = stubClient.getApiResponseIfModified("NVDA");
+        assertThat(first.isNotModified()).isFalse();
+        assertThat(first.response()).isPresent();
+        long bytesOfFullResponse = receivedBytes();
+
+        long start = System.nanoTime();
+        ConditionalResponse refresh = stubClient.getApiResponseIfModified("NVDA");
+        long refreshMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(refresh.isNotModified()).isTrue();
+        assertThat(refresh.response()).isEmpty();
+        assertThat(receivedBytes()).isEqualTo(bytesOfFullResponse);
+        assertThat(refreshMillis).isLessThan(RENDER_MILLIS);
+        assertThat(fullResponses).hasValue(1);
+        assertThat(metrics.toPrometheusText())
+                .contains("portfolio_market_api_request_duration_seconds_count{outcome=\"not_modified\"} 1\n");
+    }
+
+    @Test
+    public void fetchesChangedPricesInFull() {
+        stubClient.getApiResponseIfModified("NVDA");
+        version.incrementAndGet();
+
+        ConditionalResponse refresh = stubClient.getApiResponseIfModified("NVDA");
+
+        assertThat(refresh.isNotModified()).isFalse();
+        assertThat(refresh.response()).isPresent();
+        assertThat(refresh.response().get().data().get(HISTORY_DAYS - 1).close()).isEqualTo(price(1, 0));
+        assertThat(fullResponses).hasValue(2);
+    }
+
+    @Test
+    public void unconditionalRequestsAlwaysGetTheFullResponse() {
+        stubClient.getApiResponse("NVDA");
+
+        assertThat(stubClient.getApiResponse("NVDA")).isPresent();
+        assertThat(fullResponses).hasValue(2);
+    }
+
+    private long receivedBytes() {
+        return metrics.counter("portfolio_market_api_received_bytes_total", "").count();
+    }
+
+    private void handle(HttpServerExchange exchange) throws Exception {
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this::handle);
+            return;
+        }
+
+        String etag = "\"v" + version.get() + "\"";
+        if (etag.equals(exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH))) {
+            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+            exchange.endExchange();
+            return;
+        }
+
+        Thread.sleep(RENDER_MILLIS);
+        fullResponses.incrementAndGet();
+        byte[] body = history(version.get());
+        String acceptEncoding = exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            body = gzip(body);
+            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, "gzip");
+        }
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseHeaders().put(Headers.ETAG, etag);
+        exchange.getResponseSender().send(ByteBuffer.wrap(body));
+    }
+
+    private static byte[] history(int pricesVersion) {
+        StringBuilder json = new StringBuilder(
+                "{\"dataProvider\":\"stub\",\"changePrice\":0.0,\"changePercent\":0.0,\"data\":[");
+        // oldest first, like the real API
+        for (int daysAgo = HISTORY_DAYS - 1; daysAgo >= 0; daysAgo--) {
+            double price = price(pricesVersion, daysAgo);
+            json.append(String.format(
+                    "{\"date\":\"%s\",\"open\":%s,\"high\":%s,\"low\":%s,\"close\":%s,\"volume\":1000}",
+                    DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(LAST_DAY.minusDays(daysAgo)),
+                    price,
+                    price,
+                    price,
+                    price));
+            json.append(daysAgo == 0 ? "" : ",");
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static double price(int pricesVersion, int daysAgo) {
+        return 100 + pricesVersion + daysAgo / 10.0;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
 }
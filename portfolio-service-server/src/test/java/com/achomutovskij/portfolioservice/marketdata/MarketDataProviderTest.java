@@ -53,12 +53,42 @@ class MarketDataProviderTest {
         assertThat(marketDataProvider.getAvailableDates("NVDA")).isNotEmpty();
     }
 
+    @Test
+    public void getPriceHistory() {
+        PriceHistory priceHistory = marketDataProvider.getPriceHistory("NVDA");
+
+        assertThat(priceHistory.size()).isEqualTo(marketDataProvider.getAvailableDates("NVDA").size());
+        assertThat(priceHistory.indexOf(VALID_DATE.toLocalDate().toEpochDay())).isNotNegative();
+        // the same instance is returned for as long as the prices do not change
+        assertThat(marketDataProvider.getPriceHistory("NVDA")).isSameAs(priceHistory);
+    }
+
+    @Test
+    public void hasFreshDataOnceFetched() {
+        assertThat(marketDataProvider.hasFreshData("NVDA")).isFalse();
+        marketDataProvider.getLatestPrice("NVDA");
+        assertThat(marketDataProvider.hasFreshData("NVDA")).isTrue();
+    }
+
+    @Test
+    public void hasCachedDataOnceFetched() {
+        assertThat(marketDataProvider.hasCachedData("NVDA")).isFalse();
+        marketDataProvider.getLatestPrice("NVDA");
+        assertThat(marketDataProvider.hasCachedData("NVDA")).isTrue();
+    }
+
     @Test
     public void priceInvalidSymbol() {
         Assertions.assertThatServiceExceptionThrownBy(() -> marketDataProvider.getPrice("$BADSYMBOL", VALID_DATE))
                 .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Data:SymbolNotFound"));
     }
 
+    @Test
+    public void priceHistoryInvalidSymbol() {
+        Assertions.assertThatServiceExceptionThrownBy(() -> marketDataProvider.getPriceHistory("$BADSYMBOL"))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Data:SymbolNotFound"));
+    }
+
     @Test
     public void latestPriceInvalidSymbol() {
         Assertions.assertThatServiceExceptionThrownBy(() -> marketDataProvider.getLatestPrice("$BADSYMBOL"))
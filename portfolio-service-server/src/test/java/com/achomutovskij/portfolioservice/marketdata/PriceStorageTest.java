@@ -0,0 +1,149 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.marketdata;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PriceStorageTest {
+
+    private static final long HOUR = Duration.ofHours(1).getSeconds();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void onHeapKeepsEveryBar() {
+        SymbolPrices prices = PriceStorage.onHeap().merge(SymbolPrices.EMPTY, dailyBars(30));
+
+        assertThat(prices.size()).isEqualTo(30);
+        assertThat(prices.recentSize()).isEqualTo(30);
+        assertThat(prices.spilled().size()).isZero();
+    }
+
+    @Test
+    public void spillsBarsOlderThanTheInMemoryPeriod() throws IOException {
+        NavigableMap<Long, Double> bars = dailyBars(30);
+        SymbolPrices prices = PriceStorage.tiered(tempDir, Duration.ofDays(7)).merge(SymbolPrices.EMPTY, bars);
+
+        assertThat(prices.size()).isEqualTo(30);
+        assertThat(prices.spilled().size()).isBetween(22, 23);
+        assertThat(prices.spilled().epochSecond(prices.spilled().size() - 1))
+                .isLessThan(prices.epochSecond(prices.spilled().size()));
+        assertThat(segments()).hasSize(1);
+        // lookups run through both tiers
+        bars.forEach((epochSecond, close) -> {
+            assertThat(prices.close(prices.floorIndex(epochSecond))).isEqualTo(close);
+            assertThat(prices.close(prices.floorIndex(epochSecond + HOUR))).isEqualTo(close);
+        });
+        assertThat(prices.floorIndex(bars.firstKey() - 1)).isEqualTo(-1);
+    }
+
+    @Test
+    public void keepsTheSegmentWhenARefreshReturnsTheSameOldBars() {
+        PriceStorage storage = PriceStorage.tiered(tempDir, Duration.ofDays(7));
+        SymbolPrices prices = storage.merge(SymbolPrices.EMPTY, dailyBars(30));
+
+        SymbolPrices refreshed = storage.merge(prices, dailyBars(30));
+
+        assertThat(refreshed.spilled()).isSameAs(prices.spilled());
+        assertThat(refreshed.size()).isEqualTo(30);
+    }
+
+    @Test
+    public void rewritesTheSegmentWhenASpilledBarChanges() throws IOException {
+        PriceStorage storage = PriceStorage.tiered(tempDir, Duration.ofDays(7));
+        SymbolPrices prices = storage.merge(SymbolPrices.EMPTY, dailyBars(30));
+        NavigableMap<Long, Double> corrected = new TreeMap<>();
+        corrected.put(daysAgo(20), 1.5);
+
+        SymbolPrices refreshed = storage.merge(prices, corrected);
+
+        assertThat(refreshed.spilled()).isNotSameAs(prices.spilled());
+        assertThat(refreshed.size()).isEqualTo(30);
+        assertThat(refreshed.close(refreshed.floorIndex(daysAgo(20)))).isEqualTo(1.5);
+        assertThat(refreshed.close(refreshed.floorIndex(daysAgo(21)))).isEqualTo(price(daysAgo(21)));
+        // the replaced segment is deleted, while its mapping stays readable
+        assertThat(segments()).containsExactly(refreshed.spilled().file().get());
+        assertThat(prices.close(prices.floorIndex(daysAgo(20)))).isEqualTo(price(daysAgo(20)));
+    }
+
+    @Test
+    public void dailyClosesSpanBothTiers() {
+        NavigableMap<Long, Double> bars = new TreeMap<>();
+        for (long epochSecond = daysAgo(9); epochSecond < daysAgo(-1); epochSecond += HOUR) {
+            bars.put(epochSecond, price(epochSecond));
+        }
+        SymbolPrices prices = PriceStorage.tiered(tempDir, Duration.ofDays(2)).merge(SymbolPrices.EMPTY, bars);
+
+        PriceHistory history = PriceHistory.ofDailyCloses(prices);
+
+        assertThat(prices.spilled().size()).isPositive();
+        assertThat(history.size()).isEqualTo(10);
+        for (int index = 0; index < history.size(); index++) {
+            long lastHour = (history.epochDay(index) + 1) * Duration.ofDays(1).getSeconds() - HOUR;
+            assertThat(history.close(index)).isEqualTo(price(lastHour));
+        }
+    }
+
+    @Test
+    public void deletesLeftoverSegments() throws IOException {
+        Files.createFile(tempDir.resolve("prices-1.seg"));
+        Files.createFile(tempDir.resolve("other.txt"));
+
+        PriceStorage.tiered(tempDir, Duration.ofDays(7));
+
+        assertThat(segments()).isEmpty();
+        assertThat(tempDir.resolve("other.txt")).exists();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static NavigableMap<Long, Double> dailyBars(int days) {
+        NavigableMap<Long, Double> bars = new TreeMap<>();
+        for (int daysAgo = 0; daysAgo < days; daysAgo++) {
+            bars.put(daysAgo(daysAgo), price(daysAgo(daysAgo)));
+        }
+        return bars;
+    }
+
+    private static long daysAgo(int days) {
+        return LocalDate.now(ZoneOffset.UTC).minusDays(days).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    }
+
+    private static double price(long epochSecond) {
+        return 100 + (epochSecond / HOUR % 1000) / 10.0;
+    }
+}
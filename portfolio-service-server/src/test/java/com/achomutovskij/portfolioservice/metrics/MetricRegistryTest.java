@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MetricRegistryTest {
+
+    private MetricRegistry registry;
+
+    @BeforeEach
+    public void beforeEach() {
+        registry = new MetricRegistry();
+    }
+
+    @Test
+    public void countersAreExportedPerLabelSet() {
+        registry.counter("lookups_total", "Lookups", "result", "hit").increment();
+        registry.counter("lookups_total", "Lookups", "result", "hit").increment();
+        registry.counter("lookups_total", "Lookups", "result", "miss").increment();
+
+        assertThat(registry.toPrometheusText())
+                .isEqualTo("# HELP lookups_total Lookups\n"
+                        + "# TYPE lookups_total counter\n"
+                        + "lookups_total{result=\"hit\"} 2\n"
+                        + "lookups_total{result=\"miss\"} 1\n");
+    }
+
+    @Test
+    public void sameNameAndLabelsReturnSameMetric() {
+        assertThat(registry.counter("a_total", "A", "k", "v")).isSameAs(registry.counter("a_total", "A", "k", "v"));
+        assertThat(registry.histogram("b_seconds", "B")).isSameAs(registry.histogram("b_seconds", "B"));
+    }
+
+    @Test
+    public void gaugesAreReadOnExport() {
+        long[] value = {3};
+        registry.gauge("positions", "Positions", () -> value[0]);
+        value[0] = 5;
+
+        assertThat(registry.toPrometheusText()).contains("positions 5\n");
+    }
+
+    @Test
+    public void histogramBucketsAreCumulative() {
+        Histogram histogram = registry.histogram("latency_seconds", "Latency", "endpoint", "getStock");
+        histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.recordNanos(TimeUnit.SECONDS.toNanos(60));
+
+        assertThat(registry.toPrometheusText())
+                .contains("# TYPE latency_seconds histogram\n")
+                .contains("latency_seconds_bucket{endpoint=\"getStock\",le=\"0.0001\"} 1\n")
+                .contains("latency_seconds_bucket{endpoint=\"getStock\",le=\"0.0025\"} 1\n")
+                .contains("latency_seconds_bucket{endpoint=\"getStock\",le=\"0.005\"} 2\n")
+                .contains("latency_seconds_bucket{endpoint=\"getStock\",le=\"30\"} 2\n")
+                .contains("latency_seconds_bucket{endpoint=\"getStock\",le=\"+Inf\"} 3\n")
+                .contains("latency_seconds_sum{endpoint=\"getStock\"} 60.00305\n")
+                .contains("latency_seconds_count{endpoint=\"getStock\"} 3\n");
+    }
+
+    @Test
+    public void labelValuesAreEscaped() {
+        registry.counter("errors_total", "Errors", "reason", "say \"hi\"").increment();
+
+        assertThat(registry.toPrometheusText()).contains("errors_total{reason=\"say \\\"hi\\\"\"} 1\n");
+    }
+
+    @Test
+    public void reregisteringWithDifferentTypeFails() {
+        registry.counter("requests", "Requests");
+
+        assertThatThrownBy(() -> registry.histogram("requests", "Requests"))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+    }
+
+    @Test
+    public void oddLabelCountFails() {
+        assertThatThrownBy(() -> registry.counter("requests", "Requests", "endpoint"))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.portfolioservice.api.BucketPosition;
+import com.achomutovskij.portfolioservice.api.ProfitLossAmountAndPercent;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.palantir.conjure.java.lib.SafeLong;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class BucketPositionsTest {
+
+    @Test
+    public void mergesPartialPositions() {
+        BucketPosition first = position(
+                10, 0, 100.10, 110.20, ImmutableMap.of("NVDA", ProfitLossAmountAndPercent.of(10.10, 10.09)));
+        BucketPosition second = position(
+                5,
+                -4,
+                200.00,
+                190.00,
+                ImmutableMap.of(
+                        "AMZN", ProfitLossAmountAndPercent.of(-15.00, -15.00),
+                        "TSLA", ProfitLossAmountAndPercent.of(5.00, 5.00)));
+
+        BucketPosition merged = BucketPositions.merge("Tech", ImmutableList.of(first, second));
+
+        assertThat(merged.getName()).isEqualTo("Tech");
+        assertThat(merged.getTotalNumberOfSharesLong()).isEqualTo(SafeLong.of(15));
+        assertThat(merged.getTotalNumberOfSharesShort()).isEqualTo(SafeLong.of(-4));
+        assertThat(merged.getNumberOfPositions()).isEqualTo(3);
+        assertThat(merged.getTotalPurchaseCost()).isEqualTo(300.10);
+        assertThat(merged.getTotalMarketValue()).isEqualTo(300.20);
+        assertThat(merged.getProfitLossAmount()).isEqualTo(0.10);
+        assertThat(merged.getProfitLossPercent()).isEqualTo(0.03);
+        assertThat(merged.getBucketBreakdown()).containsOnlyKeys("AMZN", "NVDA", "TSLA");
+    }
+
+    @Test
+    public void mergingNothingGivesEmptyPosition() {
+        BucketPosition merged = BucketPositions.merge("Empty", ImmutableList.of());
+
+        assertThat(merged.getNumberOfPositions()).isZero();
+        assertThat(merged.getProfitLossPercent()).isZero();
+        assertThat(merged.getBucketBreakdown()).isEmpty();
+    }
+
+    private static BucketPosition position(
+            long sharesLong,
+            long sharesShort,
+            double purchaseCost,
+            double marketValue,
+            Map<String, ProfitLossAmountAndPercent> breakdown) {
+        return BucketPosition.builder()
+                .name("Tech")
+                .totalNumberOfSharesLong(SafeLong.of(sharesLong))
+                .totalNumberOfSharesShort(SafeLong.of(sharesShort))
+                .totalPurchaseCost(purchaseCost)
+                .totalMarketValue(marketValue)
+                .numberOfPositions(breakdown.size())
+                .profitLossAmount(marketValue - purchaseCost)
+                .profitLossPercent(0)
+                .bucketBreakdown(breakdown)
+                .build();
+    }
+}
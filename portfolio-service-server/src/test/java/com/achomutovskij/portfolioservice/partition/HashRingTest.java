@@ -0,0 +1,82 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.partition;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class HashRingTest {
+
+    private static final List<String> THREE_NODES =
+            ImmutableList.of("https://node-a:8345/api/", "https://node-b:8345/api/", "https://node-c:8345/api/");
+    private static final int KEYS = 30_000;
+
+    @Test
+    public void singleNodeOwnsEverything() {
+        HashRing ring = new HashRing(ImmutableList.of("https://node-a:8345/api/"), 16);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(ring.ownerOf("SYM" + i)).isZero();
+        }
+    }
+
+    @Test
+    public void sameNodesGiveSameOwners() {
+        HashRing ring = new HashRing(THREE_NODES, 128);
+        HashRing other = new HashRing(THREE_NODES, 128);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(ring.ownerOf("SYM" + i)).isEqualTo(other.ownerOf("SYM" + i));
+        }
+    }
+
+    @Test
+    public void keysAreSpreadEvenly() {
+        HashRing ring = new HashRing(THREE_NODES, 128);
+        int[] owned = new int[THREE_NODES.size()];
+        for (int i = 0; i < KEYS; i++) {
+            owned[ring.ownerOf("SYM" + i)]++;
+        }
+        for (int count : owned) {
+            assertThat((double) count / KEYS).isCloseTo(1.0 / 3, within(0.07));
+        }
+    }
+
+    @Test
+    public void addingNodeOnlyMovesKeysToIt() {
+        HashRing ring = new HashRing(THREE_NODES, 128);
+        HashRing grown = new HashRing(
+                ImmutableList.<String>builder()
+                        .addAll(THREE_NODES)
+                        .add("https://node-d:8345/api/")
+                        .build(),
+                128);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            int before = ring.ownerOf("SYM" + i);
+            int after = grown.ownerOf("SYM" + i);
+            if (before != after) {
+                assertThat(after).isEqualTo(3);
+                moved++;
+            }
+        }
+        assertThat((double) moved / KEYS).isCloseTo(0.25, within(0.07));
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.pipeline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OrderPipelineTest {
+
+    private static final OffsetDateTime SEPT_7 = OffsetDateTime.of(2023, 9, 7, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    private MetricRegistry metrics;
+    private RecordingWriter writer;
+    private OrderPipeline pipeline;
+
+    @BeforeEach
+    public void beforeEach() {
+        metrics = new MetricRegistry();
+        writer = new RecordingWriter();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    public void appliesAnOrderAtItsPrice() {
+        pipeline = new OrderPipeline(4, 2, order -> 100.0 + order.getQuantity(), writer, metrics);
+
+        pipeline.submit(order("NVDA", 5)).join();
+
+        assertThat(writer.applied).containsExactly("NVDA@105.0");
+        assertThat(writer.notified).containsExactly("NVDA");
+        assertThat(metrics.toPrometheusText())
+                .contains("portfolio_order_pipeline_orders_total 1\n")
+                .contains("portfolio_order_pipeline_batches_total 1\n")
+                .contains("portfolio_order_pipeline_orders_in_flight 0\n");
+    }
+
+    @Test
+    public void batchesTheOrdersPricedTogetherInSequenceOrder() {
+        CountDownLatch pricesAvailable = new CountDownLatch(1);
+        pipeline = new OrderPipeline(
+                8,
+                4,
+                order -> {
+                    Uninterruptibles.awaitUninterruptibly(pricesAvailable);
+                    return order.getQuantity();
+                },
+                writer,
+                metrics);
+
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int quantity = 1; quantity <= 4; quantity++) {
+            results.add(pipeline.submit(order("NVDA", quantity)));
+        }
+        pricesAvailable.countDown();
+        results.forEach(CompletableFuture::join);
+
+        assertThat(writer.applied).containsExactly("NVDA@1.0", "NVDA@2.0", "NVDA@3.0", "NVDA@4.0");
+        assertThat(writer.batches).isBetween(1, 4);
+        assertThat(writer.batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(4);
+    }
+
+    @Test
+    public void failsOnlyTheOrdersThatFail() {
+        pipeline = new OrderPipeline(
+                4,
+                1,
+                order -> {
+                    if (order.getSymbol().equals("FAKE")) {
+                        throw new SafeIllegalArgumentException("Unknown symbol");
+                    }
+                    return 1.0;
+                },
+                writer,
+                metrics);
+
+        CompletableFuture<Void> unknown = pipeline.submit(order("FAKE", 1));
+        CompletableFuture<Void> known = pipeline.submit(order("NVDA", 1));
+
+        assertThatThrownBy(unknown::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(SafeIllegalArgumentException.class);
+        known.join();
+        assertThat(writer.applied).containsExactly("NVDA@1.0");
+        assertThat(writer.notified).containsExactly("NVDA");
+    }
+
+    @Test
+    public void failsTheOrderWhoseWriterThrowsAnError() {
+        RecordingWriter failingWriter = new RecordingWriter() {
+            @Override
+            public void apply(OrderRequest order, double pricePerShare) {
+                if (order.getSymbol().equals("FAKE")) {
+                    throw new AssertionError("Unwritable order");
+                }
+                super.apply(order, pricePerShare);
+            }
+        };
+        pipeline = new OrderPipeline(4, 1, OrderRequest::getQuantity, failingWriter, metrics);
+
+        CompletableFuture<Void> unwritable = pipeline.submit(order("FAKE", 1));
+        CompletableFuture<Void> writable = pipeline.submit(order("NVDA", 1));
+
+        assertThatThrownBy(unwritable::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(AssertionError.class);
+        writable.join();
+        assertThat(failingWriter.applied).containsExactly("NVDA@1.0");
+    }
+
+    @Test
+    public void failsTheOrdersInFlightWhenClosed() {
+        CountDownLatch pricesAvailable = new CountDownLatch(1);
+        pipeline = new OrderPipeline(
+                4,
+                1,
+                order -> {
+                    Uninterruptibles.awaitUninterruptibly(pricesAvailable);
+                    return order.getQuantity();
+                },
+                writer,
+                metrics);
+
+        CompletableFuture<Void> inFlight = pipeline.submit(order("NVDA", 1));
+        pipeline.close();
+        pricesAvailable.countDown();
+
+        assertThatThrownBy(inFlight::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(SafeIllegalStateException.class);
+        assertThat(writer.applied).isEmpty();
+    }
+
+    @Test
+    public void waitsForFreeSlotsWhenTheRingIsFull() throws Exception {
+        pipeline = new OrderPipeline(2, 2, OrderRequest::getQuantity, writer, metrics);
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> submitted = new ArrayList<>();
+            for (int caller = 0; caller < 8; caller++) {
+                submitted.add(callers.submit(() -> {
+                    for (int i = 0; i < 250; i++) {
+                        pipeline.submit(order("NVDA", 1)).join();
+                    }
+                }));
+            }
+            for (Future<?> future : submitted) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertThat(writer.applied).hasSize(2000);
+        assertThat(writer.batchSizes).allSatisfy(size -> assertThat(size).isBetween(1, 2));
+    }
+
+    @Test
+    public void rejectsOrdersOnceClosed() {
+        pipeline = new OrderPipeline(4, 1, OrderRequest::getQuantity, writer, metrics);
+        pipeline.close();
+
+        assertThatThrownBy(() -> pipeline.submit(order("NVDA", 1))).isInstanceOf(SafeIllegalStateException.class);
+    }
+
+    @Test
+    public void rejectsInvalidSizes() {
+        assertThatThrownBy(() -> new OrderPipeline(0, 1, OrderRequest::getQuantity, writer, metrics))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+        assertThatThrownBy(() -> new OrderPipeline(4, 0, OrderRequest::getQuantity, writer, metrics))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+    }
+
+    private static OrderRequest order(String symbol, int quantity) {
+        return OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(symbol)
+                .date(SEPT_7)
+                .quantity(quantity)
+                .buckets(Collections.emptySet())
+                .build();
+    }
+
+    /** Only ever called by the writer thread; read once the callers have been completed. */
+    private static class RecordingWriter implements OrderWriter {
+        private final List<String> applied = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> notified = Collections.synchronizedList(new ArrayList<>());
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        private volatile int batches;
+
+        @Override
+        public void inBatch(Runnable applyOrders) {
+            int before = applied.size();
+            applyOrders.run();
+            batchSizes.add(applied.size() - before);
+            batches++;
+        }
+
+        @Override
+        public void apply(OrderRequest order, double pricePerShare) {
+            applied.add(order.getSymbol() + "@" + pricePerShare);
+        }
+
+        @Override
+        public void applied(OrderRequest order) {
+            notified.add(order.getSymbol());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.position;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PositionOverlayTest {
+
+    private Map<String, SymbolPosition> livePositions;
+    private Map<String, Collection<String>> liveBuckets;
+    private PositionOverlay overlay;
+
+    @BeforeEach
+    public void beforeEach() {
+        livePositions = new HashMap<>();
+        liveBuckets = new HashMap<>();
+        livePositions.put("NVDA", SymbolPosition.of(TradeType.BUY, "NVDA", 5, 408.55));
+        liveBuckets.put("NVDA", ImmutableList.of("semis"));
+        overlay = new PositionOverlay(livePositions::get, this::liveBucketsOf);
+    }
+
+    @Test
+    public void readsFallThroughToLiveState() {
+        assertThat(overlay.position("NVDA")).contains(livePositions.get("NVDA"));
+        assertThat(overlay.bucketsOf("NVDA")).containsExactly("semis");
+        assertThat(overlay.position("AMD")).isEmpty();
+        assertThat(overlay.changedSymbols()).isEmpty();
+
+        // symbols the overlay has not changed follow the live state
+        livePositions.put("AMD", SymbolPosition.of(TradeType.BUY, "AMD", 10, 106.45));
+        assertThat(overlay.position("AMD")).isPresent();
+    }
+
+    @Test
+    public void ordersOnlyChangeTheOverlay() {
+        overlay.addOrder(TradeType.BUY, "NVDA", 5, 455.72, ImmutableSet.of("tech"));
+        overlay.addOrder(TradeType.SELL, "AMD", 10, 106.45, ImmutableSet.of("short"));
+
+        assertThat(overlay.position("NVDA").get().totalShares()).isEqualTo(10);
+        assertThat(overlay.position("NVDA").get().averageCostPerShareAsDouble()).isEqualTo(432.14);
+        assertThat(overlay.bucketsOf("NVDA")).containsExactly("semis", "tech");
+        assertThat(overlay.position("AMD").get().totalShares()).isEqualTo(-10);
+        assertThat(overlay.bucketsOf("AMD")).containsExactly("short");
+        assertThat(overlay.changedSymbols()).containsExactly("AMD", "NVDA");
+
+        assertThat(livePositions.get("NVDA").totalShares()).isEqualTo(5);
+        assertThat(livePositions).doesNotContainKey("AMD");
+        assertThat(liveBuckets.get("NVDA")).containsExactly("semis");
+    }
+
+    @Test
+    public void closingAPositionLeavesItsBuckets() {
+        overlay.addOrder(TradeType.SELL, "NVDA", 5, 455.72, ImmutableSet.of("tech"));
+
+        assertThat(overlay.position("NVDA")).isEmpty();
+        assertThat(overlay.bucketsOf("NVDA")).isEmpty();
+        assertThat(overlay.changedSymbols()).containsExactly("NVDA");
+        assertThat(livePositions).containsKey("NVDA");
+    }
+
+    @Test
+    public void overlaysAreIndependent() {
+        PositionOverlay other = new PositionOverlay(livePositions::get, this::liveBucketsOf);
+        overlay.addOrder(TradeType.SELL, "NVDA", 5, 455.72, ImmutableSet.of());
+        other.addOrder(TradeType.BUY, "NVDA", 5, 455.72, ImmutableSet.of());
+
+        assertThat(overlay.position("NVDA")).isEmpty();
+        assertThat(other.position("NVDA").get().totalShares()).isEqualTo(10);
+    }
+
+    private Collection<String> liveBucketsOf(String symbol) {
+        return liveBuckets.getOrDefault(symbol, ImmutableList.of());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.profiling;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.portfolioservice.bucket.BucketIndex;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BucketIndexEventTest {
+
+    private static final String EVENT_NAME = "com.achomutovskij.portfolioservice.BucketIndexOperation";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void bucketIndexOperationsAreRecorded() throws IOException {
+        BucketIndex index = new BucketIndex();
+        Path file = tempDir.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(EVENT_NAME);
+            recording.start();
+
+            index.createBucket("Tech");
+            index.addSymbol("Tech", "NVDA");
+            index.addSymbol("Tech", "AMZN");
+            index.removeSymbolFromAllBuckets("NVDA");
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals(EVENT_NAME))
+                .collect(Collectors.toList());
+
+        assertThat(events)
+                .extracting(event -> event.getString("operation"))
+                .containsExactly("createBucket", "addSymbol", "addSymbol", "removeSymbolFromAllBuckets");
+        assertThat(events.get(2).getString("bucket")).isEqualTo("Tech");
+        assertThat(events.get(2).getString("symbol")).isEqualTo("AMZN");
+        assertThat(events.get(2).getInt("size")).isEqualTo(2);
+        assertThat(events.get(2).getLong("lockWait")).isNotNegative();
+        assertThat(events.get(3).getString("bucket")).isNull();
+        assertThat(events.get(3).getInt("size")).isEqualTo(1);
+    }
+
+    @Test
+    public void nothingIsRecordedWhenDisabled() {
+        BucketIndexEvent event = BucketIndexEvent.start();
+        event.lockAcquired();
+        assertThat(event.isEnabled()).isFalse();
+        assertThat(event.shouldCommit()).isFalse();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.resources;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.achomutovskij.portfolioservice.api.AlertDirection;
+import com.achomutovskij.portfolioservice.api.AlertMetric;
+import com.achomutovskij.portfolioservice.api.AlertRule;
+import com.achomutovskij.portfolioservice.api.AlertRuleRequest;
+import com.achomutovskij.portfolioservice.api.AlertTarget;
+import com.achomutovskij.portfolioservice.api.OrderRequest;
+import com.achomutovskij.portfolioservice.api.TradeType;
+import com.achomutovskij.portfolioservice.api.TriggeredAlert;
+import com.achomutovskij.portfolioservice.api.TriggeredAlerts;
+import com.achomutovskij.portfolioservice.marketdata.MarketDataProvider;
+import com.achomutovskij.portfolioservice.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.testing.Assertions;
+import com.palantir.conjure.java.lib.SafeLong;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class AlertResourceTest {
+
+    private static final OffsetDateTime SEPT_7 = OffsetDateTime.of(2023, 9, 7, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final long EVALUATION_TIMEOUT_MILLIS = 5_000L;
+
+    @Mock
+    private MarketDataProvider marketDataProviderMock;
+
+    private BucketManagementResource bucketManagementResource;
+    private PositionResource positionResource;
+    private AlertResource alertResource;
+
+    @BeforeEach
+    public void beforeEach() {
+        bucketManagementResource = new BucketManagementResource();
+        positionResource = new PositionResource(marketDataProviderMock, bucketManagementResource);
+        alertResource = new AlertResource(
+                marketDataProviderMock, positionResource, bucketManagementResource, new MetricRegistry());
+        bucketManagementResource.changeNotifier().addListener(alertResource);
+    }
+
+    @Test
+    public void priceRuleTriggersWhenThePriceCrossesTheThreshold() throws Exception {
+        Mockito.when(marketDataProviderMock.getLatestPrice("NVDA")).thenReturn(450.0);
+        AlertRule rule = alertResource.createAlertRule(
+                request(AlertTarget.symbol("NVDA"), AlertMetric.PRICE, AlertDirection.ABOVE, 460));
+        // the new rule is evaluated straight away, but the price is not above the threshold yet
+        Mockito.verify(marketDataProviderMock, Mockito.timeout(EVALUATION_TIMEOUT_MILLIS)).getLatestPrice("NVDA");
+
+        Mockito.when(marketDataProviderMock.getLatestPrice("NVDA")).thenReturn(470.0);
+        bucketManagementResource.changeNotifier().priceChanged("NVDA");
+
+        TriggeredAlerts alerts = poll(0);
+        assertThat(alerts.getAlerts()).extracting(TriggeredAlert::getRule).containsExactly(rule);
+        assertThat(alerts.getAlerts()).extracting(TriggeredAlert::getValue).containsExactly(470.0);
+    }
+
+    @Test
+    public void ruleAlreadyBeyondItsThresholdTriggersStraightAway() throws Exception {
+        Mockito.when(marketDataProviderMock.getLatestPrice("NVDA")).thenReturn(450.0);
+
+        AlertRule rule = alertResource.createAlertRule(
+                request(AlertTarget.symbol("NVDA"), AlertMetric.PRICE, AlertDirection.BELOW, 460));
+
+        assertThat(poll(0).getAlerts()).extracting(TriggeredAlert::getRule).containsExactly(rule);
+    }
+
+    @Test
+    public void bucketRuleTriggersOnTheBucketProfitLoss() throws Exception {
+        Mockito.when(marketDataProviderMock.getPrice("NVDA", SEPT_7)).thenReturn(400.0);
+        Mockito.when(marketDataProviderMock.getLatestPrice("NVDA")).thenReturn(400.0);
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("NVDA")
+                .date(SEPT_7)
+                .quantity(10)
+                .buckets(ImmutableSet.of("semis"))
+                .build());
+        bucketManagementResource.setBucketParent("semis", "tech");
+
+        AlertRule rule = alertResource.createAlertRule(
+                request(AlertTarget.bucket("tech"), AlertMetric.PROFIT_LOSS_PERCENT, AlertDirection.BELOW, -10));
+        // the new rule is evaluated straight away, but the bucket is not down 10% yet
+        Mockito.verify(marketDataProviderMock, Mockito.timeout(EVALUATION_TIMEOUT_MILLIS)).getLatestPrice("NVDA");
+
+        // a price drop in a child bucket moves the parent's profit/loss
+        Mockito.when(marketDataProviderMock.getLatestPrice("NVDA")).thenReturn(350.0);
+        bucketManagementResource.changeNotifier().priceChanged("NVDA");
+
+        TriggeredAlerts alerts = poll(0);
+        assertThat(alerts.getAlerts()).extracting(TriggeredAlert::getRule).containsExactly(rule);
+        assertThat(alerts.getAlerts()).extracting(TriggeredAlert::getValue).containsExactly(-12.5);
+    }
+
+    @Test
+    public void createAndDeleteRules() {
+        AlertRule rule = alertResource.createAlertRule(
+                request(AlertTarget.symbol("NVDA"), AlertMetric.PROFIT_LOSS_PERCENT, AlertDirection.ABOVE, 20));
+        assertThat(alertResource.getAlertRules()).containsExactly(rule);
+
+        alertResource.deleteAlertRule(rule.getId());
+
+        assertThat(alertResource.getAlertRules()).isEmpty();
+        Assertions.assertThatServiceExceptionThrownBy(() -> alertResource.deleteAlertRule(rule.getId()))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Alert:AlertRuleNotFound"));
+    }
+
+    @Test
+    public void invalidRules() {
+        bucketManagementResource.createBucket("tech");
+
+        Assertions.assertThatServiceExceptionThrownBy(() -> alertResource.createAlertRule(
+                        request(AlertTarget.bucket("tech"), AlertMetric.PRICE, AlertDirection.ABOVE, 100)))
+                .hasType(ErrorType.create(ErrorType.Code.INVALID_ARGUMENT, "Alert:InvalidAlertRule"));
+        Assertions.assertThatServiceExceptionThrownBy(() -> alertResource.createAlertRule(
+                        request(AlertTarget.symbol("NVDA"), AlertMetric.PRICE, AlertDirection.ABOVE, Double.NaN)))
+                .hasType(ErrorType.create(ErrorType.Code.INVALID_ARGUMENT, "Alert:InvalidAlertRule"));
+        Assertions.assertThatServiceExceptionThrownBy(() -> alertResource.createAlertRule(request(
+                        AlertTarget.bucket("missing"), AlertMetric.PROFIT_LOSS_PERCENT, AlertDirection.ABOVE, 1)))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Bucket:BucketNotFound"));
+    }
+
+    private TriggeredAlerts poll(long after) throws Exception {
+        return alertResource
+                .getTriggeredAlerts(Optional.of(SafeLong.of(after)), Optional.of((int) EVALUATION_TIMEOUT_MILLIS))
+                .get(2 * EVALUATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static AlertRuleRequest request(
+            AlertTarget target, AlertMetric metric, AlertDirection direction, double threshold) {
+        return AlertRuleRequest.builder()
+                .target(target)
+                .metric(metric)
+                .direction(direction)
+                .threshold(threshold)
+                .build();
+    }
+}
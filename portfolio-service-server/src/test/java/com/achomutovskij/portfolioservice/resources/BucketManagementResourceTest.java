@@ -17,13 +17,24 @@
 package com.achomutovskij.portfolioservice.resources;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import com.achomutovskij.portfolioservice.api.BucketContents;
+import com.achomutovskij.portfolioservice.api.BucketDifference;
+import com.achomutovskij.portfolioservice.api.BucketExpression;
+import com.achomutovskij.portfolioservice.api.BucketsPage;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeListener;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeNotifier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.palantir.conjure.java.api.errors.ErrorType;
 import com.palantir.conjure.java.api.testing.Assertions;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -111,4 +122,177 @@ class BucketManagementResourceTest {
         assertThat(bucketManagementResource.getBucketsForSymbol("TSLA"))
                 .isEqualTo(ImmutableList.of("BucketB", "BucketC"));
     }
+
+    @Test
+    public void bucketExpressions() {
+        bucketManagementResource.insertSymbolIntoBuckets("NVDA", ImmutableSet.of("tech", "long-term"));
+        bucketManagementResource.insertSymbolIntoBuckets("AMZN", ImmutableSet.of("tech", "long-term", "hedges"));
+        bucketManagementResource.insertSymbolIntoBuckets("TSLA", ImmutableSet.of("tech"));
+        bucketManagementResource.insertSymbolIntoBuckets("GS", ImmutableSet.of("hedges"));
+
+        BucketExpression tech = BucketExpression.bucket("tech");
+        BucketExpression longTerm = BucketExpression.bucket("long-term");
+        BucketExpression hedges = BucketExpression.bucket("hedges");
+
+        assertThat(bucketManagementResource.getPositionsInExpression(
+                        BucketExpression.union(ImmutableList.of(longTerm, hedges))))
+                .containsExactlyInAnyOrder("NVDA", "AMZN", "GS");
+        assertThat(bucketManagementResource.getPositionsInExpression(
+                        BucketExpression.intersection(ImmutableList.of(tech, hedges))))
+                .containsExactly("AMZN");
+        assertThat(bucketManagementResource.getPositionsInExpression(
+                        BucketExpression.difference(BucketDifference.of(tech, longTerm))))
+                .containsExactly("TSLA");
+
+        bucketManagementResource.removeSymbolFromBucket("hedges", "AMZN");
+        assertThat(bucketManagementResource.getPositionsInExpression(
+                        BucketExpression.intersection(ImmutableList.of(tech, hedges))))
+                .isEmpty();
+    }
+
+    @Test
+    public void bucketExpressionErrors() {
+        bucketManagementResource.createBucket("tech");
+
+        Assertions.assertThatServiceExceptionThrownBy(() -> bucketManagementResource.getPositionsInExpression(
+                        BucketExpression.union(ImmutableList.of(
+                                BucketExpression.bucket("tech"), BucketExpression.bucket("missing")))))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Bucket:BucketNotFound"));
+
+        Assertions.assertThatServiceExceptionThrownBy(() -> bucketManagementResource.getPositionsInExpression(
+                        BucketExpression.intersection(ImmutableList.of())))
+                .hasType(ErrorType.create(ErrorType.Code.INVALID_ARGUMENT, "Bucket:BucketSetEmpty"));
+    }
+
+    @Test
+    public void nestedBuckets() {
+        bucketManagementResource.insertSymbolIntoBuckets("NVDA", ImmutableSet.of("tech", "semis"));
+        bucketManagementResource.insertSymbolIntoBuckets("AMD", ImmutableSet.of("semis"));
+        bucketManagementResource.insertSymbolIntoBuckets("MSFT", ImmutableSet.of("software"));
+        bucketManagementResource.createBucket("growth");
+
+        bucketManagementResource.setBucketParent("semis", "tech");
+        bucketManagementResource.setBucketParent("software", "tech");
+        bucketManagementResource.setBucketParent("tech", "growth");
+
+        assertThat(bucketManagementResource.getBucketParents())
+                .isEqualTo(ImmutableMap.of("semis", "tech", "software", "tech", "tech", "growth"));
+        assertThat(bucketManagementResource.getBucketAncestors("semis")).containsExactly("tech", "growth");
+        assertThat(bucketManagementResource.getPositionsInBucketTree("growth"))
+                .containsExactlyInAnyOrder("NVDA", "AMD", "MSFT");
+        assertThat(bucketManagementResource.getPositionsInBucketTree("semis")).containsExactlyInAnyOrder("NVDA", "AMD");
+        assertThat(bucketManagementResource.getBucketTreesForSymbol("AMD"))
+                .containsExactlyInAnyOrder("semis", "tech", "growth");
+
+        bucketManagementResource.removeSymbolFromBucket("semis", "AMD");
+        assertThat(bucketManagementResource.getPositionsInBucketTree("growth"))
+                .containsExactlyInAnyOrder("NVDA", "MSFT");
+
+        bucketManagementResource.removeBucketParent("software");
+        assertThat(bucketManagementResource.getPositionsInBucketTree("tech")).containsExactly("NVDA");
+
+        bucketManagementResource.deleteBucket("tech");
+        assertThat(bucketManagementResource.getBucketParents()).isEmpty();
+        assertThat(bucketManagementResource.getPositionsInBucketTree("growth")).isEmpty();
+    }
+
+    @Test
+    public void nestedBucketErrors() {
+        bucketManagementResource.createBucket("tech");
+        bucketManagementResource.createBucket("semis");
+        bucketManagementResource.setBucketParent("semis", "tech");
+
+        Assertions.assertThatServiceExceptionThrownBy(() -> bucketManagementResource.setBucketParent("tech", "semis"))
+                .hasType(ErrorType.create(ErrorType.Code.INVALID_ARGUMENT, "Bucket:BucketHierarchyCycle"));
+        Assertions.assertThatServiceExceptionThrownBy(() -> bucketManagementResource.setBucketParent("tech", "tech"))
+                .hasType(ErrorType.create(ErrorType.Code.INVALID_ARGUMENT, "Bucket:BucketHierarchyCycle"));
+        Assertions.assertThatServiceExceptionThrownBy(
+                        () -> bucketManagementResource.setBucketParent("semis", "missing"))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Bucket:BucketNotFound"));
+        Assertions.assertThatServiceExceptionThrownBy(() -> bucketManagementResource.removeBucketParent("missing"))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Bucket:BucketNotFound"));
+
+        assertThat(bucketManagementResource.getBucketParents()).isEqualTo(ImmutableMap.of("semis", "tech"));
+    }
+
+    @Test
+    public void bucketsPages() {
+        bucketManagementResource.insertSymbolIntoBuckets("NVDA", ImmutableSet.of("BucketC", "BucketA"));
+        bucketManagementResource.insertSymbolIntoBuckets("AMZN", ImmutableSet.of("BucketA"));
+        bucketManagementResource.createBucket("BucketB");
+        bucketManagementResource.createBucket("BucketD");
+
+        BucketsPage first = bucketManagementResource.getBucketsPage(Optional.empty(), Optional.of(2));
+        assertThat(first)
+                .isEqualTo(BucketsPage.builder()
+                        .buckets(BucketContents.of("BucketA", ImmutableList.of("AMZN", "NVDA")))
+                        .buckets(BucketContents.of("BucketB", ImmutableList.of()))
+                        .nextPageToken("BucketB")
+                        .build());
+
+        // a bucket sorting before the cursor is not picked up, one sorting after it is
+        bucketManagementResource.createBucket("BucketAA");
+        bucketManagementResource.createBucket("BucketCC");
+
+        BucketsPage second = bucketManagementResource.getBucketsPage(first.getNextPageToken(), Optional.of(2));
+        assertThat(second)
+                .isEqualTo(BucketsPage.builder()
+                        .buckets(BucketContents.of("BucketC", ImmutableList.of("NVDA")))
+                        .buckets(BucketContents.of("BucketCC", ImmutableList.of()))
+                        .nextPageToken("BucketCC")
+                        .build());
+
+        BucketsPage last = bucketManagementResource.getBucketsPage(second.getNextPageToken(), Optional.of(2));
+        assertThat(last.getBuckets()).extracting(BucketContents::getName).containsExactly("BucketD");
+        assertThat(last.getNextPageToken()).isEmpty();
+
+        assertThat(bucketManagementResource
+                        .getBucketsPage(Optional.empty(), Optional.empty())
+                        .getBuckets())
+                .hasSize(6);
+
+        Assertions.assertThatServiceExceptionThrownBy(
+                        () -> bucketManagementResource.getBucketsPage(Optional.empty(), Optional.of(0)))
+                .hasType(ErrorType.create(ErrorType.Code.INVALID_ARGUMENT, "Bucket:InvalidPageSize"));
+    }
+
+    @Test
+    public void failedBatchChangesNothingAndNotifiesNoOne() {
+        PortfolioChangeNotifier changeNotifier = new PortfolioChangeNotifier();
+        List<String> changed = new ArrayList<>();
+        changeNotifier.addListener(new PortfolioChangeListener() {
+            @Override
+            public void onBucketChanged(String bucketName) {
+                changed.add(bucketName);
+            }
+        });
+        bucketManagementResource = new BucketManagementResource(changeNotifier);
+        bucketManagementResource.insertSymbolIntoBuckets("NVDA", ImmutableSet.of("BucketA"));
+        changed.clear();
+
+        assertThatThrownBy(() -> bucketManagementResource.inBatch(() -> {
+                    bucketManagementResource.createBucket("BucketB");
+                    bucketManagementResource.removeSymbolFromBucket("BucketA", "NVDA");
+                    bucketManagementResource.createBucket("BucketB");
+                }))
+                .isInstanceOf(RuntimeException.class);
+
+        assertThat(changed).isEmpty();
+        assertThat(bucketManagementResource.getAllBuckets())
+                .isEqualTo(ImmutableMap.of("BucketA", ImmutableList.of("NVDA")));
+    }
+
+    @Test
+    public void allBucketsSnapshotIsReusedUntilChanged() {
+        bucketManagementResource.insertSymbolIntoBuckets("NVDA", ImmutableSet.of("BucketA"));
+        bucketManagementResource.insertSymbolIntoBuckets("AMZN", ImmutableSet.of("BucketA"));
+
+        Map<String, List<String>> snapshot = bucketManagementResource.getAllBuckets();
+        assertThat(bucketManagementResource.getAllBuckets()).isSameAs(snapshot);
+
+        bucketManagementResource.insertSymbolIntoBuckets("AMD", ImmutableSet.of("BucketA"));
+        assertThat(bucketManagementResource.getAllBuckets())
+                .isEqualTo(ImmutableMap.of("BucketA", ImmutableList.of("AMD", "AMZN", "NVDA")));
+        assertThat(snapshot).isEqualTo(ImmutableMap.of("BucketA", ImmutableList.of("AMZN", "NVDA")));
+    }
 }
@@ -17,14 +17,27 @@
 package com.achomutovskij.portfolioservice.resources;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import com.achomutovskij.portfolioservice.api.BucketDifference;
+import com.achomutovskij.portfolioservice.api.BucketExpression;
+import com.achomutovskij.portfolioservice.api.BucketOperation;
 import com.achomutovskij.portfolioservice.api.BucketPosition;
 import com.achomutovskij.portfolioservice.api.BucketsUpdateRequest;
+import com.achomutovskij.portfolioservice.api.ExportFormat;
+import com.achomutovskij.portfolioservice.api.ExportedPosition;
+import com.achomutovskij.portfolioservice.api.ImportError;
+import com.achomutovskij.portfolioservice.api.ImportResult;
 import com.achomutovskij.portfolioservice.api.OrderRequest;
 import com.achomutovskij.portfolioservice.api.ProfitLossAmountAndPercent;
+import com.achomutovskij.portfolioservice.api.ProjectedStockPosition;
+import com.achomutovskij.portfolioservice.api.SimulationRequest;
+import com.achomutovskij.portfolioservice.api.SimulationResult;
 import com.achomutovskij.portfolioservice.api.StockPosition;
 import com.achomutovskij.portfolioservice.api.TradeType;
+import com.achomutovskij.portfolioservice.events.PortfolioChangeListener;
 import com.achomutovskij.portfolioservice.marketdata.MarketDataProvider;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -32,9 +45,23 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.palantir.conjure.java.api.errors.ErrorType;
 import com.palantir.conjure.java.api.testing.Assertions;
 import com.palantir.conjure.java.lib.SafeLong;
+import com.palantir.conjure.java.serialization.ObjectMappers;
+import com.palantir.conjure.java.undertow.lib.BinaryResponseBody;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -343,4 +370,507 @@ class PositionResourceTest {
                                 "TSLA", ProfitLossAmountAndPercent.of(29.25, 2.41)))
                         .build());
     }
+
+    @Test
+    public void bucketExpressionPosition() {
+        String nvidia = "NVDA";
+        String amazon = "AMZN";
+        String tesla = "TSLA";
+
+        Mockito.when(marketDataProviderMock.getPrice(nvidia, AUG_11)).thenReturn(408.55);
+        Mockito.when(marketDataProviderMock.getPrice(amazon, AUG_11)).thenReturn(138.41);
+        Mockito.when(marketDataProviderMock.getPrice(tesla, AUG_11)).thenReturn(242.65);
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(nvidia)
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("tech", "long-term"))
+                .build());
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(amazon)
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("tech", "long-term", "hedges"))
+                .build());
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(tesla)
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("tech"))
+                .build());
+
+        Mockito.when(marketDataProviderMock.getLatestPrice(nvidia)).thenReturn(455.72);
+
+        BucketPosition bucketPosition = positionResource.getBucketExpressionPosition(
+                BucketExpression.difference(BucketDifference.of(
+                        BucketExpression.intersection(ImmutableList.of(
+                                BucketExpression.bucket("tech"), BucketExpression.bucket("long-term"))),
+                        BucketExpression.bucket("hedges"))));
+
+        assertThat(bucketPosition)
+                .isEqualTo(BucketPosition.builder()
+                        .name("((tech & long-term) - hedges)")
+                        .totalNumberOfSharesLong(SafeLong.of(5))
+                        .totalNumberOfSharesShort(SafeLong.of(0))
+                        .totalPurchaseCost(2042.75)
+                        .totalMarketValue(2278.6)
+                        .numberOfPositions(1)
+                        .profitLossAmount(235.85)
+                        .profitLossPercent(11.55)
+                        .bucketBreakdown(
+                                ImmutableSortedMap.of("NVDA", ProfitLossAmountAndPercent.of(235.85, 11.55)))
+                        .build());
+    }
+
+    @Test
+    public void nestedBucketPosition() {
+        String nvidia = "NVDA";
+        String amd = "AMD";
+
+        Mockito.when(marketDataProviderMock.getPrice(nvidia, AUG_11)).thenReturn(408.55);
+        Mockito.when(marketDataProviderMock.getPrice(amd, AUG_11)).thenReturn(106.45);
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(nvidia)
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("tech", "semis"))
+                .build());
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(amd)
+                .date(AUG_11)
+                .quantity(10)
+                .buckets(ImmutableSet.of("semis"))
+                .build());
+
+        bucketManagementResource.setBucketParent("semis", "tech");
+
+        Mockito.when(marketDataProviderMock.getLatestPrice(nvidia)).thenReturn(455.72);
+        Mockito.when(marketDataProviderMock.getLatestPrice(amd)).thenReturn(106.45);
+
+        // NVDA sits in both the parent and the child, but is only counted once
+        assertThat(positionResource.getBucketPosition("tech"))
+                .isEqualTo(BucketPosition.builder()
+                        .name("tech")
+                        .totalNumberOfSharesLong(SafeLong.of(15))
+                        .totalNumberOfSharesShort(SafeLong.of(0))
+                        .totalPurchaseCost(3107.25)
+                        .totalMarketValue(3343.1)
+                        .numberOfPositions(2)
+                        .profitLossAmount(235.85)
+                        .profitLossPercent(7.59)
+                        .bucketBreakdown(ImmutableSortedMap.of(
+                                "AMD", ProfitLossAmountAndPercent.of(0.0, 0.0),
+                                "NVDA", ProfitLossAmountAndPercent.of(235.85, 11.55)))
+                        .build());
+    }
+
+    @Test
+    public void exposures() {
+        String nvidia = "NVDA";
+        String amd = "AMD";
+
+        Mockito.when(marketDataProviderMock.getPrice(nvidia, AUG_11)).thenReturn(408.55);
+        Mockito.when(marketDataProviderMock.getPrice(amd, AUG_11)).thenReturn(106.45);
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(nvidia)
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("semis"))
+                .build());
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.SELL)
+                .symbol(amd)
+                .date(AUG_11)
+                .quantity(10)
+                .buckets(ImmutableSet.of("shorts"))
+                .build());
+
+        Mockito.when(marketDataProviderMock.getLatestPrice(nvidia)).thenReturn(455.72);
+        Mockito.when(marketDataProviderMock.getLatestPrice(amd)).thenReturn(106.45);
+
+        assertThat(positionResource.exposures(Optional.of("semis"))).isEqualTo(ImmutableMap.of(nvidia, 2278.6));
+        // short positions count negative
+        assertThat(positionResource.exposures(Optional.empty()))
+                .isEqualTo(ImmutableMap.of(nvidia, 2278.6, amd, -1064.5));
+        Assertions.assertThatServiceExceptionThrownBy(() -> positionResource.exposures(Optional.of("missing")))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Bucket:BucketNotFound"));
+    }
+
+    @Test
+    public void exportPositionsFromASnapshot() throws IOException {
+        String nvidia = "NVDA";
+        String amd = "AMD";
+        String tesla = "TSLA";
+
+        Mockito.when(marketDataProviderMock.getPrice(nvidia, AUG_11)).thenReturn(408.55);
+        Mockito.when(marketDataProviderMock.getPrice(amd, AUG_11)).thenReturn(106.45);
+        Mockito.when(marketDataProviderMock.getPrice(tesla, AUG_11)).thenReturn(242.65);
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(nvidia)
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("semis", "growth"))
+                .build());
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.SELL)
+                .symbol(amd)
+                .date(AUG_11)
+                .quantity(10)
+                .buckets(ImmutableSet.of("shorts"))
+                .build());
+
+        BinaryResponseBody ndjson = positionResource.exportPositions(Optional.of(ExportFormat.NDJSON));
+
+        // placed after the snapshot was taken, so only in the next export
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol(tesla)
+                .date(AUG_11)
+                .quantity(1)
+                .buckets(Collections.emptySet())
+                .build());
+
+        Mockito.when(marketDataProviderMock.getLatestPrice(nvidia)).thenReturn(455.72);
+        Mockito.when(marketDataProviderMock.getLatestPrice(amd)).thenReturn(106.45);
+        Mockito.when(marketDataProviderMock.getLatestPrice(tesla)).thenReturn(248.5);
+
+        List<ExportedPosition> exported = new ArrayList<>();
+        for (String line : write(ndjson)) {
+            exported.add(ObjectMappers.newServerObjectMapper().readValue(line, ExportedPosition.class));
+        }
+        StockPosition nvidiaPosition = positionResource.getStockPosition(nvidia);
+
+        assertThat(exported).extracting(ExportedPosition::getSymbol).containsExactly(amd, nvidia);
+        assertThat(exported.get(0).getQuantity()).isEqualTo(-10);
+        assertThat(exported.get(0).getBuckets()).containsExactly("shorts");
+        assertThat(exported.get(1))
+                .isEqualTo(ExportedPosition.builder()
+                        .symbol(nvidia)
+                        .tradeType(TradeType.BUY)
+                        .quantity(5)
+                        .avgCostPerShare(nvidiaPosition.getAvgCostPerShare())
+                        .totalPurchaseCost(nvidiaPosition.getTotalPurchaseCost())
+                        .latestPrice(455.72)
+                        .totalMarketValue(nvidiaPosition.getTotalMarketValue())
+                        .profitLossAmount(nvidiaPosition.getProfitLossAmount())
+                        .profitLossPercent(nvidiaPosition.getProfitLossPercent())
+                        .buckets(ImmutableList.of("growth", "semis"))
+                        .build());
+
+        List<String> csv = write(positionResource.exportPositions(Optional.empty()));
+        assertThat(csv).hasSize(4);
+        assertThat(csv.get(0)).startsWith("symbol,tradeType,quantity,");
+        assertThat(csv.get(2)).startsWith("NVDA,BUY,5,").endsWith(",growth;semis");
+        assertThat(csv.get(3)).startsWith("TSLA,BUY,1,").endsWith(",");
+    }
+
+    @Test
+    public void readsSeeOneVersionWhilePositionsOpenAndClose() throws Exception {
+        Mockito.when(marketDataProviderMock.getPrice(Mockito.anyString(), Mockito.eq(AUG_11))).thenReturn(100.0);
+        Mockito.when(marketDataProviderMock.getLatestPrice(Mockito.anyString())).thenReturn(110.0);
+        positionResource.addOrder(order(TradeType.BUY, "NVDA", ImmutableSet.of("semis")));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    positionResource.addOrder(order(TradeType.BUY, "AMD", ImmutableSet.of("semis")));
+                    positionResource.addOrder(order(TradeType.SELL, "AMD", ImmutableSet.of()));
+                }
+            });
+            Future<?> reader = executor.submit(() -> {
+                while (!writer.isDone()) {
+                    // AMD is either held and in the bucket, or neither
+                    BucketPosition semis = positionResource.getBucketPosition("semis");
+                    assertThat(semis.getNumberOfPositions()).isBetween(1, 2);
+                    assertThat(semis.getBucketBreakdown()).containsKey("NVDA");
+                    assertThat(positionResource.exposures(Optional.of("semis"))).containsKey("NVDA");
+                }
+                return null;
+            });
+            writer.get(1, TimeUnit.MINUTES);
+            reader.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(positionResource.getBucketPosition("semis").getNumberOfPositions()).isEqualTo(1);
+        assertThat(positionResource.positionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void failedBatchLeavesNoPositionBehind() {
+        Mockito.when(marketDataProviderMock.getPrice("NVDA", SEPT_7)).thenReturn(462.41);
+        Mockito.when(marketDataProviderMock.getPrice("AMD", SEPT_7)).thenReturn(106.31);
+
+        assertThatThrownBy(() -> bucketManagementResource.inBatch(() -> {
+                    positionResource.addOrder(OrderRequest.builder()
+                            .type(TradeType.BUY)
+                            .symbol("NVDA")
+                            .date(SEPT_7)
+                            .quantity(5)
+                            .buckets(ImmutableSet.of("semis"))
+                            .build());
+                    throw new IllegalStateException("failed");
+                }))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(positionResource.positionCount()).isZero();
+        assertThat(bucketManagementResource.bucketExists("semis")).isFalse();
+
+        // the next batch starts from the published positions, not from those of the failed batch
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("AMD")
+                .date(SEPT_7)
+                .quantity(5)
+                .buckets(Collections.emptySet())
+                .build());
+        assertThat(positionResource.positionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void cachedBucketPositionFollowsChanges() {
+        Mockito.when(marketDataProviderMock.getPrice("NVDA", AUG_11)).thenReturn(408.55);
+        Mockito.when(marketDataProviderMock.getLatestPrice("NVDA")).thenReturn(455.72);
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("NVDA")
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("semis"))
+                .build());
+        bucketManagementResource.createBucket("tech");
+
+        assertThat(positionResource.getBucketPosition("tech").getNumberOfPositions()).isEqualTo(0);
+        BucketPosition semis = positionResource.getBucketPosition("semis");
+        assertThat(positionResource.getBucketPosition("semis")).isSameAs(semis);
+
+        bucketManagementResource.setBucketParent("semis", "tech");
+        assertThat(positionResource.getBucketPosition("tech").getNumberOfPositions()).isEqualTo(1);
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("NVDA")
+                .date(AUG_11)
+                .quantity(5)
+                .build());
+        assertThat(positionResource.getBucketPosition("tech").getTotalNumberOfSharesLong())
+                .isEqualTo(SafeLong.of(10));
+        assertThat(positionResource.getBucketPosition("semis")).isNotSameAs(semis);
+    }
+
+    @Test
+    public void importOrdersNotifiesEveryChangedSymbolOnce() {
+        Mockito.when(marketDataProviderMock.getPrice(Mockito.eq("NVDA"), Mockito.any())).thenReturn(408.55);
+        Mockito.when(marketDataProviderMock.getPrice(Mockito.eq("AMZN"), Mockito.any()))
+                .thenThrow(new SafeIllegalArgumentException("No price"));
+        List<String> changedSymbols = Collections.synchronizedList(new ArrayList<>());
+        bucketManagementResource.changeNotifier().addListener(new PortfolioChangeListener() {
+            @Override
+            public void onPositionChanged(String symbol) {
+                changedSymbols.add(symbol);
+            }
+        });
+        String trades = String.join(
+                "\n",
+                "type,symbol,quantity,date,buckets",
+                "BUY,NVDA,5,2023-09-07,Tech",
+                "BUY,AMZN,5,2023-09-07,Tech",
+                "BUY,NVDA,3,2023-09-07,",
+                "SELL,NVDA,2,2023-09-07,");
+
+        ImportResult result = positionResource.importOrders(
+                Optional.empty(), new ByteArrayInputStream(trades.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(result.getImported()).isEqualTo(SafeLong.of(3));
+        assertThat(result.getErrors()).extracting(ImportError::getLine).containsExactly(SafeLong.of(3));
+        assertThat(positionResource.getStockPosition("NVDA").getQuantity()).isEqualTo(6);
+        assertThat(bucketManagementResource.getAllBuckets())
+                .isEqualTo(ImmutableMap.of("Tech", ImmutableList.of("NVDA")));
+        assertThat(changedSymbols).containsExactly("NVDA");
+    }
+
+    @Test
+    public void findBucketPosition() {
+        Mockito.when(marketDataProviderMock.getPrice("NVDA", AUG_11)).thenReturn(408.55);
+        Mockito.when(marketDataProviderMock.getLatestPrice("NVDA")).thenReturn(455.72);
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("NVDA")
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("semis"))
+                .build());
+
+        assertThat(positionResource.findBucketPosition("semis")).contains(positionResource.getBucketPosition("semis"));
+        assertThat(positionResource.findBucketPosition("tech")).isEmpty();
+
+        bucketManagementResource.deleteBucket("semis");
+        assertThat(positionResource.findBucketPosition("semis")).isEmpty();
+    }
+
+    @Test
+    public void bucketOperations() {
+        Mockito.when(marketDataProviderMock.getPrice("NVDA", AUG_11)).thenReturn(408.55);
+        Mockito.when(marketDataProviderMock.getPrice("AMZN", AUG_11)).thenReturn(138.41);
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("NVDA")
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("BucketA"))
+                .build());
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("AMZN")
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("BucketA"))
+                .build());
+
+        positionResource.applyBucketOperations(ImmutableList.of(
+                BucketOperation.createBucket("BucketB"),
+                BucketOperation.addSymbolToBuckets(
+                        BucketsUpdateRequest.of("NVDA", ImmutableSet.of("BucketB", "BucketC"))),
+                BucketOperation.removeSymbolFromBuckets(
+                        BucketsUpdateRequest.of("NVDA", ImmutableSet.of("BucketA"))),
+                BucketOperation.deleteBucket("BucketC"),
+                BucketOperation.createBucket("BucketC")));
+
+        assertThat(bucketManagementResource.getAllBuckets())
+                .isEqualTo(ImmutableMap.of(
+                        "BucketA", ImmutableList.of("AMZN"),
+                        "BucketB", ImmutableList.of("NVDA"),
+                        "BucketC", ImmutableList.of()));
+
+        // the last operation is invalid, so none of them are applied
+        Assertions.assertThatServiceExceptionThrownBy(() -> positionResource.applyBucketOperations(ImmutableList.of(
+                        BucketOperation.deleteBucket("BucketA"),
+                        BucketOperation.addSymbolToBuckets(
+                                BucketsUpdateRequest.of("AMZN", ImmutableSet.of("BucketD"))),
+                        BucketOperation.deleteBucket("BucketA"))))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Bucket:BucketNotFound"));
+
+        Assertions.assertThatServiceExceptionThrownBy(() -> positionResource.applyBucketOperations(ImmutableList.of(
+                        BucketOperation.createBucket("BucketD"),
+                        BucketOperation.addSymbolToBuckets(
+                                BucketsUpdateRequest.of("TSLA", ImmutableSet.of("BucketD"))))))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Holding:NoSuchHolding"));
+
+        Assertions.assertThatServiceExceptionThrownBy(() -> positionResource.applyBucketOperations(ImmutableList.of(
+                        BucketOperation.createBucket("BucketD"), BucketOperation.createBucket("BucketD"))))
+                .hasType(ErrorType.create(ErrorType.Code.INVALID_ARGUMENT, "Bucket:BucketCreationFailed"));
+
+        assertThat(bucketManagementResource.getAllBuckets())
+                .isEqualTo(ImmutableMap.of(
+                        "BucketA", ImmutableList.of("AMZN"),
+                        "BucketB", ImmutableList.of("NVDA"),
+                        "BucketC", ImmutableList.of()));
+        assertThat(positionResource.getStockPosition("NVDA").getBuckets()).containsExactly("BucketB");
+    }
+
+    @Test
+    public void simulateOrders() {
+        Mockito.when(marketDataProviderMock.getPrice("NVDA", AUG_11)).thenReturn(408.55);
+        Mockito.when(marketDataProviderMock.getPrice("AMD", AUG_11)).thenReturn(106.45);
+        Mockito.when(marketDataProviderMock.getPrice("TSLA", AUG_11)).thenReturn(242.65);
+        Mockito.when(marketDataProviderMock.getLatestPrice("NVDA")).thenReturn(455.72);
+        Mockito.when(marketDataProviderMock.getLatestPrice("AMD")).thenReturn(106.45);
+        Mockito.when(marketDataProviderMock.getLatestPrice("TSLA")).thenReturn(248.5);
+
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("NVDA")
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(ImmutableSet.of("semis"))
+                .build());
+        positionResource.addOrder(OrderRequest.builder()
+                .type(TradeType.BUY)
+                .symbol("AMD")
+                .date(AUG_11)
+                .quantity(10)
+                .buckets(ImmutableSet.of("semis"))
+                .build());
+        bucketManagementResource.createBucket("tech");
+        bucketManagementResource.setBucketParent("semis", "tech");
+
+        SimulationResult result = positionResource.simulateOrders(SimulationRequest.builder()
+                .orders(OrderRequest.builder()
+                        .type(TradeType.SELL)
+                        .symbol("NVDA")
+                        .date(AUG_11)
+                        .quantity(5)
+                        .build())
+                .orders(OrderRequest.builder()
+                        .type(TradeType.BUY)
+                        .symbol("TSLA")
+                        .date(AUG_11)
+                        .quantity(2)
+                        .buckets(ImmutableSet.of("ev"))
+                        .build())
+                .buckets(ImmutableSet.of("tech", "ev"))
+                .build());
+
+        assertThat(result.getStockPositions())
+                .extracting(ProjectedStockPosition::getSymbol)
+                .containsExactly("NVDA", "TSLA");
+        assertThat(result.getStockPositions().get(0).getPosition()).isEmpty();
+        StockPosition tesla = result.getStockPositions().get(1).getPosition().orElseThrow();
+        assertThat(tesla.getQuantity()).isEqualTo(2);
+        assertThat(tesla.getTotalPurchaseCost()).isEqualTo(485.3);
+        assertThat(tesla.getBuckets()).containsExactly("ev");
+
+        // the closed NVDA position drops out of its bucket tree, the new TSLA position is in a bucket of its own
+        assertThat(result.getBucketPositions()).extracting(BucketPosition::getName).containsExactly("ev", "tech");
+        assertThat(result.getBucketPositions().get(0).getBucketBreakdown()).containsOnlyKeys("TSLA");
+        assertThat(result.getBucketPositions().get(1).getBucketBreakdown()).containsOnlyKeys("AMD");
+        assertThat(result.getBucketPositions().get(1).getTotalPurchaseCost()).isEqualTo(1064.5);
+
+        // nothing was placed
+        assertThat(positionResource.getBucketPosition("tech").getNumberOfPositions()).isEqualTo(2);
+        assertThat(positionResource.getStockPosition("NVDA").getQuantity()).isEqualTo(5);
+        assertThat(bucketManagementResource.bucketExists("ev")).isFalse();
+
+        Assertions.assertThatServiceExceptionThrownBy(() -> positionResource.simulateOrders(SimulationRequest.builder()
+                        .buckets(ImmutableSet.of("missing"))
+                        .build()))
+                .hasType(ErrorType.create(ErrorType.Code.NOT_FOUND, "Bucket:BucketNotFound"));
+    }
+
+    private static OrderRequest order(TradeType type, String symbol, ImmutableSet<String> buckets) {
+        return OrderRequest.builder()
+                .type(type)
+                .symbol(symbol)
+                .date(AUG_11)
+                .quantity(5)
+                .buckets(buckets)
+                .build();
+    }
+
+    private static List<String> write(BinaryResponseBody body) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        body.write(output);
+        return Splitter.on('\n').omitEmptyStrings().splitToList(output.toString(StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,165 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.resources;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.achomutovskij.portfolioservice.api.BucketRisk;
+import com.achomutovskij.portfolioservice.api.HoldingRisk;
+import com.achomutovskij.portfolioservice.api.ValueAtRisk;
+import com.achomutovskij.portfolioservice.marketdata.MarketDataProvider;
+import com.achomutovskij.portfolioservice.marketdata.PriceHistory;
+import com.google.common.collect.ImmutableMap;
+import com.palantir.conjure.java.api.errors.ErrorType;
+import com.palantir.conjure.java.api.testing.Assertions;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RiskResourceTest {
+
+    private static final OffsetDateTime SEPT_5 = OffsetDateTime.of(2023, 9, 5, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime SEPT_6 = OffsetDateTime.of(2023, 9, 6, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime SEPT_7 = OffsetDateTime.of(2023, 9, 7, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    // NVDA gains 10% and then loses 10%, AMZN does the opposite
+    private static final PriceHistory NVDA =
+            PriceHistory.of(ImmutableMap.of(SEPT_5, 100.0, SEPT_6, 110.0, SEPT_7, 99.0));
+    private static final PriceHistory AMZN =
+            PriceHistory.of(ImmutableMap.of(SEPT_5, 100.0, SEPT_6, 90.0, SEPT_7, 99.0));
+
+    @Mock
+    private MarketDataProvider marketDataProviderMock;
+
+    private Map<Optional<String>, Map<String, Double>> exposures;
+    private RiskResource riskResource;
+
+    @BeforeEach
+    public void beforeEach() {
+        exposures = new HashMap<>();
+        riskResource = new RiskResource(marketDataProviderMock, bucket -> exposures.get(bucket));
+    }
+
+    @Test
+    public void getHoldingRisk() {
+        Mockito.when(marketDataProviderMock.getPriceHistory("NVDA")).thenReturn(NVDA);
+
+        HoldingRisk risk = riskResource.getHoldingRisk("NVDA");
+
+        double dailyVolatility = Math.abs(Math.log(1.1) - Math.log(0.9)) / Math.sqrt(2);
+        assertThat(risk.getSymbol()).isEqualTo("NVDA");
+        assertThat(risk.getObservations()).isEqualTo(2);
+        assertThat(risk.getDailyVolatility()).isCloseTo(dailyVolatility, within(1e-12));
+        assertThat(risk.getAnnualizedVolatility()).isCloseTo(dailyVolatility * Math.sqrt(252), within(1e-12));
+    }
+
+    @Test
+    public void getBucketRisk() {
+        Mockito.when(marketDataProviderMock.getPriceHistory("NVDA")).thenReturn(NVDA);
+        Mockito.when(marketDataProviderMock.getPriceHistory("AMZN")).thenReturn(AMZN);
+        exposures.put(Optional.of("Tech"), ImmutableMap.of("NVDA", 990.0, "AMZN", 495.0));
+
+        BucketRisk risk = riskResource.getBucketRisk("Tech", Optional.empty());
+
+        assertThat(risk.getName()).isEqualTo("Tech");
+        assertThat(risk.getSymbols()).containsExactly("AMZN", "NVDA");
+        assertThat(risk.getVolatilities()).hasSize(2);
+        assertThat(risk.getCovariance().get(0).get(1))
+                .isEqualTo(risk.getCovariance().get(1).get(0))
+                .isNegative();
+        assertThat(risk.getCorrelation().get(0).get(0)).isCloseTo(1, within(1e-12));
+        assertThat(risk.getCorrelation().get(0).get(1)).isCloseTo(-1, within(1e-12));
+
+        ValueAtRisk valueAtRisk = risk.getValueAtRisk();
+        assertThat(valueAtRisk.getConfidence()).isEqualTo(0.95);
+        assertThat(valueAtRisk.getMarketValue()).isEqualTo(1485);
+        assertThat(valueAtRisk.getObservations()).isEqualTo(2);
+        // the worst day is Sept 7: NVDA loses 10% of 990 and AMZN gains 10% of 495
+        assertThat(valueAtRisk.getAmount()).isCloseTo(49.5, within(1e-9));
+    }
+
+    @Test
+    public void getEmptyBucketRisk() {
+        exposures.put(Optional.of("Empty"), ImmutableMap.of());
+
+        BucketRisk risk = riskResource.getBucketRisk("Empty", Optional.of(0.99));
+
+        assertThat(risk.getSymbols()).isEmpty();
+        assertThat(risk.getCovariance()).isEmpty();
+        assertThat(risk.getValueAtRisk()).isEqualTo(ValueAtRisk.builder()
+                .confidence(0.99)
+                .amount(0)
+                .marketValue(0)
+                .observations(0)
+                .build());
+    }
+
+    @Test
+    public void getPortfolioRisk() {
+        Mockito.when(marketDataProviderMock.getPriceHistory("NVDA")).thenReturn(NVDA);
+        exposures.put(Optional.empty(), ImmutableMap.of("NVDA", -990.0));
+
+        ValueAtRisk valueAtRisk = riskResource.getPortfolioRisk(Optional.of(0.9));
+
+        // the short position loses 10% of 990 on Sept 6, the worse of the two days
+        assertThat(valueAtRisk.getMarketValue()).isEqualTo(-990);
+        assertThat(valueAtRisk.getAmount()).isCloseTo(99, within(1e-9));
+    }
+
+    @Test
+    public void returnsAreCachedUntilThePricesChange() {
+        Mockito.when(marketDataProviderMock.getPriceHistory("NVDA")).thenReturn(NVDA);
+        exposures.put(Optional.of("Tech"), ImmutableMap.of("NVDA", 990.0));
+
+        BucketRisk first = riskResource.getBucketRisk("Tech", Optional.empty());
+        assertThat(riskResource.getBucketRisk("Tech", Optional.empty())).isEqualTo(first);
+
+        Mockito.when(marketDataProviderMock.getPriceHistory("NVDA"))
+                .thenReturn(PriceHistory.of(ImmutableMap.of(SEPT_5, 100.0, SEPT_6, 100.0, SEPT_7, 100.0)));
+        assertThat(riskResource.getBucketRisk("Tech", Optional.empty()).getVolatilities())
+                .containsExactly(0.0);
+    }
+
+    @Test
+    public void invalidConfidenceLevel() {
+        Assertions.assertThatServiceExceptionThrownBy(() -> riskResource.getPortfolioRisk(Optional.of(1.0)))
+                .hasType(ErrorType.create(ErrorType.Code.INVALID_ARGUMENT, "Risk:InvalidConfidenceLevel"));
+        Assertions.assertThatServiceExceptionThrownBy(() -> riskResource.getPortfolioRisk(Optional.of(0.2)))
+                .hasType(ErrorType.create(ErrorType.Code.INVALID_ARGUMENT, "Risk:InvalidConfidenceLevel"));
+    }
+
+    @Test
+    public void insufficientPriceHistory() {
+        Mockito.when(marketDataProviderMock.getPriceHistory("NVDA")).thenReturn(NVDA);
+        Mockito.when(marketDataProviderMock.getPriceHistory("AMZN"))
+                .thenReturn(PriceHistory.of(ImmutableMap.of(SEPT_5, 100.0, SEPT_7, 99.0)));
+        exposures.put(Optional.empty(), ImmutableMap.of("NVDA", 990.0, "AMZN", 495.0));
+
+        Assertions.assertThatServiceExceptionThrownBy(() -> riskResource.getPortfolioRisk(Optional.empty()))
+                .hasType(ErrorType.create(ErrorType.Code.FAILED_PRECONDITION, "Risk:InsufficientPriceHistory"));
+    }
+}
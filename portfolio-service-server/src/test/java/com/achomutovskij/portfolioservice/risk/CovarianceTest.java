@@ -0,0 +1,84 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.risk;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CovarianceTest {
+
+    @Test
+    public void smallMatrix() {
+        double[][] covariance = Covariance.of(new double[][] {{1, 2, 3}, {2, 4, 6}, {3, 2, 1}});
+
+        assertThat(covariance[0]).containsExactly(1, 2, -1);
+        assertThat(covariance[1]).containsExactly(2, 4, -2);
+        assertThat(covariance[2]).containsExactly(-1, -2, 1);
+    }
+
+    @Test
+    public void tiledMatchesNaive() {
+        // spans several symbol blocks and time chunks, and is large enough to be computed in parallel
+        Random random = new Random(42);
+        double[][] returns = new double[150][600];
+        for (double[] series : returns) {
+            for (int t = 0; t < series.length; t++) {
+                series[t] = random.nextGaussian() * 0.02;
+            }
+        }
+
+        double[][] covariance = Covariance.of(returns);
+
+        for (int i = 0; i < returns.length; i++) {
+            for (int j = 0; j < returns.length; j++) {
+                assertThat(covariance[i][j]).isCloseTo(naiveCovariance(returns[i], returns[j]), within(1e-12));
+            }
+        }
+    }
+
+    @Test
+    public void correlation() {
+        double[][] correlation =
+                Covariance.correlation(Covariance.of(new double[][] {{1, 2, 3}, {3, 2, 1}, {5, 5, 5}}));
+
+        assertThat(correlation[0]).containsExactly(1, -1, 0);
+        assertThat(correlation[1]).containsExactly(-1, 1, 0);
+        assertThat(correlation[2]).containsExactly(0, 0, 0);
+    }
+
+    @Test
+    public void noSymbols() {
+        assertThat(Covariance.of(new double[0][])).isEmpty();
+    }
+
+    private static double naiveCovariance(double[] first, double[] second) {
+        double firstMean = 0;
+        double secondMean = 0;
+        for (int t = 0; t < first.length; t++) {
+            firstMean += first[t] / first.length;
+            secondMean += second[t] / second.length;
+        }
+        double sum = 0;
+        for (int t = 0; t < first.length; t++) {
+            sum += (first[t] - firstMean) * (second[t] - secondMean);
+        }
+        return sum / (first.length - 1);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.risk;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.jupiter.api.Test;
+
+class HistoricalValueAtRiskTest {
+
+    // twenty days with simple returns of -10%, -9%, ..., +9%
+    private static final double[] RETURNS = returns(20, -0.10);
+
+    @Test
+    public void longPosition() {
+        // the second worst of twenty days is the 5% quantile
+        assertThat(HistoricalValueAtRisk.of(new double[][] {RETURNS}, new double[] {1000}, 0.95))
+                .isCloseTo(90, within(1e-9));
+    }
+
+    @Test
+    public void shortPosition() {
+        assertThat(HistoricalValueAtRisk.of(new double[][] {RETURNS}, new double[] {-1000}, 0.95))
+                .isCloseTo(80, within(1e-9));
+    }
+
+    @Test
+    public void hedgedPositionsHaveNoRisk() {
+        assertThat(HistoricalValueAtRisk.of(new double[][] {RETURNS, RETURNS}, new double[] {1000, -1000}, 0.99))
+                .isCloseTo(0, within(1e-9));
+    }
+
+    @Test
+    public void noLossIsZero() {
+        assertThat(HistoricalValueAtRisk.of(new double[][] {returns(20, 0.01)}, new double[] {1000}, 0.95))
+                .isZero();
+    }
+
+    @Test
+    public void noObservations() {
+        assertThat(HistoricalValueAtRisk.of(new double[0][], new double[0], 0.95)).isZero();
+    }
+
+    private static double[] returns(int days, double first) {
+        double[] returns = new double[days];
+        for (int t = 0; t < days; t++) {
+            returns[t] = Math.log1p(first + t / 100.0);
+        }
+        return returns;
+    }
+}
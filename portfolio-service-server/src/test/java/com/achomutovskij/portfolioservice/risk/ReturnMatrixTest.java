@@ -0,0 +1,84 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.risk;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.achomutovskij.portfolioservice.marketdata.PriceHistory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+
+class ReturnMatrixTest {
+
+    private static final OffsetDateTime SEPT_5 = OffsetDateTime.of(2023, 9, 5, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime SEPT_6 = OffsetDateTime.of(2023, 9, 6, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime SEPT_7 = OffsetDateTime.of(2023, 9, 7, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime SEPT_8 = OffsetDateTime.of(2023, 9, 8, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    private static final PriceHistory NVDA =
+            PriceHistory.of(ImmutableMap.of(SEPT_5, 100.0, SEPT_6, 110.0, SEPT_7, 99.0, SEPT_8, 121.0));
+    private static final PriceHistory AMZN = PriceHistory.of(ImmutableMap.of(SEPT_5, 10.0, SEPT_7, 20.0, SEPT_8, 10.0));
+
+    @Test
+    public void returnsAreAlignedOnCommonDates() {
+        ReturnMatrix returns = ReturnMatrix.of(ImmutableList.of("NVDA", "AMZN"), ImmutableList.of(NVDA, AMZN));
+
+        // September 6th is missing for AMZN, so both symbols use the returns over Sept 5-7 and Sept 7-8
+        assertThat(returns.observations()).isEqualTo(2);
+        double[][] covariance = returns.covariance();
+        double nvdaMean = (Math.log(0.99) + Math.log(121.0 / 99.0)) / 2;
+        assertThat(covariance[0][0])
+                .isCloseTo(
+                        Math.pow(Math.log(0.99) - nvdaMean, 2) + Math.pow(Math.log(121.0 / 99.0) - nvdaMean, 2),
+                        within(1e-12));
+        assertThat(covariance[1][1]).isCloseTo(2 * Math.pow(Math.log(2), 2), within(1e-12));
+        assertThat(covariance[0][1]).isEqualTo(covariance[1][0]).isNegative();
+    }
+
+    @Test
+    public void covarianceIsComputedOnce() {
+        ReturnMatrix returns = ReturnMatrix.of(ImmutableList.of("NVDA"), ImmutableList.of(NVDA));
+
+        assertThat(returns.covariance()).isSameAs(returns.covariance());
+    }
+
+    @Test
+    public void isComputedFromTheSameInstances() {
+        ReturnMatrix returns = ReturnMatrix.of(ImmutableList.of("NVDA", "AMZN"), ImmutableList.of(NVDA, AMZN));
+        PriceHistory equalToNvda =
+                PriceHistory.of(ImmutableMap.of(SEPT_5, 100.0, SEPT_6, 110.0, SEPT_7, 99.0, SEPT_8, 121.0));
+
+        assertThat(returns.isComputedFrom(ImmutableList.of("NVDA", "AMZN"), ImmutableList.of(NVDA, AMZN)))
+                .isTrue();
+        assertThat(returns.isComputedFrom(ImmutableList.of("NVDA", "AMZN"), ImmutableList.of(equalToNvda, AMZN)))
+                .isFalse();
+        assertThat(returns.isComputedFrom(ImmutableList.of("NVDA"), ImmutableList.of(NVDA))).isFalse();
+    }
+
+    @Test
+    public void noSymbols() {
+        ReturnMatrix returns = ReturnMatrix.of(ImmutableList.of(), ImmutableList.of());
+
+        assertThat(returns.observations()).isZero();
+        assertThat(returns.covariance()).isEmpty();
+        assertThat(returns.valueAtRisk(new double[0], 0.95)).isZero();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ConflatingSubscriberTest {
+
+    @Mock
+    private ServerSentEventConnection connectionMock;
+
+    private ConflatingSubscriber subscriber;
+
+    @BeforeEach
+    public void beforeEach() {
+        subscriber = new ConflatingSubscriber(connectionMock);
+    }
+
+    @Test
+    public void sendsImmediatelyWhenIdle() {
+        subscriber.offer("stock", "NVDA", "v1");
+
+        Mockito.verify(connectionMock).send("v1", "stock", "NVDA", subscriber);
+        assertThat(subscriber.pendingCount()).isZero();
+    }
+
+    @Test
+    public void slowConsumerOnlyReceivesLatestState() {
+        subscriber.offer("stock", "NVDA", "v1");
+        subscriber.offer("stock", "NVDA", "v2");
+        subscriber.offer("bucket", "BucketA", "b1");
+        subscriber.offer("stock", "NVDA", "v3");
+
+        // v1 is still being written, v2 was superseded by v3 before it could be sent
+        assertThat(subscriber.pendingCount()).isEqualTo(2);
+
+        subscriber.done(connectionMock, "v1", "stock", "NVDA");
+        subscriber.done(connectionMock, "v3", "stock", "NVDA");
+        subscriber.done(connectionMock, "b1", "bucket", "BucketA");
+
+        Mockito.verify(connectionMock).send("v1", "stock", "NVDA", subscriber);
+        Mockito.verify(connectionMock).send("v3", "stock", "NVDA", subscriber);
+        Mockito.verify(connectionMock).send("b1", "bucket", "BucketA", subscriber);
+        Mockito.verify(connectionMock, Mockito.never()).send("v2", "stock", "NVDA", subscriber);
+        assertThat(subscriber.pendingCount()).isZero();
+    }
+
+    @Test
+    public void dropsPayloadsTheSubscriberAlreadyHas() {
+        // the initial state sent on connect, then the same state again from the next flush
+        subscriber.offer("stock", "NVDA", "v1");
+        subscriber.done(connectionMock, "v1", "stock", "NVDA");
+        subscriber.offer("stock", "NVDA", "v1");
+        subscriber.offer("stock", "NVDA", "v2");
+
+        Mockito.verify(connectionMock).send("v1", "stock", "NVDA", subscriber);
+        Mockito.verify(connectionMock).send("v2", "stock", "NVDA", subscriber);
+        Mockito.verifyNoMoreInteractions(connectionMock);
+    }
+}
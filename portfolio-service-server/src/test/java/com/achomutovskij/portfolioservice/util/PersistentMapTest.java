@@ -0,0 +1,84 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PersistentMapTest {
+
+    @Test
+    public void olderVersionsAreNotAffectedByLaterChanges() {
+        PersistentMap<String, Integer> first = PersistentMap.<String, Integer>empty().plus("NVDA", 1);
+        PersistentMap<String, Integer> second = first.plus("AMD", 2).plus("NVDA", 3);
+        PersistentMap<String, Integer> third = second.minus("AMD");
+
+        assertThat(first).containsExactly(Map.entry("NVDA", 1));
+        assertThat(second).containsOnly(Map.entry("NVDA", 3), Map.entry("AMD", 2));
+        assertThat(third).containsExactly(Map.entry("NVDA", 3));
+        assertThat(third.minus("AMD")).isSameAs(third);
+        assertThat(third.plus("NVDA", 3)).isSameAs(third);
+        assertThat(third.minus("NVDA")).isEmpty();
+    }
+
+    @Test
+    public void keysWithEqualHashesAreKeptApart() {
+        // "Aa" and "BB" have the same hash code
+        PersistentMap<String, Integer> map =
+                PersistentMap.<String, Integer>empty().plus("Aa", 1).plus("BB", 2).plus("C", 3);
+
+        assertThat(map).hasSize(3).containsEntry("Aa", 1).containsEntry("BB", 2).containsEntry("C", 3);
+        assertThat(map.minus("Aa")).containsOnly(Map.entry("BB", 2), Map.entry("C", 3));
+        assertThat(map.minus("Aa").minus("BB")).containsOnly(Map.entry("C", 3));
+    }
+
+    @Test
+    public void behavesLikeAHashMap() {
+        Random random = new Random(7);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentMap<Integer, Integer> map = PersistentMap.empty();
+
+        for (int i = 0; i < 50_000; i++) {
+            int key = random.nextInt(5_000);
+            if (random.nextBoolean()) {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            } else {
+                expected.remove(key);
+                map = map.minus(key);
+            }
+        }
+
+        assertThat(map).hasSameSizeAs(expected).isEqualTo(expected);
+        Map<Integer, Integer> iterated = new HashMap<>();
+        map.forEach(iterated::put);
+        assertThat(iterated).isEqualTo(expected);
+    }
+
+    @Test
+    public void rejectsMutationThroughTheMapInterface() {
+        PersistentMap<String, Integer> map = PersistentMap.<String, Integer>empty().plus("NVDA", 1);
+
+        assertThatThrownBy(() -> map.put("AMD", 2)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> map.plus("AMD", null)).isInstanceOf(NullPointerException.class);
+    }
+}
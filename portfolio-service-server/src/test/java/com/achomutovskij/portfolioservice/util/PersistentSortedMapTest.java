@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2023 Andrej Chomutovskij. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.achomutovskij.portfolioservice.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class PersistentSortedMapTest {
+
+    @Test
+    public void olderVersionsAreNotAffectedByLaterChanges() {
+        PersistentSortedMap<String, Integer> first = PersistentSortedMap.<String, Integer>empty().plus("NVDA", 1);
+        PersistentSortedMap<String, Integer> second = first.plus("AMD", 2).plus("NVDA", 3);
+        PersistentSortedMap<String, Integer> third = second.minus("AMD");
+
+        assertThat(first).containsExactly(Map.entry("NVDA", 1));
+        assertThat(second).containsExactly(Map.entry("AMD", 2), Map.entry("NVDA", 3));
+        assertThat(third).containsExactly(Map.entry("NVDA", 3));
+        assertThat(third.minus("AMD")).isSameAs(third);
+        assertThat(third.plus("NVDA", 3)).isSameAs(third);
+        assertThat(third.minus("NVDA")).isEmpty();
+    }
+
+    @Test
+    public void resumesIterationAfterAnyKey() {
+        PersistentSortedMap<String, Integer> map = PersistentSortedMap.empty();
+        for (String key : ImmutableList.of("NVDA", "AMD", "TSLA", "AMZN", "INTC")) {
+            map = map.plus(key, key.length());
+        }
+
+        assertThat(keys(map.entriesAfter("AMD"))).containsExactly("AMZN", "INTC", "NVDA", "TSLA");
+        assertThat(keys(map.entriesAfter("B"))).containsExactly("INTC", "NVDA", "TSLA");
+        assertThat(keys(map.entriesAfter("A"))).containsExactly("AMD", "AMZN", "INTC", "NVDA", "TSLA");
+        assertThat(keys(map.entriesAfter("TSLA"))).isEmpty();
+    }
+
+    @Test
+    public void behavesLikeATreeMap() {
+        Random random = new Random(7);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        PersistentSortedMap<Integer, Integer> map = PersistentSortedMap.empty();
+
+        for (int i = 0; i < 50_000; i++) {
+            int key = random.nextInt(5_000);
+            if (random.nextBoolean()) {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            } else {
+                expected.remove(key);
+                map = map.minus(key);
+            }
+        }
+
+        assertThat(map).hasSameSizeAs(expected).isEqualTo(expected);
+        assertThat(new ArrayList<>(map.entrySet())).containsExactlyElementsOf(expected.entrySet());
+        Map<Integer, Integer> iterated = new TreeMap<>();
+        map.forEach(iterated::put);
+        assertThat(iterated).isEqualTo(expected);
+        for (int i = 0; i < 100; i++) {
+            int after = random.nextInt(5_000);
+            assertThat(keys(map.entriesAfter(after)))
+                    .containsExactlyElementsOf(expected.tailMap(after, false).keySet());
+        }
+    }
+
+    @Test
+    public void rejectsMutationThroughTheMapInterface() {
+        PersistentSortedMap<String, Integer> map = PersistentSortedMap.<String, Integer>empty().plus("NVDA", 1);
+
+        assertThatThrownBy(() -> map.put("AMD", 2)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> map.plus("AMD", null)).isInstanceOf(NullPointerException.class);
+    }
+
+    private static <K> List<K> keys(Iterator<? extends Map.Entry<K, ?>> entries) {
+        List<K> keys = new ArrayList<>();
+        entries.forEachRemaining(entry -> keys.add(entry.getKey()));
+        return keys;
+    }
+}